@@ -0,0 +1,251 @@
+package com.example.chatapp.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Gemini / Leonardo の代わりに応答するローカルのHTTPサーバー（負荷試験・障害時の動作確認用）
+ * - app.fake-upstream.enabled=true で起動し、gemini.api.base-url / leonardo.api.base-url をこのサーバーに向ける
+ *   （例: http://localhost:18089/v1beta, http://localhost:18089/api/rest/v1、APIキーは任意の値でよい）
+ * - 応答の遅延（固定＋ゆらぎ）と、一定の割合でのエラー応答を設定できる
+ * - テストなどから new して start() すれば単体でも使える（ポート0なら空いているポートを使う）
+ */
+@Component
+@ConditionalOnProperty(name = "app.fake-upstream.enabled", havingValue = "true")
+public class FakeAiUpstreamServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeAiUpstreamServer.class);
+
+    private static final String GEMINI_PATH = "/v1beta/models/";
+    private static final String LEONARDO_PATH = "/api/rest/v1/generations";
+    private static final String IMAGE_PATH = "/fake-images/";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private int port = 18089;
+    private volatile long latencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile long streamChunkDelayMillis = 50;
+    private volatile long generationMillis = 5000;
+
+    private HttpServer server;
+
+    // Key: generationId, Value: 生成開始時刻
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+
+    @Value("${app.fake-upstream.port:18089}")
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    @Value("${app.fake-upstream.latency-millis:0}")
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Value("${app.fake-upstream.latency-jitter-millis:0}")
+    public void setLatencyJitterMillis(long latencyJitterMillis) {
+        this.latencyJitterMillis = latencyJitterMillis;
+    }
+
+    @Value("${app.fake-upstream.error-rate:0}")
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    @Value("${app.fake-upstream.error-status:503}")
+    public void setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+    }
+
+    @Value("${app.fake-upstream.stream-chunk-delay-millis:50}")
+    public void setStreamChunkDelayMillis(long streamChunkDelayMillis) {
+        this.streamChunkDelayMillis = streamChunkDelayMillis;
+    }
+
+    @Value("${app.fake-upstream.generation-millis:5000}")
+    public void setGenerationMillis(long generationMillis) {
+        this.generationMillis = generationMillis;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext(GEMINI_PATH, exchange -> handle(exchange, this::handleGemini));
+        server.createContext(LEONARDO_PATH, exchange -> handle(exchange, this::handleLeonardo));
+        server.createContext(IMAGE_PATH, exchange -> handle(exchange, this::handleImage));
+        server.start();
+        logger.info("疑似AIサーバーを起動: http://localhost:{}", getPort());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String geminiBaseUrl() {
+        return "http://localhost:" + getPort() + "/v1beta";
+    }
+
+    public String leonardoBaseUrl() {
+        return "http://localhost:" + getPort() + "/api/rest/v1";
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException, InterruptedException;
+    }
+
+    /**
+     * 遅延とエラーを注入してから各APIの処理に渡す
+     */
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            long delay = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0);
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                sendJson(exchange, errorStatus, Map.of("error", Map.of(
+                        "code", errorStatus,
+                        "message", "injected error")));
+                return;
+            }
+            handler.handle(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ===== Gemini =====
+
+    private void handleGemini(HttpExchange exchange) throws IOException, InterruptedException {
+        String path = exchange.getRequestURI().getPath();
+        String reply = "（疑似応答）" + abbreviate(lastUserText(exchange), 40);
+        if (path.endsWith(":streamGenerateContent")) {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < reply.length(); i += 8) {
+                String chunk = reply.substring(i, Math.min(reply.length(), i + 8));
+                out.write(("data: " + objectMapper.writeValueAsString(candidate(chunk)) + "\r\n\r\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (streamChunkDelayMillis > 0) {
+                    Thread.sleep(streamChunkDelayMillis);
+                }
+            }
+        } else if (path.endsWith(":generateContent")) {
+            sendJson(exchange, 200, candidate(reply));
+        } else {
+            sendJson(exchange, 404, Map.of("error", Map.of("code", 404, "message", "not found")));
+        }
+    }
+
+    private Map<String, Object> candidate(String text) {
+        return Map.of("candidates", List.of(Map.of(
+                "content", Map.of("role", "model", "parts", List.of(Map.of("text", text))))));
+    }
+
+    private String lastUserText(HttpExchange exchange) throws IOException {
+        JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+        JsonNode contents = request.path("contents");
+        if (contents.isEmpty()) {
+            return "";
+        }
+        return contents.get(contents.size() - 1).path("parts").path(0).path("text").asText("");
+    }
+
+    private String abbreviate(String text, int max) {
+        return text.length() <= max ? text : text.substring(0, max) + "…";
+    }
+
+    // ===== Leonardo =====
+
+    private void handleLeonardo(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod()) && path.equals(LEONARDO_PATH)) {
+            String generationId = UUID.randomUUID().toString();
+            generations.put(generationId, System.currentTimeMillis());
+            sendJson(exchange, 200, Map.of("sdGenerationJob", Map.of("generationId", generationId)));
+            return;
+        }
+
+        String generationId = path.substring(path.lastIndexOf('/') + 1);
+        Long startedAt = generations.get(generationId);
+        if (startedAt == null) {
+            sendJson(exchange, 404, Map.of("error", "generation not found"));
+            return;
+        }
+        boolean complete = System.currentTimeMillis() - startedAt >= generationMillis;
+        List<Map<String, Object>> images = new ArrayList<>();
+        if (complete) {
+            for (int i = 0; i < 4; i++) {
+                images.add(Map.of("url", "http://localhost:" + getPort() + IMAGE_PATH + generationId + "-" + i + ".png"));
+            }
+        }
+        sendJson(exchange, 200, Map.of("generations_by_pk", Map.of(
+                "status", complete ? "COMPLETE" : "PENDING",
+                "generated_images", images)));
+    }
+
+    /**
+     * 名前から決まる色で塗りつぶした画像を返す
+     */
+    private void handleImage(HttpExchange exchange) throws IOException {
+        String name = exchange.getRequestURI().getPath().substring(IMAGE_PATH.length());
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(name.hashCode() & 0xFFFFFF));
+        graphics.fillRect(0, 0, 64, 64);
+        graphics.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, png.size());
+        exchange.getResponseBody().write(png.toByteArray());
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
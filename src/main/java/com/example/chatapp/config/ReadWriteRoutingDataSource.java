@@ -0,0 +1,41 @@
+package com.example.chatapp.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 読み取り専用トランザクション（@Transactional(readOnly = true)）の接続を読み取り用の接続プールへ、
+ * それ以外を書き込み用の接続プールへ振り分ける
+ * トランザクション開始後に判定する必要があるため、LazyConnectionDataSourceProxy で包んで使う
+ * 読み取り用が使えない間（レプリカの遅延が大きい・接続できないなど）は読み取りも書き込み用へ送る
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Route {
+        WRITE,
+        READ
+    }
+
+    private final BooleanSupplier readAvailable;
+
+    public ReadWriteRoutingDataSource(DataSource writeDataSource, DataSource readDataSource) {
+        this(writeDataSource, readDataSource, () -> true);
+    }
+
+    public ReadWriteRoutingDataSource(DataSource writeDataSource, DataSource readDataSource, BooleanSupplier readAvailable) {
+        this.readAvailable = readAvailable;
+        setTargetDataSources(Map.of(Route.WRITE, writeDataSource, Route.READ, readDataSource));
+        setDefaultTargetDataSource(writeDataSource);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() && readAvailable.getAsBoolean()
+                ? Route.READ : Route.WRITE;
+    }
+}
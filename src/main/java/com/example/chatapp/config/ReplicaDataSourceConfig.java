@@ -0,0 +1,105 @@
+package com.example.chatapp.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * 読み取りレプリカを使う場合のデータソース設定（app.datasource.replica.url を設定したときだけ有効）
+ * - 読み取り専用トランザクション（@Transactional(readOnly = true)）はレプリカの接続プールへ、
+ *   それ以外はプライマリ（spring.datasource.*）へ振り分ける
+ * - レプリカの遅延が app.datasource.replica.max-lag-millis を超えている間は読み取りもプライマリへ送る
+ * 動作確認では別の PostgreSQL や SQLite ファイルをレプリカ代わりに指定できる（その場合データは複製されない）
+ */
+@Configuration
+@ConditionalOnExpression("!'${app.datasource.replica.url:}'.isEmpty()")
+public class ReplicaDataSourceConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaDataSourceConfig.class);
+
+    @Value("${app.datasource.replica.url}")
+    private String replicaUrl;
+
+    @Value("${app.datasource.replica.username:${spring.datasource.username:}}")
+    private String replicaUsername;
+
+    @Value("${app.datasource.replica.password:${spring.datasource.password:}}")
+    private String replicaPassword;
+
+    @Value("${app.datasource.replica.pool-size:5}")
+    private int replicaPoolSize;
+
+    @Value("${app.datasource.replica.max-lag-millis:1000}")
+    private long maxLagMillis;
+
+    @Value("${app.datasource.replica.check-interval-seconds:5}")
+    private long checkIntervalSeconds;
+
+    // 空なら URL から判断（PostgreSQL は WAL の適用状況、それ以外は接続確認のみ）
+    @Value("${app.datasource.replica.lag-query:}")
+    private String lagQuery;
+
+    @Bean(destroyMethod = "close")
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryPool(DataSourceProperties properties) {
+        HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        pool.setPoolName("primary");
+        return pool;
+    }
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource replicaPool() {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName("replica");
+        pool.setJdbcUrl(replicaUrl);
+        pool.setUsername(replicaUsername);
+        pool.setPassword(replicaPassword);
+        pool.setMaximumPoolSize(replicaPoolSize);
+        pool.setReadOnly(true);
+        // レプリカが起動していなくてもアプリは起動させ、ReplicaLagMonitor がプライマリへ逃がす
+        pool.setInitializationFailTimeout(-1);
+        return pool;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public ReplicaLagMonitor replicaLagMonitor(@Qualifier("replicaPool") DataSource replicaPool) {
+        String query = lagQuery.isBlank() && replicaUrl.startsWith("jdbc:postgresql:")
+                ? ReplicaLagMonitor.POSTGRES_LAG_QUERY : lagQuery;
+        return new ReplicaLagMonitor(replicaPool, query, Duration.ofMillis(maxLagMillis),
+                Duration.ofSeconds(checkIntervalSeconds));
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryPool") DataSource primaryPool,
+                                 @Qualifier("replicaPool") DataSource replicaPool,
+                                 ReplicaLagMonitor replicaLagMonitor) {
+        logger.info("読み取りレプリカを使用: 読み取り専用トランザクションを {} へ振り分け（遅延の上限 {}ms）",
+                replicaUrl, maxLagMillis);
+        // 接続の取得を最初のSQL実行まで遅らせ、その時点のトランザクションの readOnly で振り分ける
+        return new LazyConnectionDataSourceProxy(
+                new ReadWriteRoutingDataSource(primaryPool, replicaPool, replicaLagMonitor::isAvailable));
+    }
+
+    /**
+     * トランザクションごとに接続を返却する（SqliteDataSourceConfig と同じ理由）
+     */
+    @Bean
+    public HibernatePropertiesCustomizer replicaConnectionHandlingCustomizer() {
+        return hibernateProperties -> hibernateProperties.put("hibernate.connection.handling_mode",
+                "DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION");
+    }
+}
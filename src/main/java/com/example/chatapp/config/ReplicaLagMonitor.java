@@ -0,0 +1,104 @@
+package com.example.chatapp.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 読み取りレプリカの遅延を定期的に測り、読み取りを振り分けてよいかを判定する
+ * - 遅延が上限を超えた・確認に失敗した場合は、回復するまで読み取りも書き込み用（プライマリ）へ送る
+ * - PostgreSQL のストリーミングレプリカは受信済みのWALをすべて適用済みなら遅延0、
+ *   そうでなければ最後に適用したトランザクションからの経過秒数を遅延とみなす
+ * - それ以外（SQLite ファイルなどの代替レプリカ）は接続できるかだけを確認する
+ */
+public class ReplicaLagMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    public static final String POSTGRES_LAG_QUERY =
+            "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 "
+            + "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final DataSource replica;
+    private final String lagQuery;
+    private final Duration maxLag;
+    private final Duration checkInterval;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "replica-lag-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 最初の確認が終わるまではプライマリへ送る
+    private volatile boolean available = false;
+    private volatile double lastLagSeconds = -1;
+    private volatile String lastError;
+
+    /**
+     * @param lagQuery 遅延秒数を1行1列で返すSQL（空なら接続確認のみ）
+     */
+    public ReplicaLagMonitor(DataSource replica, String lagQuery, Duration maxLag, Duration checkInterval) {
+        this.replica = replica;
+        this.lagQuery = lagQuery;
+        this.maxLag = maxLag;
+        this.checkInterval = checkInterval;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::check, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 読み取り専用トランザクションをレプリカへ送ってよいか
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    void check() {
+        boolean nowAvailable;
+        try (Connection connection = replica.getConnection(); Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout((int) Math.max(1, checkInterval.toSeconds()));
+            double lagSeconds = 0;
+            if (lagQuery != null && !lagQuery.isBlank()) {
+                try (ResultSet rs = statement.executeQuery(lagQuery)) {
+                    lagSeconds = rs.next() ? rs.getDouble(1) : 0;
+                }
+            } else {
+                statement.execute("SELECT 1");
+            }
+            lastLagSeconds = lagSeconds;
+            lastError = null;
+            nowAvailable = lagSeconds * 1000 <= maxLag.toMillis();
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            nowAvailable = false;
+        }
+
+        if (nowAvailable != available) {
+            if (nowAvailable) {
+                logger.info("読み取りレプリカへの振り分けを開始（遅延 {}秒）", lastLagSeconds);
+            } else if (lastError != null) {
+                logger.warn("読み取りレプリカに接続できないため、読み取りもプライマリへ送ります: {}", lastError);
+            } else {
+                logger.warn("読み取りレプリカの遅延が上限を超えたため、読み取りもプライマリへ送ります（遅延 {}秒 / 上限 {}ms）",
+                        lastLagSeconds, maxLag.toMillis());
+            }
+        }
+        available = nowAvailable;
+    }
+}
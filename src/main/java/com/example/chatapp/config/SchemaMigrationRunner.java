@@ -0,0 +1,157 @@
+package com.example.chatapp.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * バージョン管理されたスキーマ変更（classpath:db/migration/V{番号}__{説明}.sql）を順に適用する
+ * - テーブル・カラムは従来どおり Hibernate（ddl-auto=update）が作成し、その後にインデックスなどを追加する
+ *   （そのため entityManagerFactory の初期化後に実行する）
+ * - 適用済みのバージョンは schema_migrations に記録し、1ファイル = 1トランザクションで適用
+ * - SQLite / PostgreSQL の両方で実行できるSQLだけを書くこと
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class SchemaMigrationRunner implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrationRunner.class);
+
+    private static final String LOCATION = "classpath*:db/migration/V*__*.sql";
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    private final DataSource dataSource;
+
+    public SchemaMigrationRunner(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    private record Migration(int version, String description, Resource resource, String checksum) {
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        migrate();
+    }
+
+    /**
+     * 未適用のスキーマ変更を適用し、適用した件数を返す
+     */
+    public int migrate() throws SQLException, IOException {
+        List<Migration> migrations = findMigrations();
+        int applied = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            createHistoryTable(connection);
+            Map<Integer, String> history = loadHistory(connection);
+            for (Migration migration : migrations) {
+                String appliedChecksum = history.get(migration.version());
+                if (appliedChecksum != null) {
+                    if (!appliedChecksum.equals(migration.checksum())) {
+                        logger.warn("適用済みのスキーマ変更が変更されています: V{}__{}", migration.version(), migration.description());
+                    }
+                    continue;
+                }
+                apply(connection, migration);
+                applied++;
+            }
+        }
+        if (applied > 0) {
+            logger.info("スキーマ変更を{}件適用しました", applied);
+        }
+        return applied;
+    }
+
+    private List<Migration> findMigrations() throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+            Matcher matcher = FILE_NAME.matcher(resource.getFilename() != null ? resource.getFilename() : "");
+            if (!matcher.matches()) {
+                continue;
+            }
+            String checksum;
+            try (InputStream in = resource.getInputStream()) {
+                checksum = DigestUtils.md5DigestAsHex(in);
+            }
+            migrations.add(new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2).replace('_', ' '),
+                    resource, checksum));
+        }
+        migrations.sort(Comparator.comparingInt(Migration::version));
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version() == migrations.get(i - 1).version()) {
+                throw new IllegalStateException("スキーマ変更のバージョンが重複しています: V" + migrations.get(i).version());
+            }
+        }
+        return migrations;
+    }
+
+    private void createHistoryTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_migrations ("
+                    + "version INTEGER PRIMARY KEY, "
+                    + "description VARCHAR(200) NOT NULL, "
+                    + "checksum VARCHAR(64) NOT NULL, "
+                    + "applied_at TIMESTAMP NOT NULL)");
+        }
+    }
+
+    private Map<Integer, String> loadHistory(Connection connection) throws SQLException {
+        Map<Integer, String> history = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT version, checksum FROM schema_migrations")) {
+            while (rs.next()) {
+                history.put(rs.getInt(1), rs.getString(2));
+            }
+        }
+        return history;
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        long start = System.currentTimeMillis();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            ScriptUtils.executeSqlScript(connection, new EncodedResource(migration.resource(), StandardCharsets.UTF_8));
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO schema_migrations (version, description, checksum, applied_at) VALUES (?, ?, ?, ?)")) {
+                ps.setInt(1, migration.version());
+                ps.setString(2, migration.description());
+                ps.setString(3, migration.checksum());
+                ps.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                ps.executeUpdate();
+            }
+            connection.commit();
+            logger.info("スキーマ変更を適用: V{}__{} ({}ms)", migration.version(), migration.description(),
+                    System.currentTimeMillis() - start);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
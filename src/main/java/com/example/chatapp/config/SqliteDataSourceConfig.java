@@ -0,0 +1,108 @@
+package com.example.chatapp.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SQLite（ローカル環境）向けのデータソース設定
+ * - WALモードにして、読み取りが書き込みを待たないようにする
+ * - 接続ごとに synchronous / busy_timeout / cache_size / mmap_size を設定
+ * - SQLiteの書き込みは1本に直列化されるため、書き込み用は1接続のプール、
+ *   読み取り専用トランザクションは複数接続の読み取り用プールに振り分ける
+ * PostgreSQL（本番）やインメモリDBの場合は使わず、Spring Boot標準のデータソースのまま
+ * （読み取りレプリカを設定した場合は ReplicaDataSourceConfig を使う）
+ */
+@Configuration
+@ConditionalOnExpression("'${spring.datasource.url:}'.startsWith('jdbc:sqlite:') and !'${spring.datasource.url:}'.contains(':memory:') and ${app.sqlite.split-pools.enabled:true} and '${app.datasource.replica.url:}'.isEmpty()")
+public class SqliteDataSourceConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqliteDataSourceConfig.class);
+
+    @Value("${app.sqlite.read-pool-size:4}")
+    private int readPoolSize;
+
+    @Value("${app.sqlite.synchronous:NORMAL}")
+    private String synchronous;
+
+    @Value("${app.sqlite.busy-timeout-millis:5000}")
+    private int busyTimeoutMillis;
+
+    @Value("${app.sqlite.cache-size-kb:65536}")
+    private int cacheSizeKb;
+
+    @Value("${app.sqlite.mmap-size-mb:256}")
+    private long mmapSizeMb;
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource sqliteWritePool(DataSourceProperties properties) {
+        return createPool(properties.determineUrl(), "sqlite-write", 1,
+                pragmas(synchronous, busyTimeoutMillis, cacheSizeKb, mmapSizeMb));
+    }
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource sqliteReadPool(DataSourceProperties properties) {
+        return createPool(properties.determineUrl(), "sqlite-read", readPoolSize,
+                pragmas(synchronous, busyTimeoutMillis, cacheSizeKb, mmapSizeMb));
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("sqliteWritePool") DataSource writePool,
+                                 @Qualifier("sqliteReadPool") DataSource readPool) {
+        logger.info("SQLite: WALモード・書き込み1接続／読み取り{}接続のプールを使用", readPoolSize);
+        // 接続の取得を最初のSQL実行まで遅らせ、その時点のトランザクションの readOnly で振り分ける
+        return new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(writePool, readPool));
+    }
+
+    /**
+     * トランザクションごとに接続を返却する
+     * （既定ではリクエストの間（Open Session in View）接続を保持し続けるため、
+     *   最初に取得した読み取り用の接続で書き込んだり、1本しかない書き込み用の接続を占有したりしてしまう）
+     */
+    @Bean
+    public HibernatePropertiesCustomizer sqliteConnectionHandlingCustomizer() {
+        return hibernateProperties -> hibernateProperties.put("hibernate.connection.handling_mode",
+                "DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION");
+    }
+
+    /**
+     * 接続ごとに設定するPRAGMA（sqlite-jdbcの接続プロパティとして渡す）
+     */
+    public static Map<String, String> pragmas(String synchronous, int busyTimeoutMillis, int cacheSizeKb, long mmapSizeMb) {
+        Map<String, String> pragmas = new LinkedHashMap<>();
+        pragmas.put("journal_mode", "WAL");
+        pragmas.put("synchronous", synchronous);
+        pragmas.put("busy_timeout", String.valueOf(busyTimeoutMillis));
+        pragmas.put("cache_size", String.valueOf(-cacheSizeKb)); // 負の値はKiB単位
+        pragmas.put("mmap_size", String.valueOf(mmapSizeMb * 1024 * 1024));
+        pragmas.put("temp_store", "MEMORY");
+        // 新規作成するDBのみ有効（既存のDBは app.retention.convert-auto-vacuum で切り替える）
+        pragmas.put("auto_vacuum", "INCREMENTAL");
+        return pragmas;
+    }
+
+    public static HikariDataSource createPool(String url, String poolName, int size, Map<String, String> pragmas) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(poolName);
+        pool.setJdbcUrl(url);
+        pool.setDriverClassName("org.sqlite.JDBC");
+        pool.setMaximumPoolSize(size);
+        pool.setMinimumIdle(size);
+        pragmas.forEach(pool::addDataSourceProperty);
+        return pool;
+    }
+}
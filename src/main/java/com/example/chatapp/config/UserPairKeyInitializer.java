@@ -0,0 +1,84 @@
+package com.example.chatapp.config;
+
+import com.example.chatapp.entity.ChatRoom;
+import com.example.chatapp.repository.ChatRoomRepository;
+import com.example.chatapp.repository.DirectMessageConversationRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 既存の1対1ルームとDM会話に正規化ユーザーペア（min_user_id, max_user_id）を設定する
+ * 同じペアのルームが複数ある場合は最も古いルームのみにペアを割り当てる
+ */
+@Component
+public class UserPairKeyInitializer implements CommandLineRunner {
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private DirectMessageConversationRepository conversationRepository;
+
+    @Override
+    @Transactional
+    public void run(String... args) throws Exception {
+        int rooms = backfillChatRooms();
+        int conversations = backfillConversations();
+        if (rooms > 0 || conversations > 0) {
+            System.out.println("ユーザーペアキーを設定しました: ルーム=" + rooms + ", DM会話=" + conversations);
+        }
+    }
+
+    private int backfillChatRooms() {
+        List<Object[]> rows = chatRoomRepository.findUnpairedRoomMembers(
+                List.of(ChatRoom.ChatRoomType.PRIVATE, ChatRoom.ChatRoomType.RANDOM));
+
+        // ルームID -> メンバーID一覧（ID順）
+        Map<Long, List<Long>> members = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            members.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add((Long) row[1]);
+        }
+
+        Set<String> assigned = new HashSet<>();
+        int updated = 0;
+        for (Map.Entry<Long, List<Long>> entry : members.entrySet()) {
+            List<Long> userIds = entry.getValue();
+            if (userIds.size() != 2) {
+                continue;
+            }
+            Long minUserId = Math.min(userIds.get(0), userIds.get(1));
+            Long maxUserId = Math.max(userIds.get(0), userIds.get(1));
+            if (!assigned.add(minUserId + ":" + maxUserId)
+                    || chatRoomRepository.findByMinUserIdAndMaxUserId(minUserId, maxUserId).isPresent()) {
+                continue;
+            }
+            updated += chatRoomRepository.assignUserPair(entry.getKey(), minUserId, maxUserId);
+        }
+        return updated;
+    }
+
+    private int backfillConversations() {
+        Set<String> assigned = new HashSet<>();
+        int updated = 0;
+        for (Object[] row : conversationRepository.findUnpairedConversations()) {
+            Long conversationId = (Long) row[0];
+            Long minUserId = Math.min((Long) row[1], (Long) row[2]);
+            Long maxUserId = Math.max((Long) row[1], (Long) row[2]);
+            if (!assigned.add(minUserId + ":" + maxUserId)
+                    || conversationRepository.findByMinUserIdAndMaxUserId(minUserId, maxUserId).isPresent()) {
+                continue;
+            }
+            updated += conversationRepository.assignUserPair(conversationId, minUserId, maxUserId);
+        }
+        return updated;
+    }
+}
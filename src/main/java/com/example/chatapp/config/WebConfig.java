@@ -16,7 +16,9 @@ public class WebConfig implements WebMvcConfigurer {
 
     @Override
     public void addResourceHandlers(@NonNull ResourceHandlerRegistry registry) {
-        // アップロードされたアバター画像の静的リソースマッピング
+        // 旧形式（メディアストア導入前）のアップロード画像の静的リソースマッピング
+        // 新規アップロードは /media/** で MediaController が配信する
+        // アバター画像
         registry.addResourceHandler("/uploads/avatars/**")
                 .addResourceLocations("file:src/main/resources/static/uploads/avatars/");
 
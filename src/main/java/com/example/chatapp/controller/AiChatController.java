@@ -3,9 +3,16 @@ package com.example.chatapp.controller;
 import com.example.chatapp.entity.AiPersona;
 import com.example.chatapp.entity.User;
 import com.example.chatapp.repository.AiPersonaRepository;
+import com.example.chatapp.service.AiChatStreamService;
+import com.example.chatapp.service.AiConversationMemoryService;
+import com.example.chatapp.service.AiGatewayService;
+import com.example.chatapp.service.AiPromptCacheService;
+import com.example.chatapp.service.AvatarGenerationJobService;
 import com.example.chatapp.service.GeminiService;
 import com.example.chatapp.service.LeonardoService;
+import com.example.chatapp.service.UpstreamResilienceService;
 import com.example.chatapp.service.UserService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -19,15 +26,27 @@ import java.util.Map;
 public class AiChatController {
 
     private final GeminiService geminiService;
+    private final AiChatStreamService aiChatStreamService;
+    private final AiGatewayService aiGateway;
+    private final AiConversationMemoryService conversationMemory;
+    private final AiPromptCacheService promptCache;
     private final LeonardoService leonardoService;
+    private final AvatarGenerationJobService avatarJobService;
     private final AiPersonaRepository aiPersonaRepository;
     private final UserService userService;
+    private final UpstreamResilienceService resilience;
 
-    public AiChatController(GeminiService geminiService, LeonardoService leonardoService, AiPersonaRepository aiPersonaRepository, UserService userService) {
+    public AiChatController(GeminiService geminiService, AiChatStreamService aiChatStreamService, AiGatewayService aiGateway, AiConversationMemoryService conversationMemory, AiPromptCacheService promptCache, LeonardoService leonardoService, AvatarGenerationJobService avatarJobService, AiPersonaRepository aiPersonaRepository, UserService userService, UpstreamResilienceService resilience) {
         this.geminiService = geminiService;
+        this.aiChatStreamService = aiChatStreamService;
+        this.aiGateway = aiGateway;
+        this.conversationMemory = conversationMemory;
+        this.promptCache = promptCache;
         this.leonardoService = leonardoService;
+        this.avatarJobService = avatarJobService;
         this.aiPersonaRepository = aiPersonaRepository;
         this.userService = userService;
+        this.resilience = resilience;
     }
 
     private User getUserFromPrincipal(Principal principal) {
@@ -56,7 +75,14 @@ public class AiChatController {
             ));
         }
 
-        String reply = geminiService.chat(user, message.trim());
+        // 混雑時の待ち順位はWebSocketで通知する
+        String reply;
+        try (AiGatewayService.Permit permit = aiGateway.admit(user.getId(),
+                position -> aiChatStreamService.sendQueuePosition(principal.getName(), position))) {
+            reply = geminiService.chat(user, message.trim());
+        } catch (AiGatewayService.AiRejectedException e) {
+            return rejected(e);
+        }
 
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -64,6 +90,48 @@ public class AiChatController {
         ));
     }
 
+    /**
+     * AIにメッセージを送信し、返答を /user/queue/ai にストリーミングで受け取る
+     * （すぐに202とrequestIdを返し、断片・完了・エラーはrequestId付きで送信される）
+     */
+    @PostMapping("/chat/stream")
+    public ResponseEntity<?> chatStream(@RequestBody Map<String, String> request, Principal principal) {
+        User user = getUserFromPrincipal(principal);
+        if (user == null) {
+            return ResponseEntity.status(401).body(Map.of(
+                "success", false,
+                "error", "ログインが必要です"
+            ));
+        }
+
+        String message = request.get("message");
+        if (message == null || message.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "error", "メッセージを入力してください"
+            ));
+        }
+
+        if (!geminiService.isConfigured()) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", "AIチャットを利用するには、環境変数 GEMINI_API_KEY を設定してください。"
+            ));
+        }
+
+        String requestId;
+        try {
+            requestId = aiChatStreamService.start(user, principal.getName(), message.trim());
+        } catch (AiGatewayService.AiRejectedException e) {
+            return rejected(e);
+        }
+
+        return ResponseEntity.accepted().body(Map.of(
+            "success", true,
+            "requestId", requestId
+        ));
+    }
+
     /**
      * 会話履歴を取得
      */
@@ -98,7 +166,12 @@ public class AiChatController {
             ));
         }
 
-        geminiService.clearHistory(user.getId());
+        // 返答の生成中にクリアすると、生成後に古い発言が書き戻されるため受け付けない
+        try (AiGatewayService.Permit permit = aiGateway.admit(user.getId(), null)) {
+            geminiService.clearHistory(user.getId());
+        } catch (AiGatewayService.AiRejectedException e) {
+            return rejected(e);
+        }
 
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -119,11 +192,13 @@ public class AiChatController {
             ));
         }
 
-        // 履歴をクリアして新しい会話を開始
-        geminiService.clearHistory(user.getId());
-        
         // 挨拶メッセージを生成（履歴には保存されない）
-        String greeting = geminiService.generateGreeting(user);
+        String greeting;
+        try (AiGatewayService.Permit permit = aiGateway.admit(user.getId(), null)) {
+            greeting = geminiService.generateGreeting(user);
+        } catch (AiGatewayService.AiRejectedException e) {
+            return rejected(e);
+        }
 
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -131,6 +206,38 @@ public class AiChatController {
         ));
     }
 
+    /**
+     * AI呼び出しの流量制御・会話履歴・プロンプトキャッシュ・外部サービスの遮断状態の統計（管理者のみ）
+     */
+    @GetMapping("/gateway-stats")
+    public ResponseEntity<?> getGatewayStats(Principal principal) {
+        if (principal == null || !"admin".equals(principal.getName())) {
+            return ResponseEntity.status(403).body(Map.of(
+                "success", false,
+                "error", "権限がありません"
+            ));
+        }
+
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "gateway", aiGateway.getStats(),
+            "memory", conversationMemory.getStats(),
+            "promptCache", promptCache.getStats(),
+            "upstreams", resilience.getStats()
+        ));
+    }
+
+    private ResponseEntity<?> rejected(AiGatewayService.AiRejectedException e) {
+        return ResponseEntity.status(429)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+            .body(Map.of(
+                "success", false,
+                "error", e.getMessage(),
+                "reason", e.getReason().name(),
+                "retryAfterSeconds", e.getRetryAfterSeconds()
+            ));
+    }
+
     /**
      * APIが設定されているかチェック
      */
@@ -212,9 +319,6 @@ public class AiChatController {
 
         aiPersonaRepository.save(persona);
 
-        // 会話履歴をクリアして新しいペルソナで開始
-        geminiService.clearHistory(user.getId());
-
         return ResponseEntity.ok(Map.of(
             "success", true,
             "message", "AIの設定を保存しました"
@@ -235,7 +339,6 @@ public class AiChatController {
         }
 
         aiPersonaRepository.findByUser(user).ifPresent(aiPersonaRepository::delete);
-        geminiService.clearHistory(user.getId());
 
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -244,7 +347,7 @@ public class AiChatController {
     }
 
     /**
-     * Leonardo AIでアバター画像を生成
+     * Leonardo AIでアバター画像の生成を登録（結果は /user/queue/avatar-jobs に届く）
      */
     @PostMapping("/avatar/generate")
     public ResponseEntity<?> generateAvatar(@RequestBody Map<String, String> request, Principal principal) {
@@ -263,24 +366,68 @@ public class AiChatController {
             ));
         }
 
+        // 上流の障害で遮断中なら待たせずに失敗を返す（画面側は既定のアバターで代替）
+        if (!leonardoService.isAvailable()) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", "画像生成サービスが一時的に利用できません"
+            ));
+        }
+
         String gender = request.get("gender");
         String ageGroup = request.get("ageGroup");
         String personality = request.get("personality");
 
-        // 複数のアバターを生成
-        List<String> avatarUrls = leonardoService.generateAvatars(gender, ageGroup, personality);
+        AvatarGenerationJobService.AvatarJob job =
+            avatarJobService.submit(user.getId(), user.getUsername(), gender, ageGroup, personality);
 
-        if (avatarUrls.isEmpty()) {
-            return ResponseEntity.ok(Map.of(
+        Map<String, Object> response = avatarJobService.toResponse(job);
+        response.put("success", true);
+        return ResponseEntity.accepted().body(response);
+    }
+
+    /**
+     * アバター生成ジョブの状態を取得（再接続時など、通知を受け取れなかった場合用）
+     */
+    @GetMapping("/avatar/jobs/{jobId}")
+    public ResponseEntity<?> getAvatarJob(@PathVariable String jobId, Principal principal) {
+        User user = getUserFromPrincipal(principal);
+        if (user == null) {
+            return ResponseEntity.status(401).body(Map.of(
                 "success", false,
-                "error", "アバターの生成に失敗しました"
+                "error", "ログインが必要です"
             ));
         }
 
-        return ResponseEntity.ok(Map.of(
-            "success", true,
-            "avatars", avatarUrls
-        ));
+        return avatarJobService.getJob(jobId, user.getId())
+            .<ResponseEntity<?>>map(job -> {
+                Map<String, Object> response = avatarJobService.toResponse(job);
+                response.put("success", true);
+                return ResponseEntity.ok(response);
+            })
+            .orElseGet(() -> ResponseEntity.status(404).body(Map.of(
+                "success", false,
+                "error", "ジョブが見つかりません"
+            )));
+    }
+
+    /**
+     * 最新のアバター生成ジョブの状態を取得
+     */
+    @GetMapping("/avatar/jobs/latest")
+    public ResponseEntity<?> getLatestAvatarJob(Principal principal) {
+        User user = getUserFromPrincipal(principal);
+        if (user == null) {
+            return ResponseEntity.status(401).body(Map.of(
+                "success", false,
+                "error", "ログインが必要です"
+            ));
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("job", avatarJobService.getLatestJob(user.getId()).map(avatarJobService::toResponse).orElse(null));
+        return ResponseEntity.ok(response);
     }
 
     /**
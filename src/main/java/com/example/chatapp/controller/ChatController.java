@@ -1,15 +1,14 @@
 package com.example.chatapp.controller;
 
 import com.example.chatapp.dto.MessageDto;
+import com.example.chatapp.service.MessageArchiveService;
 import com.example.chatapp.service.MessageService;
 import com.example.chatapp.service.ChatRoomService;
 import com.example.chatapp.service.OnlineUserService;
-import com.example.chatapp.service.UserStatisticsService;
-import com.example.chatapp.service.UserService;
 import com.example.chatapp.entity.Message;
-import com.example.chatapp.entity.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
@@ -17,6 +16,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
@@ -27,7 +27,9 @@ import java.security.Principal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Controller
@@ -46,10 +48,7 @@ public class ChatController {
     private OnlineUserService onlineUserService;
     
     @Autowired
-    private UserStatisticsService userStatisticsService;
-    
-    @Autowired
-    private UserService userService;
+    private MessageArchiveService messageArchiveService;
 
     @Value("${app.debug.enabled:false}")
     private boolean debugEnabled;
@@ -105,7 +104,7 @@ public class ChatController {
             // 現在のチャットルーム情報を取得
             com.example.chatapp.entity.ChatRoom currentRoom = null;
             try {
-                currentRoom = chatRoomService.getChatRoom(chatRoomId).orElse(null);
+                currentRoom = chatRoomService.getChatRoomWithMembers(chatRoomId).orElse(null);
             } catch (Exception e) {
                 if (debugEnabled) {
                     System.err.println("現在のルーム取得エラー: " + e.getMessage());
@@ -145,9 +144,21 @@ public class ChatController {
         return "test-messages";
     }
 
+    /**
+     * ルームのメッセージ履歴
+     * before・limit を指定するとIDのカーソルで1ページずつ返す（アーカイブ済みの古いメッセージも含む）
+     * 指定しない場合は従来どおり messages テーブルにある全件を返す
+     */
     @GetMapping("/api/messages/{chatRoomId}")
     @ResponseBody
-    public List<MessageDto> getRoomMessages(@PathVariable Long chatRoomId) {
+    public List<MessageDto> getRoomMessages(@PathVariable Long chatRoomId,
+                                            @RequestParam(required = false) Long before,
+                                            @RequestParam(required = false) Integer limit) {
+        if (before != null || limit != null) {
+            return messageService.getHistoryPage(chatRoomId, before, limit != null ? limit : 50).stream()
+                    .map(messageService::convertToDto)
+                    .collect(Collectors.toList());
+        }
         System.out.println("🚀🚀🚀 [API] メッセージ取得開始: /api/messages/" + chatRoomId);
         System.out.println("📥 リクエスト受信 - ルームID: " + chatRoomId + " (型: " + chatRoomId.getClass().getSimpleName() + ")");
         
@@ -182,6 +193,84 @@ public class ChatController {
         }
         }
 
+    /**
+     * メッセージアーカイブの統計と前回の実行結果（管理者のみ）
+     */
+    @GetMapping("/api/messages/archive/stats")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> getArchiveStats(Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (principal == null || !"admin".equals(principal.getName())) {
+            return forbidden(response);
+        }
+        response.put("success", true);
+        response.put("stats", messageArchiveService.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * メッセージアーカイブをすぐに実行（管理者のみ）
+     */
+    @PostMapping("/api/messages/archive/run")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> runArchive(Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (principal == null || !"admin".equals(principal.getName())) {
+            return forbidden(response);
+        }
+        try {
+            response.put("success", true);
+            response.put("report", messageArchiveService.runNow());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * ルームのアーカイブのチェックサム・インデックスを確認（管理者のみ）
+     */
+    @GetMapping("/api/messages/archive/{chatRoomId}/verify")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> verifyArchive(@PathVariable Long chatRoomId, Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (principal == null || !"admin".equals(principal.getName())) {
+            return forbidden(response);
+        }
+        response.put("success", true);
+        response.put("report", messageArchiveService.verify(chatRoomId));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * ルームのアーカイブを書き直して詰める（管理者のみ）
+     */
+    @PostMapping("/api/messages/archive/{chatRoomId}/compact")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> compactArchive(@PathVariable Long chatRoomId, Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (principal == null || !"admin".equals(principal.getName())) {
+            return forbidden(response);
+        }
+        try {
+            response.put("success", true);
+            response.put("result", messageArchiveService.compact(chatRoomId));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> forbidden(Map<String, Object> response) {
+        response.put("success", false);
+        response.put("message", "権限がありません");
+        return ResponseEntity.status(403).body(response);
+    }
+
     @MessageMapping("/chat.sendMessage")
     public void sendMessage(MessageDto message, Authentication authentication) {
         String username = authentication != null ? authentication.getName() : "匿名ユーザー";
@@ -203,16 +292,6 @@ public class ChatController {
                 chatRoomId
             );
             
-            // 統計情報を更新（メッセージ送信数）
-            try {
-                User user = userService.findByUsername(username).orElse(null);
-                if (user != null) {
-                    userStatisticsService.incrementMessageCount(user.getId());
-                }
-            } catch (Exception e) {
-                System.err.println("統計情報更新エラー: " + e.getMessage());
-            }
-            
             if (debugEnabled) {
                 System.out.println("メッセージ保存成功: ID=" + savedMessage.getId());
             }
@@ -3,6 +3,8 @@ package com.example.chatapp.controller;
 import com.example.chatapp.dto.ChatRoomDto;
 import com.example.chatapp.entity.ChatRoom;
 import com.example.chatapp.service.ChatRoomService;
+import com.example.chatapp.service.DeletionJobService;
+import com.example.chatapp.service.MessageSearchIndexService;
 import com.example.chatapp.service.UserService;
 import com.example.chatapp.entity.User;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,6 +19,7 @@ import java.security.Principal;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Controller
@@ -26,6 +29,9 @@ public class ChatRoomController {
     @Autowired
     private ChatRoomService chatRoomService;
 
+    @Autowired
+    private MessageSearchIndexService messageSearchIndexService;
+
     @Autowired
     private org.springframework.messaging.simp.SimpMessagingTemplate messagingTemplate;
 
@@ -211,9 +217,8 @@ public class ChatRoomController {
                 chatRoomService.joinChatRoom(roomId, authentication.getName());
 
                 // WebSocketでルーム参加を全ユーザーに通知
-                ChatRoom room = chatRoomService.getChatRoom(roomId).orElse(null);
-                if (room != null) {
-                    ChatRoomDto roomDto = new ChatRoomDto(room);
+                ChatRoomDto roomDto = chatRoomService.getChatRoomSummary(roomId).orElse(null);
+                if (roomDto != null) {
                     messagingTemplate.convertAndSend("/topic/rooms", Map.of(
                         "type", "user_joined",
                         "room", roomDto,
@@ -250,9 +255,8 @@ public class ChatRoomController {
                 chatRoomService.leaveChatRoom(roomId, authentication.getName());
 
                 // WebSocketでルーム退出を全ユーザーに通知
-                ChatRoom room = chatRoomService.getChatRoom(roomId).orElse(null);
-                if (room != null) {
-                    ChatRoomDto roomDto = new ChatRoomDto(room);
+                ChatRoomDto roomDto = chatRoomService.getChatRoomSummary(roomId).orElse(null);
+                if (roomDto != null) {
                     messagingTemplate.convertAndSend("/topic/rooms", Map.of(
                         "type", "user_left",
                         "room", roomDto,
@@ -284,10 +288,11 @@ public class ChatRoomController {
         Map<String, Object> response = new HashMap<>();
         
         if (authentication != null) {
-            boolean deleted = chatRoomService.deleteChatRoom(roomId, authentication.getName());
-            if (deleted) {
+            Optional<DeletionJobService.DeletionJob> job = chatRoomService.deleteChatRoom(roomId, authentication.getName());
+            if (job.isPresent()) {
                 response.put("success", true);
                 response.put("message", "チャットルームを削除しました");
+                response.put("jobId", job.get().getJobId());
             } else {
                 response.put("success", false);
                 response.put("message", "削除権限がありません");
@@ -305,10 +310,10 @@ public class ChatRoomController {
      */
     @GetMapping("/api/list")
     @ResponseBody
-    public ResponseEntity<List<ChatRoom>> getRoomList(Authentication authentication) {
+    public ResponseEntity<List<ChatRoomDto>> getRoomList(Authentication authentication) {
         if (authentication != null) {
-            List<ChatRoom> rooms = chatRoomService.getUserChatRooms(authentication.getName());
-            return ResponseEntity.ok(rooms);
+            // エンティティのままだと参加者・作成者の遅延読み込みと循環参照が起きるためDTOで返す
+            return ResponseEntity.ok(chatRoomService.getUserRoomSummaries(authentication.getName()));
         }
         return ResponseEntity.ok(List.of());
     }
@@ -326,13 +331,10 @@ public class ChatRoomController {
 
         if (authentication != null) {
             try {
-                List<ChatRoom> rooms = chatRoomService.getUserChatRooms(authentication.getName());
-                System.out.println("取得したルーム数: " + rooms.size());
+                // 作成者名・参加者数は一覧と同じクエリで集計
+                List<ChatRoomDto> roomDtos = chatRoomService.getUserRoomSummaries(authentication.getName());
+                System.out.println("取得したルーム数: " + roomDtos.size());
 
-                // ChatRoomエンティティをDTOに変換（循環参照を回避）
-                List<ChatRoomDto> roomDtos = rooms.stream()
-                    .map(ChatRoomDto::new)
-                    .collect(Collectors.toList());
                 response.put("success", true);
                 response.put("rooms", roomDtos);
 
@@ -362,11 +364,7 @@ public class ChatRoomController {
 
         if (authentication != null) {
             try {
-                List<ChatRoom> rooms = chatRoomService.getAvailablePublicRooms(authentication.getName());
-                // ChatRoomエンティティをDTOに変換（循環参照を回避）
-                List<ChatRoomDto> roomDtos = rooms.stream()
-                    .map(ChatRoomDto::new)
-                    .collect(Collectors.toList());
+                List<ChatRoomDto> roomDtos = chatRoomService.getAvailableRoomSummaries(authentication.getName());
                 response.put("success", true);
                 response.put("rooms", roomDtos);
             } catch (Exception e) {
@@ -393,13 +391,9 @@ public class ChatRoomController {
 
         if (authentication != null) {
             try {
-                List<ChatRoom> rooms = chatRoomService.getRequestedRooms(authentication.getName());
-                System.out.println("申請中のルーム数: " + rooms.size());
+                List<ChatRoomDto> roomDtos = chatRoomService.getRequestedRoomSummaries(authentication.getName());
+                System.out.println("申請中のルーム数: " + roomDtos.size());
 
-                // ChatRoomエンティティをDTOに変換
-                List<ChatRoomDto> roomDtos = rooms.stream()
-                    .map(ChatRoomDto::new)
-                    .collect(Collectors.toList());
                 response.put("success", true);
                 response.put("rooms", roomDtos);
             } catch (Exception e) {
@@ -564,7 +558,7 @@ public class ChatRoomController {
 
         if (authentication != null) {
             try {
-                ChatRoom room = chatRoomService.getChatRoom(roomId).orElse(null);
+                ChatRoom room = chatRoomService.getChatRoomWithMembers(roomId).orElse(null);
                 if (room == null) {
                     response.put("success", false);
                     response.put("message", "ルームが見つかりません");
@@ -615,6 +609,52 @@ public class ChatRoomController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * API: ルーム内のメッセージを検索（新しい順、nextBeforeをbeforeに指定して続きを取得）
+     */
+    @GetMapping("/{roomId}/api/search")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> searchMessages(@PathVariable Long roomId,
+                                                              @RequestParam("q") String query,
+                                                              @RequestParam(value = "before", required = false) Long before,
+                                                              @RequestParam(value = "limit", defaultValue = "20") int limit,
+                                                              Authentication authentication) {
+        Map<String, Object> response = new HashMap<>();
+
+        if (authentication == null) {
+            response.put("success", false);
+            response.put("message", "ログインが必要です");
+            return ResponseEntity.ok(response);
+        }
+        if (query.strip().length() < MessageSearchIndexService.MIN_QUERY_LENGTH) {
+            response.put("success", false);
+            response.put("message", "検索語は" + MessageSearchIndexService.MIN_QUERY_LENGTH + "文字以上で入力してください");
+            return ResponseEntity.ok(response);
+        }
+        if (!messageSearchIndexService.canSearchRoom(roomId, authentication.getName())) {
+            response.put("success", false);
+            response.put("message", "このルームのメッセージを検索する権限がありません");
+            return ResponseEntity.ok(response);
+        }
+
+        MessageSearchIndexService.SearchPage page = messageSearchIndexService.searchRoom(roomId, query, before, limit);
+        List<Map<String, Object>> hits = page.hits().stream()
+            .map(hit -> {
+                Map<String, Object> hitInfo = new HashMap<>();
+                hitInfo.put("messageId", hit.messageId());
+                hitInfo.put("username", hit.senderUsername());
+                hitInfo.put("snippet", hit.snippet());
+                hitInfo.put("sentAt", hit.sentAt());
+                return hitInfo;
+            })
+            .collect(Collectors.toList());
+
+        response.put("success", true);
+        response.put("hits", hits);
+        response.put("nextBefore", page.nextBefore());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * API: ルームからユーザーを退会させる（ルーム作成者のみ）
      */
@@ -8,6 +8,7 @@ import com.example.chatapp.repository.ChatRoomRepository;
 import com.example.chatapp.repository.UserRepository;
 import com.example.chatapp.service.MessageService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -33,6 +34,7 @@ public class DebugController {
 
     @GetMapping("/debug/data")
     @ResponseBody
+    @Transactional(readOnly = true)
     public Map<String, Object> debugData() {
         Map<String, Object> debug = new HashMap<>();
         
@@ -56,6 +58,7 @@ public class DebugController {
 
     @GetMapping("/debug/history")
     @ResponseBody
+    @Transactional(readOnly = true)
     public Map<String, Object> debugHistory() {
         Map<String, Object> debug = new HashMap<>();
         
@@ -2,6 +2,7 @@ package com.example.chatapp.controller;
 
 import com.example.chatapp.entity.User;
 import com.example.chatapp.service.DirectMessageService;
+import com.example.chatapp.service.MessageSearchIndexService;
 import com.example.chatapp.service.UserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +30,9 @@ public class DirectMessageController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private MessageSearchIndexService messageSearchIndexService;
+
     /**
      * 現在のユーザーのDM会話一覧を取得
      * GET /api/dm/conversations
@@ -167,6 +171,52 @@ public class DirectMessageController {
         }
     }
 
+    /**
+     * 会話内のメッセージを検索（新しい順、nextBeforeをbeforeに指定して続きを取得）
+     * GET /api/dm/conversations/{conversationId}/search?q=...&before=...&limit=...
+     */
+    @GetMapping("/conversations/{conversationId}/search")
+    public ResponseEntity<Map<String, Object>> searchMessages(
+            @PathVariable Long conversationId,
+            @RequestParam("q") String query,
+            @RequestParam(value = "before", required = false) Long before,
+            @RequestParam(value = "limit", defaultValue = "20") int limit,
+            Principal principal) {
+        try {
+            if (principal == null) {
+                return ResponseEntity.status(401).body(createErrorResponse("認証が必要です"));
+            }
+            if (query.strip().length() < MessageSearchIndexService.MIN_QUERY_LENGTH) {
+                return ResponseEntity.badRequest().body(createErrorResponse(
+                        "検索語は" + MessageSearchIndexService.MIN_QUERY_LENGTH + "文字以上で入力してください"));
+            }
+            if (!messageSearchIndexService.canSearchConversation(conversationId, principal.getName())) {
+                return ResponseEntity.status(403).body(createErrorResponse("この会話にアクセスする権限がありません"));
+            }
+
+            MessageSearchIndexService.SearchPage page =
+                    messageSearchIndexService.searchConversation(conversationId, query, before, limit);
+            List<Map<String, Object>> hits = page.hits().stream().map(hit -> {
+                Map<String, Object> data = new HashMap<>();
+                data.put("messageId", hit.messageId());
+                data.put("senderUsername", hit.senderUsername());
+                data.put("snippet", hit.snippet());
+                data.put("sentAt", hit.sentAt());
+                return data;
+            }).toList();
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("hits", hits);
+            response.put("nextBefore", page.nextBefore());
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            logger.error("DMメッセージ検索エラー", e);
+            return ResponseEntity.status(500).body(createErrorResponse("メッセージの検索に失敗しました"));
+        }
+    }
+
     /**
      * 会話を既読にする
      * POST /api/dm/conversations/{conversationId}/read
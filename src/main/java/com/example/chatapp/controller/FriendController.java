@@ -3,6 +3,7 @@ package com.example.chatapp.controller;
 import com.example.chatapp.entity.User;
 import com.example.chatapp.entity.ChatRoom;
 import com.example.chatapp.entity.UserProfile;
+import com.example.chatapp.repository.FriendshipRepository;
 import com.example.chatapp.service.UserService;
 import com.example.chatapp.service.FriendshipService;
 import com.example.chatapp.service.ChatRoomService;
@@ -435,30 +436,17 @@ public class FriendController {
                 return ResponseEntity.badRequest().body(response);
             }
             
-            // 既存のプライベートチャットルームを検索
-            List<ChatRoom> userRooms = chatRoomService.getRoomsByUser(currentUser);
-            ChatRoom existingRoom = null;
-            
-            for (ChatRoom room : userRooms) {
-                if (room.getType() == ChatRoom.ChatRoomType.PRIVATE && 
-                    room.getUsers().contains(friend) && 
-                    room.getUsers().size() == 2) {
-                    existingRoom = room;
-                    break;
-                }
-            }
+            // 既存のプライベートチャットルームをペアキーで検索
+            Optional<ChatRoom> existingRoom = chatRoomService.findExistingPrivateRoom(currentUser, friend);
             
             ChatRoom chatRoom;
-            if (existingRoom != null) {
+            if (existingRoom.isPresent()) {
                 // 既存のルームを使用
-                chatRoom = existingRoom;
+                chatRoom = existingRoom.get();
             } else {
-                // 新しいプライベートチャットルームを作成
+                // 新しいプライベートチャットルームを作成（友達も同時に追加）
                 String roomName = "Private: " + currentUser.getUsername() + " - " + friend.getUsername();
-                chatRoom = chatRoomService.createPrivateRoom(roomName, currentUser);
-                
-                // 友達もルームに追加
-                chatRoomService.addUserToRoom(chatRoom.getId(), friend);
+                chatRoom = chatRoomService.findOrCreatePairRoom(roomName, currentUser, friend, ChatRoom.ChatRoomType.PRIVATE);
             }
             
             response.put("success", true);
@@ -522,17 +510,16 @@ public class FriendController {
                 return ResponseEntity.badRequest().build();
             }
             
-            List<User> friends = friendshipService.getFriends(currentUserOpt.get());
+            // プロフィール（表示名・アバター）は一覧と同じクエリで取得
+            List<FriendshipRepository.FriendView> friends = friendshipService.getFriendViews(currentUserOpt.get());
             List<Map<String, Object>> result = friends.stream()
                 .map(friend -> {
-                    // UserProfileを取得してアバター情報を含める
-                    UserProfile friendProfile = userProfileService.getOrCreateProfile(friend);
-                    
                     Map<String, Object> friendData = new HashMap<>();
                     friendData.put("id", friend.getId());
                     friendData.put("username", friend.getUsername());
-                    friendData.put("displayName", friendProfile.getDisplayName());
-                    friendData.put("avatarUrl", friendProfile.getAvatarUrlOrDefault());
+                    friendData.put("displayName", friend.getDisplayName());
+                    friendData.put("avatarUrl", friend.getAvatarUrl() != null && !friend.getAvatarUrl().isEmpty()
+                            ? friend.getAvatarUrl() : "/images/default-avatar.svg");
                     
                     // OnlineUserServiceを使用してリアルタイムのオンライン状態を取得
                     String onlineStatus = onlineUserService.getUserStatusById(friend.getId());
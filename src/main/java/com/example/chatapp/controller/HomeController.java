@@ -8,8 +8,9 @@ import com.example.chatapp.service.PostService;
 import com.example.chatapp.service.UserService;
 import com.example.chatapp.service.ChatRoomService;
 import com.example.chatapp.service.FriendshipService;
+import com.example.chatapp.service.MediaStorageService;
+import com.example.chatapp.service.PostNotificationService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -20,15 +21,11 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 
 @Controller
 public class HomeController {
@@ -49,7 +46,10 @@ public class HomeController {
     private FriendshipService friendshipService;
     
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private PostNotificationService postNotificationService;
+    
+    @Autowired
+    private MediaStorageService mediaStorageService;
 
     @GetMapping("/home")
     public String home(Authentication authentication, Model model) {
@@ -58,7 +58,7 @@ public class HomeController {
             String username = authentication.getName();
             System.out.println("認証済みユーザー: " + username);
             model.addAttribute("username", username);
-            model.addAttribute("posts", postService.getAllPosts());
+            model.addAttribute("posts", postService.getRecentPosts(null, 20));
 
             // ユーザーをメインルームに自動参加させる
             try {
@@ -119,23 +119,13 @@ public class HomeController {
                 
                 // ファイルアップロード処理
                 if (mediaFiles != null && mediaFiles.length > 0) {
-                    String uploadDir = "src/main/resources/static/uploads/posts/";
-                    Path uploadPath = Paths.get(uploadDir);
-                    
                     try {
-                        if (!Files.exists(uploadPath)) {
-                            Files.createDirectories(uploadPath);
-                        }
-                        
                         for (MultipartFile file : mediaFiles) {
                             if (!file.isEmpty()) {
                                 String originalFilename = file.getOriginalFilename();
-                                if (originalFilename != null) {
+                                if (originalFilename != null && originalFilename.contains(".")) {
                                     String extension = originalFilename.substring(originalFilename.lastIndexOf("."));
-                                    String filename = UUID.randomUUID().toString() + extension;
-                                    Path filePath = uploadPath.resolve(filename);
-                                    Files.copy(file.getInputStream(), filePath);
-                                    uploadedFilePaths.add("/uploads/posts/" + filename);
+                                    uploadedFilePaths.add(mediaStorageService.store(file, extension));
                                 }
                             }
                         }
@@ -150,7 +140,7 @@ public class HomeController {
                 String mediaPathsStr = uploadedFilePaths.isEmpty() ? null : String.join(",", uploadedFilePaths);
                 Post newPost = postService.createPost(userOpt.get(), content.trim(), mediaPathsStr);
                 
-                // WebSocketで新しい投稿を全ユーザーに通知
+                // WebSocketで新しい投稿を投稿者とフォロワーに通知
                 Map<String, Object> postData = new HashMap<>();
                 postData.put("id", newPost.getId());
                 postData.put("content", newPost.getContent());
@@ -169,7 +159,7 @@ public class HomeController {
                 
                 postData.put("user", userData);
                 
-                messagingTemplate.convertAndSend("/topic/posts", postData);
+                postNotificationService.notifyNewPost(newPost.getUser(), postData);
                 
                 redirectAttributes.addFlashAttribute("success", "投稿しました！");
             }
@@ -0,0 +1,178 @@
+package com.example.chatapp.controller;
+
+import com.example.chatapp.service.ImageDerivativeService;
+import com.example.chatapp.service.MediaStorageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * アップロードメディアの配信
+ * - URLは内容のハッシュなので、強いETagと immutable な長期キャッシュを付与（CDN・共有キャッシュでも再利用できるよう public）
+ * - Rangeリクエスト（単一範囲）に対応（動画のシーク用）
+ * - ?size=N で長辺N px以上の最小の縮小版を配信（未生成の場合は元画像を再検証付きで返し、縮小版のURLに元画像が長期キャッシュされないようにする）
+ * - Tomcatのsendfileが使える場合はカーネルに転送を任せ、使えない場合は FileChannel.transferTo で送信
+ */
+@Controller
+public class MediaController {
+
+    // /media/** は認証が必要なため、共有キャッシュ（プロキシ・CDN）には保存させずブラウザにだけ長期キャッシュさせる
+    private static final String CACHE_CONTROL = "private, max-age=31536000, immutable";
+    // 縮小版が未生成で元画像を代わりに返すとき（生成後は ETag が変わるので再検証で縮小版に切り替わる）
+    private static final String FALLBACK_CACHE_CONTROL = "no-cache";
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Autowired
+    private MediaStorageService mediaStorageService;
+
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+
+    @GetMapping("/media/{name:.+}")
+    public void serve(@PathVariable String name,
+                      @RequestParam(value = "size", required = false) Integer size,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<MediaStorageService.StoredMedia> mediaOpt = mediaStorageService.resolve(name);
+        if (mediaOpt.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        MediaStorageService.StoredMedia media = mediaOpt.get();
+        // 縮小版の指定があれば該当サイズを配信（未生成なら生成を依頼して元画像を配信）
+        boolean fallback = false;
+        if (size != null && size > 0) {
+            MediaStorageService.StoredMedia variant = mediaStorageService.resolveVariant(media, size);
+            if (variant == media) {
+                imageDerivativeService.requestDerivatives(media.hash());
+                fallback = true;
+            }
+            media = variant;
+        }
+        String etag = media.etag();
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, fallback ? FALLBACK_CACHE_CONTROL : CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader("X-Content-Type-Options", "nosniff");
+
+        if (matchesEtag(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(media.path(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            long start = 0;
+            long end = length - 1;
+
+            // 複数範囲の指定、またはIf-Rangeが現在のETagと一致しない場合はRangeを無視して全体を返す
+            String range = request.getHeader(HttpHeaders.RANGE);
+            String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+            if (range != null && !range.contains(",") && (ifRange == null || ifRange.equals(etag))) {
+                long[] bounds = parseRange(range, length);
+                if (bounds == null) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+
+            long count = end - start + 1;
+            response.setContentType(media.contentType());
+            response.setContentLengthLong(count);
+            if ("HEAD".equals(request.getMethod()) || count <= 0) {
+                return;
+            }
+
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                request.setAttribute(SENDFILE_FILENAME, media.path().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, end + 1);
+                return;
+            }
+
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    private boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || value.equals(etag) || value.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * "bytes=start-end" 形式の単一範囲を解析（満たせない範囲の場合はnull）
+     */
+    private long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || length == 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 末尾からNバイト
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start < 0 || start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
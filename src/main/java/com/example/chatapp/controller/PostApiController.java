@@ -1,8 +1,8 @@
 package com.example.chatapp.controller;
 
-import com.example.chatapp.entity.Post;
+import com.example.chatapp.repository.PostRepository.PostView;
 import com.example.chatapp.entity.User;
-import com.example.chatapp.service.FriendshipService;
+import com.example.chatapp.service.PostNotificationService;
 import com.example.chatapp.service.PostService;
 import com.example.chatapp.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,22 +24,25 @@ public class PostApiController {
     private UserService userService;
 
     @Autowired
-    private FriendshipService friendshipService;
+    private PostNotificationService postNotificationService;
 
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy年MM月dd日 HH:mm");
 
     /**
-     * 全ての投稿を取得
+     * 全ての投稿を新しい順に取得（before: 前ページ最後の投稿ID）
      */
     @GetMapping("/all")
-    public ResponseEntity<Map<String, Object>> getAllPosts() {
+    public ResponseEntity<Map<String, Object>> getAllPosts(
+            @RequestParam(value = "before", required = false) Long before,
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
         Map<String, Object> response = new HashMap<>();
         try {
-            List<Post> posts = postService.getAllPosts();
+            List<PostView> posts = postService.getRecentPostViews(before, limit);
             List<Map<String, Object>> postList = convertPostsToList(posts);
 
             response.put("success", true);
             response.put("posts", postList);
+            response.put("nextCursor", nextCursor(posts, limit));
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             response.put("success", false);
@@ -65,7 +68,7 @@ public class PostApiController {
             User currentUser = userService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません"));
 
-            List<Post> posts = postService.getPostsByUser(currentUser);
+            List<PostView> posts = postService.getPostsByUser(currentUser);
             List<Map<String, Object>> postList = convertPostsToList(posts);
 
             response.put("success", true);
@@ -79,10 +82,13 @@ public class PostApiController {
     }
 
     /**
-     * フォロー中のユーザーの投稿を取得
+     * フォロー中のユーザーの投稿（ホームタイムライン）を取得（before: 前ページ最後の投稿ID）
      */
     @GetMapping("/following")
-    public ResponseEntity<Map<String, Object>> getFollowingPosts(Principal principal) {
+    public ResponseEntity<Map<String, Object>> getFollowingPosts(
+            Principal principal,
+            @RequestParam(value = "before", required = false) Long before,
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
         Map<String, Object> response = new HashMap<>();
         try {
             if (principal == null) {
@@ -95,12 +101,12 @@ public class PostApiController {
             User currentUser = userService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません"));
 
-            List<User> following = friendshipService.getFollowing(currentUser);
-            List<Post> posts = postService.getPostsByUsers(following);
+            List<PostView> posts = postService.getFollowingTimeline(currentUser, before, limit);
             List<Map<String, Object>> postList = convertPostsToList(posts);
 
             response.put("success", true);
             response.put("posts", postList);
+            response.put("nextCursor", nextCursor(posts, limit));
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             response.put("success", false);
@@ -119,7 +125,7 @@ public class PostApiController {
             User user = userService.findById(userId)
                 .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません"));
 
-            List<Post> posts = postService.getPostsByUser(user);
+            List<PostView> posts = postService.getPostsByUser(user);
             List<Map<String, Object>> postList = convertPostsToList(posts);
 
             response.put("success", true);
@@ -132,28 +138,47 @@ public class PostApiController {
         }
     }
 
-    private List<Map<String, Object>> convertPostsToList(List<Post> posts) {
+    /**
+     * 新規投稿通知の送信フレーム数統計を取得（管理者のみ）
+     */
+    @GetMapping("/notification-stats")
+    public ResponseEntity<Map<String, Object>> getNotificationStats(Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (principal == null || !"admin".equals(principal.getName())) {
+            response.put("success", false);
+            response.put("message", "権限がありません");
+            return ResponseEntity.status(403).body(response);
+        }
+        response.put("success", true);
+        response.put("stats", postNotificationService.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 次ページのカーソル（最後の投稿ID）、最終ページならnull
+     */
+    private Long nextCursor(List<PostView> posts, int limit) {
+        if (posts.isEmpty() || posts.size() < Math.min(limit, PostService.MAX_PAGE_SIZE)) {
+            return null;
+        }
+        return posts.get(posts.size() - 1).getId();
+    }
+
+    private List<Map<String, Object>> convertPostsToList(List<PostView> posts) {
         List<Map<String, Object>> postList = new ArrayList<>();
-        for (Post post : posts) {
+        for (PostView post : posts) {
             Map<String, Object> postMap = new HashMap<>();
             postMap.put("id", post.getId());
             postMap.put("content", post.getContent());
             postMap.put("mediaPath", post.getMediaPath());
             postMap.put("createdAt", post.getCreatedAt().format(DATE_FORMATTER));
 
-            User user = post.getUser();
             Map<String, Object> userMap = new HashMap<>();
-            userMap.put("id", user.getId());
-            userMap.put("username", user.getUsername());
-            userMap.put("friendCode", user.getFriendCode());
-
-            if (user.getProfile() != null) {
-                userMap.put("displayName", user.getProfile().getDisplayName());
-                userMap.put("avatarUrl", user.getProfile().getAvatarUrl());
-            } else {
-                userMap.put("displayName", user.getUsername());
-                userMap.put("avatarUrl", null);
-            }
+            userMap.put("id", post.getUserId());
+            userMap.put("username", post.getUsername());
+            userMap.put("friendCode", post.getFriendCode());
+            userMap.put("displayName", post.getDisplayName());
+            userMap.put("avatarUrl", post.getAvatarUrl());
 
             postMap.put("user", userMap);
             postList.add(postMap);
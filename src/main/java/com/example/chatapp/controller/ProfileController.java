@@ -9,6 +9,7 @@ import com.example.chatapp.service.OnlineUserService;
 import com.example.chatapp.service.UserStatisticsService;
 import com.example.chatapp.dto.UserStatisticsDto;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
@@ -28,6 +29,9 @@ import java.util.Optional;
 @RequestMapping("/profile")
 public class ProfileController {
 
+    // プロフィール検索の1ページあたりの件数
+    private static final int SEARCH_PAGE_SIZE = 30;
+
     @Autowired
     private UserProfileService userProfileService;
 
@@ -252,9 +256,11 @@ public class ProfileController {
             @RequestParam(required = false) String location,
             @RequestParam(required = false) String onlineStatus,
             @RequestParam(required = false, defaultValue = "false") boolean onlineOnly,
+            @RequestParam(required = false, defaultValue = "0") int page,
             Model model) {
         
         List<UserProfile> searchResults = List.of();
+        Page<UserProfile> resultPage = null;
         
         // 検索条件が指定されている場合のみ検索実行
         if ((keyword != null && !keyword.trim().isEmpty()) ||
@@ -262,9 +268,10 @@ public class ProfileController {
             (onlineStatus != null && !onlineStatus.trim().isEmpty()) ||
             onlineOnly) {
             
-            searchResults = userProfileService.searchProfilesWithFilters(
-                keyword, location, onlineStatus, onlineOnly
+            resultPage = userProfileService.searchProfilesWithFilters(
+                keyword, location, onlineStatus, onlineOnly, Math.max(0, page), SEARCH_PAGE_SIZE
             );
+            searchResults = resultPage.getContent();
         }
         
         // 検索条件をモデルに追加
@@ -273,6 +280,7 @@ public class ProfileController {
         model.addAttribute("onlineStatus", onlineStatus);
         model.addAttribute("onlineOnly", onlineOnly);
         model.addAttribute("searchResults", searchResults);
+        model.addAttribute("resultPage", resultPage);
         
         return "profile/search";
     }
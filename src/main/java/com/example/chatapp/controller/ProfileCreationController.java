@@ -1,15 +1,13 @@
 package com.example.chatapp.controller;
 
-import com.example.chatapp.entity.FavoriteTag;
 import com.example.chatapp.entity.User;
 import com.example.chatapp.entity.UserProfile;
-import com.example.chatapp.repository.FavoriteTagRepository;
 import com.example.chatapp.repository.UserRepository;
 import com.example.chatapp.repository.UserProfileRepository;
+import com.example.chatapp.service.TrendingTagService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -18,9 +16,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Controller
 @RequestMapping("/profile")
@@ -33,7 +29,7 @@ public class ProfileCreationController {
     private UserProfileRepository userProfileRepository;
     
     @Autowired
-    private FavoriteTagRepository favoriteTagRepository;
+    private TrendingTagService trendingTagService;
     
     @GetMapping("/create")
     public String showProfileCreationPage(HttpSession session, Model model) {
@@ -60,7 +56,7 @@ public class ProfileCreationController {
         System.out.println("================================");
         
         // 人気の「好きなもの」タグトップ10を取得
-        List<FavoriteTag> topTags = favoriteTagRepository.findTop10ByOrderByUsageCountDesc(PageRequest.of(0, 10));
+        List<TrendingTagService.TrendingTag> topTags = trendingTagService.getTopTags(10);
         
         model.addAttribute("user", user);
         model.addAttribute("topTags", topTags);
@@ -95,18 +91,8 @@ public class ProfileCreationController {
         if (favoriteThings != null && !favoriteThings.trim().isEmpty()) {
             userProfile.setFavoriteThings(favoriteThings);
 
-            // 各タグの使用回数を更新
-            List<String> tags = Arrays.stream(favoriteThings.split(","))
-                    .map(String::trim)
-                    .filter(s -> !s.isEmpty())
-                    .collect(Collectors.toList());
-
-            for (String tagName : tags) {
-                FavoriteTag tag = favoriteTagRepository.findByTagName(tagName)
-                        .orElse(new FavoriteTag(tagName));
-                tag.setUsageCount(tag.getUsageCount() + 1);
-                favoriteTagRepository.save(tag);
-            }
+            // 各タグの使用回数を記録（favorite_tagsへは定期的にまとめて書き出される）
+            trendingTagService.recordTags(TrendingTagService.splitTags(favoriteThings));
         } else {
             userProfile.setFavoriteThings("");
         }
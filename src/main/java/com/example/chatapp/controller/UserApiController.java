@@ -5,6 +5,10 @@ import com.example.chatapp.entity.UserProfile;
 import com.example.chatapp.service.UserService;
 import com.example.chatapp.service.UserProfileService;
 import com.example.chatapp.service.FriendshipService;
+import com.example.chatapp.service.DeletionJobService;
+import com.example.chatapp.service.EntityCacheService;
+import com.example.chatapp.service.RetentionService;
+import com.example.chatapp.service.UserStatisticsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -13,6 +17,8 @@ import org.springframework.web.bind.annotation.*;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
 import java.security.Principal;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -33,6 +39,18 @@ public class UserApiController {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
     
+    @Autowired
+    private DeletionJobService deletionJobService;
+    
+    @Autowired
+    private EntityCacheService entityCacheService;
+
+    @Autowired
+    private RetentionService retentionService;
+
+    @Autowired
+    private UserStatisticsService userStatisticsService;
+    
     @PersistenceContext
     private EntityManager entityManager;
 
@@ -403,4 +421,185 @@ public class UserApiController {
             return ResponseEntity.status(500).body(response);
         }
     }
+
+    /**
+     * 自分のアカウントを削除（即時に論理削除し、関連データはバックグラウンドで削除）
+     */
+    @DeleteMapping("/me")
+    public ResponseEntity<Map<String, Object>> deleteMyAccount(Principal principal, HttpServletRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            String username = principal.getName();
+            User currentUser = userService.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません"));
+
+            DeletionJobService.DeletionJob job = deletionJobService.scheduleUserDeletion(currentUser.getId(), username);
+
+            // 削除処理中のユーザーはログアウトさせる
+            HttpSession session = request.getSession(false);
+            if (session != null) {
+                session.invalidate();
+            }
+
+            response.put("success", true);
+            response.put("jobId", job.getJobId());
+            response.put("message", "アカウントの削除を開始しました");
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * ユーザーを削除（管理者のみ）
+     */
+    @DeleteMapping("/{userId}")
+    public ResponseEntity<Map<String, Object>> deleteUser(@PathVariable Long userId, Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (!"admin".equals(principal.getName())) {
+            response.put("success", false);
+            response.put("message", "削除権限がありません");
+            return ResponseEntity.status(403).body(response);
+        }
+
+        Optional<User> targetOpt = userService.findById(userId);
+        if (targetOpt.isEmpty() || targetOpt.get().isDeleted()) {
+            response.put("success", false);
+            response.put("message", "ユーザーが見つかりません");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        DeletionJobService.DeletionJob job = deletionJobService.scheduleUserDeletion(userId, principal.getName());
+        response.put("success", true);
+        response.put("jobId", job.getJobId());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 削除ジョブの進捗を取得（依頼者または管理者のみ）
+     */
+    @GetMapping("/deletion-jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getDeletionJob(@PathVariable String jobId, Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        Optional<DeletionJobService.DeletionJob> jobOpt = deletionJobService.getJob(jobId);
+        if (jobOpt.isEmpty() || !(jobOpt.get().getRequestedBy().equals(principal.getName())
+                || "admin".equals(principal.getName()))) {
+            response.put("success", false);
+            response.put("message", "ジョブが見つかりません");
+            return ResponseEntity.status(404).body(response);
+        }
+
+        response.put("success", true);
+        response.putAll(jobDetails(jobOpt.get()));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 保持期間の設定と前回の削除ジョブ（管理者のみ）
+     */
+    @GetMapping("/retention")
+    public ResponseEntity<Map<String, Object>> getRetention(Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (!"admin".equals(principal.getName())) {
+            response.put("success", false);
+            response.put("message", "権限がありません");
+            return ResponseEntity.status(403).body(response);
+        }
+
+        response.put("success", true);
+        response.put("rules", retentionService.getRules());
+        DeletionJobService.DeletionJob lastJob = retentionService.getLastJob();
+        response.put("lastJob", lastJob != null ? jobDetails(lastJob) : null);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 保持期間を過ぎたデータの削除をすぐに開始（管理者のみ、進捗は /deletion-jobs/{jobId}）
+     */
+    @PostMapping("/retention/run")
+    public ResponseEntity<Map<String, Object>> runRetention(Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (!"admin".equals(principal.getName())) {
+            response.put("success", false);
+            response.put("message", "権限がありません");
+            return ResponseEntity.status(403).body(response);
+        }
+
+        DeletionJobService.DeletionJob job = retentionService.runNow(principal.getName());
+        response.put("success", true);
+        response.put("jobId", job.getJobId());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * ユーザー統計（user_stats）の状態と前回の再構築結果（管理者のみ）
+     */
+    @GetMapping("/stats/status")
+    public ResponseEntity<Map<String, Object>> getStatsStatus(Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (!"admin".equals(principal.getName())) {
+            response.put("success", false);
+            response.put("message", "権限がありません");
+            return ResponseEntity.status(403).body(response);
+        }
+
+        response.put("success", true);
+        response.putAll(userStatisticsService.getStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * ユーザー統計を元テーブルから再構築（管理者のみ、進捗は /stats/status）
+     */
+    @PostMapping("/stats/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildStats(Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (!"admin".equals(principal.getName())) {
+            response.put("success", false);
+            response.put("message", "権限がありません");
+            return ResponseEntity.status(403).body(response);
+        }
+
+        boolean started = userStatisticsService.startRebuild();
+        response.put("success", started);
+        response.put("message", started ? "再構築を開始しました" : "再構築は実行中です");
+        return ResponseEntity.ok(response);
+    }
+
+    private Map<String, Object> jobDetails(DeletionJobService.DeletionJob job) {
+        Map<String, Object> details = new HashMap<>();
+        details.put("jobId", job.getJobId());
+        details.put("targetType", job.getTargetType());
+        details.put("targetId", job.getTargetId());
+        details.put("status", job.getStatus());
+        details.put("currentStep", job.getCurrentStep());
+        details.put("rowsDeleted", job.getRowsDeleted());
+        details.put("rowsByTable", job.getRowsByTable());
+        details.put("vacuumedPages", job.getVacuumedPages());
+        details.put("requestedAt", job.getRequestedAt());
+        details.put("startedAt", job.getStartedAt());
+        details.put("finishedAt", job.getFinishedAt());
+        details.put("elapsedMillis", job.getElapsedMillis());
+        details.put("error", job.getError());
+        return details;
+    }
+
+    /**
+     * エンティティキャッシュのヒット・ミス統計（管理者のみ）
+     */
+    @GetMapping("/cache-stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats(Principal principal) {
+        Map<String, Object> response = new HashMap<>();
+        if (!"admin".equals(principal.getName())) {
+            response.put("success", false);
+            response.put("message", "権限がありません");
+            return ResponseEntity.status(403).body(response);
+        }
+
+        response.put("success", true);
+        response.put("entityCache", entityCacheService.getStats());
+        return ResponseEntity.ok(response);
+    }
 }
@@ -1,6 +1,7 @@
 package com.example.chatapp.dto;
 
 import com.example.chatapp.entity.ChatRoom;
+import com.example.chatapp.repository.ChatRoomRepository;
 
 import java.time.LocalDateTime;
 
@@ -38,6 +39,20 @@ public class ChatRoomDto {
         this.iconUrl = chatRoom.getIconUrl();
     }
 
+    // 一覧用プロジェクションから生成するコンストラクタ（参加者を読み込まずに件数だけ使う）
+    public ChatRoomDto(ChatRoomRepository.RoomSummaryView view) {
+        this.id = view.getId();
+        this.name = view.getName();
+        this.description = view.getDescription();
+        this.type = view.getType() != null ? view.getType().name() : null;
+        this.isPublic = Boolean.TRUE.equals(view.getPublicRoom());
+        this.createdByUsername = view.getCreatedByUsername();
+        this.createdAt = view.getCreatedAt();
+        this.lastActivityAt = view.getCreatedAt();
+        this.memberCount = view.getMemberCount() != null ? view.getMemberCount() : 0;
+        this.iconUrl = view.getIconUrl();
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -8,6 +8,7 @@ public class MessageDto {
     @NotBlank(message = "メッセージ内容は必須です")
     private String content;
     
+    private Long messageId; // 履歴APIの before に指定するカーソル
     private Long chatRoomId;
     private String senderUsername;
     private Long userId; // ユーザーID追加
@@ -36,6 +37,14 @@ public class MessageDto {
         this.content = content;
     }
     
+    public Long getMessageId() {
+        return messageId;
+    }
+    
+    public void setMessageId(Long messageId) {
+        this.messageId = messageId;
+    }
+    
     public Long getChatRoomId() {
         return chatRoomId;
     }
@@ -0,0 +1,70 @@
+package com.example.chatapp.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * AIチャットの会話履歴の1発言
+ * AiConversationMemoryService がJDBCでまとめて書き込むため、ユーザーはIDのみ保持する
+ */
+@Entity
+@Table(name = "ai_conversation_turns", indexes = {
+    @Index(name = "idx_ai_conversation_turns_user_seq", columnList = "user_id, seq")
+})
+public class AiConversationTurn {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    // 発言順（同一ユーザー内で単調増加）
+    @Column(nullable = false)
+    private Long seq;
+
+    // "user" または "model"
+    @Column(nullable = false, length = 16)
+    private String role;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;
+
+    // システム指示と最初の自己紹介（履歴の切り詰め対象外）
+    @Column(nullable = false)
+    private boolean pinned = false;
+
+    // 記録時刻（エポックミリ秒）
+    @Column(name = "created_at", nullable = false)
+    private Long createdAt;
+
+    public AiConversationTurn() {}
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -3,14 +3,22 @@ package com.example.chatapp.entity;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.SQLRestriction;
 
 import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "chat_rooms")
+@Table(name = "chat_rooms", indexes = {
+    @Index(name = "uk_chat_rooms_user_pair", columnList = "min_user_id, max_user_id", unique = true)
+})
+@SQLRestriction("deleted_at IS NULL") // 削除処理中のルームは読み込まない
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "chatapp-chat-room")
 public class ChatRoom {
     
     @Id
@@ -43,6 +51,17 @@ public class ChatRoom {
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
     
+    // 1対1ルーム（PRIVATE/RANDOM）の正規化ユーザーペア（小さいID, 大きいID）
+    @Column(name = "min_user_id")
+    private Long minUserId;
+    
+    @Column(name = "max_user_id")
+    private Long maxUserId;
+    
+    // 削除ジョブ登録時刻（論理削除、実データはバックグラウンドで削除）
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;
+    
     @OneToMany(mappedBy = "chatRoom", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<Message> messages = new HashSet<>();
     
@@ -136,6 +155,38 @@ public class ChatRoom {
         this.createdAt = createdAt;
     }
     
+    public Long getMinUserId() {
+        return minUserId;
+    }
+    
+    public Long getMaxUserId() {
+        return maxUserId;
+    }
+    
+    // 2人のユーザーIDを正規化してペアキーとして設定
+    public void setUserPair(Long userId1, Long userId2) {
+        this.minUserId = Math.min(userId1, userId2);
+        this.maxUserId = Math.max(userId1, userId2);
+    }
+    
+    // ペアキーを解除（メンバー構成が変わった場合）
+    public void clearUserPair() {
+        this.minUserId = null;
+        this.maxUserId = null;
+    }
+    
+    public boolean hasUserPair() {
+        return minUserId != null && maxUserId != null;
+    }
+    
+    public LocalDateTime getDeletedAt() {
+        return deletedAt;
+    }
+    
+    public void setDeletedAt(LocalDateTime deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+    
     public Set<Message> getMessages() {
         return messages;
     }
@@ -163,4 +214,17 @@ public class ChatRoom {
         this.users.remove(user);
         user.getChatRooms().remove(this);
     }
+
+    // 別の永続化コンテキストで読み込んだ同じルームも等しいとみなす（IDで比較）
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChatRoom other)) return false;
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return ChatRoom.class.hashCode();
+    }
 }
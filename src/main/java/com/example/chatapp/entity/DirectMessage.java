@@ -15,7 +15,7 @@ import java.time.LocalDateTime;
 public class DirectMessage {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TimeOrderedId
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
@@ -11,7 +11,8 @@ import java.time.LocalDateTime;
  */
 @Entity
 @Table(name = "direct_message_conversations",
-    uniqueConstraints = @UniqueConstraint(columnNames = {"user1_id", "user2_id"}))
+    uniqueConstraints = @UniqueConstraint(columnNames = {"user1_id", "user2_id"}),
+    indexes = @Index(name = "uk_dm_conversations_user_pair", columnList = "min_user_id, max_user_id", unique = true))
 public class DirectMessageConversation {
     
     @Id
@@ -26,6 +27,13 @@ public class DirectMessageConversation {
     @JoinColumn(name = "user2_id", nullable = false)
     private User user2;
     
+    // 正規化ユーザーペア（小さいID, 大きいID）- 順序を問わない検索用
+    @Column(name = "min_user_id")
+    private Long minUserId;
+    
+    @Column(name = "max_user_id")
+    private Long maxUserId;
+    
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -75,6 +83,26 @@ public class DirectMessageConversation {
         this.user2 = user2;
     }
     
+    public Long getMinUserId() {
+        return minUserId;
+    }
+    
+    public Long getMaxUserId() {
+        return maxUserId;
+    }
+    
+    public void setUserPair(Long userId1, Long userId2) {
+        this.minUserId = Math.min(userId1, userId2);
+        this.maxUserId = Math.max(userId1, userId2);
+    }
+    
+    @PrePersist
+    protected void assignUserPair() {
+        if (minUserId == null && user1 != null && user2 != null) {
+            setUserPair(user1.getId(), user2.getId());
+        }
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
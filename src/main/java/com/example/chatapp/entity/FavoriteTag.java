@@ -14,6 +14,12 @@ public class FavoriteTag {
     
     @Column(nullable = false)
     private Integer usageCount = 0;
+
+    // トレンドスコア（時間減衰付きの使用回数、trendUpdatedAt時点の値）
+    private Double trendScore;
+
+    // trendScoreを記録した時刻（エポックミリ秒）
+    private Long trendUpdatedAt;
     
     // デフォルトコンストラクタ
     public FavoriteTag() {}
@@ -47,4 +53,20 @@ public class FavoriteTag {
     public void setUsageCount(Integer usageCount) {
         this.usageCount = usageCount;
     }
+
+    public Double getTrendScore() {
+        return trendScore;
+    }
+
+    public void setTrendScore(Double trendScore) {
+        this.trendScore = trendScore;
+    }
+
+    public Long getTrendUpdatedAt() {
+        return trendUpdatedAt;
+    }
+
+    public void setTrendUpdatedAt(Long trendUpdatedAt) {
+        this.trendUpdatedAt = trendUpdatedAt;
+    }
 }
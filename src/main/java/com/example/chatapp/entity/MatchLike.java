@@ -13,7 +13,7 @@ import java.time.LocalDateTime;
 public class MatchLike {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TimeOrderedId
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -12,7 +12,7 @@ import java.time.LocalDateTime;
 public class Message {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TimeOrderedId
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
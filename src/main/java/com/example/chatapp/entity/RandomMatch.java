@@ -11,7 +11,7 @@ import java.time.LocalDateTime;
 public class RandomMatch {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TimeOrderedId
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -6,7 +6,10 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "room_invitations")
+@Table(name = "room_invitations", indexes = {
+    @Index(name = "idx_room_invitations_room_status", columnList = "room_id, status"),
+    @Index(name = "idx_room_invitations_invitee_status", columnList = "invitee_id, status")
+})
 public class RoomInvitation {
 
     @Id
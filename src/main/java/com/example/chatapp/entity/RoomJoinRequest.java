@@ -6,7 +6,10 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "room_join_requests")
+@Table(name = "room_join_requests", indexes = {
+    @Index(name = "idx_room_join_requests_room_status", columnList = "room_id, status"),
+    @Index(name = "idx_room_join_requests_user_status", columnList = "user_id, status")
+})
 public class RoomJoinRequest {
 
     @Id
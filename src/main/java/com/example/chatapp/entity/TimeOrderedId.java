@@ -0,0 +1,18 @@
+package com.example.chatapp.entity;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 時刻順のIDをアプリ側で採番する（@GeneratedValue(IDENTITY) の代わりに付ける）
+ * 詳細は {@link TimeOrderedIdGenerator}
+ */
+@IdGeneratorType(TimeOrderedIdGenerator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface TimeOrderedId {
+}
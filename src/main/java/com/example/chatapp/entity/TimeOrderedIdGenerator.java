@@ -0,0 +1,83 @@
+package com.example.chatapp.entity;
+
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+
+import java.lang.reflect.Member;
+import java.util.EnumSet;
+
+/**
+ * 時刻順の64bit ID生成（JavaScript の Number で誤差なく扱えるよう53bitに収める）
+ * [41bit: 2024-01-01 からのミリ秒][4bit: ノードID][8bit: 同一ミリ秒内の連番]
+ * - DBに問い合わせずに採番するため、IDENTITY と違って Hibernate の INSERT バッチが効く
+ * - SQLite / PostgreSQL のどちらでも同じ動作（既存の自動採番IDより常に大きい値になる）
+ * - 時計が戻った場合や連番を使い切った場合は直前のミリ秒を進め、単調増加を保つ
+ * ノードIDは spring.jpa.properties.app.id.node-id で指定（複数台で動かす場合は台ごとに変える）
+ */
+public class TimeOrderedIdGenerator implements BeforeExecutionGenerator {
+
+    public static final String NODE_ID_SETTING = "app.id.node-id";
+
+    private static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 4;
+    private static final int SEQUENCE_BITS = 8;
+    public static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    // エンティティの種類をまたいで1つのカウンタを共有する
+    private static final Object lock = new Object();
+    private static long lastTick = -1;
+    private static long sequence;
+
+    private final long nodeId;
+
+    public TimeOrderedIdGenerator(TimeOrderedId config, Member member, CustomIdGeneratorCreationContext context) {
+        this(nodeIdSetting(context));
+    }
+
+    public TimeOrderedIdGenerator(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException(NODE_ID_SETTING + " は0〜" + MAX_NODE_ID + "で指定してください: " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+
+    private static long nodeIdSetting(CustomIdGeneratorCreationContext context) {
+        Object value = context.getServiceRegistry().requireService(ConfigurationService.class)
+                .getSettings().get(NODE_ID_SETTING);
+        return value == null ? 0 : Long.parseLong(value.toString().trim());
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object owner, Object currentValue,
+                           EventType eventType) {
+        return nextId();
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_ONLY;
+    }
+
+    public long nextId() {
+        long tick;
+        long seq;
+        synchronized (lock) {
+            long now = System.currentTimeMillis() - EPOCH_MILLIS;
+            if (now > lastTick) {
+                lastTick = now;
+                sequence = 0;
+            } else if (++sequence > MAX_SEQUENCE) {
+                lastTick++;
+                sequence = 0;
+            }
+            tick = lastTick;
+            seq = sequence;
+        }
+        return (tick << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | seq;
+    }
+}
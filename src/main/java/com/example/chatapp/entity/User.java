@@ -1,9 +1,12 @@
 package com.example.chatapp.entity;
 
+import com.example.chatapp.service.UserSearchIndexListener;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -13,6 +16,9 @@ import java.util.Set;
 
 @Entity
 @Table(name = "users")
+@EntityListeners(UserSearchIndexListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "chatapp-user")
 public class User {
     
     @Id
@@ -45,6 +51,10 @@ public class User {
     @Column(name = "updated_at", nullable = false)
     private LocalDateTime updatedAt;
     
+    // 削除ジョブ登録時刻（論理削除、関連データはバックグラウンドで削除）
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;
+    
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<Message> messages = new HashSet<>();
     
@@ -124,6 +134,18 @@ public class User {
         this.updatedAt = updatedAt;
     }
     
+    public LocalDateTime getDeletedAt() {
+        return deletedAt;
+    }
+    
+    public void setDeletedAt(LocalDateTime deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+    
+    public boolean isDeleted() {
+        return deletedAt != null;
+    }
+    
     public Set<Message> getMessages() {
         return messages;
     }
@@ -155,4 +177,17 @@ public class User {
     public void setProfile(UserProfile profile) {
         this.profile = profile;
     }
+
+    // 別の永続化コンテキストで読み込んだ同じユーザーも等しいとみなす（IDで比較）
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof User other)) return false;
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return User.class.hashCode();
+    }
 }
@@ -1,6 +1,10 @@
 package com.example.chatapp.entity;
 
+import com.example.chatapp.service.UserSearchIndexListener;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import java.time.LocalDateTime;
 
 /**
@@ -8,6 +12,9 @@ import java.time.LocalDateTime;
  */
 @Entity
 @Table(name = "user_profiles")
+@EntityListeners(UserSearchIndexListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "chatapp-user-profile")
 public class UserProfile {
 
     @Id
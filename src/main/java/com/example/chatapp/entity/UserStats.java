@@ -0,0 +1,76 @@
+package com.example.chatapp.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * ユーザーごとの統計ロールアップ
+ * ドメインイベントから非同期に加算し、再構築ジョブで元テーブルから再計算する
+ * （書き込みは UserStatisticsService の JDBC による upsert のみ）
+ */
+@Entity
+@Table(name = "user_stats")
+public class UserStats {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    // ルームで送信したメッセージ数（アーカイブ済みを含む）
+    @Column(name = "messages_sent", nullable = false)
+    private long messagesSent;
+
+    @Column(name = "rooms_joined", nullable = false)
+    private int roomsJoined;
+
+    @Column(name = "following_count", nullable = false)
+    private int followingCount;
+
+    @Column(name = "follower_count", nullable = false)
+    private int followerCount;
+
+    // 相互フォロー数
+    @Column(name = "friend_count", nullable = false)
+    private int friendCount;
+
+    // 最後にメッセージを送信した日時
+    @Column(name = "last_active_at")
+    private LocalDateTime lastActiveAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    public UserStats() {}
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public int getRoomsJoined() {
+        return roomsJoined;
+    }
+
+    public int getFollowingCount() {
+        return followingCount;
+    }
+
+    public int getFollowerCount() {
+        return followerCount;
+    }
+
+    public int getFriendCount() {
+        return friendCount;
+    }
+
+    public LocalDateTime getLastActiveAt() {
+        return lastActiveAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -1,13 +1,18 @@
 package com.example.chatapp.repository;
 
 import com.example.chatapp.entity.ChatRoom;
+import com.example.chatapp.entity.RoomJoinRequest;
 import com.example.chatapp.entity.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
@@ -17,11 +22,99 @@ public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
     @Query("SELECT cr FROM ChatRoom cr JOIN cr.users u WHERE u.id = :userId")
     List<ChatRoom> findByUserId(@Param("userId") Long userId);
     
-    // ユーザーが参加しているチャットルームを取得
+    // ユーザーが参加しているチャットルームを取得（画面で参加者数・作成者を表示するため合わせて読み込む）
+    @EntityGraph(attributePaths = {"users", "createdBy"})
     List<ChatRoom> findByUsersContaining(User user);
     
+    // ユーザーが参加していないパブリックルームを取得（参加者・作成者込み）
+    @EntityGraph(attributePaths = {"users", "createdBy"})
+    @Query("SELECT cr FROM ChatRoom cr WHERE cr.isPublic = true AND NOT EXISTS " +
+           "(SELECT 1 FROM ChatRoom r JOIN r.users u WHERE r.id = cr.id AND u.id = :userId) ORDER BY cr.id")
+    List<ChatRoom> findAvailablePublicRooms(@Param("userId") Long userId);
+    
+    // 参加者（プロフィール込み）と作成者を合わせて取得
+    @EntityGraph(attributePaths = {"users", "users.profile", "createdBy"})
+    Optional<ChatRoom> findWithMembersById(Long id);
+    
+    /**
+     * ユーザーが参加しているルームの一覧（作成者名・参加者数を1クエリで集計）
+     */
+    @Query("SELECT cr.id AS id, cr.name AS name, cr.description AS description, cr.type AS type, " +
+           "cr.isPublic AS publicRoom, c.username AS createdByUsername, cr.createdAt AS createdAt, " +
+           "SIZE(cr.users) AS memberCount, cr.iconUrl AS iconUrl " +
+           "FROM ChatRoom cr LEFT JOIN cr.createdBy c " +
+           "WHERE EXISTS (SELECT 1 FROM ChatRoom r JOIN r.users u WHERE r.id = cr.id AND u.id = :userId) " +
+           "ORDER BY cr.id")
+    List<RoomSummaryView> findJoinedRoomViews(@Param("userId") Long userId);
+    
+    /**
+     * ユーザーが参加していないパブリックルームの一覧
+     */
+    @Query("SELECT cr.id AS id, cr.name AS name, cr.description AS description, cr.type AS type, " +
+           "cr.isPublic AS publicRoom, c.username AS createdByUsername, cr.createdAt AS createdAt, " +
+           "SIZE(cr.users) AS memberCount, cr.iconUrl AS iconUrl " +
+           "FROM ChatRoom cr LEFT JOIN cr.createdBy c " +
+           "WHERE cr.isPublic = true AND NOT EXISTS " +
+           "(SELECT 1 FROM ChatRoom r JOIN r.users u WHERE r.id = cr.id AND u.id = :userId) " +
+           "ORDER BY cr.id")
+    List<RoomSummaryView> findAvailablePublicRoomViews(@Param("userId") Long userId);
+    
+    /**
+     * ユーザーが参加申請中のルームの一覧
+     */
+    @Query("SELECT cr.id AS id, cr.name AS name, cr.description AS description, cr.type AS type, " +
+           "cr.isPublic AS publicRoom, c.username AS createdByUsername, cr.createdAt AS createdAt, " +
+           "SIZE(cr.users) AS memberCount, cr.iconUrl AS iconUrl " +
+           "FROM ChatRoom cr LEFT JOIN cr.createdBy c " +
+           "WHERE EXISTS (SELECT 1 FROM RoomJoinRequest jr WHERE jr.chatRoom.id = cr.id " +
+           "AND jr.user.id = :userId AND jr.status = :status) " +
+           "ORDER BY cr.id")
+    List<RoomSummaryView> findRequestedRoomViews(@Param("userId") Long userId,
+                                                 @Param("status") RoomJoinRequest.RequestStatus status);
+    
+    /**
+     * 1件のルームの一覧表示用情報（参加・退出の通知用）
+     */
+    @Query("SELECT cr.id AS id, cr.name AS name, cr.description AS description, cr.type AS type, " +
+           "cr.isPublic AS publicRoom, c.username AS createdByUsername, cr.createdAt AS createdAt, " +
+           "SIZE(cr.users) AS memberCount, cr.iconUrl AS iconUrl " +
+           "FROM ChatRoom cr LEFT JOIN cr.createdBy c WHERE cr.id = :roomId")
+    Optional<RoomSummaryView> findRoomViewById(@Param("roomId") Long roomId);
+    
     List<ChatRoom> findByType(ChatRoom.ChatRoomType type);
     
     // チャットルーム名で検索
     List<ChatRoom> findByNameContainingIgnoreCase(String name);
+    
+    // ユーザーがルームの作成者または参加者か（削除済みのルームは含めない）
+    @Query("SELECT COUNT(cr) > 0 FROM ChatRoom cr LEFT JOIN cr.createdBy c LEFT JOIN cr.users m " +
+           "WHERE cr.id = :roomId AND cr.deletedAt IS NULL AND (c.username = :username OR m.username = :username)")
+    boolean isCreatorOrMember(@Param("roomId") Long roomId, @Param("username") String username);
+    
+    // 正規化ユーザーペアで1対1ルームを検索（ユニークインデックス）
+    Optional<ChatRoom> findByMinUserIdAndMaxUserId(Long minUserId, Long maxUserId);
+    
+    // ペアキー未設定の1対1ルームのメンバー（ルームID, ユーザーID）を取得
+    @Query("SELECT cr.id, u.id FROM ChatRoom cr JOIN cr.users u " +
+           "WHERE cr.type IN :types AND cr.minUserId IS NULL ORDER BY cr.id")
+    List<Object[]> findUnpairedRoomMembers(@Param("types") List<ChatRoom.ChatRoomType> types);
+    
+    @Modifying
+    @Query("UPDATE ChatRoom cr SET cr.minUserId = :minUserId, cr.maxUserId = :maxUserId WHERE cr.id = :roomId")
+    int assignUserPair(@Param("roomId") Long roomId, @Param("minUserId") Long minUserId, @Param("maxUserId") Long maxUserId);
+    
+    /**
+     * ルーム一覧API用のプロジェクション
+     */
+    interface RoomSummaryView {
+        Long getId();
+        String getName();
+        String getDescription();
+        ChatRoom.ChatRoomType getType();
+        Boolean getPublicRoom();
+        String getCreatedByUsername();
+        LocalDateTime getCreatedAt();
+        Integer getMemberCount();
+        String getIconUrl();
+    }
 }
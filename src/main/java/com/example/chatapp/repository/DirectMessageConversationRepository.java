@@ -3,10 +3,12 @@ package com.example.chatapp.repository;
 import com.example.chatapp.entity.DirectMessageConversation;
 import com.example.chatapp.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,10 +18,28 @@ public interface DirectMessageConversationRepository extends JpaRepository<Direc
     /**
      * 2人のユーザー間の会話を検索（順序は問わない）
      */
-    @Query("SELECT c FROM DirectMessageConversation c WHERE " +
-           "(c.user1 = :user1 AND c.user2 = :user2) OR " +
-           "(c.user1 = :user2 AND c.user2 = :user1)")
-    Optional<DirectMessageConversation> findByUsers(@Param("user1") User user1, @Param("user2") User user2);
+    default Optional<DirectMessageConversation> findByUsers(User user1, User user2) {
+        return findByMinUserIdAndMaxUserId(Math.min(user1.getId(), user2.getId()),
+                                           Math.max(user1.getId(), user2.getId()));
+    }
+    
+    /**
+     * 正規化ユーザーペアで会話を検索（ユニークインデックス）
+     */
+    Optional<DirectMessageConversation> findByMinUserIdAndMaxUserId(Long minUserId, Long maxUserId);
+    
+    /**
+     * ペアキー未設定の会話（会話ID, user1 ID, user2 ID）を取得
+     */
+    @Query("SELECT c.id, c.user1.id, c.user2.id FROM DirectMessageConversation c " +
+           "WHERE c.minUserId IS NULL ORDER BY c.id")
+    List<Object[]> findUnpairedConversations();
+    
+    @Modifying
+    @Query("UPDATE DirectMessageConversation c SET c.minUserId = :minUserId, c.maxUserId = :maxUserId " +
+           "WHERE c.id = :conversationId")
+    int assignUserPair(@Param("conversationId") Long conversationId,
+                       @Param("minUserId") Long minUserId, @Param("maxUserId") Long maxUserId);
     
     /**
      * 指定ユーザーが参加している全ての会話を取得（最新メッセージ順）
@@ -29,9 +49,40 @@ public interface DirectMessageConversationRepository extends JpaRepository<Direc
            "ORDER BY c.lastMessageAt DESC")
     List<DirectMessageConversation> findByUserOrderByLastMessageAtDesc(@Param("user") User user);
     
+    /**
+     * 指定ユーザーの会話一覧を相手ユーザー・プロフィール・未読数と合わせて1クエリで取得（最新メッセージ順）
+     */
+    @Query("SELECT c.id AS conversationId, u.id AS userId, u.username AS username, " +
+           "CASE WHEN p.displayName IS NULL OR p.displayName = '' THEN u.username ELSE p.displayName END AS displayName, " +
+           "p.avatarUrl AS avatarUrl, c.lastMessageContent AS lastMessage, c.lastMessageAt AS lastMessageAt, " +
+           "s.username AS lastMessageSender, " +
+           "(SELECT COUNT(m) FROM DirectMessage m WHERE m.conversation = c AND m.receiver.id = :userId " +
+           "AND m.isRead = false) AS unreadCount " +
+           "FROM DirectMessageConversation c " +
+           "JOIN User u ON u.id = CASE WHEN c.user1.id = :userId THEN c.user2.id ELSE c.user1.id END " +
+           "LEFT JOIN u.profile p LEFT JOIN c.lastMessageSender s " +
+           "WHERE c.user1.id = :userId OR c.user2.id = :userId " +
+           "ORDER BY c.lastMessageAt DESC")
+    List<ConversationView> findViewsByUserId(@Param("userId") Long userId);
+    
     /**
      * 指定ユーザーが参加している会話数を取得
      */
     @Query("SELECT COUNT(c) FROM DirectMessageConversation c WHERE c.user1 = :user OR c.user2 = :user")
     long countByUser(@Param("user") User user);
+    
+    /**
+     * DM会話一覧用のプロジェクション
+     */
+    interface ConversationView {
+        Long getConversationId();
+        Long getUserId();
+        String getUsername();
+        String getDisplayName();
+        String getAvatarUrl();
+        String getLastMessage();
+        LocalDateTime getLastMessageAt();
+        String getLastMessageSender();
+        Long getUnreadCount();
+    }
 }
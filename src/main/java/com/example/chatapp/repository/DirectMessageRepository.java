@@ -9,6 +9,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -18,6 +19,12 @@ public interface DirectMessageRepository extends JpaRepository<DirectMessage, Lo
      * 指定した会話の全メッセージを時系列順に取得
      */
     List<DirectMessage> findByConversationOrderBySentAtAsc(DirectMessageConversation conversation);
+
+    /**
+     * 検索結果の表示用（送信者をまとめて取得）
+     */
+    @Query("SELECT m FROM DirectMessage m JOIN FETCH m.sender WHERE m.id IN :ids")
+    List<DirectMessage> findWithSenderByIdIn(@Param("ids") Collection<Long> ids);
     
     /**
      * 指定した会話の未読メッセージ数を取得
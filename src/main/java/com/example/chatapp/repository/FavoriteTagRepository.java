@@ -14,4 +14,7 @@ public interface FavoriteTagRepository extends JpaRepository<FavoriteTag, Long>
     
     @Query("SELECT f FROM FavoriteTag f ORDER BY f.usageCount DESC")
     List<FavoriteTag> findTop10ByOrderByUsageCountDesc(org.springframework.data.domain.Pageable pageable);
+
+    // トレンドスコアが記録されているタグ（起動時の復元用）
+    List<FavoriteTag> findByTrendScoreIsNotNull();
 }
@@ -32,6 +32,31 @@ public interface FriendshipRepository extends JpaRepository<Friendship, Long> {
     @Query("SELECT f.follower FROM Friendship f WHERE f.following = :user")
     List<User> findFollowers(@Param("user") User user);
 
+    /**
+     * フォロワーのID一覧を取得（タイムライン配信用）
+     */
+    @Query("SELECT f.follower.id FROM Friendship f WHERE f.following.id = :userId")
+    List<Long> findFollowerIds(@Param("userId") Long userId);
+
+    /**
+     * フォロワーのユーザー名一覧を取得（新規投稿の通知先）
+     */
+    @Query("SELECT f.follower.username FROM Friendship f WHERE f.following.id = :userId")
+    List<String> findFollowerUsernames(@Param("userId") Long userId);
+
+    /**
+     * フォロー中のユーザーのうちフォロワー数が閾値を超えるユーザーのID一覧を取得
+     */
+    @Query("SELECT f.following.id FROM Friendship f WHERE f.follower.id = :userId AND " +
+           "(SELECT COUNT(f2) FROM Friendship f2 WHERE f2.following = f.following) > :threshold")
+    List<Long> findHighFanOutFollowingIds(@Param("userId") Long userId, @Param("threshold") long threshold);
+
+    /**
+     * フォロワー数をユーザーIDでカウント
+     */
+    @Query("SELECT COUNT(f) FROM Friendship f WHERE f.following.id = :userId")
+    long countFollowersByUserId(@Param("userId") Long userId);
+
     /**
      * 相互フォロー（友達）一覧を取得
      */
@@ -39,6 +64,22 @@ public interface FriendshipRepository extends JpaRepository<Friendship, Long> {
            "EXISTS (SELECT f2 FROM Friendship f2 WHERE f2.follower = f1.following AND f2.following = :user)")
     List<User> findMutualFollows(@Param("user") User user);
 
+    /**
+     * 相互フォロー（友達）一覧をプロフィールと合わせて1クエリで取得
+     */
+    @Query("SELECT u.id AS id, u.username AS username, p.displayName AS displayName, p.avatarUrl AS avatarUrl " +
+           "FROM Friendship f1 JOIN f1.following u LEFT JOIN u.profile p " +
+           "WHERE f1.follower.id = :userId AND " +
+           "EXISTS (SELECT f2 FROM Friendship f2 WHERE f2.follower = f1.following AND f2.following.id = :userId)")
+    List<FriendView> findMutualFollowViews(@Param("userId") Long userId);
+
+    /**
+     * 相互フォロー（友達）のID一覧を取得
+     */
+    @Query("SELECT f1.following.id FROM Friendship f1 WHERE f1.follower.id = :userId AND " +
+           "EXISTS (SELECT f2 FROM Friendship f2 WHERE f2.follower = f1.following AND f2.following.id = :userId)")
+    List<Long> findMutualFollowIds(@Param("userId") Long userId);
+
     /**
      * 相互フォローかどうか確認
      */
@@ -84,4 +125,14 @@ public interface FriendshipRepository extends JpaRepository<Friendship, Long> {
     default long countFriends(User user) {
         return countByFollower(user);
     }
+
+    /**
+     * フレンド一覧API用のプロジェクション
+     */
+    interface FriendView {
+        Long getId();
+        String getUsername();
+        String getDisplayName();
+        String getAvatarUrl();
+    }
 }
@@ -2,6 +2,7 @@ package com.example.chatapp.repository;
 
 import com.example.chatapp.entity.MatchLike;
 import com.example.chatapp.entity.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -18,12 +19,15 @@ public interface MatchLikeRepository extends JpaRepository<MatchLike, Long> {
     boolean existsByLikerAndLiked(User liker, User liked);
 
     /** 自分がいいねした相手一覧 */
+    @EntityGraph(attributePaths = {"liker", "liked"})
     List<MatchLike> findByLikerOrderByCreatedAtDesc(User liker);
 
     /** 自分にいいねしてくれた人一覧 */
+    @EntityGraph(attributePaths = {"liker", "liked"})
     List<MatchLike> findByLikedOrderByCreatedAtDesc(User liked);
 
     /** 相互いいね（マッチ成立）一覧 — 自分がlikerで、相手も自分をlikeしている */
+    @EntityGraph(attributePaths = {"liker", "liked"})
     @Query("SELECT ml FROM MatchLike ml WHERE ml.liker = :user " +
            "AND EXISTS (SELECT 1 FROM MatchLike ml2 WHERE ml2.liker = ml.liked AND ml2.liked = :user)")
     List<MatchLike> findMutualLikes(@Param("user") User user);
@@ -4,10 +4,13 @@ import com.example.chatapp.entity.ChatRoom;
 import com.example.chatapp.entity.Message;
 import com.example.chatapp.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -23,4 +26,18 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     Page<Message> findByChatRoomIdOrderBySentAtDesc(Long chatRoomId, Pageable pageable);
     
     List<Message> findByChatRoomIdOrderBySentAtDesc(Long chatRoomId);
+
+    // 履歴APIの表示用（送信者とプロフィールをまとめて取得）
+    @Query("SELECT m FROM Message m JOIN FETCH m.user u LEFT JOIN FETCH u.profile " +
+           "WHERE m.chatRoom.id = :chatRoomId ORDER BY m.sentAt ASC")
+    List<Message> findWithUserByChatRoomIdOrderBySentAtAsc(@Param("chatRoomId") Long chatRoomId);
+
+    // 履歴APIのページ取得（IDのカーソルより古いものを新しい順に、送信者とプロフィールもまとめて取得）
+    @Query("SELECT m FROM Message m JOIN FETCH m.user u LEFT JOIN FETCH u.profile " +
+           "WHERE m.chatRoom.id = :chatRoomId AND m.id < :before ORDER BY m.id DESC")
+    List<Message> findPageBefore(@Param("chatRoomId") Long chatRoomId, @Param("before") Long before, Pageable pageable);
+
+    // 検索結果の表示用（送信者をまとめて取得）
+    @Query("SELECT m FROM Message m JOIN FETCH m.user WHERE m.id IN :ids")
+    List<Message> findWithUserByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -1,27 +1,81 @@
 package com.example.chatapp.repository;
 
 import com.example.chatapp.entity.Post;
-import com.example.chatapp.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
-import jakarta.persistence.QueryHint;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface PostRepository extends JpaRepository<Post, Long> {
-    @QueryHints(@QueryHint(name = "javax.persistence.cache.storeMode", value = "REFRESH"))
-    @Query("SELECT p FROM Post p JOIN FETCH p.user ORDER BY p.createdAt DESC")
-    List<Post> findAllByOrderByCreatedAtDesc();
+    /**
+     * 全投稿をIDのキーセットで新しい順にページ取得
+     */
+    @Query("SELECT p FROM Post p JOIN FETCH p.user u LEFT JOIN FETCH u.profile " +
+           "WHERE p.id < :beforeId ORDER BY p.id DESC")
+    List<Post> findPageBefore(@Param("beforeId") Long beforeId, Pageable pageable);
 
-    @QueryHints(@QueryHint(name = "javax.persistence.cache.storeMode", value = "REFRESH"))
-    @Query("SELECT p FROM Post p JOIN FETCH p.user WHERE p.user IN :users ORDER BY p.createdAt DESC")
-    List<Post> findByUserInOrderByCreatedAtDesc(@Param("users") List<User> users);
+    /**
+     * フォロー中ユーザーの投稿IDをキーセットで取得（IN句はサブクエリで展開）
+     */
+    @Query("SELECT p.id FROM Post p WHERE p.id < :beforeId AND p.user.id IN " +
+           "(SELECT f.following.id FROM Friendship f WHERE f.follower.id = :userId) " +
+           "ORDER BY p.id DESC")
+    List<Long> findFolloweePostIdsBefore(@Param("userId") Long userId, @Param("beforeId") Long beforeId,
+                                         Pageable pageable);
 
-    @QueryHints(@QueryHint(name = "javax.persistence.cache.storeMode", value = "REFRESH"))
-    @Query("SELECT p FROM Post p JOIN FETCH p.user WHERE p.user = :user ORDER BY p.createdAt DESC")
-    List<Post> findByUserOrderByCreatedAtDesc(@Param("user") User user);
+    /**
+     * 指定ユーザー群（フォロワーの多いアカウント）の投稿IDをキーセットで取得
+     */
+    @Query("SELECT p.id FROM Post p WHERE p.user.id IN :userIds AND p.id < :beforeId ORDER BY p.id DESC")
+    List<Long> findPostIdsByUserIdsBefore(@Param("userIds") List<Long> userIds, @Param("beforeId") Long beforeId,
+                                          Pageable pageable);
+
+    /**
+     * 全投稿をIDのキーセットで新しい順にページ取得（API用の投稿ビュー）
+     */
+    @Query("SELECT p.id AS id, p.content AS content, p.mediaPath AS mediaPath, p.createdAt AS createdAt, " +
+           "u.id AS userId, u.username AS username, u.friendCode AS friendCode, " +
+           "COALESCE(up.displayName, u.username) AS displayName, up.avatarUrl AS avatarUrl " +
+           "FROM Post p JOIN p.user u LEFT JOIN u.profile up " +
+           "WHERE p.id < :beforeId ORDER BY p.id DESC")
+    List<PostView> findViewPageBefore(@Param("beforeId") Long beforeId, Pageable pageable);
+
+    /**
+     * 投稿IDから投稿ビューを取得（順序は呼び出し側で整える）
+     */
+    @Query("SELECT p.id AS id, p.content AS content, p.mediaPath AS mediaPath, p.createdAt AS createdAt, " +
+           "u.id AS userId, u.username AS username, u.friendCode AS friendCode, " +
+           "COALESCE(up.displayName, u.username) AS displayName, up.avatarUrl AS avatarUrl " +
+           "FROM Post p JOIN p.user u LEFT JOIN u.profile up WHERE p.id IN :ids")
+    List<PostView> findViewsByIdIn(@Param("ids") List<Long> ids);
+
+    /**
+     * ユーザーの投稿ビューを新しい順に取得
+     */
+    @Query("SELECT p.id AS id, p.content AS content, p.mediaPath AS mediaPath, p.createdAt AS createdAt, " +
+           "u.id AS userId, u.username AS username, u.friendCode AS friendCode, " +
+           "COALESCE(up.displayName, u.username) AS displayName, up.avatarUrl AS avatarUrl " +
+           "FROM Post p JOIN p.user u LEFT JOIN u.profile up " +
+           "WHERE u.id = :userId ORDER BY p.createdAt DESC")
+    List<PostView> findViewsByUserId(@Param("userId") Long userId);
+
+    /**
+     * 投稿一覧API用のプロジェクション（投稿者のプロフィールを1クエリで結合）
+     */
+    interface PostView {
+        Long getId();
+        String getContent();
+        String getMediaPath();
+        LocalDateTime getCreatedAt();
+        Long getUserId();
+        String getUsername();
+        String getFriendCode();
+        String getDisplayName();
+        String getAvatarUrl();
+    }
 }
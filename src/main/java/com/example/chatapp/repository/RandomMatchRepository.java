@@ -20,6 +20,17 @@ public interface RandomMatchRepository extends JpaRepository<RandomMatch, Long>
     @Query("SELECT rm FROM RandomMatch rm WHERE (rm.user1 = :user OR rm.user2 = :user)")
     List<RandomMatch> findAllMatchesForUser(@Param("user") User user);
 
+    /**
+     * ユーザーの全マッチを相手ユーザーと合わせて1クエリで取得（履歴画面用）
+     */
+    @Query("SELECT rm.id AS id, u.id AS otherUserId, u.username AS otherUsername, rm.status AS status, " +
+           "rm.messageCount AS messageCount, rm.createdAt AS createdAt, cr.id AS chatRoomId " +
+           "FROM RandomMatch rm " +
+           "JOIN User u ON u.id = CASE WHEN rm.user1.id = :userId THEN rm.user2.id ELSE rm.user1.id END " +
+           "LEFT JOIN rm.chatRoom cr " +
+           "WHERE rm.user1.id = :userId OR rm.user2.id = :userId")
+    List<MatchHistoryView> findHistoryViewsByUserId(@Param("userId") Long userId);
+
     @Query("SELECT rm FROM RandomMatch rm WHERE rm.status = 'ACTIVE'")
     List<RandomMatch> findActiveMatches();
 
@@ -61,4 +72,17 @@ public interface RandomMatchRepository extends JpaRepository<RandomMatch, Long>
 
     @Query("SELECT COUNT(rm) FROM RandomMatch rm WHERE rm.matchedAt >= :startDate AND rm.matchedAt < :endDate")
     long countMatchesBetween(@Param("startDate") LocalDateTime startDate, @Param("endDate") LocalDateTime endDate);
+
+    /**
+     * マッチ履歴用のプロジェクション
+     */
+    interface MatchHistoryView {
+        Long getId();
+        Long getOtherUserId();
+        String getOtherUsername();
+        RandomMatch.MatchStatus getStatus();
+        Integer getMessageCount();
+        LocalDateTime getCreatedAt();
+        Long getChatRoomId();
+    }
 }
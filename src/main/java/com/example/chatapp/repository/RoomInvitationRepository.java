@@ -4,8 +4,11 @@ import com.example.chatapp.entity.ChatRoom;
 import com.example.chatapp.entity.RoomInvitation;
 import com.example.chatapp.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -35,4 +38,42 @@ public interface RoomInvitationRepository extends JpaRepository<RoomInvitation,
 
     // 招待者の承認待ち招待を取得
     List<RoomInvitation> findByInviterAndStatus(User inviter, RoomInvitation.InvitationStatus status);
+
+    /**
+     * 受け取った招待をルーム・招待者プロフィールと合わせて1クエリで取得
+     */
+    @Query("SELECT i.id AS invitationId, cr.id AS roomId, cr.name AS roomName, " +
+           "cr.description AS roomDescription, u.username AS username, " +
+           "p.displayName AS displayName, p.avatarUrl AS avatarUrl, i.createdAt AS invitedAt " +
+           "FROM RoomInvitation i JOIN i.chatRoom cr JOIN i.inviter u LEFT JOIN u.profile p " +
+           "WHERE i.invitee.id = :inviteeId AND i.status = :status " +
+           "ORDER BY i.createdAt DESC")
+    List<InvitationView> findReceivedViews(@Param("inviteeId") Long inviteeId,
+                                           @Param("status") RoomInvitation.InvitationStatus status);
+
+    /**
+     * ルームへの送信済み招待を招待先プロフィールと合わせて1クエリで取得
+     */
+    @Query("SELECT i.id AS invitationId, cr.id AS roomId, cr.name AS roomName, " +
+           "cr.description AS roomDescription, u.username AS username, " +
+           "p.displayName AS displayName, p.avatarUrl AS avatarUrl, i.createdAt AS invitedAt " +
+           "FROM RoomInvitation i JOIN i.chatRoom cr JOIN i.invitee u LEFT JOIN u.profile p " +
+           "WHERE cr.id = :roomId AND i.status = :status " +
+           "ORDER BY i.createdAt DESC")
+    List<InvitationView> findSentViewsForRoom(@Param("roomId") Long roomId,
+                                              @Param("status") RoomInvitation.InvitationStatus status);
+
+    /**
+     * 招待一覧用のプロジェクション（username系は受信時は招待者、送信時は招待先）
+     */
+    interface InvitationView {
+        Long getInvitationId();
+        Long getRoomId();
+        String getRoomName();
+        String getRoomDescription();
+        String getUsername();
+        String getDisplayName();
+        String getAvatarUrl();
+        LocalDateTime getInvitedAt();
+    }
 }
@@ -4,8 +4,11 @@ import com.example.chatapp.entity.ChatRoom;
 import com.example.chatapp.entity.RoomJoinRequest;
 import com.example.chatapp.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,4 +32,30 @@ public interface RoomJoinRequestRepository extends JpaRepository<RoomJoinRequest
 
     // ユーザーの承認待ち申請を取得
     List<RoomJoinRequest> findByUserAndStatus(User user, RoomJoinRequest.RequestStatus status);
+
+    /**
+     * 作成者のルームへの申請を申請者プロフィールと合わせて1クエリで取得
+     */
+    @Query("SELECT r.id AS requestId, cr.id AS roomId, cr.name AS roomName, " +
+           "u.username AS username, p.displayName AS displayName, p.avatarUrl AS avatarUrl, " +
+           "p.bio AS bio, r.createdAt AS requestedAt " +
+           "FROM RoomJoinRequest r JOIN r.chatRoom cr JOIN r.user u LEFT JOIN u.profile p " +
+           "WHERE cr.createdBy.id = :creatorId AND r.status = :status " +
+           "ORDER BY r.createdAt ASC")
+    List<PendingApprovalView> findApprovalViewsByCreatorAndStatus(@Param("creatorId") Long creatorId,
+                                                                   @Param("status") RoomJoinRequest.RequestStatus status);
+
+    /**
+     * 承認待ち一覧用のプロジェクション
+     */
+    interface PendingApprovalView {
+        Long getRequestId();
+        Long getRoomId();
+        String getRoomName();
+        String getUsername();
+        String getDisplayName();
+        String getAvatarUrl();
+        String getBio();
+        LocalDateTime getRequestedAt();
+    }
 }
@@ -17,12 +17,7 @@ public interface UserProfileRepository extends JpaRepository<UserProfile, Long>
 
     Optional<UserProfile> findByUserId(Long userId);
 
-    @Query("SELECT up FROM UserProfile up WHERE up.isSearchable = true AND " +
-           "(LOWER(up.displayName) LIKE LOWER(CONCAT('%', :keyword, '%')) OR " +
-           "LOWER(up.user.username) LIKE LOWER(CONCAT('%', :keyword, '%')))")
-    List<UserProfile> searchByKeyword(@Param("keyword") String keyword);
-
-    @Query("SELECT up FROM UserProfile up WHERE up.allowRandomMatching = true AND up.user.id != :excludeUserId")
+    @Query("SELECT up FROM UserProfile up JOIN FETCH up.user WHERE up.allowRandomMatching = true AND up.user.id != :excludeUserId")
     List<UserProfile> findAvailableForRandomMatching(@Param("excludeUserId") Long excludeUserId);
 
     @Query("SELECT up FROM UserProfile up WHERE up.onlineStatus = 'ONLINE'")
@@ -35,4 +30,13 @@ public interface UserProfileRepository extends JpaRepository<UserProfile, Long>
 
     @Query("SELECT up FROM UserProfile up WHERE up.user.id IN :userIds")
     List<UserProfile> findByUserIds(@Param("userIds") List<Long> userIds);
+
+    /**
+     * ユーザーを含めてプロフィールを取得（検索結果の表示用）
+     */
+    @Query("SELECT up FROM UserProfile up JOIN FETCH up.user WHERE up.user.id IN :userIds")
+    List<UserProfile> findWithUserByUserIds(@Param("userIds") List<Long> userIds);
+
+    @Query("SELECT up FROM UserProfile up JOIN FETCH up.user WHERE up.onlineStatus = :status")
+    List<UserProfile> findWithUserByOnlineStatus(@Param("status") UserProfile.OnlineStatus status);
 }
@@ -2,10 +2,13 @@ package com.example.chatapp.repository;
 
 import com.example.chatapp.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.util.Optional;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
@@ -22,7 +25,8 @@ public interface UserRepository extends JpaRepository<User, Long> {
     boolean existsByFriendCode(Integer friendCode);
     
     Optional<User> findByFriendCode(Integer friendCode);
-    
-    // ユーザー検索メソッド（ユーザー名またはフレンドコード）
-    List<User> findByUsernameContainingIgnoreCase(String username);
+
+    // アーカイブ済みメッセージの送信者表示用（プロフィールをまとめて取得）
+    @Query("SELECT u FROM User u LEFT JOIN FETCH u.profile WHERE u.id IN :ids")
+    List<User> findWithProfileByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,101 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.User;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * AIチャットのストリーミング返答サービス
+ * - リクエストはすぐに受け付けてrequestIdを返し、生成は仮想スレッドで実行（Tomcatのスレッドを占有しない）
+ * - 生成中の断片を /user/queue/ai に順次送信し、最後に完了（または失敗）を送信する
+ */
+@Service
+public class AiChatStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiChatStreamService.class);
+
+    public static final String DESTINATION = "/queue/ai";
+
+    @Autowired
+    private GeminiService geminiService;
+
+    @Autowired
+    private AiGatewayService aiGateway;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("ai-chat-stream-", 0).factory());
+
+    /**
+     * 返答の生成を開始してrequestIdを返す（リクエストスレッドから呼ぶこと）
+     * 同じユーザーの返答を生成中の場合は AiGatewayService.AiRejectedException
+     */
+    public String start(User user, String username, String message) {
+        String requestId = UUID.randomUUID().toString();
+        // 遅延読み込みのプロフィールはリクエスト内で解決しておく
+        String userName = geminiService.resolveUserName(user);
+        // 混雑時は待ち順位を通知する
+        AiGatewayService.Permit permit = aiGateway.admit(user.getId(),
+                position -> send(username, requestId, "queued", "position", position));
+
+        try {
+            executor.execute(() -> generate(permit, user, userName, username, requestId, message));
+        } catch (RejectedExecutionException e) {
+            permit.close();
+            throw e;
+        }
+        return requestId;
+    }
+
+    private void generate(AiGatewayService.Permit permit, User user, String userName,
+                          String username, String requestId, String message) {
+        try (permit) {
+            long start = System.currentTimeMillis();
+            try {
+                String reply = geminiService.chatStream(user, userName, message,
+                        chunk -> send(username, requestId, "delta", "text", chunk));
+                send(username, requestId, "done", "reply", reply);
+                logger.debug("AIストリーミング返答完了: User={}, 所要時間={}ms", username, System.currentTimeMillis() - start);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(username, requestId, "error", "error", "AIの返答生成が中断されました");
+            } catch (Exception e) {
+                logger.warn("AIストリーミング返答エラー: User={}, {}", username, e.getMessage());
+                send(username, requestId, "error", "error", geminiService.describeError(e));
+            }
+        }
+    }
+
+    /**
+     * 一括取得（/api/ai/chat）の待ち順位を通知する（requestIdなし）
+     */
+    public void sendQueuePosition(String username, int position) {
+        send(username, null, "queued", "position", position);
+    }
+
+    private void send(String username, String requestId, String type, String key, Object value) {
+        Map<String, Object> frame = new HashMap<>();
+        frame.put("requestId", requestId);
+        frame.put("type", type);
+        frame.put(key, value);
+        messagingTemplate.convertAndSendToUser(username, DESTINATION, frame);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
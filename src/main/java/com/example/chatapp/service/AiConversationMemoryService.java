@@ -0,0 +1,461 @@
+package com.example.chatapp.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AIチャットの会話履歴ストア
+ * - ユーザーごとに発言数と推定トークン数の上限を設け、超えた分は古い発言から切り詰める
+ *   （システム指示と最初の自己紹介は固定で残す）
+ * - メモリ上の履歴は全ユーザー合計の推定サイズが上限を超えたら、最近使われていない順に破棄
+ * - 発言は ai_conversation_turns へ非同期にまとめて書き込み（write-behind）、
+ *   メモリにない履歴は初回アクセス時にそのユーザーの分だけ読み込む
+ */
+@Service
+public class AiConversationMemoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiConversationMemoryService.class);
+
+    // 推定サイズの固定分（オブジェクトヘッダー・参照など）
+    private static final long CONVERSATION_OVERHEAD_BYTES = 128;
+    private static final long TURN_OVERHEAD_BYTES = 96;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // ユーザーごとの上限（固定の発言を除く発言数・推定トークン数）
+    @Value("${app.ai-memory.max-turns:40}")
+    private int maxTurns;
+
+    @Value("${app.ai-memory.max-tokens:6000}")
+    private int maxTokens;
+
+    // メモリ上に保持する履歴の合計推定サイズ（MB）
+    @Value("${app.ai-memory.heap-budget-mb:32}")
+    private long heapBudgetMb;
+
+    @Value("${app.ai-memory.flush-millis:1000}")
+    private long flushMillis;
+
+    // 同じ操作の書き込みがこの回数失敗したらログに残して破棄する（1件のために全員の書き込みが止まらないように）
+    @Value("${app.ai-memory.max-write-attempts:5}")
+    private int maxWriteAttempts;
+
+    private long heapBudgetBytes;
+
+    // 発言順（再起動をまたいでも増え続けるよう起動時刻から開始）
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    // Key: userId, Value: 会話（アクセス順、lockで保護）
+    private final LinkedHashMap<Long, Conversation> conversations = new LinkedHashMap<>(256, 0.75f, true);
+    private final Object lock = new Object();
+    private long totalBytes;
+
+    // 未書き込みの操作（queueLockで保護）と、ユーザーごとの未書き込み件数
+    private final Deque<PendingWrite> queue = new ArrayDeque<>();
+    private final Map<Long, Integer> pendingByUser = new HashMap<>();
+    private final Object queueLock = new Object();
+    private final Object flushLock = new Object();
+    // 書き込みに失敗した操作と失敗回数（flushLockで保護）
+    private final Map<PendingWrite, Integer> failedAttempts = new HashMap<>();
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ai-memory-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 会話履歴の1発言
+     * @param role "user" または "model"
+     * @param pinned 切り詰めの対象外（システム指示・最初の自己紹介）
+     */
+    public record Entry(String role, String text, boolean pinned) {
+    }
+
+    private record Turn(Entry entry, long seq, int tokens) {
+        long bytes() {
+            return TURN_OVERHEAD_BYTES + entry.text().length() * 2L;
+        }
+    }
+
+    private static final class Conversation {
+        private final List<Turn> turns = new ArrayList<>();
+        private int tokens;
+        private long bytes = CONVERSATION_OVERHEAD_BYTES;
+    }
+
+    private sealed interface PendingWrite permits Insert, TrimBefore, Clear {
+        long userId();
+    }
+
+    private record Insert(long userId, Turn turn, long createdAt) implements PendingWrite {
+    }
+
+    private record TrimBefore(long userId, long seq) implements PendingWrite {
+    }
+
+    private record Clear(long userId) implements PendingWrite {
+    }
+
+    @PostConstruct
+    void init() {
+        heapBudgetBytes = heapBudgetMb * 1024 * 1024;
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * ユーザーの会話履歴を取得（メモリにない場合はDBから読み込む）
+     */
+    public List<Entry> load(Long userId) {
+        synchronized (lock) {
+            Conversation conversation = conversations.get(userId);
+            if (conversation != null) {
+                return entries(conversation);
+            }
+        }
+
+        Conversation loaded = loadFromDatabase(userId);
+        synchronized (lock) {
+            Conversation conversation = conversations.get(userId);
+            if (conversation == null) {
+                conversation = loaded;
+                conversations.put(userId, conversation);
+                totalBytes += conversation.bytes;
+                evictIfNeeded(userId);
+            }
+            return entries(conversation);
+        }
+    }
+
+    /**
+     * 発言を追加し、上限を超えた分を古い順に切り詰める
+     */
+    public void append(Long userId, List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        load(userId); // 既存の履歴の後ろに追加する
+        long now = System.currentTimeMillis();
+        List<PendingWrite> writes = new ArrayList<>();
+        synchronized (lock) {
+            Conversation conversation = conversations.get(userId);
+            if (conversation == null) {
+                // 読み込み直後に他ユーザーの分で押し出された
+                conversation = new Conversation();
+                conversations.put(userId, conversation);
+                totalBytes += conversation.bytes;
+            }
+            long before = conversation.bytes;
+            for (Entry entry : entries) {
+                Turn turn = new Turn(entry, sequence.incrementAndGet(), estimateTokens(entry.text()));
+                conversation.turns.add(turn);
+                conversation.tokens += turn.tokens();
+                conversation.bytes += turn.bytes();
+                writes.add(new Insert(userId, turn, now));
+            }
+            Long trimmedBefore = trim(conversation);
+            if (trimmedBefore != null) {
+                writes.add(new TrimBefore(userId, trimmedBefore));
+            }
+            totalBytes += conversation.bytes - before;
+            evictIfNeeded(userId);
+        }
+        enqueue(writes);
+    }
+
+    /**
+     * ユーザーの会話履歴を削除
+     */
+    public void clear(Long userId) {
+        synchronized (lock) {
+            Conversation removed = conversations.remove(userId);
+            if (removed != null) {
+                totalBytes -= removed.bytes;
+            }
+        }
+        enqueue(List.of(new Clear(userId)));
+    }
+
+    /**
+     * 推定トークン数（英数字は約4文字で1トークン、日本語などは1文字1トークンとして概算）
+     */
+    public static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(c)) {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    }
+
+    /**
+     * 統計情報（管理用）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("conversations", conversations.size());
+            stats.put("estimatedBytes", totalBytes);
+        }
+        stats.put("heapBudgetBytes", heapBudgetBytes);
+        synchronized (queueLock) {
+            stats.put("pendingWrites", queue.size());
+        }
+        return stats;
+    }
+
+    private List<Entry> entries(Conversation conversation) {
+        List<Entry> result = new ArrayList<>(conversation.turns.size());
+        for (Turn turn : conversation.turns) {
+            result.add(turn.entry());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * 固定以外の発言を古い順に削除（最新のやり取り1組は必ず残す）
+     * @return 削除した場合は残った最古の発言のseq
+     */
+    private Long trim(Conversation conversation) {
+        boolean trimmed = false;
+        while (true) {
+            int unpinned = 0;
+            int firstIndex = -1;
+            for (int i = 0; i < conversation.turns.size(); i++) {
+                if (!conversation.turns.get(i).entry().pinned()) {
+                    if (firstIndex < 0) {
+                        firstIndex = i;
+                    }
+                    unpinned++;
+                }
+            }
+            boolean overBudget = unpinned > maxTurns || conversation.tokens > maxTokens;
+            if (!overBudget || unpinned <= 2) {
+                break;
+            }
+            // ユーザーとAIの発言が交互になるよう、ユーザーの発言から始まる1組をまとめて削除
+            int count = 1;
+            if ("user".equals(conversation.turns.get(firstIndex).entry().role())
+                    && firstIndex + 1 < conversation.turns.size()
+                    && "model".equals(conversation.turns.get(firstIndex + 1).entry().role())
+                    && unpinned > 3) {
+                count = 2;
+            }
+            for (int i = 0; i < count; i++) {
+                Turn removed = conversation.turns.remove(firstIndex);
+                conversation.tokens -= removed.tokens();
+                conversation.bytes -= removed.bytes();
+            }
+            trimmed = true;
+        }
+        if (!trimmed) {
+            return null;
+        }
+        for (Turn turn : conversation.turns) {
+            if (!turn.entry().pinned()) {
+                return turn.seq();
+            }
+        }
+        return sequence.get() + 1;
+    }
+
+    /**
+     * 合計推定サイズが上限を超えたら最近使われていない会話から破棄（DBに保存済みなので再読み込み可能）
+     */
+    private void evictIfNeeded(Long keepUserId) {
+        Iterator<Map.Entry<Long, Conversation>> it = conversations.entrySet().iterator();
+        while (totalBytes > heapBudgetBytes && it.hasNext()) {
+            Map.Entry<Long, Conversation> eldest = it.next();
+            if (eldest.getKey().equals(keepUserId)) {
+                continue;
+            }
+            totalBytes -= eldest.getValue().bytes;
+            it.remove();
+        }
+    }
+
+    private Conversation loadFromDatabase(Long userId) {
+        // 未書き込みの発言があれば先に書き込んでから読む
+        if (hasPending(userId)) {
+            flush();
+        }
+        Conversation conversation = new Conversation();
+        try {
+            List<Turn> pinned = jdbcTemplate.query(
+                    "SELECT seq, role, content FROM ai_conversation_turns WHERE user_id = ? AND pinned = ? ORDER BY seq",
+                    (rs, i) -> toTurn(rs.getLong("seq"), rs.getString("role"), rs.getString("content"), true),
+                    userId, true);
+            List<Turn> recent = jdbcTemplate.query(
+                    "SELECT seq, role, content FROM ai_conversation_turns WHERE user_id = ? AND pinned = ? ORDER BY seq DESC LIMIT ?",
+                    (rs, i) -> toTurn(rs.getLong("seq"), rs.getString("role"), rs.getString("content"), false),
+                    userId, false, maxTurns);
+            Collections.reverse(recent);
+            for (Turn turn : pinned) {
+                addLoaded(conversation, turn);
+            }
+            for (Turn turn : recent) {
+                addLoaded(conversation, turn);
+            }
+            trim(conversation);
+        } catch (Exception e) {
+            logger.warn("AI会話履歴の読み込みに失敗: UserId={}", userId, e);
+        }
+        return conversation;
+    }
+
+    private Turn toTurn(long seq, String role, String content, boolean pinned) {
+        return new Turn(new Entry(role, content, pinned), seq, estimateTokens(content));
+    }
+
+    private void addLoaded(Conversation conversation, Turn turn) {
+        conversation.turns.add(turn);
+        conversation.tokens += turn.tokens();
+        conversation.bytes += turn.bytes();
+    }
+
+    // ===== write-behind =====
+
+    private void enqueue(List<PendingWrite> writes) {
+        synchronized (queueLock) {
+            for (PendingWrite write : writes) {
+                queue.addLast(write);
+                pendingByUser.merge(write.userId(), 1, Integer::sum);
+            }
+        }
+    }
+
+    private boolean hasPending(Long userId) {
+        synchronized (queueLock) {
+            return pendingByUser.containsKey(userId);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.warn("AI会話履歴の書き込みに失敗（次回再試行）", e);
+        }
+    }
+
+    /**
+     * 未書き込みの操作を順番に書き込む（連続する追加はバッチでまとめる）
+     * - 失敗した操作は先頭に戻して次回再試行し、前回失敗した追加は単独で書き込んで原因の発言を絞り込む
+     * - maxWriteAttempts 回失敗した操作は破棄して後続の書き込みを進める
+     */
+    private void flush() {
+        synchronized (flushLock) {
+            List<PendingWrite> batch;
+            synchronized (queueLock) {
+                if (queue.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            }
+
+            int done = 0;
+            try {
+                while (done < batch.size()) {
+                    PendingWrite write = batch.get(done);
+                    if (write instanceof Insert) {
+                        int end = done;
+                        List<Object[]> rows = new ArrayList<>();
+                        boolean retry = failedAttempts.containsKey(write);
+                        while (end < batch.size() && batch.get(end) instanceof Insert insert
+                                && (end == done || !retry)) {
+                            Entry entry = insert.turn().entry();
+                            rows.add(new Object[]{insert.userId(), insert.turn().seq(), entry.role(), entry.text(),
+                                    entry.pinned(), insert.createdAt(), insert.userId(), insert.turn().seq()});
+                            end++;
+                        }
+                        // バッチの途中で失敗すると前半だけ書き込まれるため、再試行で重複しないよう既存の発言は飛ばす
+                        jdbcTemplate.batchUpdate(
+                                "INSERT INTO ai_conversation_turns (user_id, seq, role, content, pinned, created_at) " +
+                                "SELECT ?, ?, ?, ?, ?, ? WHERE NOT EXISTS " +
+                                "(SELECT 1 FROM ai_conversation_turns WHERE user_id = ? AND seq = ?)",
+                                rows);
+                        completed(batch.subList(done, end));
+                        done = end;
+                    } else if (write instanceof TrimBefore trim) {
+                        jdbcTemplate.update("DELETE FROM ai_conversation_turns WHERE user_id = ? AND pinned = ? AND seq < ?",
+                                trim.userId(), false, trim.seq());
+                        completed(List.of(write));
+                        done++;
+                    } else {
+                        jdbcTemplate.update("DELETE FROM ai_conversation_turns WHERE user_id = ?", write.userId());
+                        completed(List.of(write));
+                        done++;
+                    }
+                }
+            } catch (RuntimeException e) {
+                PendingWrite failed = batch.get(done);
+                int attempts = failedAttempts.merge(failed, 1, Integer::sum);
+                if (attempts >= maxWriteAttempts) {
+                    logger.error("AI会話履歴の書き込みに{}回失敗したため破棄: UserId={}, 操作={}",
+                            attempts, failed.userId(), failed.getClass().getSimpleName(), e);
+                    completed(List.of(failed));
+                    done++;
+                }
+                // 書き込めなかった分を先頭に戻して次回再試行
+                synchronized (queueLock) {
+                    for (int i = batch.size() - 1; i >= done; i--) {
+                        queue.addFirst(batch.get(i));
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void completed(List<PendingWrite> writes) {
+        writes.forEach(failedAttempts::remove);
+        synchronized (queueLock) {
+            for (PendingWrite write : writes) {
+                pendingByUser.computeIfPresent(write.userId(), (k, v) -> v > 1 ? v - 1 : null);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("終了時のAI会話履歴の書き込みに失敗", e);
+        }
+    }
+}
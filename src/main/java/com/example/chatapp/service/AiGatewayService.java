@@ -0,0 +1,373 @@
+package com.example.chatapp.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Gemini API への呼び出しの流量制御
+ * - ユーザーごとに同時に1件まで（返答の生成中に次のメッセージは受け付けない）
+ * - 全体の呼び出し回数をトークンバケット（app.ai-gateway.requests-per-minute / burst）で制限
+ * - トークン待ちは上限付きのFIFO待ち行列で、待ち順位をリスナーに通知する
+ * - 429・5xxの応答は指数バックオフで再試行し、429の場合はバケットを空にして全体の送信を遅らせる
+ * - 待ち時間・上流の応答時間などの統計を保持
+ */
+@Service
+public class AiGatewayService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiGatewayService.class);
+
+    @Value("${app.ai-gateway.requests-per-minute:15}")
+    private double requestsPerMinute;
+
+    @Value("${app.ai-gateway.burst:5}")
+    private int burst;
+
+    @Value("${app.ai-gateway.max-queue:50}")
+    private int maxQueue;
+
+    @Value("${app.ai-gateway.max-wait-seconds:60}")
+    private long maxWaitSeconds;
+
+    @Value("${app.ai-gateway.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${app.ai-gateway.backoff-initial-millis:1000}")
+    private long backoffInitialMillis;
+
+    @Value("${app.ai-gateway.backoff-max-millis:16000}")
+    private long backoffMaxMillis;
+
+    // Key: userId, Value: 処理中のリクエスト
+    private final Map<Long, Permit> inFlight = new ConcurrentHashMap<>();
+
+    // トークンバケットと待ち行列（lockで保護）
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private double tokens;
+    private long lastRefill;
+
+    // 統計
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejectedBusy = new AtomicLong();
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+    private final AtomicLong queueTimeouts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong upstreamErrors = new AtomicLong();
+    private final LatencyRecorder queueWait = new LatencyRecorder();
+    private final LatencyRecorder upstreamLatency = new LatencyRecorder();
+
+    @PostConstruct
+    void init() {
+        tokens = burst;
+        lastRefill = System.nanoTime();
+    }
+
+    /**
+     * 受け付けられなかった理由
+     */
+    public enum Rejection {
+        BUSY,        // 同じユーザーのリクエストを処理中
+        QUEUE_FULL,  // 待ち行列が満杯
+        TIMEOUT,     // 待ち時間の上限を超えた
+        THROTTLED    // 再試行しても上流の利用制限（429）が続いた
+    }
+
+    /**
+     * 流量制御により受け付けられなかったリクエスト
+     */
+    public static class AiRejectedException extends RuntimeException {
+        private final Rejection reason;
+        private final long retryAfterSeconds;
+
+        public AiRejectedException(Rejection reason, String message, long retryAfterSeconds) {
+            super(message);
+            this.reason = reason;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public Rejection getReason() {
+            return reason;
+        }
+
+        /**
+         * 再送までの目安（秒、Retry-After ヘッダー用）
+         */
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * Gemini APIの呼び出し
+     */
+    @FunctionalInterface
+    public interface UpstreamCall<T> {
+        T call() throws IOException, InterruptedException;
+    }
+
+    /**
+     * ユーザーの処理中リクエスト（closeで解放）
+     */
+    public final class Permit implements AutoCloseable {
+        private final Long userId;
+        private final IntConsumer queueListener;
+
+        private Permit(Long userId, IntConsumer queueListener) {
+            this.userId = userId;
+            this.queueListener = queueListener;
+        }
+
+        @Override
+        public void close() {
+            inFlight.remove(userId, this);
+        }
+    }
+
+    /**
+     * ユーザーのリクエストを受け付ける（処理中のリクエストがあれば拒否）
+     * @param queueListener 待ち順位（1始まり）の通知先、不要ならnull
+     */
+    public Permit admit(Long userId, IntConsumer queueListener) {
+        Permit permit = new Permit(userId, queueListener);
+        if (inFlight.putIfAbsent(userId, permit) != null) {
+            rejectedBusy.incrementAndGet();
+            throw new AiRejectedException(Rejection.BUSY, "前のメッセージへの返答を生成中です。少しお待ちください。", 1);
+        }
+        admitted.incrementAndGet();
+        return permit;
+    }
+
+    /**
+     * 流量制限の範囲でGemini APIを呼び出す（429・5xxは再試行）
+     * @param retryable 再試行してよいか（ストリーミングで断片を送信済みの場合など）
+     */
+    public <T> T call(Long userId, UpstreamCall<T> upstream, Predicate<Exception> retryable)
+            throws IOException, InterruptedException {
+        Permit permit = inFlight.get(userId);
+        IntConsumer listener = permit != null ? permit.queueListener : null;
+        for (int attempt = 0; ; attempt++) {
+            acquire(listener);
+            long start = System.nanoTime();
+            try {
+                T result = upstream.call();
+                upstreamLatency.record(System.nanoTime() - start);
+                return result;
+            } catch (IOException | RuntimeException e) {
+                upstreamLatency.record(System.nanoTime() - start);
+                int status = statusOf(e);
+                if (status == 429) {
+                    throttled.incrementAndGet();
+                    drainBucket();
+                } else if (status >= 500) {
+                    upstreamErrors.incrementAndGet();
+                }
+                boolean retry = (status == 429 || status >= 500) && attempt < maxRetries && retryable.test(e);
+                if (!retry) {
+                    if (status == 429) {
+                        throw new AiRejectedException(Rejection.THROTTLED,
+                                "APIの利用制限に達しました。しばらく待ってから再度お試しください。",
+                                Math.max(1, TimeUnit.MILLISECONDS.toSeconds(backoffMaxMillis)));
+                    }
+                    throw e;
+                }
+                long backoff = backoffMillis(attempt);
+                retries.incrementAndGet();
+                logger.info("Gemini API {} のため {}ms 後に再試行 ({}/{})", status, backoff, attempt + 1, maxRetries);
+                Thread.sleep(backoff);
+            }
+        }
+    }
+
+    private int statusOf(Exception e) {
+        if (e instanceof GeminiStreamClient.GeminiApiException api) {
+            return api.getStatusCode();
+        }
+        if (e instanceof RestClientResponseException rest) {
+            return rest.getStatusCode().value();
+        }
+        return 0;
+    }
+
+    private long backoffMillis(int attempt) {
+        long base = Math.min(backoffMaxMillis, backoffInitialMillis << Math.min(attempt, 20));
+        // 同時に再試行が集中しないよう半分〜全体の範囲でばらつかせる
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
+
+    // ===== トークンバケット =====
+
+    private static final class Waiter {
+        private int reportedPosition;
+    }
+
+    /**
+     * トークンを1つ取得（順番が来るまで待ち行列で待つ）
+     */
+    private void acquire(IntConsumer listener) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+        Waiter waiter = new Waiter();
+        lock.lock();
+        try {
+            if (waiters.size() >= maxQueue) {
+                rejectedQueueFull.incrementAndGet();
+                throw new AiRejectedException(Rejection.QUEUE_FULL, "AIが混み合っています。しばらく待ってから再度お試しください。",
+                        secondsToServe(waiters.size()));
+            }
+            waiters.addLast(waiter);
+            try {
+                while (true) {
+                    refill();
+                    if (waiters.peekFirst() == waiter && tokens >= 1) {
+                        tokens -= 1;
+                        waiters.removeFirst();
+                        changed.signalAll();
+                        queueWait.record(System.nanoTime() - start);
+                        return;
+                    }
+                    reportPosition(waiter, listener);
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        waiters.remove(waiter);
+                        changed.signalAll();
+                        queueTimeouts.incrementAndGet();
+                        throw new AiRejectedException(Rejection.TIMEOUT, "AIが混み合っているため、返答を生成できませんでした。",
+                                secondsToServe(waiters.size()));
+                    }
+                    // 先頭は次のトークンが貯まるまで、それ以外は前が進むまで待つ
+                    long wait = waiters.peekFirst() == waiter ? nanosUntilNextToken() : remaining;
+                    changed.awaitNanos(Math.max(1, Math.min(wait, remaining)));
+                }
+            } catch (InterruptedException e) {
+                waiters.remove(waiter);
+                changed.signalAll();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 待ち行列の queued 件の後ろに並んだ場合に順番が来るまでの目安（秒）
+     */
+    private long secondsToServe(int queued) {
+        return Math.max(1, (long) Math.ceil((queued + 1) * 60.0 / requestsPerMinute));
+    }
+
+    private void reportPosition(Waiter waiter, IntConsumer listener) {
+        if (listener == null) {
+            return;
+        }
+        int position = 1;
+        for (Waiter w : waiters) {
+            if (w == waiter) {
+                break;
+            }
+            position++;
+        }
+        if (position != waiter.reportedPosition) {
+            waiter.reportedPosition = position;
+            listener.accept(position);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano());
+        lastRefill = now;
+    }
+
+    private long nanosUntilNextToken() {
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano());
+    }
+
+    private double tokensPerNano() {
+        return requestsPerMinute / TimeUnit.MINUTES.toNanos(1);
+    }
+
+    private void drainBucket() {
+        lock.lock();
+        try {
+            refill();
+            tokens = Math.min(tokens, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ===== 統計 =====
+
+    /**
+     * 統計情報（管理用）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlight.size());
+        lock.lock();
+        try {
+            refill();
+            stats.put("queued", waiters.size());
+            stats.put("availableTokens", Math.floor(tokens * 100) / 100);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("admitted", admitted.get());
+        stats.put("rejectedBusy", rejectedBusy.get());
+        stats.put("rejectedQueueFull", rejectedQueueFull.get());
+        stats.put("queueTimeouts", queueTimeouts.get());
+        stats.put("retries", retries.get());
+        stats.put("throttled429", throttled.get());
+        stats.put("upstream5xx", upstreamErrors.get());
+        stats.put("queueWaitMillis", queueWait.snapshot());
+        stats.put("upstreamLatencyMillis", upstreamLatency.snapshot());
+        return stats;
+    }
+
+    /**
+     * 直近の所要時間（最大1024件）から件数・平均・p50・p95・最大を集計
+     */
+    private static final class LatencyRecorder {
+        private static final int SIZE = 1024;
+        private final long[] samples = new long[SIZE];
+        private long count;
+
+        synchronized void record(long nanos) {
+            samples[(int) (count++ % SIZE)] = TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        synchronized Map<String, Object> snapshot() {
+            int n = (int) Math.min(count, SIZE);
+            long[] sorted = Arrays.copyOf(samples, n);
+            Arrays.sort(sorted);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", count);
+            result.put("avg", n == 0 ? 0 : Arrays.stream(sorted).sum() / n);
+            result.put("p50", n == 0 ? 0 : sorted[(n - 1) / 2]);
+            result.put("p95", n == 0 ? 0 : sorted[(int) Math.ceil(n * 0.95) - 1]);
+            result.put("max", n == 0 ? 0 : sorted[n - 1]);
+            return result;
+        }
+    }
+}
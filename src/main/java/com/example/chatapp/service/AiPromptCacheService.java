@@ -0,0 +1,185 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.AiPersona;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * ペルソナ設定ごとのシステムプロンプトと、生成済みの挨拶・自己紹介のキャッシュ
+ * - キーはペルソナの設定内容から求めたフィンガープリント（設定を変更すると別のキーになる）
+ * - システムプロンプトは相手の名前を差し込む前の形で保持する
+ * - 挨拶・自己紹介は（フィンガープリント, 表示名）ごとに一定時間再利用し、AIタブを開き直すたびのAPI呼び出しを省く
+ */
+@Service
+public class AiPromptCacheService {
+
+    // ペルソナ未設定時のフィンガープリント
+    public static final String DEFAULT_FINGERPRINT = "default";
+
+    @Value("${app.ai-prompt-cache.max-prompts:1000}")
+    private int maxPrompts;
+
+    @Value("${app.ai-prompt-cache.max-replies:2000}")
+    private int maxReplies;
+
+    @Value("${app.ai-prompt-cache.reply-ttl-minutes:360}")
+    private long replyTtlMinutes;
+
+    private final Map<String, CompiledPrompt> prompts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledPrompt> eldest) {
+            return size() > maxPrompts;
+        }
+    };
+
+    private final Map<String, CachedReply> replies = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedReply> eldest) {
+            return size() > maxReplies;
+        }
+    };
+
+    private final AtomicLong promptHits = new AtomicLong();
+    private final AtomicLong promptMisses = new AtomicLong();
+    private final AtomicLong replyHits = new AtomicLong();
+    private final AtomicLong replyMisses = new AtomicLong();
+
+    /**
+     * 相手の名前を差し込む前のシステムプロンプト
+     */
+    public record CompiledPrompt(String head, String tail) {
+        public String render(String userName) {
+            if (userName == null || userName.isEmpty()) {
+                return head + tail;
+            }
+            return head
+                    + "【相手の名前】" + userName + "\n"
+                    + "相手の名前を呼ぶときは「" + userName + "」と呼んでください。\n\n"
+                    + tail;
+        }
+    }
+
+    private record CachedReply(String text, long expiresAt) {
+    }
+
+    /**
+     * ペルソナの設定内容のフィンガープリント
+     */
+    public static String fingerprint(AiPersona persona) {
+        if (persona == null) {
+            return DEFAULT_FINGERPRINT;
+        }
+        String source = String.join("\u0000",
+                String.valueOf(persona.getAiName()),
+                String.valueOf(persona.getRelationship()),
+                String.valueOf(persona.getGender()),
+                String.valueOf(persona.getAgeGroup()),
+                String.valueOf(persona.getPersonality()),
+                String.valueOf(persona.getSpeakingStyle()));
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * システムプロンプトを取得（なければ compiler で生成して保持）
+     */
+    public CompiledPrompt compiledPrompt(String fingerprint, Supplier<CompiledPrompt> compiler) {
+        synchronized (prompts) {
+            CompiledPrompt cached = prompts.get(fingerprint);
+            if (cached != null) {
+                promptHits.incrementAndGet();
+                return cached;
+            }
+        }
+        promptMisses.incrementAndGet();
+        CompiledPrompt compiled = compiler.get();
+        synchronized (prompts) {
+            prompts.put(fingerprint, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * 生成済みの自己紹介を取得
+     */
+    public Optional<String> getIntro(String fingerprint, String userName) {
+        return getReply(replyKey("intro", fingerprint, userName));
+    }
+
+    public void putIntro(String fingerprint, String userName, String intro) {
+        putReply(replyKey("intro", fingerprint, userName), intro);
+    }
+
+    /**
+     * 生成済みの初回挨拶を取得（挨拶では相手の名前を使わない）
+     */
+    public Optional<String> getGreeting(String fingerprint) {
+        return getReply(replyKey("greeting", fingerprint, null));
+    }
+
+    public void putGreeting(String fingerprint, String greeting) {
+        putReply(replyKey("greeting", fingerprint, null), greeting);
+    }
+
+    private String replyKey(String kind, String fingerprint, String userName) {
+        return kind + "|" + fingerprint + "|" + (userName != null ? userName : "");
+    }
+
+    private Optional<String> getReply(String key) {
+        synchronized (replies) {
+            CachedReply cached = replies.get(key);
+            if (cached != null && cached.expiresAt() > System.currentTimeMillis()) {
+                replyHits.incrementAndGet();
+                return Optional.of(cached.text());
+            }
+            if (cached != null) {
+                replies.remove(key);
+            }
+        }
+        replyMisses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    private void putReply(String key, String text) {
+        if (text == null || text.isBlank()) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(replyTtlMinutes);
+        synchronized (replies) {
+            replies.put(key, new CachedReply(text, expiresAt));
+        }
+    }
+
+    /**
+     * 統計情報（管理用）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (prompts) {
+            stats.put("prompts", prompts.size());
+        }
+        synchronized (replies) {
+            stats.put("replies", replies.size());
+        }
+        stats.put("promptHits", promptHits.get());
+        stats.put("promptMisses", promptMisses.get());
+        stats.put("replyHits", replyHits.get());
+        stats.put("replyMisses", replyMisses.get());
+        return stats;
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.chatapp.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leonardo AI によるアバター生成ジョブの管理
+ * - 受付時は jobId だけを返し、生成の開始・完了確認・画像の取り込みはバックグラウンドで行う
+ * - 生成中のジョブは1本のスケジューラーがまとめてポーリングする（ジョブごとにスレッドを占有しない）
+ * - 完了した画像はローカルのメディアストレージに保存し、結果を /user/queue/avatar-jobs へ送信
+ * - 再接続したクライアントはジョブの状態をAPIで取得できる
+ */
+@Service
+public class AvatarGenerationJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarGenerationJobService.class);
+
+    @Autowired
+    private LeonardoService leonardoService;
+
+    @Autowired
+    private MediaStorageService mediaStorageService;
+
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${app.avatar-jobs.poll-millis:2000}")
+    private long pollMillis;
+
+    @Value("${app.avatar-jobs.timeout-seconds:120}")
+    private long timeoutSeconds;
+
+    @Value("${app.avatar-jobs.retention-minutes:30}")
+    private long retentionMinutes;
+
+    // 生成の開始・ポーリング・画像の取り込みはすべてこのスレッドで順番に行う
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "avatar-generation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Key: jobId, Value: AvatarJob
+    private final Map<String, AvatarJob> jobs = new ConcurrentHashMap<>();
+
+    // Key: userId, Value: 最後に登録したジョブのID
+    private final Map<Long, String> latestByUser = new ConcurrentHashMap<>();
+
+    public enum JobStatus {
+        SUBMITTING, // 生成リクエスト送信待ち
+        GENERATING, // 生成中
+        COMPLETED,  // 完了
+        FAILED      // 失敗・タイムアウト
+    }
+
+    /**
+     * アバター生成ジョブ
+     */
+    public static class AvatarJob {
+        private final String jobId;
+        private final Long userId;
+        private final String username;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private volatile JobStatus status = JobStatus.SUBMITTING;
+        private volatile String generationId;
+        private volatile List<String> avatars = List.of();
+        private volatile LocalDateTime finishedAt;
+        private volatile String error;
+
+        AvatarJob(Long userId, String username) {
+            this.jobId = UUID.randomUUID().toString();
+            this.userId = userId;
+            this.username = username;
+        }
+
+        public String getJobId() { return jobId; }
+        public Long getUserId() { return userId; }
+        public String getUsername() { return username; }
+        public LocalDateTime getCreatedAt() { return createdAt; }
+        public JobStatus getStatus() { return status; }
+        public List<String> getAvatars() { return avatars; }
+        public LocalDateTime getFinishedAt() { return finishedAt; }
+        public String getError() { return error; }
+
+        public boolean isFinished() {
+            return status == JobStatus.COMPLETED || status == JobStatus.FAILED;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        scheduler.scheduleWithFixedDelay(this::pollQuietly, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * アバター生成を登録（生成中のジョブがあればそれを返す）
+     */
+    public AvatarJob submit(Long userId, String username, String gender, String ageGroup, String personality) {
+        synchronized (latestByUser) {
+            String latestId = latestByUser.get(userId);
+            AvatarJob latest = latestId != null ? jobs.get(latestId) : null;
+            if (latest != null && !latest.isFinished()) {
+                return latest;
+            }
+            pruneFinishedJobs();
+            AvatarJob job = new AvatarJob(userId, username);
+            jobs.put(job.getJobId(), job);
+            latestByUser.put(userId, job.getJobId());
+            scheduler.execute(() -> start(job, gender, ageGroup, personality));
+            logger.info("アバター生成ジョブを登録: JobId={}, UserId={}", job.getJobId(), userId);
+            return job;
+        }
+    }
+
+    /**
+     * ジョブを取得（本人のジョブのみ）
+     */
+    public Optional<AvatarJob> getJob(String jobId, Long userId) {
+        return Optional.ofNullable(jobs.get(jobId)).filter(job -> job.getUserId().equals(userId));
+    }
+
+    /**
+     * ユーザーの最新のジョブを取得
+     */
+    public Optional<AvatarJob> getLatestJob(Long userId) {
+        String jobId = latestByUser.get(userId);
+        return jobId != null ? Optional.ofNullable(jobs.get(jobId)) : Optional.empty();
+    }
+
+    /**
+     * クライアントに返すジョブの状態
+     */
+    public Map<String, Object> toResponse(AvatarJob job) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobId", job.getJobId());
+        response.put("status", job.getStatus().name());
+        response.put("avatars", job.getAvatars());
+        if (job.getError() != null) {
+            response.put("error", job.getError());
+        }
+        return response;
+    }
+
+    private void start(AvatarJob job, String gender, String ageGroup, String personality) {
+        try {
+            String generationId = leonardoService.startAvatarGeneration(gender, ageGroup, personality);
+            if (generationId == null) {
+                fail(job, "アバターの生成に失敗しました");
+                return;
+            }
+            job.generationId = generationId;
+            job.status = JobStatus.GENERATING;
+        } catch (Exception e) {
+            logger.warn("アバター生成の開始に失敗: JobId={}", job.getJobId(), e);
+            fail(job, "アバターの生成に失敗しました");
+        }
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (Exception e) {
+            logger.warn("アバター生成ジョブのポーリングに失敗", e);
+        }
+    }
+
+    /**
+     * 生成中のジョブの状態をまとめて確認
+     */
+    private void poll() {
+        pruneFinishedJobs();
+        LocalDateTime deadline = LocalDateTime.now().minusSeconds(timeoutSeconds);
+        for (AvatarJob job : jobs.values()) {
+            if (job.getStatus() != JobStatus.GENERATING) {
+                continue;
+            }
+            if (job.getCreatedAt().isBefore(deadline)) {
+                fail(job, "アバターの生成がタイムアウトしました");
+                continue;
+            }
+            LeonardoService.Generation generation;
+            try {
+                generation = leonardoService.fetchGeneration(job.generationId);
+            } catch (Exception e) {
+                // 一時的なエラーは次回のポーリングで再確認する
+                logger.debug("アバター生成の状態確認に失敗: JobId={}, {}", job.getJobId(), e.getMessage());
+                continue;
+            }
+            if (generation.isFailed()) {
+                fail(job, "アバターの生成に失敗しました");
+            } else if (generation.isComplete()) {
+                List<String> avatars = cacheImages(generation.imageUrls());
+                if (avatars.isEmpty()) {
+                    fail(job, "アバターの生成に失敗しました");
+                } else {
+                    complete(job, avatars);
+                }
+            }
+        }
+    }
+
+    /**
+     * 生成された画像をローカルに保存（保存できなかったものは元のURLのまま）
+     */
+    private List<String> cacheImages(List<String> imageUrls) {
+        List<String> avatars = new ArrayList<>();
+        for (String imageUrl : imageUrls) {
+            if (imageUrl == null) {
+                continue;
+            }
+            try {
+                String localUrl = leonardoService.downloadImage(imageUrl,
+                        in -> mediaStorageService.store(in, extensionOf(imageUrl)));
+                imageDerivativeService.scheduleDerivatives(localUrl);
+                avatars.add(localUrl);
+            } catch (Exception e) {
+                logger.warn("生成画像の保存に失敗: {}", e.getMessage());
+                avatars.add(imageUrl);
+            }
+        }
+        return avatars;
+    }
+
+    private String extensionOf(String imageUrl) {
+        String path = URI.create(imageUrl).getPath();
+        int dot = path != null ? path.lastIndexOf('.') : -1;
+        String ext = dot >= 0 ? path.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+        return switch (ext) {
+            case "png", "webp", "jpeg" -> ext;
+            default -> "jpg";
+        };
+    }
+
+    private void complete(AvatarJob job, List<String> avatars) {
+        job.avatars = List.copyOf(avatars);
+        job.status = JobStatus.COMPLETED;
+        job.finishedAt = LocalDateTime.now();
+        logger.info("アバター生成ジョブ完了: JobId={}, 所要時間={}ms", job.getJobId(),
+                Duration.between(job.getCreatedAt(), job.getFinishedAt()).toMillis());
+        publish(job);
+    }
+
+    private void fail(AvatarJob job, String error) {
+        job.error = error;
+        job.status = JobStatus.FAILED;
+        job.finishedAt = LocalDateTime.now();
+        logger.info("アバター生成ジョブ失敗: JobId={}, {}", job.getJobId(), error);
+        publish(job);
+    }
+
+    private void publish(AvatarJob job) {
+        try {
+            messagingTemplate.convertAndSendToUser(job.getUsername(), "/queue/avatar-jobs", toResponse(job));
+        } catch (Exception e) {
+            logger.warn("アバター生成結果の送信に失敗: JobId={}", job.getJobId(), e);
+        }
+    }
+
+    private void pruneFinishedJobs() {
+        LocalDateTime threshold = LocalDateTime.now().minusMinutes(retentionMinutes);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(threshold));
+        latestByUser.values().removeIf(jobId -> !jobs.containsKey(jobId));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -1,14 +1,24 @@
 package com.example.chatapp.service;
 
+import com.example.chatapp.dto.ChatRoomDto;
 import com.example.chatapp.entity.ChatRoom;
 import com.example.chatapp.entity.RoomInvitation;
 import com.example.chatapp.entity.User;
 import com.example.chatapp.repository.ChatRoomRepository;
 import com.example.chatapp.repository.RoomInvitationRepository;
+import com.example.chatapp.repository.RoomJoinRequestRepository;
 import com.example.chatapp.repository.UserRepository;
+import com.example.chatapp.util.UserPairCache;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import org.springframework.web.multipart.MultipartFile;
 
@@ -16,7 +26,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -24,10 +33,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 @Service
+@Transactional
 public class ChatRoomService {
 
     @Autowired
@@ -37,14 +46,32 @@ public class ChatRoomService {
     private UserRepository userRepository;
 
     @Autowired
-    private com.example.chatapp.repository.RoomJoinRequestRepository roomJoinRequestRepository;
+    private RoomJoinRequestRepository roomJoinRequestRepository;
 
     @Autowired
     private RoomInvitationRepository roomInvitationRepository;
 
+    @Autowired
+    private DeletionJobService deletionJobService;
+
+    @Autowired
+    private MediaStorageService mediaStorageService;
+
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Value("${app.debug.enabled:false}")
     private boolean debugEnabled;
 
+    // ユーザーペア -> 1対1ルームIDの小さなキャッシュ
+    private final UserPairCache pairRoomCache = new UserPairCache(1024);
+
     /**
      * 全てのチャットルームを取得
      */
@@ -55,6 +82,7 @@ public class ChatRoomService {
     /**
      * ユーザーが参加しているチャットルームを取得
      */
+    @Transactional(readOnly = true)
     public List<ChatRoom> getUserChatRooms(String username) {
         Optional<User> user = userRepository.findByUsername(username);
         if (user.isPresent()) {
@@ -66,26 +94,64 @@ public class ChatRoomService {
     /**
      * ユーザーが参加していないパブリックルームを取得
      */
+    @Transactional(readOnly = true)
     public List<ChatRoom> getAvailablePublicRooms(String username) {
         Optional<User> userOpt = userRepository.findByUsername(username);
         if (!userOpt.isPresent()) {
             return List.of();
         }
         
-        User user = userOpt.get();
-        List<ChatRoom> allRooms = chatRoomRepository.findAll();
-        List<ChatRoom> userRooms = chatRoomRepository.findByUsersContaining(user);
-        
         // パブリック（isPublic=true）かつユーザーが参加していないもの
-        return allRooms.stream()
-                .filter(room -> room.isPublic())
-                .filter(room -> !userRooms.contains(room))
-                .collect(Collectors.toList());
+        return chatRoomRepository.findAvailablePublicRooms(userOpt.get().getId());
+    }
+
+    /**
+     * 参加中のルーム一覧（API用、参加者を読み込まずに件数だけ集計）
+     */
+    @Transactional(readOnly = true)
+    public List<ChatRoomDto> getUserRoomSummaries(String username) {
+        return userRepository.findByUsername(username)
+                .map(user -> toDtos(chatRoomRepository.findJoinedRoomViews(user.getId())))
+                .orElse(List.of());
+    }
+
+    /**
+     * 参加可能なパブリックルーム一覧（API用）
+     */
+    @Transactional(readOnly = true)
+    public List<ChatRoomDto> getAvailableRoomSummaries(String username) {
+        return userRepository.findByUsername(username)
+                .map(user -> toDtos(chatRoomRepository.findAvailablePublicRoomViews(user.getId())))
+                .orElse(List.of());
+    }
+
+    /**
+     * 参加申請中のルーム一覧（API用）
+     */
+    @Transactional(readOnly = true)
+    public List<ChatRoomDto> getRequestedRoomSummaries(String username) {
+        return userRepository.findByUsername(username)
+                .map(user -> toDtos(chatRoomRepository.findRequestedRoomViews(user.getId(),
+                        com.example.chatapp.entity.RoomJoinRequest.RequestStatus.PENDING)))
+                .orElse(List.of());
+    }
+
+    /**
+     * 1件のルームの一覧表示用情報（参加・退出の通知用）
+     */
+    @Transactional(readOnly = true)
+    public Optional<ChatRoomDto> getChatRoomSummary(Long chatRoomId) {
+        return chatRoomRepository.findRoomViewById(chatRoomId).map(ChatRoomDto::new);
+    }
+
+    private List<ChatRoomDto> toDtos(List<ChatRoomRepository.RoomSummaryView> views) {
+        return views.stream().map(ChatRoomDto::new).collect(Collectors.toList());
     }
 
     /**
      * ルーム名で検索（パブリックルームのみ、未参加のもの）
      */
+    @Transactional(readOnly = true)
     public List<ChatRoom> searchAvailablePublicRooms(String username, String keyword) {
         List<ChatRoom> availableRooms = getAvailablePublicRooms(username);
         
@@ -150,6 +216,7 @@ public class ChatRoomService {
         if (!mainRoom.getUsers().contains(user)) {
             mainRoom.getUsers().add(user);
             chatRoomRepository.save(mainRoom);
+            publishMembership(user, 1);
             
             if (debugEnabled) {
                 System.out.println("ユーザー " + username + " をメインルームに自動参加させました");
@@ -253,6 +320,7 @@ public class ChatRoomService {
             if (!room.getUsers().contains(user)) {
                 room.addUser(user);
                 chatRoomRepository.save(room);
+                publishMembership(user, 1);
                 
                 if (debugEnabled) {
                     System.out.println(username + " がルーム " + room.getName() + " に参加しました");
@@ -272,8 +340,13 @@ public class ChatRoomService {
             ChatRoom room = roomOpt.get();
             User user = userOpt.get();
             
+            boolean member = room.getUsers().contains(user);
             room.removeUser(user);
+            releaseUserPair(room);
             chatRoomRepository.save(room);
+            if (member) {
+                publishMembership(user, -1);
+            }
             
             if (debugEnabled) {
                 System.out.println(username + " がルーム " + room.getName() + " から退出しました");
@@ -284,14 +357,27 @@ public class ChatRoomService {
     /**
      * チャットルームを取得
      */
+    @Transactional(readOnly = true)
     public Optional<ChatRoom> getChatRoom(Long chatRoomId) {
-        return chatRoomRepository.findById(chatRoomId);
+        Optional<ChatRoom> room = chatRoomRepository.findById(chatRoomId);
+        // 作成者は呼び出し側で参照されるため読み込んでおく（二次キャッシュにあればSQLは発行されない）
+        room.ifPresent(r -> Hibernate.initialize(r.getCreatedBy()));
+        return room;
+    }
+
+    /**
+     * チャットルームを参加者（プロフィール込み）・作成者と合わせて取得
+     */
+    @Transactional(readOnly = true)
+    public Optional<ChatRoom> getChatRoomWithMembers(Long chatRoomId) {
+        return chatRoomRepository.findWithMembersById(chatRoomId);
     }
 
     /**
      * チャットルームを削除（作成者のみ）
+     * ルームは即時に論理削除され、メッセージ等はバックグラウンドの削除ジョブで削除される
      */
-    public boolean deleteChatRoom(Long chatRoomId, String username) {
+    public Optional<DeletionJobService.DeletionJob> deleteChatRoom(Long chatRoomId, String username) {
         Optional<ChatRoom> roomOpt = chatRoomRepository.findById(chatRoomId);
         Optional<User> userOpt = userRepository.findByUsername(username);
 
@@ -301,15 +387,19 @@ public class ChatRoomService {
             
             // 作成者または管理者のみ削除可能
             if ((room.getCreatedBy() != null && room.getCreatedBy().equals(user)) || "admin".equals(username)) {
-                chatRoomRepository.delete(room);
+                // 論理削除はエンティティに対して行う（JDBC で更新するとコミット時のフラッシュで deleted_at が戻る）
+                room.setDeletedAt(LocalDateTime.now());
+                releaseUserPair(room);
+                chatRoomRepository.save(room);
+                DeletionJobService.DeletionJob job = deletionJobService.scheduleRoomDeletion(room.getId(), username);
                 
                 if (debugEnabled) {
-                    System.out.println("ルーム " + room.getName() + " が削除されました");
+                    System.out.println("ルーム " + room.getName() + " の削除ジョブを登録しました: " + job.getJobId());
                 }
-                return true;
+                return Optional.of(job);
             }
         }
-        return false;
+        return Optional.empty();
     }
 
     /**
@@ -335,7 +425,9 @@ public class ChatRoomService {
         
         // 作成者をルームに追加
         chatRoom.getUsers().add(creator);
-        return chatRoomRepository.save(chatRoom);
+        chatRoom = chatRoomRepository.save(chatRoom);
+        publishMembership(creator, 1);
+        return chatRoom;
     }
 
     /**
@@ -348,6 +440,7 @@ public class ChatRoomService {
             if (!chatRoom.getUsers().contains(user)) {
                 chatRoom.getUsers().add(user);
                 chatRoomRepository.save(chatRoom);
+                publishMembership(user, 1);
                 return true;
             }
         }
@@ -363,7 +456,9 @@ public class ChatRoomService {
             ChatRoom chatRoom = chatRoomOpt.get();
             if (chatRoom.getUsers().contains(user)) {
                 chatRoom.getUsers().remove(user);
+                releaseUserPair(chatRoom);
                 chatRoomRepository.save(chatRoom);
+                publishMembership(user, -1);
                 return true;
             }
         }
@@ -379,7 +474,9 @@ public class ChatRoomService {
             ChatRoom chatRoom = chatRoomOpt.get();
             // ここでは論理削除や非アクティブフラグの設定を行う
             // 今回は簡単のため、ユーザーリストをクリア
+            chatRoom.getUsers().forEach(user -> publishMembership(user, -1));
             chatRoom.getUsers().clear();
+            releaseUserPair(chatRoom);
             chatRoomRepository.save(chatRoom);
         }
     }
@@ -395,48 +492,89 @@ public class ChatRoomService {
      * 2人のユーザー間の既存プライベートルームを検索
      */
     public Optional<ChatRoom> findExistingPrivateRoom(User user1, User user2) {
-        List<ChatRoom> user1Rooms = chatRoomRepository.findByUsersContaining(user1);
+        Optional<ChatRoom> roomOpt = Optional.empty();
 
-        return user1Rooms.stream()
-                .filter(room -> room.getType() == ChatRoom.ChatRoomType.PRIVATE ||
-                               room.getType() == ChatRoom.ChatRoomType.RANDOM)
-                .filter(room -> room.getUsers().contains(user2))
-                .filter(room -> room.getUsers().size() == 2) // 2人だけのルーム
-                .findFirst();
+        // キャッシュ済みのルームIDがあれば主キーで取得
+        Long cachedId = pairRoomCache.get(user1.getId(), user2.getId());
+        if (cachedId != null) {
+            roomOpt = chatRoomRepository.findById(cachedId)
+                    .filter(ChatRoom::hasUserPair);
+        }
+        // なければ正規化ペアキーのユニークインデックスで検索
+        if (roomOpt.isEmpty()) {
+            roomOpt = chatRoomRepository.findByMinUserIdAndMaxUserId(
+                    UserPairCache.minId(user1.getId(), user2.getId()),
+                    UserPairCache.maxId(user1.getId(), user2.getId()));
+        }
+        if (roomOpt.isEmpty()) {
+            pairRoomCache.evict(user1.getId(), user2.getId());
+            return Optional.empty();
+        }
+
+        ChatRoom room = roomOpt.get();
+        // 2人だけのルームであることを確認（退出済みならペアを解除）
+        if (room.getUsers().size() != 2 || !room.getUsers().contains(user1) || !room.getUsers().contains(user2)) {
+            releaseUserPair(room);
+            chatRoomRepository.save(room);
+            return Optional.empty();
+        }
+
+        pairRoomCache.put(user1.getId(), user2.getId(), room.getId());
+        return Optional.of(room);
     }
 
     /**
-     * ユーザーが申請中のルーム一覧を取得
+     * 2人のユーザー間の1対1ルームを取得し、なければ作成
+     * 同時に作成されてペアキーの一意インデックスに違反した場合は、先に作られたルームを読み直して返す。
+     * 違反したトランザクションは続けて使えないため、呼び出し元のトランザクションには参加しない
      */
-    public List<ChatRoom> getRequestedRooms(String username) {
-        System.out.println("getRequestedRooms called for: " + username);
-        Optional<User> userOpt = userRepository.findByUsername(username);
-        if (!userOpt.isPresent()) {
-            System.out.println("User not found: " + username);
-            return List.of();
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ChatRoom findOrCreatePairRoom(String name, User user1, User user2, ChatRoom.ChatRoomType type) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        try {
+            return transaction.execute(status -> findExistingPrivateRoom(user1, user2)
+                    .orElseGet(() -> createPairRoom(name, user1, user2, type)));
+        } catch (DataIntegrityViolationException e) {
+            return transaction.execute(status -> findExistingPrivateRoom(user1, user2))
+                    .orElseThrow(() -> e);
         }
+    }
 
-        User user = userOpt.get();
-        System.out.println("User found: " + user.getId() + " - " + user.getUsername());
+    /**
+     * 2人のユーザー間の1対1ルームを作成（ペアキー付き）
+     */
+    public ChatRoom createPairRoom(String name, User user1, User user2, ChatRoom.ChatRoomType type) {
+        ChatRoom chatRoom = new ChatRoom();
+        chatRoom.setName(name);
+        chatRoom.setType(type);
+        chatRoom.setCreatedBy(user1);
+        chatRoom.setCreatedAt(LocalDateTime.now());
+        chatRoom.getUsers().add(user1);
+        chatRoom.getUsers().add(user2);
+        chatRoom.setUserPair(user1.getId(), user2.getId());
+        chatRoom = chatRoomRepository.save(chatRoom);
+        publishMembership(user1, 1);
+        publishMembership(user2, 1);
 
-        // ユーザーのPENDING状態の申請を取得
-        List<com.example.chatapp.entity.RoomJoinRequest> requests =
-            roomJoinRequestRepository.findByUserAndStatus(user,
-                com.example.chatapp.entity.RoomJoinRequest.RequestStatus.PENDING);
-        System.out.println("PENDING requests found: " + requests.size());
+        pairRoomCache.put(user1.getId(), user2.getId(), chatRoom.getId());
+        return chatRoom;
+    }
 
-        // デバッグ: 全申請も確認
-        List<com.example.chatapp.entity.RoomJoinRequest> allRequests =
-            roomJoinRequestRepository.findByUser(user);
-        System.out.println("All requests for user: " + allRequests.size());
-        for (com.example.chatapp.entity.RoomJoinRequest req : allRequests) {
-            System.out.println("  - Room: " + req.getChatRoom().getName() + ", Status: " + req.getStatus());
-        }
+    /**
+     * ユーザー統計へルームの参加（1）・退出（-1）を通知（コミット後に反映される）
+     */
+    private void publishMembership(User user, int delta) {
+        eventPublisher.publishEvent(new UserActivityEvent.RoomMembershipChanged(user.getId(), delta));
+    }
 
-        // 申請からルーム情報を抽出
-        return requests.stream()
-                .map(com.example.chatapp.entity.RoomJoinRequest::getChatRoom)
-                .collect(Collectors.toList());
+    /**
+     * メンバー構成が変わった1対1ルームのペアキーを解除
+     */
+    private void releaseUserPair(ChatRoom room) {
+        if (room.hasUserPair()) {
+            pairRoomCache.evict(room.getMinUserId(), room.getMaxUserId());
+            room.clearUserPair();
+        }
     }
 
     /**
@@ -488,35 +626,24 @@ public class ChatRoomService {
             return List.of();
         }
 
-        User creator = creatorOpt.get();
-
-        // 自分が作成したルームを取得
-        List<ChatRoom> createdRooms = chatRoomRepository.findAll().stream()
-                .filter(room -> room.getCreatedBy() != null && room.getCreatedBy().equals(creator))
-                .collect(Collectors.toList());
+        // 作成ルーム・申請者・プロフィールを1クエリで取得
+        List<RoomJoinRequestRepository.PendingApprovalView> views =
+                roomJoinRequestRepository.findApprovalViewsByCreatorAndStatus(creatorOpt.get().getId(),
+                        com.example.chatapp.entity.RoomJoinRequest.RequestStatus.PENDING);
 
-        // 各ルームへのPENDING状態の申請を取得
         List<Map<String, Object>> approvals = new ArrayList<>();
-        for (ChatRoom room : createdRooms) {
-            List<com.example.chatapp.entity.RoomJoinRequest> requests =
-                    roomJoinRequestRepository.findByChatRoomAndStatus(room,
-                            com.example.chatapp.entity.RoomJoinRequest.RequestStatus.PENDING);
-
-            for (com.example.chatapp.entity.RoomJoinRequest request : requests) {
-                Map<String, Object> approval = new HashMap<>();
-                User applicant = request.getUser();
-
-                approval.put("requestId", request.getId());
-                approval.put("roomId", room.getId());
-                approval.put("roomName", room.getName());
-                approval.put("username", applicant.getUsername());
-                approval.put("displayName", applicant.getProfile() != null ? applicant.getProfile().getDisplayName() : applicant.getUsername());
-                approval.put("avatarUrl", applicant.getProfile() != null ? applicant.getProfile().getAvatarUrl() : null);
-                approval.put("bio", applicant.getProfile() != null ? applicant.getProfile().getBio() : null);
-                approval.put("requestedAt", request.getCreatedAt());
-
-                approvals.add(approval);
-            }
+        for (RoomJoinRequestRepository.PendingApprovalView view : views) {
+            Map<String, Object> approval = new HashMap<>();
+            approval.put("requestId", view.getRequestId());
+            approval.put("roomId", view.getRoomId());
+            approval.put("roomName", view.getRoomName());
+            approval.put("username", view.getUsername());
+            approval.put("displayName", view.getDisplayName() != null ? view.getDisplayName() : view.getUsername());
+            approval.put("avatarUrl", view.getAvatarUrl());
+            approval.put("bio", view.getBio());
+            approval.put("requestedAt", view.getRequestedAt());
+
+            approvals.add(approval);
         }
 
         return approvals;
@@ -687,28 +814,22 @@ public class ChatRoomService {
             return List.of();
         }
 
-        User user = userOpt.get();
-
-        // PENDING状態の招待を取得
-        List<RoomInvitation> invitations =
-                roomInvitationRepository.findByInviteeAndStatus(user, RoomInvitation.InvitationStatus.PENDING);
+        // PENDING状態の招待をルーム・招待者プロフィールと合わせて取得
+        List<RoomInvitationRepository.InvitationView> invitations =
+                roomInvitationRepository.findReceivedViews(userOpt.get().getId(), RoomInvitation.InvitationStatus.PENDING);
 
         List<Map<String, Object>> result = new ArrayList<>();
-        for (RoomInvitation invitation : invitations) {
+        for (RoomInvitationRepository.InvitationView invitation : invitations) {
             Map<String, Object> invitationInfo = new HashMap<>();
-            ChatRoom room = invitation.getChatRoom();
-            User inviter = invitation.getInviter();
-
-            invitationInfo.put("invitationId", invitation.getId());
-            invitationInfo.put("roomId", room.getId());
-            invitationInfo.put("roomName", room.getName());
-            invitationInfo.put("roomDescription", room.getDescription());
-            invitationInfo.put("inviterUsername", inviter.getUsername());
-            invitationInfo.put("inviterDisplayName", inviter.getProfile() != null ?
-                    inviter.getProfile().getDisplayName() : inviter.getUsername());
-            invitationInfo.put("inviterAvatarUrl", inviter.getProfile() != null ?
-                    inviter.getProfile().getAvatarUrl() : null);
-            invitationInfo.put("invitedAt", invitation.getCreatedAt());
+            invitationInfo.put("invitationId", invitation.getInvitationId());
+            invitationInfo.put("roomId", invitation.getRoomId());
+            invitationInfo.put("roomName", invitation.getRoomName());
+            invitationInfo.put("roomDescription", invitation.getRoomDescription());
+            invitationInfo.put("inviterUsername", invitation.getUsername());
+            invitationInfo.put("inviterDisplayName", invitation.getDisplayName() != null ?
+                    invitation.getDisplayName() : invitation.getUsername());
+            invitationInfo.put("inviterAvatarUrl", invitation.getAvatarUrl());
+            invitationInfo.put("invitedAt", invitation.getInvitedAt());
 
             result.add(invitationInfo);
         }
@@ -788,32 +909,25 @@ public class ChatRoomService {
     }
 
     /**
-     * ルームへの送信済み招待一覧を取得（PENDING状態のもの）
+     * ルームへの送信済み招待一覧を取得（PENDING状態のもの、ルームの作成者・参加者のみ）
      */
     public List<Map<String, Object>> getSentInvitationsForRoom(Long roomId, String inviterUsername) {
-        Optional<ChatRoom> roomOpt = chatRoomRepository.findById(roomId);
-        Optional<User> inviterOpt = userRepository.findByUsername(inviterUsername);
-
-        if (roomOpt.isEmpty() || inviterOpt.isEmpty()) {
-            return List.of();
+        if (!chatRoomRepository.isCreatorOrMember(roomId, inviterUsername)) {
+            throw new RuntimeException("このルームの招待一覧を表示する権限がありません");
         }
 
-        ChatRoom room = roomOpt.get();
-
-        // このルームへのPENDING状態の招待を取得
-        List<RoomInvitation> invitations =
-                roomInvitationRepository.findByChatRoomAndStatus(room, RoomInvitation.InvitationStatus.PENDING);
+        // このルームへのPENDING状態の招待を招待先プロフィールと合わせて取得
+        List<RoomInvitationRepository.InvitationView> invitations =
+                roomInvitationRepository.findSentViewsForRoom(roomId, RoomInvitation.InvitationStatus.PENDING);
 
         List<Map<String, Object>> result = new ArrayList<>();
-        for (RoomInvitation invitation : invitations) {
+        for (RoomInvitationRepository.InvitationView invitation : invitations) {
             Map<String, Object> invitationInfo = new HashMap<>();
-            User invitee = invitation.getInvitee();
-
-            invitationInfo.put("invitationId", invitation.getId());
-            invitationInfo.put("inviteeUsername", invitee.getUsername());
-            invitationInfo.put("inviteeDisplayName", invitee.getProfile() != null ?
-                    invitee.getProfile().getDisplayName() : invitee.getUsername());
-            invitationInfo.put("invitedAt", invitation.getCreatedAt());
+            invitationInfo.put("invitationId", invitation.getInvitationId());
+            invitationInfo.put("inviteeUsername", invitation.getUsername());
+            invitationInfo.put("inviteeDisplayName", invitation.getDisplayName() != null ?
+                    invitation.getDisplayName() : invitation.getUsername());
+            invitationInfo.put("invitedAt", invitation.getInvitedAt());
 
             result.add(invitationInfo);
         }
@@ -825,6 +939,7 @@ public class ChatRoomService {
     // ルームアイコン関連
     // ============================
 
+    // 旧形式（メディアストア導入前）のアップロード先
     private static final String ROOM_ICON_UPLOAD_DIR = "src/main/resources/static/uploads/rooms/";
     private static final String[] ALLOWED_EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif"};
     private static final long MAX_FILE_SIZE = 5 * 1024 * 1024; // 5MB
@@ -864,13 +979,7 @@ public class ChatRoomService {
             throw new IllegalArgumentException("許可されていないファイル形式です（jpg, jpeg, png, gifのみ）");
         }
 
-        // ディレクトリ作成
-        Path uploadPath = Paths.get(ROOM_ICON_UPLOAD_DIR);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
-        }
-
-        // 旧アイコンファイルを削除
+        // 旧形式のアイコンファイルを削除（メディアストアのファイルは共有される可能性があるため残す）
         if (room.getIconUrl() != null && room.getIconUrl().startsWith("/uploads/rooms/")) {
             String oldFilename = room.getIconUrl().replace("/uploads/rooms/", "");
             Path oldFile = Paths.get(ROOM_ICON_UPLOAD_DIR + oldFilename);
@@ -878,13 +987,12 @@ public class ChatRoomService {
         }
 
         // ファイル保存
-        String newFilename = "room_" + roomId + "_" + UUID.randomUUID() + extension;
-        Path filePath = uploadPath.resolve(newFilename);
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        String iconUrl = mediaStorageService.store(file, extension);
 
         // DB更新
-        String iconUrl = "/uploads/rooms/" + newFilename;
         room.setIconUrl(iconUrl);
-        return chatRoomRepository.save(room);
+        ChatRoom saved = chatRoomRepository.save(room);
+        imageDerivativeService.scheduleDerivatives(iconUrl);
+        return saved;
     }
 }
@@ -24,9 +24,14 @@ public class CustomUserDetailsService implements UserDetailsService {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません: " + username));
 
+        // 削除処理中のユーザーはログイン不可
         return new org.springframework.security.core.userdetails.User(
                 user.getUsername(),
                 user.getPassword(),
+                !user.isDeleted(),
+                true,
+                true,
+                true,
                 getAuthorities()
         );
     }
@@ -0,0 +1,472 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.AiPersona;
+import com.example.chatapp.entity.ChatRoom;
+import com.example.chatapp.entity.User;
+import com.example.chatapp.entity.UserProfile;
+import com.example.chatapp.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ルーム・ユーザーの削除ジョブ管理サービス
+ * リクエスト時は論理削除（deleted_at）のみ行い、関連データはバックグラウンドで
+ * チャンク単位のDELETE文により削除する（1チャンク = 1トランザクション）
+ * 保持期間を過ぎたデータの削除（RetentionService）も同じ手順・同じスレッドで実行し、
+ * 最後に SQLite の空きページをファイルから返す（incremental vacuum）
+ * ジョブはメモリ上にしか持たないため、起動時に論理削除のまま残っている行の削除を登録し直す
+ */
+@Service
+public class DeletionJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeletionJobService.class);
+
+    // 完了済みジョブの保持件数
+    private static final int MAX_FINISHED_JOBS = 200;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserSearchIndexService userSearchIndexService;
+
+    @Autowired
+    private MessageSearchIndexService messageSearchIndexService;
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    @Autowired
+    private UserStatisticsService userStatisticsService;
+
+    @Autowired
+    private AiConversationMemoryService aiConversationMemoryService;
+
+    @Autowired
+    private EntityCacheService entityCacheService;
+
+    @Value("${app.deletion.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${app.deletion.pause-millis:20}")
+    private long pauseMillis;
+
+    @Value("${spring.datasource.url:}")
+    private String datasourceUrl;
+
+    // 1回の incremental_vacuum で返すページ数（ページ数ごとに書き込みを譲る）
+    @Value("${app.retention.vacuum-pages:2000}")
+    private int vacuumPages;
+
+    // auto_vacuum=NONE の既存DBを INCREMENTAL に切り替える（VACUUM でDB全体を書き直すため、その間は書き込みが止まる）
+    @Value("${app.retention.convert-auto-vacuum:false}")
+    private boolean convertAutoVacuum;
+
+    // SQLiteの書き込みは1本に直列化されるため、削除ジョブも1スレッドで順番に処理する
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "deletion-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Key: jobId, Value: DeletionJob
+    private final Map<String, DeletionJob> jobs = new ConcurrentHashMap<>();
+
+    public enum TargetType {
+        ROOM,
+        USER,
+        RETENTION
+    }
+
+    public enum JobStatus {
+        PENDING,    // 待機中
+        RUNNING,    // 削除中
+        COMPLETED,  // 完了
+        FAILED      // 失敗
+    }
+
+    /**
+     * 削除ジョブの進捗情報
+     */
+    public static class DeletionJob {
+        private final String jobId;
+        private final TargetType targetType;
+        private final Long targetId;
+        private final String requestedBy;
+        private final LocalDateTime requestedAt = LocalDateTime.now();
+        private volatile JobStatus status = JobStatus.PENDING;
+        private volatile String currentStep;
+        private volatile long rowsDeleted;
+        // テーブルごとの削除行数
+        private final Map<String, Long> rowsByTable = Collections.synchronizedMap(new LinkedHashMap<>());
+        private volatile long vacuumedPages;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile String error;
+
+        DeletionJob(TargetType targetType, Long targetId, String requestedBy) {
+            this.jobId = UUID.randomUUID().toString();
+            this.targetType = targetType;
+            this.targetId = targetId;
+            this.requestedBy = requestedBy;
+        }
+
+        public String getJobId() { return jobId; }
+        public TargetType getTargetType() { return targetType; }
+        public Long getTargetId() { return targetId; }
+        public String getRequestedBy() { return requestedBy; }
+        public LocalDateTime getRequestedAt() { return requestedAt; }
+        public JobStatus getStatus() { return status; }
+        public String getCurrentStep() { return currentStep; }
+        public long getRowsDeleted() { return rowsDeleted; }
+        public Map<String, Long> getRowsByTable() {
+            synchronized (rowsByTable) {
+                return new LinkedHashMap<>(rowsByTable);
+            }
+        }
+        public long getVacuumedPages() { return vacuumedPages; }
+        public LocalDateTime getStartedAt() { return startedAt; }
+        public LocalDateTime getFinishedAt() { return finishedAt; }
+        public Long getElapsedMillis() {
+            return startedAt == null ? null
+                    : Duration.between(startedAt, finishedAt != null ? finishedAt : LocalDateTime.now()).toMillis();
+        }
+        public String getError() { return error; }
+    }
+
+    /**
+     * ルーム削除を登録（実データは論理削除のコミット後に非同期で削除）
+     * ルームの論理削除とペアキーの解除は呼び出し元が ChatRoom エンティティに対して行う
+     */
+    public DeletionJob scheduleRoomDeletion(Long roomId, String requestedBy) {
+        // ランダムマッチからの参照を外す
+        jdbcTemplate.update("UPDATE random_matches SET chat_room_id = NULL WHERE chat_room_id = ?", roomId);
+        entityCacheService.evict(ChatRoom.class, roomId);
+
+        DeletionJob job = register(TargetType.ROOM, roomId, requestedBy);
+        submitAfterCommit(() -> run(job, () -> purgeRoom(job, roomId)));
+        return job;
+    }
+
+    /**
+     * ユーザー削除を登録（即時に論理削除し、関連データは非同期で削除）
+     */
+    public DeletionJob scheduleUserDeletion(Long userId, String requestedBy) {
+        // エンティティ経由で更新し、二次キャッシュも Hibernate に更新させる
+        userRepository.findById(userId).ifPresent(user -> {
+            user.setDeletedAt(LocalDateTime.now());
+            userRepository.save(user);
+        });
+        userSearchIndexService.remove(userId);
+
+        DeletionJob job = register(TargetType.USER, userId, requestedBy);
+        submitAfterCommit(() -> run(job, () -> purgeUser(job, userId)));
+        return job;
+    }
+
+    /**
+     * 前回の停止で途中になった削除を登録し直す
+     * （実データの削除が終わると行ごと消えるため、論理削除のまま残っている行は未完了）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingDeletions() {
+        List<Long> userIds = jdbcTemplate.queryForList(
+                "SELECT id FROM users WHERE deleted_at IS NOT NULL ORDER BY id", Long.class);
+        for (Long userId : userIds) {
+            DeletionJob job = register(TargetType.USER, userId, "system");
+            executor.submit(() -> run(job, () -> purgeUser(job, userId)));
+        }
+        // 削除中のユーザーが作成したルームも含まれるが、ユーザーの削除で先に消えていれば何もしない
+        List<Long> roomIds = jdbcTemplate.queryForList(
+                "SELECT id FROM chat_rooms WHERE deleted_at IS NOT NULL ORDER BY id", Long.class);
+        for (Long roomId : roomIds) {
+            DeletionJob job = register(TargetType.ROOM, roomId, "system");
+            executor.submit(() -> run(job, () -> purgeRoom(job, roomId)));
+        }
+        if (!userIds.isEmpty() || !roomIds.isEmpty()) {
+            logger.info("途中で止まった削除ジョブを再登録: ユーザー={}, ルーム={}", userIds.size(), roomIds.size());
+        }
+    }
+
+    /**
+     * 保持期間を過ぎたデータの削除を登録（規則ごとにチャンク単位で削除し、最後に incremental vacuum）
+     */
+    public DeletionJob scheduleRetentionPurge(List<PurgeRule> rules, String requestedBy) {
+        DeletionJob job = register(TargetType.RETENTION, null, requestedBy);
+        executor.submit(() -> run(job, () -> {
+            for (PurgeRule rule : rules) {
+                deleteInChunks(job, rule.table(), rule.where(), rule.params().toArray());
+            }
+            incrementalVacuum(job);
+        }));
+        return job;
+    }
+
+    /**
+     * 保持期間による削除の1規則（where の条件に一致する行を table から削除）
+     */
+    public record PurgeRule(String table, String where, List<Object> params) {
+    }
+
+    /**
+     * 呼び出し元のトランザクション中なら、論理削除がコミットされてから実データの削除を始める
+     */
+    private void submitAfterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    executor.submit(task);
+                }
+            });
+        } else {
+            executor.submit(task);
+        }
+    }
+
+    /**
+     * ジョブの進捗を取得
+     */
+    public Optional<DeletionJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    private DeletionJob register(TargetType targetType, Long targetId, String requestedBy) {
+        pruneFinishedJobs();
+        DeletionJob job = new DeletionJob(targetType, targetId, requestedBy);
+        jobs.put(job.getJobId(), job);
+        logger.info("削除ジョブを登録: JobId={}, Target={} {}", job.getJobId(), targetType, targetId);
+        return job;
+    }
+
+    private void run(DeletionJob job, Runnable body) {
+        long start = System.currentTimeMillis();
+        job.startedAt = LocalDateTime.now();
+        job.status = JobStatus.RUNNING;
+        try {
+            body.run();
+            job.status = JobStatus.COMPLETED;
+            job.currentStep = null;
+            logger.info("削除ジョブ完了: JobId={}, Target={} {}, 削除行数={} {}, 返却ページ数={}, 所要時間={}ms",
+                    job.getJobId(), job.getTargetType(), job.getTargetId(), job.getRowsDeleted(),
+                    job.getRowsByTable(), job.getVacuumedPages(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            job.status = JobStatus.FAILED;
+            job.error = e.getMessage();
+            logger.error("削除ジョブ失敗: JobId={}, Step={}", job.getJobId(), job.getCurrentStep(), e);
+        } finally {
+            job.finishedAt = LocalDateTime.now();
+        }
+    }
+
+    /**
+     * ルームと依存データを削除
+     */
+    private void purgeRoom(DeletionJob job, Long roomId) {
+        deleteInChunks(job, "messages", "chat_room_id = ?", roomId);
+        deleteInChunks(job, "room_join_requests", "room_id = ?", roomId);
+        deleteInChunks(job, "room_invitations", "room_id = ?", roomId);
+        List<Long> memberIds = jdbcTemplate.queryForList(
+                "SELECT user_id FROM chat_room_users WHERE chat_room_id = ?", Long.class, roomId);
+        execute(job, "chat_room_users", "DELETE FROM chat_room_users WHERE chat_room_id = ?", roomId);
+        execute(job, "chat_rooms", "DELETE FROM chat_rooms WHERE id = ?", roomId);
+        entityCacheService.evict(ChatRoom.class, roomId);
+        messageSearchIndexService.dropRoom(roomId);
+        messageArchiveService.dropRoom(roomId);
+        userStatisticsService.refreshRelations(memberIds);
+    }
+
+    /**
+     * ユーザーと依存データを削除
+     */
+    private void purgeUser(DeletionJob job, Long userId) {
+        // 作成したルームも削除（メインルームは作成者のみ外して残す）
+        execute(job, "chat_rooms", "UPDATE chat_rooms SET created_by = NULL WHERE id = 1 AND created_by = ?", userId);
+        entityCacheService.evict(ChatRoom.class, 1L);
+        List<Long> createdRoomIds = jdbcTemplate.queryForList(
+                "SELECT id FROM chat_rooms WHERE created_by = ?", Long.class, userId);
+        for (Long roomId : createdRoomIds) {
+            jdbcTemplate.update("UPDATE chat_rooms SET deleted_at = CURRENT_TIMESTAMP, min_user_id = NULL, max_user_id = NULL WHERE id = ?",
+                    roomId);
+            jdbcTemplate.update("UPDATE random_matches SET chat_room_id = NULL WHERE chat_room_id = ?", roomId);
+            entityCacheService.evict(ChatRoom.class, roomId);
+            purgeRoom(job, roomId);
+        }
+
+        deleteInChunks(job, "messages", "user_id = ?", userId);
+        messageArchiveService.removeUser(userId);
+        List<Long> conversationIds = jdbcTemplate.queryForList(
+                "SELECT id FROM direct_message_conversations WHERE user1_id = ? OR user2_id = ?", Long.class, userId, userId);
+        conversationIds.forEach(messageSearchIndexService::dropConversation);
+        deleteInChunks(job, "direct_messages", "sender_id = ? OR receiver_id = ?", userId, userId);
+        execute(job, "direct_message_conversations",
+                "UPDATE direct_message_conversations SET last_message_sender_id = NULL WHERE last_message_sender_id = ?", userId);
+        deleteInChunks(job, "direct_message_conversations", "user1_id = ? OR user2_id = ?", userId, userId);
+        List<Long> relatedUserIds = jdbcTemplate.queryForList(
+                "SELECT following_id FROM friendships WHERE follower_id = ? " +
+                "UNION SELECT follower_id FROM friendships WHERE following_id = ?", Long.class, userId, userId);
+        deleteInChunks(job, "friendships", "follower_id = ? OR following_id = ?", userId, userId);
+        deleteInChunks(job, "match_likes", "liker_id = ? OR liked_id = ?", userId, userId);
+        execute(job, "random_matches", "UPDATE random_matches SET ended_by_user_id = NULL WHERE ended_by_user_id = ?", userId);
+        deleteInChunks(job, "random_matches", "user1_id = ? OR user2_id = ?", userId, userId);
+        deleteInChunks(job, "room_join_requests", "user_id = ?", userId);
+        deleteInChunks(job, "room_invitations", "inviter_id = ? OR invitee_id = ?", userId, userId);
+        execute(job, "chat_room_users", "DELETE FROM chat_room_users WHERE user_id = ?", userId);
+        deleteInChunks(job, "posts", "user_id = ?", userId);
+
+        // 通報・管理者通知は参照を外してから削除
+        execute(job, "admin_notifications",
+                "UPDATE admin_notifications SET related_report_id = NULL WHERE related_report_id IN " +
+                "(SELECT id FROM reports WHERE reporter_id = ? OR reported_user_id = ?)", userId, userId);
+        execute(job, "admin_notifications",
+                "UPDATE admin_notifications SET related_user_id = NULL WHERE related_user_id = ?", userId);
+        execute(job, "admin_notifications",
+                "UPDATE admin_notifications SET read_by = NULL WHERE read_by = ?", userId);
+        execute(job, "reports", "UPDATE reports SET resolved_by = NULL WHERE resolved_by = ?", userId);
+        deleteInChunks(job, "reports", "reporter_id = ? OR reported_user_id = ?", userId, userId);
+
+        execute(job, "ai_personas", "DELETE FROM ai_personas WHERE user_id = ?", userId);
+        aiConversationMemoryService.clear(userId);
+        execute(job, "user_profiles", "DELETE FROM user_profiles WHERE user_id = ?", userId);
+        execute(job, "users", "DELETE FROM users WHERE id = ?", userId);
+        // プロフィール・ペルソナはユーザーIDで引けないため種別ごと削除
+        entityCacheService.evictAll(AiPersona.class);
+        entityCacheService.evictAll(UserProfile.class);
+        entityCacheService.evict(User.class, userId);
+        userStatisticsService.removeUser(userId);
+        userStatisticsService.refreshRelations(relatedUserIds);
+    }
+
+    /**
+     * 条件に一致する行をchunkSize件ずつ削除（チャンク間で書き込みを譲る）
+     */
+    private void deleteInChunks(DeletionJob job, String table, String where, Object... params) {
+        job.currentStep = table;
+        String sql = "DELETE FROM " + table + " WHERE id IN (SELECT id FROM " + table +
+                " WHERE " + where + " LIMIT ?)";
+        Object[] args = new Object[params.length + 1];
+        System.arraycopy(params, 0, args, 0, params.length);
+        args[params.length] = chunkSize;
+
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(sql, args);
+            job.rowsDeleted += deleted;
+            job.rowsByTable.merge(table, (long) deleted, Long::sum);
+            if (deleted > 0) {
+                logger.debug("削除ジョブ進捗: JobId={}, Table={}, 累計削除行数={}", job.getJobId(), table, job.getRowsDeleted());
+                pause();
+            }
+        } while (deleted >= chunkSize);
+    }
+
+    private void execute(DeletionJob job, String step, String sql, Object... params) {
+        job.currentStep = step;
+        int affected = jdbcTemplate.update(sql, params);
+        if (sql.startsWith("DELETE")) {
+            job.rowsDeleted += affected;
+            job.rowsByTable.merge(step, (long) affected, Long::sum);
+        }
+    }
+
+    /**
+     * SQLite の空きページを vacuumPages ずつファイルから返す
+     * （auto_vacuum=INCREMENTAL のDBのみ。PostgreSQL は autovacuum に任せる）
+     */
+    private void incrementalVacuum(DeletionJob job) {
+        if (!datasourceUrl.startsWith("jdbc:sqlite:")) {
+            return;
+        }
+        job.currentStep = "incremental_vacuum";
+        Integer mode = jdbcTemplate.queryForObject("PRAGMA auto_vacuum", Integer.class);
+        if (mode == null || mode != 2) {
+            if (!convertAutoVacuum) {
+                logger.info("SQLite の auto_vacuum が INCREMENTAL ではないため空きページを返しません" +
+                        "（app.retention.convert-auto-vacuum=true で次回切り替え）");
+                return;
+            }
+            long start = System.currentTimeMillis();
+            // 切り替えは VACUUM を実行した接続でのみ有効になる
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                    statement.execute("VACUUM");
+                }
+                return null;
+            });
+            logger.info("SQLite を auto_vacuum=INCREMENTAL に切り替え: 所要時間={}ms", System.currentTimeMillis() - start);
+            return;
+        }
+
+        while (true) {
+            Long before = jdbcTemplate.queryForObject("PRAGMA freelist_count", Long.class);
+            if (before == null || before == 0) {
+                return;
+            }
+            jdbcTemplate.execute("PRAGMA incremental_vacuum(" + vacuumPages + ")");
+            Long after = jdbcTemplate.queryForObject("PRAGMA freelist_count", Long.class);
+            long freed = before - (after != null ? after : 0);
+            if (freed <= 0) {
+                return;
+            }
+            job.vacuumedPages += freed;
+            pause();
+        }
+    }
+
+    private void pause() {
+        if (pauseMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("削除ジョブが中断されました", e);
+        }
+    }
+
+    private void pruneFinishedJobs() {
+        if (jobs.size() <= MAX_FINISHED_JOBS) {
+            return;
+        }
+        jobs.values().stream()
+                .filter(job -> job.getFinishedAt() != null)
+                .sorted((a, b) -> a.getFinishedAt().compareTo(b.getFinishedAt()))
+                .limit(jobs.size() - MAX_FINISHED_JOBS)
+                .map(DeletionJob::getJobId)
+                .toList()
+                .forEach(jobs::remove);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -6,6 +6,7 @@ import com.example.chatapp.entity.User;
 import com.example.chatapp.repository.DirectMessageConversationRepository;
 import com.example.chatapp.repository.DirectMessageRepository;
 import com.example.chatapp.repository.UserRepository;
+import com.example.chatapp.util.UserPairCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,28 +37,48 @@ public class DirectMessageService {
     @Autowired
     private FriendshipService friendshipService;
 
+    @Autowired
+    private MessageSearchIndexService messageSearchIndexService;
+
+    // ユーザーペア -> 会話IDの小さなキャッシュ
+    private final UserPairCache conversationCache = new UserPairCache(1024);
+
     /**
      * DM会話を取得または作成
      */
     public DirectMessageConversation getOrCreateConversation(Long user1Id, Long user2Id) {
-        User user1 = userRepository.findById(user1Id)
-                .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません: " + user1Id));
-        User user2 = userRepository.findById(user2Id)
-                .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません: " + user2Id));
+        // キャッシュ済みの会話IDがあれば主キーで取得
+        Long cachedId = conversationCache.get(user1Id, user2Id);
+        if (cachedId != null) {
+            Optional<DirectMessageConversation> cached = conversationRepository.findById(cachedId);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+            conversationCache.evict(user1Id, user2Id);
+        }
 
-        // 既存の会話を検索
-        Optional<DirectMessageConversation> existing = conversationRepository.findByUsers(user1, user2);
+        // 既存の会話を正規化ペアキーで検索
+        Optional<DirectMessageConversation> existing = conversationRepository.findByMinUserIdAndMaxUserId(
+                UserPairCache.minId(user1Id, user2Id), UserPairCache.maxId(user1Id, user2Id));
         if (existing.isPresent()) {
             logger.info("既存のDM会話を使用: ConversationId={}", existing.get().getId());
+            conversationCache.put(user1Id, user2Id, existing.get().getId());
             return existing.get();
         }
 
+        User user1 = userRepository.findById(user1Id)
+                .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません: " + user1Id));
+        User user2 = userRepository.findById(user2Id)
+                .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません: " + user2Id));
+
         // 新規会話を作成（user1とuser2の順序を統一：IDが小さい方をuser1に）
         User smaller = user1.getId() < user2.getId() ? user1 : user2;
         User larger = user1.getId() < user2.getId() ? user2 : user1;
 
         DirectMessageConversation conversation = new DirectMessageConversation(smaller, larger);
+        conversation.setUserPair(smaller.getId(), larger.getId());
         conversation = conversationRepository.save(conversation);
+        conversationCache.put(user1Id, user2Id, conversation.getId());
         logger.info("新規DM会話を作成: ConversationId={}, User1={}, User2={}", 
                     conversation.getId(), smaller.getUsername(), larger.getUsername());
         return conversation;
@@ -82,6 +103,7 @@ public class DirectMessageService {
         // メッセージを作成
         DirectMessage message = new DirectMessage(conversation, sender, receiver, content);
         message = messageRepository.save(message);
+        messageSearchIndexService.indexDirectMessage(message);
 
         // 会話の最終メッセージ情報を更新
         conversation.setLastMessageAt(message.getSentAt());
@@ -97,71 +119,49 @@ public class DirectMessageService {
     /**
      * 指定ユーザーのDM会話一覧を取得（最新順）
      */
+    @Transactional(readOnly = true)
     public List<Map<String, Object>> getUserConversations(Long userId) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません: " + userId));
 
-        List<DirectMessageConversation> conversations = conversationRepository.findByUserOrderByLastMessageAtDesc(user);
-
-        return conversations.stream().map(conv -> {
-            User otherUser = conv.getOtherUser(user);
-            long unreadCount = messageRepository.countUnreadMessages(conv, user);
-
-            Map<String, Object> data = new HashMap<>();
-            data.put("conversationId", conv.getId());
-            data.put("userId", otherUser.getId());
-            data.put("username", otherUser.getUsername());
-            data.put("displayName", userProfileService.getDisplayName(otherUser));
-            data.put("avatarUrl", userProfileService.getAvatarUrl(otherUser));
-            data.put("lastMessage", conv.getLastMessageContent());
-            data.put("lastMessageAt", conv.getLastMessageAt());
-            data.put("lastMessageSender", conv.getLastMessageSender() != null ? 
-                     conv.getLastMessageSender().getUsername() : null);
-            data.put("unreadCount", unreadCount);
-            return data;
-        }).collect(Collectors.toList());
+        // 相手ユーザー・プロフィール・未読数は一覧と同じクエリで取得
+        return conversationRepository.findViewsByUserId(user.getId()).stream()
+                .map(this::toConversationData)
+                .collect(Collectors.toList());
     }
 
     /**
      * 友達（相互フォロー）のDM会話一覧を取得
      */
+    @Transactional(readOnly = true)
     public List<Map<String, Object>> getFriendsConversations(Long userId) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("ユーザーが見つかりません: " + userId));
 
-        // 友達一覧を取得
-        List<User> friends = friendshipService.getFriends(user);
-        Set<Long> friendIds = friends.stream().map(User::getId).collect(Collectors.toSet());
-
-        // 全会話を取得
-        List<DirectMessageConversation> allConversations = conversationRepository.findByUserOrderByLastMessageAtDesc(user);
+        // 友達（相互フォロー）のIDだけを取得
+        Set<Long> friendIds = Set.copyOf(friendshipService.getFriendIds(user));
 
         // 友達とのDM会話のみをフィルタリング
-        return allConversations.stream()
-                .filter(conv -> {
-                    User otherUser = conv.getOtherUser(user);
-                    return friendIds.contains(otherUser.getId());
-                })
-                .map(conv -> {
-                    User otherUser = conv.getOtherUser(user);
-                    long unreadCount = messageRepository.countUnreadMessages(conv, user);
-
-                    Map<String, Object> data = new HashMap<>();
-                    data.put("conversationId", conv.getId());
-                    data.put("userId", otherUser.getId());
-                    data.put("username", otherUser.getUsername());
-                    data.put("displayName", userProfileService.getDisplayName(otherUser));
-                    data.put("avatarUrl", userProfileService.getAvatarUrl(otherUser));
-                    data.put("lastMessage", conv.getLastMessageContent());
-                    data.put("lastMessageAt", conv.getLastMessageAt());
-                    data.put("lastMessageSender", conv.getLastMessageSender() != null ? 
-                             conv.getLastMessageSender().getUsername() : null);
-                    data.put("unreadCount", unreadCount);
-                    return data;
-                })
+        return conversationRepository.findViewsByUserId(user.getId()).stream()
+                .filter(view -> friendIds.contains(view.getUserId()))
+                .map(this::toConversationData)
                 .collect(Collectors.toList());
     }
 
+    private Map<String, Object> toConversationData(DirectMessageConversationRepository.ConversationView view) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("conversationId", view.getConversationId());
+        data.put("userId", view.getUserId());
+        data.put("username", view.getUsername());
+        data.put("displayName", view.getDisplayName());
+        data.put("avatarUrl", view.getAvatarUrl());
+        data.put("lastMessage", view.getLastMessage());
+        data.put("lastMessageAt", view.getLastMessageAt());
+        data.put("lastMessageSender", view.getLastMessageSender());
+        data.put("unreadCount", view.getUnreadCount() != null ? view.getUnreadCount() : 0L);
+        return data;
+    }
+
     /**
      * 会話のメッセージ一覧を取得
      */
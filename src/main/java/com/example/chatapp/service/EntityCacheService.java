@@ -0,0 +1,90 @@
+package com.example.chatapp.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hibernate 二次キャッシュ（User / UserProfile / ChatRoom / AiPersona）の無効化と統計
+ * - リポジトリ経由の更新や JPQL の一括更新は Hibernate が自動で無効化する
+ * - JdbcTemplate など Hibernate を経由しない更新の後は、ここで明示的に削除する
+ *   （トランザクション中ならコミット後にもう一度削除し、コミット前に読み直された古い値を残さない）
+ */
+@Service
+public class EntityCacheService {
+
+    public static final List<String> REGIONS = List.of(
+            "chatapp-user", "chatapp-user-profile", "chatapp-chat-room", "chatapp-ai-persona");
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    /**
+     * 1件のエンティティをキャッシュから削除
+     */
+    public void evict(Class<?> entityClass, Object id) {
+        runNowAndAfterCommit(() -> entityManagerFactory.getCache().evict(entityClass, id));
+    }
+
+    /**
+     * エンティティ種別ごとキャッシュから削除
+     */
+    public void evictAll(Class<?> entityClass) {
+        runNowAndAfterCommit(() -> entityManagerFactory.getCache().evict(entityClass));
+    }
+
+    private void runNowAndAfterCommit(Runnable eviction) {
+        eviction.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    eviction.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * リージョンごとのヒット・ミス・格納件数
+     */
+    public Map<String, Object> getStats() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("statisticsEnabled", statistics.isStatisticsEnabled());
+        if (!statistics.isStatisticsEnabled()) {
+            return stats;
+        }
+
+        Map<String, Object> regions = new LinkedHashMap<>();
+        for (String region : REGIONS) {
+            CacheRegionStatistics regionStats = statistics.getDomainDataRegionStatistics(region);
+            if (regionStats == null) {
+                continue;
+            }
+            long hits = regionStats.getHitCount();
+            long misses = regionStats.getMissCount();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("hits", hits);
+            entry.put("misses", misses);
+            entry.put("puts", regionStats.getPutCount());
+            entry.put("entries", regionStats.getElementCountInMemory());
+            entry.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+            regions.put(region, entry);
+        }
+        stats.put("regions", regions);
+        stats.put("hits", statistics.getSecondLevelCacheHitCount());
+        stats.put("misses", statistics.getSecondLevelCacheMissCount());
+        stats.put("puts", statistics.getSecondLevelCachePutCount());
+        return stats;
+    }
+}
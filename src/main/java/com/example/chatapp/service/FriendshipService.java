@@ -4,6 +4,7 @@ import com.example.chatapp.entity.Friendship;
 import com.example.chatapp.entity.User;
 import com.example.chatapp.repository.FriendshipRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -23,6 +24,15 @@ public class FriendshipService {
     @Autowired
     private FriendshipRepository friendshipRepository;
 
+    @Autowired
+    private TimelineService timelineService;
+
+    @Autowired
+    private PostNotificationService postNotificationService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     /**
      * ユーザーをフォローする
      */
@@ -39,7 +49,11 @@ public class FriendshipService {
 
         // フォロー関係を作成
         Friendship friendship = new Friendship(follower, following);
-        return friendshipRepository.save(friendship);
+        friendship = friendshipRepository.save(friendship);
+        timelineService.invalidate(follower.getId());
+        postNotificationService.evictFollowers(following.getId());
+        publishFollow(follower, following, true);
+        return friendship;
     }
 
     /**
@@ -51,6 +65,18 @@ public class FriendshipService {
             throw new IllegalArgumentException("フォロー関係が存在しません");
         }
         friendshipRepository.delete(friendship.get());
+        timelineService.invalidate(follower.getId());
+        postNotificationService.evictFollowers(following.getId());
+        publishFollow(follower, following, false);
+    }
+
+    /**
+     * ユーザー統計へフォロー・フォロー解除を通知（相手からもフォローされていれば友達数も増減する）
+     */
+    private void publishFollow(User follower, User following, boolean followed) {
+        boolean mutual = friendshipRepository.existsByFollowerAndFollowing(following, follower);
+        eventPublisher.publishEvent(new UserActivityEvent.FollowChanged(
+                follower.getId(), following.getId(), followed, mutual));
     }
 
     /**
@@ -88,6 +114,22 @@ public class FriendshipService {
         return friendshipRepository.findMutualFollows(user);
     }
 
+    /**
+     * フレンド（相互フォロー）一覧をプロフィール込みのビューで取得
+     */
+    @Transactional(readOnly = true)
+    public List<FriendshipRepository.FriendView> getFriendViews(User user) {
+        return friendshipRepository.findMutualFollowViews(user.getId());
+    }
+
+    /**
+     * フレンド（相互フォロー）のID一覧を取得
+     */
+    @Transactional(readOnly = true)
+    public List<Long> getFriendIds(User user) {
+        return friendshipRepository.findMutualFollowIds(user.getId());
+    }
+
     /**
      * フォロー数を取得
      */
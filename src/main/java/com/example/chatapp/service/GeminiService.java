@@ -4,14 +4,20 @@ import com.example.chatapp.entity.AiPersona;
 import com.example.chatapp.entity.User;
 import com.example.chatapp.entity.UserProfile;
 import com.example.chatapp.repository.AiPersonaRepository;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 @Service
 public class GeminiService {
@@ -19,16 +25,60 @@ public class GeminiService {
     @Value("${gemini.api.key:}")
     private String apiKey;
 
+    @Value("${gemini.api.base-url:https://generativelanguage.googleapis.com/v1beta}")
+    private String apiBaseUrl;
+
+    @Value("${gemini.api.model:gemini-2.0-flash}")
+    private String model;
+
+    @Value("${gemini.api.connect-timeout-seconds:5}")
+    private int connectTimeoutSeconds;
+
+    @Value("${gemini.api.read-timeout-seconds:30}")
+    private int readTimeoutSeconds;
+
     @Autowired
     private AiPersonaRepository aiPersonaRepository;
 
-    private static final String GEMINI_API_URL =
-        "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-flash:generateContent";
+    @Autowired
+    private GeminiStreamClient streamClient;
+
+    @Autowired
+    private AiGatewayService aiGateway;
+
+    @Autowired
+    private AiPromptCacheService promptCache;
+
+    @Autowired
+    private UpstreamResilienceService resilience;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private static final Map<String, Object> GENERATION_CONFIG = Map.of(
+        "temperature", 0.8,
+        "maxOutputTokens", 512
+    );
 
-    // ユーザーごとの会話履歴を保持（セッション単位）
-    private final Map<Long, List<Map<String, Object>>> conversationHistory = new ConcurrentHashMap<>();
+    // 返答を取り出せなかったときの代わりの文言（キャッシュ・履歴には残さない）
+    private static final String NO_REPLY = "返答を取得できませんでした。";
+    private static final String UNPARSABLE_REPLY = "返答を解析できませんでした。";
+
+    private String generateContentUrl;
+
+    private RestTemplate restTemplate;
+
+    @PostConstruct
+    void init() {
+        generateContentUrl = apiBaseUrl + "/models/" + model + ":generateContent";
+
+        // 応答が返らない場合にリクエストスレッドを占有し続けないようタイムアウトを設定
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(Duration.ofSeconds(connectTimeoutSeconds));
+        requestFactory.setReadTimeout(Duration.ofSeconds(readTimeoutSeconds));
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    // ユーザーごとの会話履歴（上限付き・DBに非同期保存）
+    @Autowired
+    private AiConversationMemoryService conversationMemory;
 
     /**
      * APIキーが設定されているかチェック
@@ -38,24 +88,26 @@ public class GeminiService {
     }
 
     /**
-     * ペルソナに基づいたシステムプロンプトを生成
+     * ペルソナに基づいたシステムプロンプトを取得（ペルソナの設定ごとにキャッシュ）
      */
-    private String buildSystemPrompt(AiPersona persona, String userName) {
+    private String buildSystemPrompt(AiPersona persona, String fingerprint, String userName) {
         if (persona == null) {
             return "あなたは親しみやすいAIパートナーです。日本語で会話してください。";
         }
+        return promptCache.compiledPrompt(fingerprint, () -> compileSystemPrompt(persona)).render(userName);
+    }
 
-        StringBuilder prompt = new StringBuilder();
+    /**
+     * ペルソナに基づいたシステムプロンプトを生成（相手の名前は render 時に差し込む）
+     */
+    private AiPromptCacheService.CompiledPrompt compileSystemPrompt(AiPersona persona) {
+        StringBuilder head = new StringBuilder();
         String name = persona.getAiName() != null ? persona.getAiName() : "AI";
 
-        prompt.append("あなたは「").append(name).append("」という名前のキャラクターです。\n");
-        prompt.append("以下の設定に従って、ユーザーと会話してください。\n\n");
+        head.append("あなたは「").append(name).append("」という名前のキャラクターです。\n");
+        head.append("以下の設定に従って、ユーザーと会話してください。\n\n");
 
-        // ユーザーの名前
-        if (userName != null && !userName.isEmpty()) {
-            prompt.append("【相手の名前】").append(userName).append("\n");
-            prompt.append("相手の名前を呼ぶときは「").append(userName).append("」と呼んでください。\n\n");
-        }
+        StringBuilder prompt = new StringBuilder();
 
         // 関係性
         switch (persona.getRelationship() != null ? persona.getRelationship() : "") {
@@ -106,91 +158,163 @@ public class GeminiService {
         prompt.append("- 設定したキャラクターを一貫して演じてください。\n");
         prompt.append("- 相手の話をよく聞き、共感を示してください。\n");
 
-        return prompt.toString();
+        return new AiPromptCacheService.CompiledPrompt(head.toString(), prompt.toString());
     }
 
     /**
      * Gemini APIにメッセージを送信して返答を取得
+     * 流量制御で受け付けられなかった場合は AiGatewayService.AiRejectedException
      */
     public String chat(User user, String userMessage) {
         if (!isConfigured()) {
             return "AIチャットを利用するには、環境変数 GEMINI_API_KEY を設定してください。";
         }
 
-        Long userId = user.getId();
+        try {
+            return converse(user, resolveUserName(user), userMessage, null);
+        } catch (AiGatewayService.AiRejectedException e) {
+            // 混雑・利用制限は呼び出し元で429として返す
+            throw e;
+        } catch (Exception e) {
+            return describeError(e);
+        }
+    }
 
-        // ペルソナを取得
-        AiPersona persona = aiPersonaRepository.findByUser(user).orElse(null);
+    /**
+     * 返答をストリーミングで生成し、断片ごとに onChunk を呼ぶ（戻り値は返答全体）
+     * 呼び出しはブロッキングなので仮想スレッド上で実行すること
+     * @param userName 呼び出し元のリクエスト内で resolveUserName により取得した名前
+     */
+    public String chatStream(User user, String userName, String userMessage, Consumer<String> onChunk)
+            throws IOException, InterruptedException {
+        return converse(user, userName, userMessage, onChunk);
+    }
 
-        // ユーザーの表示名を取得
-        String userName = null;
+    /**
+     * AIが呼びかけに使うユーザー名（プロフィールの表示名、未設定ならユーザー名）
+     */
+    public String resolveUserName(User user) {
         UserProfile profile = user.getProfile();
         if (profile != null && profile.getDisplayName() != null && !profile.getDisplayName().isEmpty()) {
-            userName = profile.getDisplayName();
-        } else {
-            userName = user.getUsername();
+            return profile.getDisplayName();
+        }
+        return user.getUsername();
+    }
+
+    /**
+     * 例外をユーザー向けのエラーメッセージに変換
+     */
+    public String describeError(Exception e) {
+        if (e instanceof AiGatewayService.AiRejectedException) {
+            return e.getMessage();
         }
+        if (e instanceof UpstreamGuard.UpstreamUnavailableException) {
+            return "AIが一時的に利用できません。しばらく待ってから再度お試しください。";
+        }
+        if (e instanceof HttpTimeoutException) {
+            return "AIの応答がタイムアウトしました。しばらく待ってから再度お試しください。";
+        }
+        String errorMessage = e.getMessage();
+        if (errorMessage != null && errorMessage.contains("401")) {
+            return "APIキーが無効です。正しいGemini APIキーを設定してください。";
+        } else if (errorMessage != null && errorMessage.contains("429")) {
+            return "APIの利用制限に達しました。しばらく待ってから再度お試しください。";
+        }
+        return "エラーが発生しました: " + (errorMessage != null ? errorMessage : "不明なエラー");
+    }
 
-        // ユーザーの会話履歴を取得または初期化
-        List<Map<String, Object>> history = conversationHistory.computeIfAbsent(userId, k -> new ArrayList<>());
+    /**
+     * 会話履歴に沿って返答を生成（onChunkがnullの場合は一括取得）
+     */
+    private String converse(User user, String userName, String userMessage, Consumer<String> onChunk)
+            throws IOException, InterruptedException {
+        Long userId = user.getId();
+
+        // 上流の障害で遮断中なら待ち行列に並ばずに即座に失敗させる
+        UpstreamGuard upstream = resilience.gemini();
+        upstream.ensureCallPermitted();
+
+        // ペルソナを取得
+        AiPersona persona = aiPersonaRepository.findByUser(user).orElse(null);
+
+        // ユーザーの会話履歴を取得（返答の生成に成功した発言だけを履歴に追加する）
+        List<AiConversationMemoryService.Entry> history = new ArrayList<>(conversationMemory.load(userId));
 
         // 最初のメッセージの場合、システムプロンプトを追加
         if (history.isEmpty() && persona != null && persona.isSetupCompleted()) {
-            String systemPrompt = buildSystemPrompt(persona, userName);
-            Map<String, Object> systemContent = new HashMap<>();
-            systemContent.put("role", "user");
-            systemContent.put("parts", List.of(Map.of("text", "【システム指示】" + systemPrompt + "\n\n以下から会話を始めてください。最初の挨拶として、自己紹介をお願いします。")));
-            history.add(systemContent);
+            String fingerprint = AiPromptCacheService.fingerprint(persona);
+            String systemPrompt = buildSystemPrompt(persona, fingerprint, userName);
+            AiConversationMemoryService.Entry systemEntry = new AiConversationMemoryService.Entry("user",
+                    "【システム指示】" + systemPrompt + "\n\n以下から会話を始めてください。最初の挨拶として、自己紹介をお願いします。", true);
 
-            // AIの自己紹介を先に取得
+            // AIの自己紹介を先に取得（同じ設定・名前で生成済みなら再利用、失敗した場合はシステムプロンプトなしで続ける）
             try {
-                String intro = callGeminiApi(history);
-                Map<String, Object> modelContent = new HashMap<>();
-                modelContent.put("role", "model");
-                modelContent.put("parts", List.of(Map.of("text", intro)));
-                history.add(modelContent);
+                String intro = promptCache.getIntro(fingerprint, userName).orElse(null);
+                if (intro == null) {
+                    List<Map<String, Object>> contents = toContents(List.of(systemEntry));
+                    intro = aiGateway.call(userId, () -> onChunk == null
+                                    ? upstream.execute(() -> callGeminiApi(contents))
+                                    : upstream.executeOnCaller(() -> streamClient.streamGenerate(contents, GENERATION_CONFIG, chunk -> {})),
+                            e -> true);
+                    if (!isParsedReply(intro)) {
+                        throw new IOException("自己紹介を取得できませんでした");
+                    }
+                    promptCache.putIntro(fingerprint, userName, intro);
+                }
+                List<AiConversationMemoryService.Entry> opening = List.of(systemEntry,
+                        new AiConversationMemoryService.Entry("model", intro, true));
+                conversationMemory.append(userId, opening);
+                history.addAll(opening);
+            } catch (InterruptedException e) {
+                throw e;
             } catch (Exception e) {
-                // 失敗した場合はシステムプロンプトを削除
-                history.clear();
+                // 自己紹介なしで続ける
             }
         }
 
-        // ユーザーメッセージを履歴に追加
-        Map<String, Object> userContent = new HashMap<>();
-        userContent.put("role", "user");
-        userContent.put("parts", List.of(Map.of("text", userMessage)));
-        history.add(userContent);
-
-        try {
-            String reply = callGeminiApi(history);
-
-            // AIの返答を履歴に追加
-            Map<String, Object> modelContent = new HashMap<>();
-            modelContent.put("role", "model");
-            modelContent.put("parts", List.of(Map.of("text", reply)));
-            history.add(modelContent);
-
-            // 履歴が長くなりすぎたら古いものを削除（最新20件を保持、ただしシステムプロンプトは保持）
-            while (history.size() > 22) {
-                history.remove(2); // 最初の2つ（システムプロンプトと自己紹介）は保持
-            }
-
-            return reply;
+        AiConversationMemoryService.Entry userEntry = new AiConversationMemoryService.Entry("user", userMessage, false);
+        history.add(userEntry);
+        List<Map<String, Object>> contents = toContents(history);
+
+        // ストリーミングで断片を送信済みの場合は再試行しない（返答が重複するため）
+        // ストリーミングは長く続くので、スレッドプールを経由せず呼び出し元のスレッドで受け取る
+        AtomicBoolean emitted = new AtomicBoolean();
+        String reply = aiGateway.call(userId, () -> onChunk == null
+                        ? upstream.execute(() -> callGeminiApi(contents))
+                        : upstream.executeOnCaller(() -> streamClient.streamGenerate(contents, GENERATION_CONFIG, chunk -> {
+                            emitted.set(true);
+                            onChunk.accept(chunk);
+                        })),
+                e -> !emitted.get());
+
+        if (!isParsedReply(reply)) {
+            return reply != null && !reply.isBlank() ? reply : NO_REPLY;
+        }
+        // ユーザーメッセージとAIの返答を履歴に追加（上限を超えた分は古い順に切り詰められる）
+        conversationMemory.append(userId, List.of(userEntry,
+                new AiConversationMemoryService.Entry("model", reply, false)));
+        return reply;
+    }
 
-        } catch (Exception e) {
-            // エラー時は履歴からユーザーメッセージを削除
-            if (!history.isEmpty()) {
-                history.remove(history.size() - 1);
-            }
+    /**
+     * APIの返答から本文を取り出せたか（代わりの文言・空の返答はキャッシュや履歴に残さない）
+     */
+    private static boolean isParsedReply(String reply) {
+        return reply != null && !reply.isBlank() && !NO_REPLY.equals(reply) && !UNPARSABLE_REPLY.equals(reply);
+    }
 
-            String errorMessage = e.getMessage();
-            if (errorMessage != null && errorMessage.contains("401")) {
-                return "APIキーが無効です。正しいGemini APIキーを設定してください。";
-            } else if (errorMessage != null && errorMessage.contains("429")) {
-                return "APIの利用制限に達しました。しばらく待ってから再度お試しください。";
-            }
-            return "エラーが発生しました: " + (errorMessage != null ? errorMessage : "不明なエラー");
+    /**
+     * 会話履歴をGemini APIのcontents形式に変換
+     */
+    private List<Map<String, Object>> toContents(List<AiConversationMemoryService.Entry> entries) {
+        List<Map<String, Object>> contents = new ArrayList<>(entries.size());
+        for (AiConversationMemoryService.Entry entry : entries) {
+            contents.add(Map.of(
+                "role", entry.role(),
+                "parts", List.of(Map.of("text", entry.text()))
+            ));
         }
+        return contents;
     }
 
     /**
@@ -199,17 +323,14 @@ public class GeminiService {
     private String callGeminiApi(List<Map<String, Object>> history) {
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("contents", history);
-        requestBody.put("generationConfig", Map.of(
-            "temperature", 0.8,
-            "maxOutputTokens", 512
-        ));
+        requestBody.put("generationConfig", GENERATION_CONFIG);
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
-        String url = GEMINI_API_URL + "?key=" + apiKey;
+        String url = generateContentUrl + "?key=" + apiKey;
         @SuppressWarnings("unchecked")
         ResponseEntity<Map<String, Object>> response = restTemplate.exchange(url, HttpMethod.POST, entity, (Class<Map<String, Object>>)(Class<?>)Map.class);
 
@@ -222,7 +343,7 @@ public class GeminiService {
     @SuppressWarnings("unchecked")
     private String extractReplyText(Map<String, Object> responseBody) {
         if (responseBody == null) {
-            return "返答を取得できませんでした。";
+            return NO_REPLY;
         }
 
         try {
@@ -240,44 +361,35 @@ public class GeminiService {
             // パース失敗
         }
 
-        return "返答を解析できませんでした。";
+        return UNPARSABLE_REPLY;
     }
 
     /**
      * ユーザーの会話履歴をクリア
      */
     public void clearHistory(Long userId) {
-        conversationHistory.remove(userId);
+        conversationMemory.clear(userId);
     }
 
     /**
      * ユーザーの会話履歴を取得（表示用）
      */
     public List<Map<String, String>> getHistory(Long userId) {
-        List<Map<String, Object>> history = conversationHistory.get(userId);
-        if (history == null || history.isEmpty()) {
-            return List.of();
-        }
+        List<AiConversationMemoryService.Entry> history = conversationMemory.load(userId);
 
         List<Map<String, String>> result = new ArrayList<>();
-        for (int i = 0; i < history.size(); i++) {
-            Map<String, Object> item = history.get(i);
-            String role = (String) item.get("role");
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> parts = (List<Map<String, Object>>) item.get("parts");
-            if (parts != null && !parts.isEmpty()) {
-                String text = (String) parts.get(0).get("text");
+        for (AiConversationMemoryService.Entry entry : history) {
+            String text = entry.text();
 
-                // システムプロンプトはスキップ
-                if (text != null && text.startsWith("【システム指示】")) {
-                    continue;
-                }
-
-                result.add(Map.of(
-                    "role", "user".equals(role) ? "user" : "ai",
-                    "text", text != null ? text : ""
-                ));
+            // システムプロンプトはスキップ
+            if (text != null && text.startsWith("【システム指示】")) {
+                continue;
             }
+
+            result.add(Map.of(
+                "role", "user".equals(entry.role()) ? "user" : "ai",
+                "text", text != null ? text : ""
+            ));
         }
         return result;
     }
@@ -291,8 +403,22 @@ public class GeminiService {
         }
 
         AiPersona persona = aiPersonaRepository.findByUser(user).orElse(null);
+        String fingerprint = AiPromptCacheService.fingerprint(persona);
+
+        // 同じペルソナ設定で生成済みの挨拶があれば再利用
+        Optional<String> cached = promptCache.getGreeting(fingerprint);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        // 上流の障害で遮断中なら呼び出さずに定型の挨拶を返す
+        UpstreamGuard upstream = resilience.gemini();
+        if (!upstream.isCallPermitted()) {
+            return "こんにちは！よろしくね！";
+        }
+
         // 挨拶時は名前を使わないのでnullを渡す
-        String systemPrompt = buildSystemPrompt(persona, null);
+        String systemPrompt = buildSystemPrompt(persona, fingerprint, null);
 
         // 挨拶用のプロンプト（ユーザー名を使わない指示）
         String greetingPrompt = systemPrompt +
@@ -312,9 +438,11 @@ public class GeminiService {
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
         try {
-            String url = GEMINI_API_URL + "?key=" + apiKey;
+            String url = generateContentUrl + "?key=" + apiKey;
             @SuppressWarnings("unchecked")
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(url, HttpMethod.POST, entity, (Class<Map<String, Object>>)(Class<?>)Map.class);
+            ResponseEntity<Map<String, Object>> response = aiGateway.call(user.getId(),
+                () -> upstream.execute(() -> restTemplate.exchange(url, HttpMethod.POST, entity, (Class<Map<String, Object>>)(Class<?>)Map.class)),
+                e -> true);
             Map<String, Object> responseBody = response.getBody();
 
             if (responseBody != null && responseBody.containsKey("candidates")) {
@@ -327,7 +455,11 @@ public class GeminiService {
                     List<Map<String, Object>> parts = (List<Map<String, Object>>) content.get("parts");
                     if (!parts.isEmpty()) {
                         String reply = (String) parts.get(0).get("text");
-                        return reply != null ? reply : "こんにちは！";
+                        if (reply == null) {
+                            return "こんにちは！";
+                        }
+                        promptCache.putGreeting(fingerprint, reply);
+                        return reply;
                     }
                 }
             }
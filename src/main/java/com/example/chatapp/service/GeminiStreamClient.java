@@ -0,0 +1,168 @@
+package com.example.chatapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Gemini API の streamGenerateContent（SSE）クライアント
+ * - JDKのHttpClientで接続し、届いた断片を順にコールバックへ渡す
+ * - 呼び出しはブロッキングなので仮想スレッド上で実行する前提
+ * - 接続タイムアウトと、応答ヘッダー・本文の無通信タイムアウトを設定
+ *   （本文の途中で止まった場合は監視スレッドが読み込み中のスレッドに割り込んで打ち切る）
+ */
+@Component
+public class GeminiStreamClient {
+
+    private final ObjectMapper objectMapper;
+    private final String baseUrl;
+    private final String model;
+    private final String apiKey;
+    private final Duration readTimeout;
+    private final HttpClient httpClient;
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "gemini-stream-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public GeminiStreamClient(ObjectMapper objectMapper,
+                              @Value("${gemini.api.base-url:https://generativelanguage.googleapis.com/v1beta}") String baseUrl,
+                              @Value("${gemini.api.model:gemini-2.0-flash}") String model,
+                              @Value("${gemini.api.key:}") String apiKey,
+                              @Value("${gemini.api.connect-timeout-seconds:5}") int connectTimeoutSeconds,
+                              @Value("${gemini.api.read-timeout-seconds:30}") int readTimeoutSeconds) {
+        this.objectMapper = objectMapper;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.model = model;
+        this.apiKey = apiKey;
+        this.readTimeout = Duration.ofSeconds(readTimeoutSeconds);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    /**
+     * Gemini APIのエラー応答（ステータスコード付き）
+     */
+    public static class GeminiApiException extends IOException {
+        private final int statusCode;
+
+        public GeminiApiException(int statusCode, String message) {
+            super("Gemini API " + statusCode + ": " + message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * 返答をストリーミングで生成し、断片ごとに onChunk を呼ぶ（戻り値は返答全体）
+     */
+    public String streamGenerate(List<Map<String, Object>> contents, Map<String, Object> generationConfig,
+                                 Consumer<String> onChunk) throws IOException, InterruptedException {
+        byte[] body = objectMapper.writeValueAsBytes(Map.of(
+                "contents", contents,
+                "generationConfig", generationConfig));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(
+                        baseUrl + "/models/" + model + ":streamGenerateContent?alt=sse&key=" + apiKey))
+                .timeout(readTimeout) // 応答ヘッダーまでの待ち時間
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            String error;
+            try (InputStream in = response.body()) {
+                error = new String(in.readNBytes(2048), StandardCharsets.UTF_8);
+            }
+            throw new GeminiApiException(response.statusCode(), error);
+        }
+
+        // 本文の無通信時間を監視し、超えたら読み込み中のスレッドに割り込む
+        Thread reader = Thread.currentThread();
+        AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+        AtomicBoolean timedOut = new AtomicBoolean();
+        long checkMillis = Math.max(100, readTimeout.toMillis() / 4);
+        ScheduledFuture<?> idleCheck = watchdog.scheduleWithFixedDelay(() -> {
+            if (System.nanoTime() - lastActivity.get() > readTimeout.toNanos() && timedOut.compareAndSet(false, true)) {
+                reader.interrupt();
+            }
+        }, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+
+        StringBuilder reply = new StringBuilder();
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                lastActivity.set(System.nanoTime());
+                if (!line.startsWith("data:")) {
+                    continue; // 空行・コメント行
+                }
+                String text = extractText(objectMapper.readTree(line.substring("data:".length()).trim()));
+                if (!text.isEmpty()) {
+                    reply.append(text);
+                    onChunk.accept(text);
+                }
+            }
+        } catch (IOException e) {
+            if (timedOut.get()) {
+                throw new HttpTimeoutException("Gemini API の応答が " + readTimeout.toSeconds() + " 秒以上途切れました");
+            }
+            throw e;
+        } finally {
+            idleCheck.cancel(false);
+            if (timedOut.get()) {
+                Thread.interrupted(); // 割り込み状態を呼び出し元に残さない
+            }
+        }
+        return reply.toString();
+    }
+
+    private String extractText(JsonNode chunk) throws IOException {
+        JsonNode error = chunk.path("error");
+        if (!error.isMissingNode()) {
+            throw new GeminiApiException(error.path("code").asInt(500), error.path("message").asText());
+        }
+        StringBuilder text = new StringBuilder();
+        for (JsonNode part : chunk.path("candidates").path(0).path("content").path("parts")) {
+            text.append(part.path("text").asText(""));
+        }
+        return text.toString();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.chatapp.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 画像の縮小版生成サービス
+ * - アバター・ルームアイコン・マッチング写真の縮小版（長辺64/256/1024px など）をバックグラウンドで生成
+ * - ワーカー数と待ち行列の長さを制限し、溢れた分は破棄（次回の配信時に再度依頼される）
+ * - 生成済みサイズは画像ごとのメタデータに記録し、配信時にそこから縮小版を選ぶ
+ */
+@Service
+public class ImageDerivativeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDerivativeService.class);
+
+    // デコードを許可する最大ピクセル数（巨大画像によるメモリ枯渇を防ぐ）
+    private static final long MAX_PIXELS = 40_000_000L;
+
+    @Autowired
+    private MediaStorageService mediaStorageService;
+
+    @Value("${app.media.derivative-workers:2}")
+    private int workers;
+
+    @Value("${app.media.derivative-queue-size:100}")
+    private int queueSize;
+
+    private ThreadPoolExecutor executor;
+
+    // 生成中・待機中の画像ハッシュ（同じ画像の重複生成を防ぐ）
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void init() {
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "image-derivative");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * アップロードされた画像の縮小版生成を登録（トランザクションのコミット後に実行）
+     */
+    public void scheduleDerivatives(String mediaUrl) {
+        Optional<String> hashOpt = mediaStorageService.hashOf(mediaUrl);
+        if (hashOpt.isEmpty()) {
+            return;
+        }
+        String hash = hashOpt.get();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(hash);
+                }
+            });
+        } else {
+            submit(hash);
+        }
+    }
+
+    /**
+     * 縮小版が未生成の場合に生成を依頼（配信時のフォールバック用）
+     */
+    public void requestDerivatives(String hash) {
+        if (mediaStorageService.readVariants(hash).isEmpty()) {
+            submit(hash);
+        }
+    }
+
+    private void submit(String hash) {
+        if (!inFlight.add(hash)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    process(hash);
+                } finally {
+                    inFlight.remove(hash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(hash);
+            logger.warn("縮小画像の生成待ちが上限に達したため破棄: {}", hash);
+        }
+    }
+
+    private void process(String hash) {
+        try {
+            MediaStorageService.Variants variants = mediaStorageService.readVariants(hash).orElse(null);
+            if (variants == null) {
+                long start = System.currentTimeMillis();
+                variants = generate(hash);
+                mediaStorageService.writeVariants(hash, variants);
+                logger.info("縮小画像を生成: Hash={}, サイズ={}, 所要時間={}ms",
+                        hash, variants.sizesAsString(), System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            logger.warn("縮小画像の生成に失敗: Hash={}", hash, e);
+        }
+    }
+
+    private MediaStorageService.Variants generate(String hash) throws IOException {
+        Path source = mediaStorageService.originalPath(hash);
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                return new MediaStorageService.Variants("", List.of()); // 画像ではない
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    logger.warn("画像が大きすぎるため縮小版を生成しません: Hash={}, {}x{}", hash, width, height);
+                    return new MediaStorageService.Variants("", List.of());
+                }
+
+                boolean jpeg = "jpeg".equalsIgnoreCase(reader.getFormatName());
+                String format = jpeg ? "jpeg" : "png";
+                BufferedImage image = reader.read(0);
+                int longest = Math.max(width, height);
+
+                int[] sizes = mediaStorageService.getDerivativeSizes();
+                Arrays.sort(sizes);
+                List<Integer> generated = new ArrayList<>();
+                for (int size : sizes) {
+                    if (size >= longest) {
+                        break; // 元画像より大きい縮小版は作らない（元画像を配信）
+                    }
+                    write(scale(image, size, jpeg), format, mediaStorageService.derivativePath(hash, size));
+                    generated.add(size);
+                }
+                return new MediaStorageService.Variants(format, generated);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 長辺がlongest pxになるよう縮小（半分ずつ縮小して画質の劣化を抑える）
+     */
+    private BufferedImage scale(BufferedImage source, int longest, boolean jpeg) {
+        double ratio = (double) longest / Math.max(source.getWidth(), source.getHeight());
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        int type = jpeg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                if (jpeg) {
+                    g.setColor(Color.WHITE);
+                    g.fillRect(0, 0, width, height);
+                }
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private void write(BufferedImage image, String format, Path target) throws IOException {
+        Path tmp = mediaStorageService.newTempFile();
+        try {
+            if (!ImageIO.write(image, format, tmp.toFile())) {
+                throw new IOException("画像を書き出せません: " + format);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
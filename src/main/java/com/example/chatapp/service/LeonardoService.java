@@ -1,21 +1,76 @@
 package com.example.chatapp.service;
 
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
 import java.util.*;
 
+/**
+ * Leonardo AI API クライアント
+ * 生成の完了待ちは行わず、生成の開始と状態の取得だけを提供する
+ * （完了待ちは AvatarGenerationJobService がまとめてポーリングする）
+ */
 @Service
 public class LeonardoService {
 
     @Value("${leonardo.api.key:}")
     private String apiKey;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Value("${leonardo.api.base-url:https://cloud.leonardo.ai/api/rest/v1}")
+    private String apiBaseUrl;
 
-    private static final String LEONARDO_API_URL = "https://cloud.leonardo.ai/api/rest/v1";
+    @Value("${leonardo.api.connect-timeout-seconds:5}")
+    private int connectTimeoutSeconds;
+
+    @Value("${leonardo.api.read-timeout-seconds:15}")
+    private int readTimeoutSeconds;
+
+    @Autowired
+    private UpstreamResilienceService resilience;
+
+    private RestTemplate restTemplate;
+
+    // 生成した画像を取り込む際の上限サイズ
+    private static final long MAX_IMAGE_BYTES = 10L * 1024 * 1024;
+
+    @PostConstruct
+    void init() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(Duration.ofSeconds(connectTimeoutSeconds));
+        requestFactory.setReadTimeout(Duration.ofSeconds(readTimeoutSeconds));
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    /**
+     * 生成の状態（status は PENDING / COMPLETE / FAILED）
+     */
+    public record Generation(String status, List<String> imageUrls) {
+        public boolean isComplete() {
+            return "COMPLETE".equals(status);
+        }
+
+        public boolean isFailed() {
+            return "FAILED".equals(status);
+        }
+    }
+
+    /**
+     * 上流の障害で遮断中でないか（遮断中は生成を受け付けずに既定のアバターで代替する）
+     */
+    public boolean isAvailable() {
+        return resilience.leonardo().isCallPermitted();
+    }
 
     /**
      * APIキーが設定されているかチェック
@@ -25,31 +80,14 @@ public class LeonardoService {
     }
 
     /**
-     * ペルソナ設定に基づいてアバター画像を生成
+     * ペルソナ設定に基づいてアバター画像（4枚）の生成を開始し、generationId を返す
+     * 生成の完了は待たない。失敗した場合は null
      */
-    public String generateAvatar(String gender, String ageGroup, String personality) {
+    public String startAvatarGeneration(String gender, String ageGroup, String personality) {
         if (!isConfigured()) {
             return null;
         }
-
-        // プロンプトを生成
-        String prompt = buildPrompt(gender, ageGroup, personality);
-
-        try {
-            // 画像生成リクエスト
-            String generationId = createGeneration(prompt);
-            if (generationId == null) {
-                return null;
-            }
-
-            // 生成完了を待って画像URLを取得
-            return waitForGenerationAndGetUrl(generationId);
-
-        } catch (Exception e) {
-            System.err.println("Leonardo AI エラー: " + e.getMessage());
-            e.printStackTrace();
-            return null;
-        }
+        return createGeneration(buildPrompt(gender, ageGroup, personality));
     }
 
     /**
@@ -97,7 +135,7 @@ public class LeonardoService {
      */
     @SuppressWarnings("unchecked")
     private String createGeneration(String prompt) {
-        String url = LEONARDO_API_URL + "/generations";
+        String url = apiBaseUrl + "/generations";
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
@@ -115,16 +153,18 @@ public class LeonardoService {
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
         try {
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
+            ResponseEntity<Map<String, Object>> response = resilience.leonardo().execute(() -> restTemplate.exchange(
                 url, HttpMethod.POST, entity,
                 (Class<Map<String, Object>>)(Class<?>)Map.class
-            );
+            ));
 
             Map<String, Object> body = response.getBody();
             if (body != null && body.containsKey("sdGenerationJob")) {
                 Map<String, Object> job = (Map<String, Object>) body.get("sdGenerationJob");
                 return (String) job.get("generationId");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             System.err.println("Leonardo API 生成リクエストエラー: " + e.getMessage());
         }
@@ -133,123 +173,84 @@ public class LeonardoService {
     }
 
     /**
-     * 生成完了を待って画像URLを取得
+     * 生成の状態を1回だけ確認する（待機しない）
      */
     @SuppressWarnings("unchecked")
-    private String waitForGenerationAndGetUrl(String generationId) throws InterruptedException {
-        String url = LEONARDO_API_URL + "/generations/" + generationId;
+    public Generation fetchGeneration(String generationId) throws IOException, InterruptedException {
+        String url = apiBaseUrl + "/generations/" + generationId;
 
         HttpHeaders headers = new HttpHeaders();
         headers.set("Authorization", "Bearer " + apiKey);
 
-        HttpEntity<Void> entity = new HttpEntity<>(headers);
-
-        // 最大30秒待機
-        for (int i = 0; i < 30; i++) {
-            Thread.sleep(1000); // 1秒待機
-
-            try {
-                ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    url, HttpMethod.GET, entity,
-                    (Class<Map<String, Object>>)(Class<?>)Map.class
-                );
-
-                Map<String, Object> body = response.getBody();
-                if (body != null && body.containsKey("generations_by_pk")) {
-                    Map<String, Object> generation = (Map<String, Object>) body.get("generations_by_pk");
-                    String status = (String) generation.get("status");
-
-                    if ("COMPLETE".equals(status)) {
-                        List<Map<String, Object>> images = (List<Map<String, Object>>) generation.get("generated_images");
-                        if (images != null && !images.isEmpty()) {
-                            // 最初の画像URLを返す
-                            return (String) images.get(0).get("url");
-                        }
-                    } else if ("FAILED".equals(status)) {
-                        System.err.println("画像生成失敗");
-                        return null;
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println("Leonardo API ステータス確認エラー: " + e.getMessage());
+        ResponseEntity<Map<String, Object>> response = resilience.leonardo().execute(() -> restTemplate.exchange(
+            url, HttpMethod.GET, new HttpEntity<Void>(headers),
+            (Class<Map<String, Object>>)(Class<?>)Map.class
+        ));
+
+        Map<String, Object> body = response.getBody();
+        if (body == null || !(body.get("generations_by_pk") instanceof Map<?, ?>)) {
+            return new Generation("PENDING", List.of());
+        }
+        Map<String, Object> generation = (Map<String, Object>) body.get("generations_by_pk");
+        String status = (String) generation.get("status");
+
+        List<String> urls = new ArrayList<>();
+        List<Map<String, Object>> images = (List<Map<String, Object>>) generation.get("generated_images");
+        if (images != null) {
+            for (Map<String, Object> image : images) {
+                urls.add((String) image.get("url"));
             }
         }
-
-        System.err.println("画像生成タイムアウト");
-        return null;
+        return new Generation(status != null ? status : "PENDING", urls);
     }
 
     /**
-     * 複数の画像URLを取得（選択用）
+     * 生成された画像をダウンロードして reader に渡す（サイズ上限付き）
      */
-    public List<String> generateAvatars(String gender, String ageGroup, String personality) {
-        if (!isConfigured()) {
-            return List.of();
-        }
-
-        String prompt = buildPrompt(gender, ageGroup, personality);
-
-        try {
-            String generationId = createGeneration(prompt);
-            if (generationId == null) {
-                return List.of();
+    public <T> T downloadImage(String imageUrl, ImageReader<T> reader) throws IOException, InterruptedException {
+        return resilience.leonardo().execute(() -> restTemplate.execute(URI.create(imageUrl), HttpMethod.GET, null, (ClientHttpResponse response) -> {
+            long length = response.getHeaders().getContentLength();
+            if (length > MAX_IMAGE_BYTES) {
+                throw new IOException("画像サイズが上限を超えています: " + length);
             }
+            try (InputStream in = response.getBody()) {
+                return reader.read(new LimitedInputStream(in, MAX_IMAGE_BYTES));
+            }
+        }));
+    }
 
-            return waitForGenerationAndGetUrls(generationId);
-
-        } catch (Exception e) {
-            System.err.println("Leonardo AI エラー: " + e.getMessage());
-            return List.of();
-        }
+    @FunctionalInterface
+    public interface ImageReader<T> {
+        T read(InputStream in) throws IOException;
     }
 
     /**
-     * 生成完了を待って全画像URLを取得
+     * 上限を超えて読み込もうとした場合に例外を投げるストリーム
      */
-    @SuppressWarnings("unchecked")
-    private List<String> waitForGenerationAndGetUrls(String generationId) throws InterruptedException {
-        String url = LEONARDO_API_URL + "/generations/" + generationId;
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", "Bearer " + apiKey);
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
 
-        HttpEntity<Void> entity = new HttpEntity<>(headers);
-
-        // 最大60秒待機
-        for (int i = 0; i < 60; i++) {
-            Thread.sleep(1000);
-
-            try {
-                ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    url, HttpMethod.GET, entity,
-                    (Class<Map<String, Object>>)(Class<?>)Map.class
-                );
-
-                Map<String, Object> body = response.getBody();
-                if (body != null && body.containsKey("generations_by_pk")) {
-                    Map<String, Object> generation = (Map<String, Object>) body.get("generations_by_pk");
-                    String status = (String) generation.get("status");
-
-                    if ("COMPLETE".equals(status)) {
-                        List<Map<String, Object>> images = (List<Map<String, Object>>) generation.get("generated_images");
-                        if (images != null && !images.isEmpty()) {
-                            List<String> urls = new ArrayList<>();
-                            for (Map<String, Object> image : images) {
-                                urls.add((String) image.get("url"));
-                            }
-                            return urls;
-                        }
-                    } else if ("FAILED".equals(status)) {
-                        System.err.println("画像生成失敗");
-                        return List.of();
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println("Leonardo API ステータス確認エラー: " + e.getMessage());
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && --remaining < 0) {
+                throw new IOException("画像サイズが上限を超えています");
             }
+            return b;
         }
 
-        System.err.println("画像生成タイムアウト");
-        return List.of();
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0 && (remaining -= n) < 0) {
+                throw new IOException("画像サイズが上限を超えています");
+            }
+            return n;
+        }
     }
 }
@@ -0,0 +1,271 @@
+package com.example.chatapp.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * アップロードメディアの保存サービス
+ * - ファイルは内容のSHA-256をキーにして保存（同じ内容のファイルは1つだけ保持）
+ * - 保存先は app.media.root（jarの外のディレクトリ）で、/media/{sha256}.{拡張子} として配信
+ * - 内容が変わればURLも変わるため、配信側は長期キャッシュ可能
+ * - 画像の縮小版は {sha256}_{サイズ} として同じディレクトリに保存し、
+ *   生成結果（形式とサイズ一覧）を {sha256}.variants に記録する
+ */
+@Service
+public class MediaStorageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaStorageService.class);
+
+    public static final String URL_PREFIX = "/media/";
+
+    private static final Pattern MEDIA_NAME = Pattern.compile("([0-9a-f]{64})\\.([a-z0-9]{1,5})");
+
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "jpg", "image/jpeg",
+            "jpeg", "image/jpeg",
+            "png", "image/png",
+            "gif", "image/gif",
+            "webp", "image/webp",
+            "mp4", "video/mp4",
+            "webm", "video/webm",
+            "mov", "video/quicktime"
+    );
+
+    @Value("${app.media.root:data/media}")
+    private String rootDir;
+
+    // 生成する縮小画像の長辺サイズ（px）
+    @Value("${app.media.derivative-sizes:64,256,1024}")
+    private int[] derivativeSizes;
+
+    private Path root;
+    private Path tmpDir;
+
+    @PostConstruct
+    void init() throws IOException {
+        root = Paths.get(rootDir).toAbsolutePath().normalize();
+        tmpDir = root.resolve("tmp");
+        Files.createDirectories(tmpDir);
+        logger.info("メディア保存先: {}", root);
+    }
+
+    /**
+     * 保存済みメディアの情報（sizeは縮小版の場合のみ0以外）
+     */
+    public record StoredMedia(String hash, String extension, Path path, String contentType, int size) {
+        public String etag() {
+            return "\"" + (size > 0 ? hash + "-" + size : hash) + "\"";
+        }
+    }
+
+    /**
+     * 縮小画像の生成結果
+     */
+    public record Variants(String format, List<Integer> sizes) {
+        public String sizesAsString() {
+            return sizes.stream().map(String::valueOf).collect(Collectors.joining(","));
+        }
+    }
+
+    /**
+     * アップロードファイルを保存してURLを返す
+     * @param extension ".jpg" 形式または "jpg" 形式の拡張子
+     */
+    public String store(MultipartFile file, String extension) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return store(in, extension);
+        }
+    }
+
+    /**
+     * ストリームの内容を保存してURLを返す（外部から取得した画像など、ストリームは呼び出し側で閉じる）
+     */
+    public String store(InputStream source, String extension) throws IOException {
+        String ext = normalizeExtension(extension);
+        MessageDigest digest = newDigest();
+
+        // 一時ファイルに書き出しながらハッシュを計算
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".part");
+        try {
+            try (InputStream in = new DigestInputStream(source, digest);
+                 OutputStream out = Files.newOutputStream(tmp)) {
+                in.transferTo(out);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path target = pathFor(hash);
+            if (Files.exists(target)) {
+                logger.debug("重複メディアを再利用: {}", hash);
+            } else {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // 同じ内容が同時にアップロードされた
+                }
+            }
+            return URL_PREFIX + hash + "." + ext;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 配信用にメディア名（{sha256}.{拡張子}）からファイルを解決
+     */
+    public Optional<StoredMedia> resolve(String name) {
+        Matcher matcher = MEDIA_NAME.matcher(name);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        String hash = matcher.group(1);
+        String ext = matcher.group(2);
+        Path path = pathFor(hash);
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        return Optional.of(new StoredMedia(hash, ext, path,
+                CONTENT_TYPES.getOrDefault(ext, "application/octet-stream"), 0));
+    }
+
+    /**
+     * 要求サイズ以上で最小の縮小版を解決（未生成・該当なしの場合は元画像）
+     */
+    public StoredMedia resolveVariant(StoredMedia original, int requestedSize) {
+        Optional<Variants> variants = readVariants(original.hash());
+        if (variants.isEmpty()) {
+            return original;
+        }
+        for (int size : variants.get().sizes()) {
+            if (size >= requestedSize) {
+                Path path = derivativePath(original.hash(), size);
+                if (Files.isRegularFile(path)) {
+                    String contentType = "jpeg".equals(variants.get().format()) ? "image/jpeg" : "image/png";
+                    return new StoredMedia(original.hash(), original.extension(), path, contentType, size);
+                }
+                break;
+            }
+        }
+        return original;
+    }
+
+    /**
+     * URL（/media/{sha256}.{拡張子}）からハッシュを取得
+     */
+    public Optional<String> hashOf(String url) {
+        if (!isStoredUrl(url)) {
+            return Optional.empty();
+        }
+        Matcher matcher = MEDIA_NAME.matcher(url.substring(URL_PREFIX.length()));
+        return matcher.matches() ? Optional.of(matcher.group(1)) : Optional.empty();
+    }
+
+    public int[] getDerivativeSizes() {
+        return derivativeSizes.clone();
+    }
+
+    Path originalPath(String hash) {
+        return pathFor(hash);
+    }
+
+    Path derivativePath(String hash, int size) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash + "_" + size);
+    }
+
+    Path newTempFile() throws IOException {
+        return Files.createTempFile(tmpDir, "derivative-", ".part");
+    }
+
+    /**
+     * 縮小画像の生成結果を読み込み（未処理の場合はempty）
+     */
+    Optional<Variants> readVariants(String hash) {
+        Path marker = markerPath(hash);
+        if (!Files.isRegularFile(marker)) {
+            return Optional.empty();
+        }
+        try {
+            List<String> lines = Files.readAllLines(marker);
+            String format = lines.isEmpty() ? "" : lines.get(0).trim();
+            List<Integer> sizes = new ArrayList<>();
+            if (lines.size() > 1 && !lines.get(1).isBlank()) {
+                for (String size : lines.get(1).split(",")) {
+                    sizes.add(Integer.parseInt(size.trim()));
+                }
+            }
+            return Optional.of(new Variants(format, sizes));
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("縮小画像の記録を読み込めません: {}", marker, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 縮小画像の生成結果を記録（画像でない場合はサイズなしで記録し、再処理しない）
+     */
+    void writeVariants(String hash, Variants variants) throws IOException {
+        Path tmp = newTempFile();
+        try {
+            Files.writeString(tmp, variants.format() + "\n" + variants.sizesAsString() + "\n");
+            Files.move(tmp, markerPath(hash), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path markerPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash + ".variants");
+    }
+
+    /**
+     * このストアで管理しているURLかどうか
+     */
+    public boolean isStoredUrl(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    private Path pathFor(String hash) {
+        // 1ディレクトリのファイル数を抑えるため先頭2文字で分割
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private String normalizeExtension(String extension) {
+        String ext = extension == null ? "" : extension.toLowerCase(Locale.ROOT);
+        if (ext.startsWith(".")) {
+            ext = ext.substring(1);
+        }
+        return ext.matches("[a-z0-9]{1,5}") ? ext : "bin";
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.ChatRoom;
+import com.example.chatapp.entity.Message;
+import com.example.chatapp.entity.User;
+import com.example.chatapp.repository.UserRepository;
+import com.example.chatapp.service.MessageArchiveStore.ArchivedMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 古いルームメッセージのアーカイブ
+ * - 送信から app.message-archive.age-days 日を過ぎたメッセージを、ルームごとの圧縮セグメント
+ *   （MessageArchiveStore）へ書き出してから messages テーブルから削除する
+ * - 書き出し → 削除の順なので、途中で止まっても次回の実行で削除し直す（アーカイブ済みのIDは書き出さない）
+ * - 履歴APIと検索は、DBにないIDをここから読む（送信者はDBのユーザーから解決し、削除済みユーザーの分は返さない）
+ * - 追記・併合・削除はこの1スレッドで直列に実行する
+ */
+@Service
+public class MessageArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchiveService.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${app.message-archive.dir:data/archive}")
+    private String archiveDir;
+
+    // 0以下ならアーカイブしない（読み取り・確認・併合は使える）
+    @Value("${app.message-archive.age-days:180}")
+    private int ageDays;
+
+    @Value("${app.message-archive.interval-minutes:60}")
+    private long intervalMinutes;
+
+    // 1ブロックに入れるメッセージ数（多いほど圧縮率が上がり、1件の読み取りで展開する量も増える）
+    @Value("${app.message-archive.block-size:64}")
+    private int blockSize;
+
+    // データファイルがこのサイズを超えたら次の世代に切り替える
+    @Value("${app.message-archive.max-segment-mb:64}")
+    private long maxSegmentMb;
+
+    // 1回に読み出して書き出すメッセージ数
+    @Value("${app.message-archive.batch-size:1000}")
+    private int batchSize;
+
+    // messages からの削除は削除ジョブと同じ件数・間隔で区切る
+    @Value("${app.deletion.chunk-size:500}")
+    private int deleteChunkSize;
+
+    @Value("${app.deletion.pause-millis:20}")
+    private long pauseMillis;
+
+    private MessageArchiveStore store;
+
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "message-archive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile ArchiveReport lastReport;
+
+    /**
+     * 1回のアーカイブ実行の結果
+     */
+    public record ArchiveReport(LocalDateTime startedAt, LocalDateTime cutoff, int rooms, long archived,
+                                long deleted, long elapsedMillis, String error) {
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        Path dir = Paths.get(archiveDir).toAbsolutePath().normalize();
+        store = new MessageArchiveStore(dir, blockSize, maxSegmentMb * 1024 * 1024);
+        store.open();
+        if (ageDays > 0) {
+            maintenance.scheduleWithFixedDelay(this::archiveQuietly, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+        }
+        logger.info("メッセージアーカイブを準備: dir={}, 対象={}日より前, ルーム数={}",
+                dir, ageDays > 0 ? ageDays : "なし", store.roomIds().size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenance.shutdownNow();
+    }
+
+    // ===== 読み取り =====
+
+    /**
+     * beforeId より古いアーカイブ済みメッセージを新しい順に最大 limit 件
+     */
+    public List<Message> readBefore(Long roomId, long beforeId, int limit) {
+        return toMessages(roomId, store.readBefore(roomId, beforeId, limit));
+    }
+
+    /**
+     * 指定IDのうちアーカイブにあるもの
+     */
+    public List<Message> findByIds(Long roomId, Collection<Long> ids) {
+        return toMessages(roomId, new ArrayList<>(store.findByIds(roomId, ids).values()));
+    }
+
+    /**
+     * ルームのアーカイブ済み最大メッセージID（なければ0）
+     */
+    public long maxArchivedId(Long roomId) {
+        return store.maxId(roomId);
+    }
+
+    // 送信者を解決して表示用の Message にする（保存しない・ChatRoom はIDだけ）
+    private List<Message> toMessages(Long roomId, List<ArchivedMessage> archived) {
+        if (archived.isEmpty()) {
+            return List.of();
+        }
+        Set<Long> userIds = archived.stream().map(ArchivedMessage::userId).collect(Collectors.toSet());
+        Map<Long, User> users = userRepository.findWithProfileByIdIn(userIds).stream()
+                .filter(user -> !user.isDeleted())
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        ChatRoom room = new ChatRoom();
+        room.setId(roomId);
+
+        List<Message> messages = new ArrayList<>(archived.size());
+        for (ArchivedMessage record : archived) {
+            User user = users.get(record.userId());
+            if (user == null) {
+                continue; // 削除済みユーザー（次回の併合で取り除く）
+            }
+            Message message = new Message(room, user, record.content());
+            message.setId(record.id());
+            message.setSentAt(new Timestamp(record.sentAtMillis()).toLocalDateTime());
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    // ===== アーカイブ =====
+
+    /**
+     * すぐにアーカイブを実行して結果を返す
+     */
+    public ArchiveReport runNow() throws InterruptedException, ExecutionException {
+        return maintenance.submit(this::archive).get();
+    }
+
+    public ArchiveReport getLastReport() {
+        return lastReport;
+    }
+
+    private void archiveQuietly() {
+        try {
+            archive();
+        } catch (Exception e) {
+            logger.warn("メッセージのアーカイブに失敗", e);
+        }
+    }
+
+    private ArchiveReport archive() {
+        long start = System.currentTimeMillis();
+        LocalDateTime startedAt = LocalDateTime.now();
+        LocalDateTime cutoff = startedAt.minusDays(Math.max(0, ageDays));
+        int rooms = 0;
+        long archived = 0;
+        long deleted = 0;
+        String error = null;
+        try {
+            List<Long> roomIds = jdbcTemplate.queryForList(
+                    "SELECT id FROM chat_rooms WHERE deleted_at IS NULL ORDER BY id", Long.class);
+            for (Long roomId : roomIds) {
+                long[] counts = archiveRoom(roomId, Timestamp.valueOf(cutoff));
+                if (counts[1] > 0) {
+                    rooms++;
+                    archived += counts[0];
+                    deleted += counts[1];
+                }
+            }
+        } catch (Exception e) {
+            error = e.getMessage();
+            logger.warn("メッセージのアーカイブを中断", e);
+        }
+        ArchiveReport report = new ArchiveReport(startedAt, cutoff, rooms, archived, deleted,
+                System.currentTimeMillis() - start, error);
+        lastReport = report;
+        if (deleted > 0 || error != null) {
+            logger.info("メッセージをアーカイブ: ルーム数={}, 書き出し={}件, 削除={}件, 所要時間={}ms",
+                    rooms, archived, deleted, report.elapsedMillis());
+        }
+        return report;
+    }
+
+    // {書き出した件数, messages から削除した件数}
+    private long[] archiveRoom(Long roomId, Timestamp cutoff) throws IOException {
+        long archived = 0;
+        long deleted = 0;
+        long afterId = Long.MIN_VALUE;
+        while (true) {
+            List<ArchivedMessage> rows = jdbcTemplate.query(
+                    "SELECT id, user_id, content, sent_at FROM messages " +
+                    "WHERE chat_room_id = ? AND sent_at < ? AND id > ? ORDER BY id LIMIT ?",
+                    (rs, rowNum) -> new ArchivedMessage(rs.getLong("id"), rs.getLong("user_id"),
+                            rs.getTimestamp("sent_at").getTime(), rs.getString("content")),
+                    roomId, cutoff, afterId, batchSize);
+            if (rows.isEmpty()) {
+                break;
+            }
+            afterId = rows.get(rows.size() - 1).id();
+
+            // 前回書き出した後に削除できなかった分は書き出さない
+            long maxArchivedId = store.maxId(roomId);
+            List<Long> maybeArchived = rows.stream().map(ArchivedMessage::id)
+                    .filter(id -> id <= maxArchivedId).toList();
+            Set<Long> alreadyArchived = maybeArchived.isEmpty()
+                    ? Set.of() : store.findByIds(roomId, maybeArchived).keySet();
+            List<ArchivedMessage> toWrite = rows.stream()
+                    .filter(row -> !alreadyArchived.contains(row.id())).toList();
+            store.append(roomId, toWrite);
+            archived += toWrite.size();
+
+            List<Long> ids = rows.stream().map(ArchivedMessage::id).toList();
+            for (int from = 0; from < ids.size(); from += deleteChunkSize) {
+                List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + deleteChunkSize));
+                String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+                deleted += jdbcTemplate.update("DELETE FROM messages WHERE id IN (" + placeholders + ")", chunk.toArray());
+                pause();
+            }
+            if (rows.size() < batchSize) {
+                break;
+            }
+        }
+        return new long[]{archived, deleted};
+    }
+
+    private void pause() {
+        if (pauseMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ===== 削除・確認・併合 =====
+
+    /**
+     * 削除されたルームのアーカイブを消す
+     */
+    public void dropRoom(Long roomId) {
+        maintenance.execute(() -> {
+            try {
+                store.dropRoom(roomId);
+            } catch (IOException e) {
+                logger.warn("ルーム {} のアーカイブ削除に失敗", roomId, e);
+            }
+        });
+    }
+
+    /**
+     * 削除されたユーザーのメッセージを含むルームのアーカイブを書き直す
+     */
+    public void removeUser(Long userId) {
+        maintenance.execute(() -> {
+            for (Long roomId : store.roomIds()) {
+                try {
+                    if (store.anyMatch(roomId, message -> message.userId() == userId)) {
+                        store.compact(roomId, message -> message.userId() != userId);
+                    }
+                } catch (Exception e) {
+                    logger.warn("ルーム {} のアーカイブからユーザー {} のメッセージを削除できませんでした", roomId, userId, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 保持期間を過ぎたメッセージを含むルームのアーカイブを書き直す
+     */
+    public void purgeOlderThan(LocalDateTime cutoff) {
+        long cutoffMillis = Timestamp.valueOf(cutoff).getTime();
+        maintenance.execute(() -> {
+            for (Long roomId : store.roomIds()) {
+                try {
+                    if (store.anyMatch(roomId, message -> message.sentAtMillis() < cutoffMillis)) {
+                        MessageArchiveStore.CompactResult result =
+                                store.compact(roomId, message -> message.sentAtMillis() >= cutoffMillis);
+                        logger.info("ルーム {} のアーカイブから保持期間を過ぎた {} 件を削除", roomId, result.removed());
+                    }
+                } catch (Exception e) {
+                    logger.warn("ルーム {} のアーカイブの保持期間による削除に失敗", roomId, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 送信者ごとのアーカイブ済みメッセージ数（ユーザー統計の再構築用）
+     */
+    public Map<Long, Long> countMessagesByUser() {
+        return store.countByUser();
+    }
+
+    public MessageArchiveStore.VerifyReport verify(Long roomId) {
+        return store.verify(roomId);
+    }
+
+    /**
+     * ルームのアーカイブを書き直す（重複・削除済みユーザーのメッセージを取り除き、ブロックを詰める）
+     */
+    public MessageArchiveStore.CompactResult compact(Long roomId) throws InterruptedException, ExecutionException {
+        return maintenance.submit(() -> {
+            Set<Long> userIds = new HashSet<>(jdbcTemplate.queryForList(
+                    "SELECT id FROM users WHERE deleted_at IS NULL", Long.class));
+            return store.compact(roomId, message -> userIds.contains(message.userId()));
+        }).get();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(store.getStats());
+        stats.put("ageDays", ageDays);
+        stats.put("lastRun", lastReport);
+        return stats;
+    }
+}
@@ -0,0 +1,914 @@
+package com.example.chatapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ルームごとのアーカイブ済みメッセージを追記専用のセグメントファイルに保存する
+ * - room-{ルームID}/{世代}.seg にブロック単位で圧縮（Deflate）したメッセージを追記し、
+ *   {世代}.idx に各ブロックのID範囲と位置（疎なIDインデックス）を追記する
+ * - ブロックを書いて fsync してからインデックスを追記するため、途中で落ちてもインデックスにあるブロックは完全
+ *   （起動時にインデックスにない末尾のバイトと、書きかけのインデックスエントリを切り詰める）
+ * - 書き込み（追記・併合・削除）は synchronized で直列化し、読み取りはルームごとのスナップショットを参照する
+ * - 併合（compact）は新しい世代に書き直してからインデックス → データの順に古いファイルを消す
+ *   （.idx のないデータファイルは起動時に削除する）
+ * - 読み取り中に併合で古い世代が消された場合は、併合の完了を待って新しいスナップショットで読み直す
+ */
+public class MessageArchiveStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchiveStore.class);
+
+    private static final int SEGMENT_MAGIC = 0x4D415243; // "MARC"
+    private static final int INDEX_MAGIC = 0x4D414958; // "MAIX"
+    private static final int BLOCK_MAGIC = 0x4D41424B; // "MABK"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int BLOCK_HEADER_BYTES = 16;
+    // firstId(long) lastId(long) offset(long) length(int) count(int)
+    private static final int INDEX_ENTRY_BYTES = 32;
+    private static final String ROOM_PREFIX = "room-";
+    // 併合と重なった読み取りをやり直す上限
+    private static final int MAX_READ_RETRIES = 3;
+
+    /**
+     * アーカイブされた1件（送信日時はエポックミリ秒）
+     */
+    public record ArchivedMessage(long id, long userId, long sentAtMillis, String content) {
+    }
+
+    /**
+     * 整合性確認の結果（problems が空なら正常）
+     */
+    public record VerifyReport(long roomId, int segments, int blocks, long messages, int overlappingBlocks,
+                               List<String> problems) {
+    }
+
+    /**
+     * 併合の結果
+     */
+    public record CompactResult(long roomId, int segmentsBefore, int segmentsAfter, int blocksBefore, int blocksAfter,
+                                long messages, long removed, long bytesBefore, long bytesAfter) {
+    }
+
+    private record Block(Path segment, long firstId, long lastId, long offset, int length, int count) {
+    }
+
+    private record SegmentFile(long generation, Path data, Path index, long bytes, List<Block> blocks) {
+    }
+
+    // blocks は lastId の降順（新しいブロックから読む）
+    private record RoomIndex(List<SegmentFile> segments, List<Block> blocks) {
+        long maxId() {
+            return blocks.isEmpty() ? 0 : blocks.get(0).lastId();
+        }
+    }
+
+    private final Path dir;
+    private final int blockSize;
+    private final long maxSegmentBytes;
+
+    private final Map<Long, RoomIndex> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * @param blockSize       1ブロックに入れるメッセージ数
+     * @param maxSegmentBytes データファイルがこのサイズを超えたら次の世代に切り替える
+     */
+    public MessageArchiveStore(Path dir, int blockSize, long maxSegmentBytes) {
+        this.dir = dir;
+        this.blockSize = Math.max(1, blockSize);
+        this.maxSegmentBytes = Math.max(1, maxSegmentBytes);
+    }
+
+    /**
+     * ディレクトリを読み込み、書きかけの末尾や併合途中のファイルを片付ける
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(dir);
+        rooms.clear();
+        try (DirectoryStream<Path> roomDirs = Files.newDirectoryStream(dir, ROOM_PREFIX + "*")) {
+            for (Path roomDir : roomDirs) {
+                long roomId;
+                try {
+                    roomId = Long.parseLong(roomDir.getFileName().toString().substring(ROOM_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                RoomIndex room = loadRoom(roomDir);
+                if (!room.segments().isEmpty()) {
+                    rooms.put(roomId, room);
+                }
+            }
+        }
+    }
+
+    public Set<Long> roomIds() {
+        return Set.copyOf(rooms.keySet());
+    }
+
+    /**
+     * ルームのアーカイブ済み最大メッセージID（なければ0）
+     */
+    public long maxId(long roomId) {
+        RoomIndex room = rooms.get(roomId);
+        return room == null ? 0 : room.maxId();
+    }
+
+    // ===== 書き込み =====
+
+    /**
+     * メッセージを追記（ID昇順で渡すこと）
+     */
+    public synchronized void append(long roomId, List<ArchivedMessage> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Path roomDir = roomDir(roomId);
+        Files.createDirectories(roomDir);
+        RoomIndex room = rooms.getOrDefault(roomId, new RoomIndex(List.of(), List.of()));
+        List<SegmentFile> segments = new ArrayList<>(room.segments());
+
+        SegmentFile active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active == null || active.bytes() >= maxSegmentBytes) {
+            long generation = active == null ? 1 : active.generation() + 1;
+            active = createSegment(roomDir, generation);
+            segments.add(active);
+        }
+
+        // ブロックをすべて書いて fsync → インデックスを追記して fsync
+        List<Block> added = new ArrayList<>();
+        long offset = active.bytes();
+        try (FileChannel data = FileChannel.open(active.data(), StandardOpenOption.WRITE)) {
+            // 前回の追記が途中で失敗していれば、その残りを上書きする
+            data.truncate(offset);
+            for (int from = 0; from < messages.size(); from += blockSize) {
+                List<ArchivedMessage> chunk = messages.subList(from, Math.min(messages.size(), from + blockSize));
+                byte[] block = encodeBlock(chunk);
+                writeFully(data, ByteBuffer.wrap(block), offset);
+                added.add(new Block(active.data(), chunk.get(0).id(), chunk.get(chunk.size() - 1).id(),
+                        offset, block.length, chunk.size()));
+                offset += block.length;
+            }
+            data.force(false);
+        }
+        try (FileChannel index = FileChannel.open(active.index(), StandardOpenOption.WRITE)) {
+            ByteBuffer entries = ByteBuffer.allocate(INDEX_ENTRY_BYTES * added.size());
+            for (Block block : added) {
+                putEntry(entries, block);
+            }
+            entries.flip();
+            long position = FILE_HEADER_BYTES + (long) active.blocks().size() * INDEX_ENTRY_BYTES;
+            index.truncate(position);
+            writeFully(index, entries, position);
+            index.force(false);
+        }
+
+        List<Block> blocks = new ArrayList<>(active.blocks());
+        blocks.addAll(added);
+        segments.set(segments.size() - 1,
+                new SegmentFile(active.generation(), active.data(), active.index(), offset, List.copyOf(blocks)));
+        rooms.put(roomId, snapshot(segments));
+    }
+
+    /**
+     * ルームのアーカイブをすべて削除
+     */
+    public synchronized void dropRoom(long roomId) throws IOException {
+        RoomIndex room = rooms.remove(roomId);
+        Path roomDir = roomDir(roomId);
+        if (room != null) {
+            for (SegmentFile segment : room.segments()) {
+                Files.deleteIfExists(segment.index());
+                Files.deleteIfExists(segment.data());
+            }
+        }
+        deleteRecursively(roomDir);
+    }
+
+    /**
+     * ルームのアーカイブを満杯のブロック・ID順に書き直し、keep が false のメッセージと重複を取り除く
+     */
+    public synchronized CompactResult compact(long roomId, Predicate<ArchivedMessage> keep) throws IOException {
+        RoomIndex room = rooms.get(roomId);
+        if (room == null) {
+            return new CompactResult(roomId, 0, 0, 0, 0, 0, 0, 0, 0);
+        }
+        long bytesBefore = room.segments().stream().mapToLong(SegmentFile::bytes).sum();
+        long nextGeneration = room.segments().get(room.segments().size() - 1).generation() + 1;
+
+        List<Path[]> written = new ArrayList<>();
+        long kept = 0;
+        long removed = 0;
+        try {
+            SegmentWriter writer = null;
+            List<ArchivedMessage> pending = new ArrayList<>(blockSize);
+            MergeCursor cursor = new MergeCursor(room.blocks());
+            ArchivedMessage message;
+            long lastId = Long.MIN_VALUE;
+            while ((message = cursor.next()) != null) {
+                if (message.id() == lastId) {
+                    continue; // 追記のやり直しなどで重複したもの
+                }
+                lastId = message.id();
+                if (!keep.test(message)) {
+                    removed++;
+                    continue;
+                }
+                kept++;
+                pending.add(message);
+                if (pending.size() == blockSize) {
+                    if (writer == null || writer.bytes() >= maxSegmentBytes) {
+                        writer = rollWriter(writer, written, roomId, nextGeneration++);
+                    }
+                    writer.write(pending);
+                    pending.clear();
+                }
+            }
+            if (!pending.isEmpty()) {
+                if (writer == null || writer.bytes() >= maxSegmentBytes) {
+                    writer = rollWriter(writer, written, roomId, nextGeneration++);
+                }
+                writer.write(pending);
+            }
+            if (writer != null) {
+                writer.finish();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Path[] paths : written) {
+                Files.deleteIfExists(tmp(paths[0]));
+                Files.deleteIfExists(tmp(paths[1]));
+            }
+            throw e;
+        }
+
+        // 新しい世代を有効にしてから古い世代を消す（インデックスが先）
+        for (Path[] paths : written) {
+            Files.move(tmp(paths[0]), paths[0], StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmp(paths[1]), paths[1], StandardCopyOption.ATOMIC_MOVE);
+        }
+        for (SegmentFile segment : room.segments()) {
+            Files.deleteIfExists(segment.index());
+        }
+        for (SegmentFile segment : room.segments()) {
+            Files.deleteIfExists(segment.data());
+        }
+
+        RoomIndex compacted = loadRoom(roomDir(roomId));
+        if (compacted.segments().isEmpty()) {
+            rooms.remove(roomId);
+            deleteRecursively(roomDir(roomId));
+        } else {
+            rooms.put(roomId, compacted);
+        }
+        long bytesAfter = compacted.segments().stream().mapToLong(SegmentFile::bytes).sum();
+        return new CompactResult(roomId, room.segments().size(), compacted.segments().size(),
+                room.blocks().size(), compacted.blocks().size(), kept, removed, bytesBefore, bytesAfter);
+    }
+
+    private SegmentWriter rollWriter(SegmentWriter current, List<Path[]> written, long roomId, long generation)
+            throws IOException {
+        if (current != null) {
+            current.finish();
+        }
+        Path data = roomDir(roomId).resolve(segmentName(generation) + ".seg");
+        Path index = roomDir(roomId).resolve(segmentName(generation) + ".idx");
+        written.add(new Path[]{data, index});
+        return new SegmentWriter(tmp(data), tmp(index));
+    }
+
+    // ===== 読み取り =====
+
+    /**
+     * beforeId より古いメッセージを新しい順に最大 limit 件
+     */
+    public List<ArchivedMessage> readBefore(long roomId, long beforeId, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        return read(roomId, List.of(), room -> readBefore(room, beforeId, limit));
+    }
+
+    private List<ArchivedMessage> readBefore(RoomIndex room, long beforeId, int limit) {
+        // 新しい limit 件だけを残す（ブロックのID範囲は重なることがあるため重複も除く）
+        TreeMap<Long, ArchivedMessage> found = new TreeMap<>();
+        for (Block block : room.blocks()) {
+            if (block.firstId() >= beforeId) {
+                continue;
+            }
+            if (found.size() >= limit && block.lastId() < found.firstKey()) {
+                break; // 以降のブロックはすべてこれより古い
+            }
+            for (ArchivedMessage message : readBlock(block)) {
+                if (message.id() < beforeId) {
+                    found.put(message.id(), message);
+                    if (found.size() > limit) {
+                        found.pollFirstEntry();
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(found.descendingMap().values());
+    }
+
+    /**
+     * 指定したIDのメッセージ（アーカイブにないものは含まれない）
+     */
+    public Map<Long, ArchivedMessage> findByIds(long roomId, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        long[] sorted = ids.stream().mapToLong(Long::longValue).sorted().toArray();
+        return read(roomId, Map.of(), room -> findByIds(room, sorted));
+    }
+
+    private Map<Long, ArchivedMessage> findByIds(RoomIndex room, long[] sorted) {
+        Map<Long, ArchivedMessage> found = new HashMap<>();
+        for (Block block : room.blocks()) {
+            int position = Arrays.binarySearch(sorted, block.firstId());
+            position = position >= 0 ? position : -position - 1;
+            if (position == sorted.length || sorted[position] > block.lastId()) {
+                continue; // このブロックの範囲に該当IDがない
+            }
+            for (ArchivedMessage message : readBlock(block)) {
+                if (Arrays.binarySearch(sorted, message.id()) >= 0) {
+                    found.put(message.id(), message);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * ルーム内に条件を満たすメッセージがあるか
+     */
+    public boolean anyMatch(long roomId, Predicate<ArchivedMessage> condition) {
+        return read(roomId, false, room -> {
+            for (Block block : room.blocks()) {
+                for (ArchivedMessage message : readBlock(block)) {
+                    if (condition.test(message)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * 送信者ごとのメッセージ数（全ルーム。併合前の重複ブロックは数えない）
+     */
+    public Map<Long, Long> countByUser() {
+        Map<Long, Long> counts = new HashMap<>();
+        for (Long roomId : roomIds()) {
+            // 読み直しで二重に数えないよう、ルームごとに数えてから合算する
+            read(roomId, Map.<Long, Long>of(), MessageArchiveStore::countByUser)
+                    .forEach((userId, count) -> counts.merge(userId, count, Long::sum));
+        }
+        return counts;
+    }
+
+    private static Map<Long, Long> countByUser(RoomIndex room) {
+        Map<Long, Long> counts = new HashMap<>();
+        // 追記順に読み、それまでの最大ID以下（再実行で重なった分）は数えない
+        long lastId = Long.MIN_VALUE;
+        for (SegmentFile segment : room.segments()) {
+            for (Block block : segment.blocks()) {
+                for (ArchivedMessage message : readBlock(block)) {
+                    if (message.id() > lastId) {
+                        counts.merge(message.userId(), 1L, Long::sum);
+                        lastId = message.id();
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * ルームのスナップショットを読む。併合で古い世代が消された後だった場合は、
+     * 併合の完了を待って（書き込みと同じロックを取って）新しいスナップショットで読み直す
+     */
+    private <T> T read(long roomId, T empty, Function<RoomIndex, T> reader) {
+        RoomIndex room = rooms.get(roomId);
+        for (int attempt = 1; ; attempt++) {
+            if (room == null) {
+                return empty;
+            }
+            try {
+                return reader.apply(room);
+            } catch (SegmentReplacedException e) {
+                RoomIndex current;
+                synchronized (this) {
+                    current = rooms.get(roomId);
+                }
+                if (current == room || attempt >= MAX_READ_RETRIES) {
+                    throw e; // 併合以外の理由で消えた
+                }
+                room = current;
+            }
+        }
+    }
+
+    private static List<ArchivedMessage> readBlock(Block block) {
+        try (FileChannel channel = FileChannel.open(block.segment(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(block.length());
+            readFully(channel, buffer, block.offset());
+            buffer.flip();
+            return decodeBlock(buffer, block.count());
+        } catch (NoSuchFileException e) {
+            throw new SegmentReplacedException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("アーカイブの読み込みに失敗: " + block.segment(), e);
+        }
+    }
+
+    // ===== 確認・統計 =====
+
+    /**
+     * ブロックのチェックサム・件数・ID順とインデックスの範囲を確認する
+     */
+    public VerifyReport verify(long roomId) {
+        RoomIndex room = rooms.get(roomId);
+        if (room == null) {
+            return new VerifyReport(roomId, 0, 0, 0, 0, List.of());
+        }
+        List<String> problems = new ArrayList<>();
+        long messages = 0;
+        for (SegmentFile segment : room.segments()) {
+            String name = segment.data().getFileName().toString();
+            try (FileChannel channel = FileChannel.open(segment.data(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+                readFully(channel, header, 0);
+                header.flip();
+                if (header.getInt() != SEGMENT_MAGIC || header.getInt() != VERSION) {
+                    problems.add(name + ": ヘッダーが不正です");
+                    continue;
+                }
+                long expectedOffset = FILE_HEADER_BYTES;
+                for (Block block : segment.blocks()) {
+                    String where = name + "@" + block.offset();
+                    if (block.offset() != expectedOffset) {
+                        problems.add(where + ": ブロックの位置が連続していません（想定 " + expectedOffset + "）");
+                    }
+                    expectedOffset = block.offset() + block.length();
+                    ByteBuffer buffer = ByteBuffer.allocate(block.length());
+                    readFully(channel, buffer, block.offset());
+                    buffer.flip();
+                    List<ArchivedMessage> records;
+                    try {
+                        records = decodeBlock(buffer, block.count());
+                    } catch (RuntimeException e) {
+                        problems.add(where + ": " + e.getMessage());
+                        continue;
+                    }
+                    messages += records.size();
+                    for (int i = 1; i < records.size(); i++) {
+                        if (records.get(i).id() <= records.get(i - 1).id()) {
+                            problems.add(where + ": ブロック内のIDが昇順になっていません");
+                            break;
+                        }
+                    }
+                    if (records.get(0).id() != block.firstId()
+                            || records.get(records.size() - 1).id() != block.lastId()) {
+                        problems.add(where + ": インデックスのID範囲がブロックの内容と一致しません");
+                    }
+                }
+                if (channel.size() != expectedOffset) {
+                    problems.add(name + ": インデックスにない末尾のデータがあります（" + (channel.size() - expectedOffset) + " bytes）");
+                }
+            } catch (IOException e) {
+                problems.add(name + ": 読み込みに失敗しました: " + e.getMessage());
+            }
+        }
+        return new VerifyReport(roomId, room.segments().size(), room.blocks().size(), messages,
+                overlappingBlocks(room), problems);
+    }
+
+    /**
+     * ルームごとのセグメント数・ブロック数・件数・サイズ
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long totalMessages = 0;
+        long totalBytes = 0;
+        int totalBlocks = 0;
+        Map<Long, Object> perRoom = new TreeMap<>();
+        for (Map.Entry<Long, RoomIndex> entry : rooms.entrySet()) {
+            RoomIndex room = entry.getValue();
+            long messages = room.blocks().stream().mapToLong(Block::count).sum();
+            long bytes = room.segments().stream().mapToLong(SegmentFile::bytes).sum();
+            Map<String, Object> roomStats = new LinkedHashMap<>();
+            roomStats.put("segments", room.segments().size());
+            roomStats.put("blocks", room.blocks().size());
+            roomStats.put("messages", messages);
+            roomStats.put("bytes", bytes);
+            roomStats.put("overlappingBlocks", overlappingBlocks(room));
+            perRoom.put(entry.getKey(), roomStats);
+            totalMessages += messages;
+            totalBytes += bytes;
+            totalBlocks += room.blocks().size();
+        }
+        stats.put("rooms", perRoom.size());
+        stats.put("blocks", totalBlocks);
+        stats.put("messages", totalMessages);
+        stats.put("bytes", totalBytes);
+        stats.put("perRoom", perRoom);
+        return stats;
+    }
+
+    // ID範囲が他のブロックと重なっているブロック数（併合すると0になる）
+    private static int overlappingBlocks(RoomIndex room) {
+        List<Block> byFirst = new ArrayList<>(room.blocks());
+        byFirst.sort(Comparator.comparingLong(Block::firstId));
+        int overlapping = 0;
+        long maxLast = Long.MIN_VALUE;
+        for (Block block : byFirst) {
+            if (block.firstId() <= maxLast) {
+                overlapping++;
+            }
+            maxLast = Math.max(maxLast, block.lastId());
+        }
+        return overlapping;
+    }
+
+    // ===== ファイルの読み込み =====
+
+    private RoomIndex loadRoom(Path roomDir) throws IOException {
+        List<SegmentFile> segments = new ArrayList<>();
+        if (!Files.isDirectory(roomDir)) {
+            return snapshot(segments);
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(roomDir)) {
+            stream.forEach(files::add);
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".tmp")) {
+                Files.deleteIfExists(file); // 併合の途中で止まったもの
+            } else if (name.endsWith(".seg")) {
+                Path index = file.resolveSibling(name.substring(0, name.length() - 4) + ".idx");
+                if (!Files.exists(index)) {
+                    Files.deleteIfExists(file); // 併合で置き換え済み（インデックスだけ先に消えた）
+                    continue;
+                }
+                segments.add(loadSegment(file, index));
+            } else if (name.endsWith(".idx")
+                    && !Files.exists(file.resolveSibling(name.substring(0, name.length() - 4) + ".seg"))) {
+                Files.deleteIfExists(file);
+            }
+        }
+        segments.sort(Comparator.comparingLong(SegmentFile::generation));
+        return snapshot(segments);
+    }
+
+    private SegmentFile loadSegment(Path data, Path index) throws IOException {
+        String name = data.getFileName().toString();
+        long generation = Long.parseLong(name.substring(0, name.length() - 4));
+        List<Block> blocks = new ArrayList<>();
+        long dataEnd = FILE_HEADER_BYTES;
+        try (FileChannel dataChannel = FileChannel.open(data, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel indexChannel = FileChannel.open(index, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long dataSize = dataChannel.size();
+            long indexSize = indexChannel.size();
+            if (indexSize < FILE_HEADER_BYTES || dataSize < FILE_HEADER_BYTES) {
+                throw new IOException("アーカイブのヘッダーが不正です: " + data);
+            }
+            ByteBuffer entries = ByteBuffer.allocate((int) indexSize);
+            readFully(indexChannel, entries, 0);
+            entries.flip();
+            if (entries.getInt() != INDEX_MAGIC || entries.getInt() != VERSION) {
+                throw new IOException("アーカイブのインデックスが不正です: " + index);
+            }
+            while (entries.remaining() >= INDEX_ENTRY_BYTES) {
+                Block block = new Block(data, entries.getLong(), entries.getLong(), entries.getLong(),
+                        entries.getInt(), entries.getInt());
+                if (block.offset() + block.length() > dataSize) {
+                    break; // データより先に書かれることはないが、念のためここで打ち切る
+                }
+                blocks.add(block);
+                dataEnd = Math.max(dataEnd, block.offset() + block.length());
+            }
+            long validIndexSize = FILE_HEADER_BYTES + (long) blocks.size() * INDEX_ENTRY_BYTES;
+            if (indexSize > validIndexSize) {
+                logger.warn("アーカイブのインデックス末尾を切り詰めます: {} ({} bytes)", index, indexSize - validIndexSize);
+                indexChannel.truncate(validIndexSize);
+            }
+            if (dataSize > dataEnd) {
+                logger.warn("インデックスにないアーカイブ末尾を切り詰めます: {} ({} bytes)", data, dataSize - dataEnd);
+                dataChannel.truncate(dataEnd);
+            }
+        }
+        return new SegmentFile(generation, data, index, dataEnd, List.copyOf(blocks));
+    }
+
+    private static RoomIndex snapshot(List<SegmentFile> segments) {
+        List<Block> blocks = new ArrayList<>();
+        for (SegmentFile segment : segments) {
+            blocks.addAll(segment.blocks());
+        }
+        blocks.sort(Comparator.comparingLong(Block::lastId).reversed());
+        return new RoomIndex(List.copyOf(segments), List.copyOf(blocks));
+    }
+
+    private SegmentFile createSegment(Path roomDir, long generation) throws IOException {
+        Path data = roomDir.resolve(segmentName(generation) + ".seg");
+        Path index = roomDir.resolve(segmentName(generation) + ".idx");
+        writeHeader(data, SEGMENT_MAGIC);
+        writeHeader(index, INDEX_MAGIC);
+        return new SegmentFile(generation, data, index, FILE_HEADER_BYTES, List.of());
+    }
+
+    private static void writeHeader(Path file, int magic) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(magic).putInt(VERSION);
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+    }
+
+    private Path roomDir(long roomId) {
+        return dir.resolve(ROOM_PREFIX + roomId);
+    }
+
+    private static String segmentName(long generation) {
+        return String.format("%08d", generation);
+    }
+
+    private static Path tmp(Path path) {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    private static void putEntry(ByteBuffer entries, Block block) {
+        entries.putLong(block.firstId()).putLong(block.lastId()).putLong(block.offset())
+                .putInt(block.length()).putInt(block.count());
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("アーカイブが途中で終わっています");
+            }
+            position += read;
+        }
+    }
+
+    // ===== ブロック =====
+    // 形式: magic(int) 展開後のバイト長(int) 圧縮後のバイト長(int) 圧縮データのCRC32(int) 圧縮データ
+    //       展開後はメッセージごとに id(long) userId(long) sentAt(long) 本文のバイト長(int) 本文(UTF-8)
+
+    static byte[] encodeBlock(List<ArchivedMessage> messages) {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(messages.size() * 128);
+        try (DataOutputStream out = new DataOutputStream(raw)) {
+            for (ArchivedMessage message : messages) {
+                byte[] content = message.content().getBytes(StandardCharsets.UTF_8);
+                out.writeLong(message.id());
+                out.writeLong(message.userId());
+                out.writeLong(message.sentAtMillis());
+                out.writeInt(content.length);
+                out.write(content);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] input = raw.toByteArray();
+
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2 + 64);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] payload = compressed.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + payload.length);
+        block.putInt(BLOCK_MAGIC).putInt(input.length).putInt(payload.length).putInt((int) crc.getValue());
+        block.put(payload);
+        return block.array();
+    }
+
+    static List<ArchivedMessage> decodeBlock(ByteBuffer block, int expectedCount) {
+        if (block.remaining() < BLOCK_HEADER_BYTES || block.getInt() != BLOCK_MAGIC) {
+            throw new IllegalStateException("ブロックのヘッダーが不正です");
+        }
+        int rawLength = block.getInt();
+        int compressedLength = block.getInt();
+        int expectedCrc = block.getInt();
+        if (compressedLength != block.remaining()) {
+            throw new IllegalStateException("ブロックの長さがインデックスと一致しません");
+        }
+        byte[] payload = new byte[compressedLength];
+        block.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IllegalStateException("ブロックのチェックサムが一致しません");
+        }
+
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            int length = inflater.inflate(raw);
+            if (length != rawLength || !inflater.finished()) {
+                throw new IllegalStateException("ブロックの展開後の長さが一致しません");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("ブロックを展開できません: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+
+        List<ArchivedMessage> messages = new ArrayList<>(expectedCount);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw))) {
+            for (int i = 0; i < expectedCount; i++) {
+                long id = in.readLong();
+                long userId = in.readLong();
+                long sentAt = in.readLong();
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                messages.add(new ArchivedMessage(id, userId, sentAt, new String(content, StandardCharsets.UTF_8)));
+            }
+            if (in.available() > 0) {
+                throw new IllegalStateException("ブロックの件数がインデックスと一致しません");
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("ブロックの件数がインデックスと一致しません", e);
+        }
+        return messages;
+    }
+
+    /**
+     * ブロックをID順に併合して1件ずつ返す（範囲が重なるブロックだけを同時に展開する）
+     */
+    private final class MergeCursor {
+        private final List<Block> byFirst;
+        private final PriorityQueue<BlockCursor> heap =
+                new PriorityQueue<>(Comparator.comparingLong(BlockCursor::currentId));
+        private int next;
+
+        MergeCursor(List<Block> blocks) {
+            byFirst = new ArrayList<>(blocks);
+            byFirst.sort(Comparator.comparingLong(Block::firstId));
+        }
+
+        ArchivedMessage next() throws IOException {
+            while (next < byFirst.size()
+                    && (heap.isEmpty() || byFirst.get(next).firstId() <= heap.peek().currentId())) {
+                List<ArchivedMessage> messages = readBlock(byFirst.get(next++));
+                if (!messages.isEmpty()) {
+                    heap.add(new BlockCursor(messages));
+                }
+            }
+            BlockCursor cursor = heap.poll();
+            if (cursor == null) {
+                return null;
+            }
+            ArchivedMessage message = cursor.current();
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            return message;
+        }
+    }
+
+    // 読み取り中のセグメントが消えていた（併合で置き換えられた）
+    private static final class SegmentReplacedException extends UncheckedIOException {
+        SegmentReplacedException(NoSuchFileException cause) {
+            super("アーカイブのセグメントが見つかりません: " + cause.getFile(), cause);
+        }
+    }
+
+    private static final class BlockCursor {
+        private final List<ArchivedMessage> messages;
+        private int position;
+
+        BlockCursor(List<ArchivedMessage> messages) {
+            this.messages = messages;
+        }
+
+        ArchivedMessage current() {
+            return messages.get(position);
+        }
+
+        long currentId() {
+            return messages.get(position).id();
+        }
+
+        boolean advance() {
+            return ++position < messages.size();
+        }
+    }
+
+    /**
+     * 併合用の書き出し（.tmp に書き、呼び出し側がすべて書き終えてから名前を変える）
+     */
+    private static final class SegmentWriter {
+        private final Path dataTmp;
+        private final Path indexTmp;
+        private final FileChannel data;
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private long bytes = FILE_HEADER_BYTES;
+
+        SegmentWriter(Path dataTmp, Path indexTmp) throws IOException {
+            this.dataTmp = dataTmp;
+            this.indexTmp = indexTmp;
+            this.data = FileChannel.open(dataTmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(SEGMENT_MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(data, header, 0);
+            ByteBuffer indexHeader = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(INDEX_MAGIC).putInt(VERSION);
+            index.write(indexHeader.array(), 0, FILE_HEADER_BYTES);
+        }
+
+        long bytes() {
+            return bytes;
+        }
+
+        void write(List<ArchivedMessage> messages) throws IOException {
+            byte[] block = encodeBlock(messages);
+            writeFully(data, ByteBuffer.wrap(block), bytes);
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            putEntry(entry, new Block(dataTmp, messages.get(0).id(), messages.get(messages.size() - 1).id(),
+                    bytes, block.length, messages.size()));
+            index.write(entry.array(), 0, INDEX_ENTRY_BYTES);
+            bytes += block.length;
+        }
+
+        void finish() throws IOException {
+            try {
+                data.force(true);
+            } finally {
+                data.close();
+            }
+            try (FileChannel channel = FileChannel.open(indexTmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeFully(channel, ByteBuffer.wrap(index.toByteArray()), 0);
+                channel.force(true);
+            }
+        }
+    }
+}
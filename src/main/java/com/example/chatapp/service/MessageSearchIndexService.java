@@ -0,0 +1,968 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.DirectMessage;
+import com.example.chatapp.entity.Message;
+import com.example.chatapp.repository.DirectMessageRepository;
+import com.example.chatapp.repository.MessageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * ルーム・DM会話ごとのメッセージ全文検索サービス
+ * - 本文をNFKC正規化・小文字化し、文字・数字の連続部分を2文字ずつ（bi-gram）に分割して転置インデックスを作成
+ *   （分かち書きが不要なため日本語でもそのまま検索できる）
+ * - 新規メッセージはコミット後にメモリ上のバッファへ追加し、一定件数・一定時間ごとに
+ *   不変のセグメントファイルとしてディスクへ書き出す
+ * - セグメント数が増えたらバックグラウンドで小さいものから併合し、削除済みルームの分を取り除く
+ * - 書き出し済みの最大メッセージIDを manifest に記録し、起動時はそれ以降のメッセージだけを取り込む
+ * - bi-gramの一致は候補にすぎないため、最終的にDBの本文で検索語を含むかを確認する
+ *   （削除済みメッセージもここで除外される。アーカイブ済みのルームメッセージはアーカイブの本文で確認する）
+ */
+@Service
+public class MessageSearchIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchIndexService.class);
+
+    // 検索語の最小文字数（bi-gramを1つ以上作れる長さ）
+    public static final int MIN_QUERY_LENGTH = 2;
+
+    public static final int MAX_LIMIT = 50;
+
+    private static final int SEGMENT_MAGIC = 0x4D534958; // "MSIX"
+    private static final int SEGMENT_VERSION = 1;
+    private static final String MANIFEST = "segments.manifest";
+    private static final int CATCH_UP_CHUNK = 1000;
+
+    // 1回の検索でDBの本文を確認するバッチ数の上限
+    private static final int MAX_VERIFY_BATCHES = 10;
+
+    // スニペットとして検索語の前後に含める文字数
+    private static final int SNIPPET_BEFORE = 30;
+    private static final int SNIPPET_AFTER = 60;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private DirectMessageRepository directMessageRepository;
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    @Value("${app.message-search.dir:data/search}")
+    private String indexDir;
+
+    // バッファがこの件数に達したらセグメントとして書き出す
+    @Value("${app.message-search.flush-size:2000}")
+    private int flushSize;
+
+    // 件数に達しなくてもこの間隔で書き出す
+    @Value("${app.message-search.flush-seconds:30}")
+    private int flushSeconds;
+
+    // セグメント数がこの数に達したら、小さい順にこの数だけ併合する
+    @Value("${app.message-search.merge-factor:4}")
+    private int mergeFactor;
+
+    private Path dir;
+
+    // 書き出し・併合・manifest更新はこの1スレッドで直列に実行する
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "message-search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 検索はこのスナップショットを参照（書き出し・併合時に差し替え）
+    private volatile List<Segment> segments = List.of();
+
+    // 削除済みのスコープ（検索対象から外し、併合時にポスティングを取り除く）
+    private final Set<String> droppedScopes = ConcurrentHashMap.newKeySet();
+
+    private final Object bufferLock = new Object();
+    private Map<String, LongList> buffer = new HashMap<>();
+    private Map<String, LongList> flushing;
+    private int bufferedMessages;
+    private long bufferedMessageWatermark;
+    private long bufferedDirectWatermark;
+
+    // ディスクに書き出し済みの最大メッセージID（maintenanceスレッドのみ更新）
+    private long messageWatermark;
+    private long directWatermark;
+    private long nextGeneration = 1;
+
+    /**
+     * 検索結果の1件（messageIdで前後の会話へジャンプする）
+     */
+    public record SearchHit(Long messageId, String senderUsername, String snippet, LocalDateTime sentAt) {
+    }
+
+    /**
+     * 検索結果の1ページ（nextBeforeを次回のbeforeに指定すると続きを取得、最後のページではnull）
+     */
+    public record SearchPage(List<SearchHit> hits, Long nextBefore) {
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        dir = Paths.get(indexDir).toAbsolutePath().normalize();
+        Files.createDirectories(dir);
+        loadManifest();
+        maintenance.scheduleWithFixedDelay(this::flushQuietly, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 前回書き出し以降のメッセージをDBから取り込む
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void catchUp() {
+        maintenance.execute(() -> {
+            long start = System.currentTimeMillis();
+            int rooms = catchUpTable("SELECT id, chat_room_id, content FROM messages WHERE id > ? ORDER BY id LIMIT ?",
+                    messageWatermark, "r:", false);
+            int dms = catchUpTable("SELECT id, conversation_id, content FROM direct_messages WHERE id > ? ORDER BY id LIMIT ?",
+                    directWatermark, "d:", true);
+            logger.info("メッセージ検索インデックスを準備: セグメント数={}, 取り込み件数={}, 所要時間={}ms",
+                    segments.size(), rooms + dms, System.currentTimeMillis() - start);
+            flushQuietly();
+        });
+    }
+
+    private int catchUpTable(String sql, long fromId, String scopePrefix, boolean direct) {
+        int total = 0;
+        long lastId = fromId;
+        while (true) {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, lastId, CATCH_UP_CHUNK);
+            for (Map<String, Object> row : rows) {
+                lastId = ((Number) row.get("id")).longValue();
+                Object scopeId = row.get(direct ? "conversation_id" : "chat_room_id");
+                if (scopeId != null) {
+                    add(scopePrefix + scopeId, lastId, (String) row.get("content"), direct);
+                }
+            }
+            total += rows.size();
+            if (rows.size() < CATCH_UP_CHUNK) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * ルームのメッセージをインデックスに登録（トランザクションのコミット後に実行）
+     */
+    public void indexRoomMessage(Message message) {
+        String scope = roomScope(message.getChatRoom().getId());
+        Long id = message.getId();
+        String content = message.getContent();
+        afterCommit(() -> add(scope, id, content, false));
+    }
+
+    /**
+     * DMをインデックスに登録（トランザクションのコミット後に実行）
+     */
+    public void indexDirectMessage(DirectMessage message) {
+        String scope = directScope(message.getConversation().getId());
+        Long id = message.getId();
+        String content = message.getContent();
+        afterCommit(() -> add(scope, id, content, true));
+    }
+
+    /**
+     * 削除されたルームを検索対象から外す（ポスティングは次回の併合で削除）
+     */
+    public void dropRoom(Long roomId) {
+        dropScope(roomScope(roomId));
+    }
+
+    /**
+     * 削除されたDM会話を検索対象から外す
+     */
+    public void dropConversation(Long conversationId) {
+        dropScope(directScope(conversationId));
+    }
+
+    private void dropScope(String scope) {
+        droppedScopes.add(scope);
+        synchronized (bufferLock) {
+            buffer.keySet().removeIf(key -> key.startsWith(scope + "|"));
+        }
+        maintenance.execute(this::writeManifestQuietly);
+    }
+
+    /**
+     * ルーム内のメッセージを検索（新しい順）
+     * @param before このメッセージIDより古いものだけを返す（nullなら最新から）
+     */
+    public SearchPage searchRoom(Long roomId, String query, Long before, int limit) {
+        return search(roomScope(roomId), query, before, limit, ids -> {
+            List<Message> messages = new ArrayList<>(messageRepository.findWithUserByIdIn(ids));
+            if (messages.size() < ids.size()) {
+                Set<Long> found = messages.stream().map(Message::getId).collect(Collectors.toSet());
+                List<Long> missing = ids.stream().filter(id -> !found.contains(id)).toList();
+                messages.addAll(messageArchiveService.findByIds(roomId, missing));
+            }
+            return messages.stream()
+                    .filter(m -> roomId.equals(m.getChatRoom().getId()))
+                    .map(m -> new Candidate(m.getId(), m.getUser().getUsername(), m.getContent(), m.getSentAt()))
+                    .collect(Collectors.toList());
+        });
+    }
+
+    /**
+     * DM会話内のメッセージを検索（新しい順）
+     */
+    public SearchPage searchConversation(Long conversationId, String query, Long before, int limit) {
+        return search(directScope(conversationId), query, before, limit, ids ->
+                directMessageRepository.findWithSenderByIdIn(ids).stream()
+                        .filter(m -> conversationId.equals(m.getConversation().getId()))
+                        .map(m -> new Candidate(m.getId(), m.getSender().getUsername(), m.getContent(), m.getSentAt()))
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * ルームの参加者かどうか
+     */
+    public boolean canSearchRoom(Long roomId, String username) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM chat_room_users cru JOIN users u ON u.id = cru.user_id " +
+                "JOIN chat_rooms r ON r.id = cru.chat_room_id " +
+                "WHERE cru.chat_room_id = ? AND u.username = ? AND r.deleted_at IS NULL",
+                Integer.class, roomId, username);
+        return count != null && count > 0;
+    }
+
+    /**
+     * DM会話の当事者かどうか
+     */
+    public boolean canSearchConversation(Long conversationId, String username) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM direct_message_conversations c JOIN users u ON u.id IN (c.user1_id, c.user2_id) " +
+                "WHERE c.id = ? AND u.username = ?",
+                Integer.class, conversationId, username);
+        return count != null && count > 0;
+    }
+
+    private record Candidate(Long id, String senderUsername, String content, LocalDateTime sentAt) {
+    }
+
+    private SearchPage search(String scope, String query, Long before, int limit,
+                              Function<List<Long>, List<Candidate>> loader) {
+        List<String> runs = runs(normalize(query));
+        Set<String> grams = new LinkedHashSet<>();
+        for (String run : runs) {
+            addBigrams(run, grams);
+        }
+        if (grams.isEmpty() || droppedScopes.contains(scope)) {
+            return new SearchPage(List.of(), null);
+        }
+
+        // 各bi-gramのポスティングを取得し、短い順に積集合をとる
+        List<long[]> postings = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            long[] ids = postings(scope + "|" + gram);
+            if (ids.length == 0) {
+                return new SearchPage(List.of(), null);
+            }
+            postings.add(ids);
+        }
+        postings.sort(Comparator.comparingInt(ids -> ids.length));
+        long[] candidates = postings.get(0);
+        for (int i = 1; i < postings.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, postings.get(i));
+        }
+
+        // 新しい順に、DBの本文で検索語を含むものだけを集める
+        int pageSize = Math.max(1, Math.min(limit, MAX_LIMIT));
+        int end = candidates.length;
+        if (before != null) {
+            end = Arrays.binarySearch(candidates, before);
+            end = end >= 0 ? end : -end - 1;
+        }
+        List<SearchHit> hits = new ArrayList<>();
+        int batches = 0;
+        while (end > 0 && hits.size() < pageSize && batches++ < MAX_VERIFY_BATCHES) {
+            int from = Math.max(0, end - pageSize * 2);
+            List<Long> batch = new ArrayList<>(end - from);
+            for (int i = end - 1; i >= from; i--) {
+                batch.add(candidates[i]);
+            }
+            Map<Long, Candidate> loaded = loader.apply(batch).stream()
+                    .collect(Collectors.toMap(Candidate::id, c -> c));
+            for (Long id : batch) {
+                Candidate candidate = loaded.get(id);
+                end--;
+                if (candidate == null) {
+                    continue; // 削除済み
+                }
+                String normalized = normalize(candidate.content());
+                if (runs.stream().allMatch(normalized::contains)) {
+                    hits.add(new SearchHit(candidate.id(), candidate.senderUsername(),
+                            snippet(candidate.content(), normalized, runs.get(0)), candidate.sentAt()));
+                    if (hits.size() >= pageSize) {
+                        break;
+                    }
+                }
+            }
+        }
+        // 最後に確認した候補を次ページの起点にする（確認件数の上限で打ち切った場合も続きから検索できる）
+        Long nextBefore = end > 0 ? candidates[end] : null;
+        return new SearchPage(hits, nextBefore);
+    }
+
+    private String snippet(String content, String normalized, String run) {
+        // 正規化で長さが変わった場合は元の本文で位置を探し直す
+        int position = normalized.length() == content.length()
+                ? normalized.indexOf(run)
+                : content.toLowerCase(Locale.ROOT).indexOf(run);
+        position = Math.max(0, position);
+        int start = Math.max(0, position - SNIPPET_BEFORE);
+        int end = Math.min(content.length(), position + run.length() + SNIPPET_AFTER);
+        return (start > 0 ? "…" : "") + content.substring(start, end) + (end < content.length() ? "…" : "");
+    }
+
+    private long[] postings(String key) {
+        // バッファ → セグメントの順に読む（書き出し中のものがどちらかに必ず含まれるように）
+        List<long[]> parts = new ArrayList<>();
+        synchronized (bufferLock) {
+            if (flushing != null && flushing.containsKey(key)) {
+                parts.add(flushing.get(key).toSortedArray());
+            }
+            if (buffer.containsKey(key)) {
+                parts.add(buffer.get(key).toSortedArray());
+            }
+        }
+        for (Segment segment : segments) {
+            long[] ids = segment.postings(key);
+            if (ids.length > 0) {
+                parts.add(ids);
+            }
+        }
+        return union(parts);
+    }
+
+    private void add(String scope, Long id, String content, boolean direct) {
+        if (id == null || content == null) {
+            return;
+        }
+        // 削除はDBの行を消してから記録するため、その後に届いたメッセージはIDを再利用した新しいルーム・会話のもの。
+        // 検索対象に戻す（古いポスティングは本文の確認で削除済みとして除かれる）
+        if (droppedScopes.remove(scope)) {
+            maintenance.execute(this::writeManifestQuietly);
+        }
+        Set<String> grams = new LinkedHashSet<>();
+        for (String run : runs(normalize(content))) {
+            addBigrams(run, grams);
+        }
+        boolean full;
+        synchronized (bufferLock) {
+            for (String gram : grams) {
+                buffer.computeIfAbsent(scope + "|" + gram, k -> new LongList()).add(id);
+            }
+            if (direct) {
+                bufferedDirectWatermark = Math.max(bufferedDirectWatermark, id);
+            } else {
+                bufferedMessageWatermark = Math.max(bufferedMessageWatermark, id);
+            }
+            full = ++bufferedMessages == flushSize;
+        }
+        if (full) {
+            maintenance.execute(this::flushQuietly);
+        }
+    }
+
+    private void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    // ===== セグメントの書き出し・併合（maintenanceスレッド） =====
+
+    private void flushQuietly() {
+        try {
+            flush();
+            mergeIfNeeded();
+        } catch (Exception e) {
+            logger.warn("メッセージ検索インデックスの書き出しに失敗", e);
+        }
+    }
+
+    private void flush() throws IOException {
+        Map<String, LongList> toWrite;
+        long messageMark;
+        long directMark;
+        synchronized (bufferLock) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            toWrite = buffer;
+            flushing = toWrite;
+            buffer = new HashMap<>();
+            bufferedMessages = 0;
+            messageMark = bufferedMessageWatermark;
+            directMark = bufferedDirectWatermark;
+        }
+        try {
+            List<String> keys = new ArrayList<>(toWrite.keySet());
+            keys.sort(null);
+            Path file = segmentPath(nextGeneration++);
+            try (SegmentWriter writer = new SegmentWriter(file)) {
+                for (String key : keys) {
+                    writer.write(key, toWrite.get(key).toSortedArray());
+                }
+            }
+            List<Segment> next = new ArrayList<>(segments);
+            next.add(Segment.open(file));
+            segments = List.copyOf(next);
+            messageWatermark = Math.max(messageWatermark, messageMark);
+            directWatermark = Math.max(directWatermark, directMark);
+            writeManifest();
+            logger.debug("メッセージ検索セグメントを書き出し: {}, 語数={}", file.getFileName(), keys.size());
+        } catch (IOException | RuntimeException e) {
+            // 書き出せなかった分はバッファに戻す
+            synchronized (bufferLock) {
+                toWrite.forEach((key, ids) -> buffer.computeIfAbsent(key, k -> new LongList()).addAll(ids));
+            }
+            throw e;
+        } finally {
+            synchronized (bufferLock) {
+                flushing = null;
+            }
+        }
+    }
+
+    private void mergeIfNeeded() throws IOException {
+        List<Segment> current = segments;
+        if (current.size() < Math.max(2, mergeFactor)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<Segment> selected = current.stream()
+                .sorted(Comparator.comparingLong(Segment::size))
+                .limit(mergeFactor)
+                .collect(Collectors.toList());
+        Set<String> dropped = Set.copyOf(droppedScopes);
+
+        Path file = segmentPath(nextGeneration++);
+        PriorityQueue<TermCursor> queue = new PriorityQueue<>(Comparator.comparing(TermCursor::term));
+        for (Segment segment : selected) {
+            TermCursor cursor = new TermCursor(segment);
+            if (cursor.term() != null) {
+                queue.add(cursor);
+            }
+        }
+        try (SegmentWriter writer = new SegmentWriter(file)) {
+            while (!queue.isEmpty()) {
+                String key = queue.peek().term();
+                List<long[]> parts = new ArrayList<>();
+                while (!queue.isEmpty() && queue.peek().term().equals(key)) {
+                    TermCursor cursor = queue.poll();
+                    parts.add(cursor.postings());
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+                if (!dropped.contains(key.substring(0, key.indexOf('|')))) {
+                    writer.write(key, union(parts));
+                }
+            }
+        }
+
+        List<Segment> next = new ArrayList<>(segments);
+        next.removeAll(selected);
+        next.add(Segment.open(file));
+        segments = List.copyOf(next);
+        if (next.size() == 1) {
+            // 全セグメントを併合し終えたので、削除済みスコープの記録は不要
+            droppedScopes.removeAll(dropped);
+        }
+        writeManifest();
+        for (Segment segment : selected) {
+            try {
+                Files.deleteIfExists(segment.path());
+            } catch (IOException e) {
+                logger.debug("併合済みセグメントを削除できません: {}", segment.path(), e);
+            }
+        }
+        logger.info("メッセージ検索セグメントを併合: {}件 → {}, 所要時間={}ms",
+                selected.size(), file.getFileName(), System.currentTimeMillis() - start);
+    }
+
+    private Path segmentPath(long generation) {
+        return dir.resolve(String.format("seg_%08d.idx", generation));
+    }
+
+    // ===== manifest =====
+
+    private void loadManifest() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        Set<String> live = new LinkedHashSet<>();
+        if (Files.isRegularFile(manifest)) {
+            Properties props = new Properties();
+            try (var in = Files.newInputStream(manifest)) {
+                props.load(in);
+            }
+            messageWatermark = Long.parseLong(props.getProperty("messageWatermark", "0"));
+            directWatermark = Long.parseLong(props.getProperty("directWatermark", "0"));
+            nextGeneration = Long.parseLong(props.getProperty("nextGeneration", "1"));
+            for (String name : props.getProperty("segments", "").split(",")) {
+                if (!name.isBlank()) {
+                    live.add(name.trim());
+                }
+            }
+            for (String scope : props.getProperty("droppedScopes", "").split(",")) {
+                if (!scope.isBlank()) {
+                    droppedScopes.add(scope.trim());
+                }
+            }
+        }
+
+        List<Segment> loaded = new ArrayList<>();
+        for (String name : live) {
+            Path file = dir.resolve(name);
+            try {
+                loaded.add(Segment.open(file));
+            } catch (IOException e) {
+                // 壊れたセグメントは捨て、起動時の取り込みで再作成する
+                logger.warn("メッセージ検索セグメントを読み込めません（再作成します）: {}", file, e);
+                loaded.clear();
+                messageWatermark = 0;
+                directWatermark = 0;
+                break;
+            }
+        }
+        segments = List.copyOf(loaded);
+
+        // manifestに載っていないファイル（書き出し途中・併合済み）を削除
+        Set<Path> livePaths = loaded.stream().map(Segment::path).collect(Collectors.toSet());
+        try (var files = Files.list(dir)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                String name = file.getFileName().toString();
+                if ((name.endsWith(".idx") || name.endsWith(".tmp")) && !livePaths.contains(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void writeManifestQuietly() {
+        try {
+            writeManifest();
+        } catch (IOException e) {
+            logger.warn("メッセージ検索インデックスのmanifestを書き込めません", e);
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("messageWatermark", String.valueOf(messageWatermark));
+        props.setProperty("directWatermark", String.valueOf(directWatermark));
+        props.setProperty("nextGeneration", String.valueOf(nextGeneration));
+        props.setProperty("segments", segments.stream()
+                .map(segment -> segment.path().getFileName().toString())
+                .collect(Collectors.joining(",")));
+        props.setProperty("droppedScopes", String.join(",", droppedScopes));
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (var out = Files.newOutputStream(tmp)) {
+            props.store(out, null);
+        }
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenance.shutdown();
+        try {
+            // 実行中の書き出し・併合の完了を待ってから残りを書き出す
+            if (maintenance.awaitTermination(30, TimeUnit.SECONDS)) {
+                flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("終了時のメッセージ検索インデックス書き出しに失敗", e);
+        }
+    }
+
+    // ===== トークン化 =====
+
+    private static String roomScope(Long roomId) {
+        return "r:" + roomId;
+    }
+
+    private static String directScope(Long conversationId) {
+        return "d:" + conversationId;
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 文字・数字の連続部分に分割（記号・空白で区切る）
+     */
+    static List<String> runs(String normalized) {
+        List<String> runs = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        normalized.codePoints().forEach(cp -> {
+            if (Character.isLetterOrDigit(cp)) {
+                current.appendCodePoint(cp);
+            } else if (current.length() > 0) {
+                runs.add(current.toString());
+                current.setLength(0);
+            }
+        });
+        if (current.length() > 0) {
+            runs.add(current.toString());
+        }
+        return runs;
+    }
+
+    private static void addBigrams(String run, Set<String> grams) {
+        int[] cps = run.codePoints().toArray();
+        for (int i = 0; i + 1 < cps.length; i++) {
+            grams.add(new String(cps, i, 2));
+        }
+    }
+
+    // ===== ポスティング操作 =====
+
+    static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    static long[] union(List<long[]> parts) {
+        if (parts.isEmpty()) {
+            return new long[0];
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int total = 0;
+        for (long[] part : parts) {
+            total += part.length;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, all, offset, part.length);
+            offset += part.length;
+        }
+        Arrays.sort(all);
+        int n = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (n == 0 || all[n - 1] != all[i]) {
+                all[n++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, n);
+    }
+
+    /**
+     * バッファ用の可変長long配列
+     */
+    private static final class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size > 0 && values[size - 1] == value) {
+                return; // 同じメッセージ内の重複
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(LongList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        long[] toSortedArray() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy); // コミット順はID順と一致しないことがある
+            // 起動時の取り込みと新着の登録が重なると同じIDが離れて入る
+            int n = 0;
+            for (int i = 0; i < copy.length; i++) {
+                if (n == 0 || copy[n - 1] != copy[i]) {
+                    copy[n++] = copy[i];
+                }
+            }
+            return n == copy.length ? copy : Arrays.copyOf(copy, n);
+        }
+    }
+
+    // ===== セグメントファイル =====
+    // 形式: magic(int) version(int) に続いて、語ごとに
+    //       語のバイト長(int) 語(UTF-8) 件数(int) ポスティングのバイト長(int) ポスティング（差分の可変長整数）
+
+    private static final class SegmentWriter implements AutoCloseable {
+        private final Path target;
+        private final Path tmp;
+        private final DataOutputStream out;
+        private final ByteBufferOutput postings = new ByteBufferOutput();
+
+        SegmentWriter(Path target) throws IOException {
+            this.target = target;
+            this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(SEGMENT_VERSION);
+        }
+
+        void write(String key, long[] ids) throws IOException {
+            if (ids.length == 0) {
+                return;
+            }
+            postings.reset();
+            long previous = 0;
+            for (long id : ids) {
+                postings.writeVarLong(id - previous);
+                previous = id;
+            }
+            byte[] term = key.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(term.length);
+            out.write(term);
+            out.writeInt(ids.length);
+            out.writeInt(postings.size());
+            out.write(postings.buffer(), 0, postings.size());
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final class ByteBufferOutput {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        void writeVarLong(long value) {
+            while (true) {
+                if (size + 1 > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if ((value & ~0x7FL) == 0) {
+                    bytes[size++] = (byte) value;
+                    return;
+                }
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+        }
+
+        byte[] buffer() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * 書き出し済みの不変セグメント（語の辞書はヒープ、ポスティングはメモリマップで参照）
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long size;
+        private final MappedByteBuffer data;
+        private final String[] terms;
+        private final int[] counts;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        private Segment(Path path, long size, MappedByteBuffer data,
+                        String[] terms, int[] counts, int[] offsets, int[] lengths) {
+            this.path = path;
+            this.size = size;
+            this.data = data;
+            this.terms = terms;
+            this.counts = counts;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        static Segment open(Path path) throws IOException {
+            // マップはチャネルを閉じても有効なため、読み込み後すぐに閉じる
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                ByteBuffer in = data.duplicate();
+                if (in.remaining() < 8 || in.getInt() != SEGMENT_MAGIC || in.getInt() != SEGMENT_VERSION) {
+                    throw new IOException("セグメントの形式が不正です: " + path);
+                }
+                List<String> terms = new ArrayList<>();
+                IntArray counts = new IntArray();
+                IntArray offsets = new IntArray();
+                IntArray lengths = new IntArray();
+                while (in.hasRemaining()) {
+                    byte[] term = new byte[in.getInt()];
+                    in.get(term);
+                    terms.add(new String(term, StandardCharsets.UTF_8));
+                    counts.add(in.getInt());
+                    int length = in.getInt();
+                    offsets.add(in.position());
+                    lengths.add(length);
+                    in.position(in.position() + length);
+                }
+                return new Segment(path, size, data, terms.toArray(new String[0]),
+                        counts.toArray(), offsets.toArray(), lengths.toArray());
+            } catch (RuntimeException e) {
+                throw new IOException("セグメントを読み込めません: " + path, e);
+            }
+        }
+
+        Path path() {
+            return path;
+        }
+
+        long size() {
+            return size;
+        }
+
+        long[] postings(String key) {
+            int index = Arrays.binarySearch(terms, key);
+            return index < 0 ? new long[0] : decode(index);
+        }
+
+        long[] decode(int index) {
+            long[] ids = new long[counts[index]];
+            ByteBuffer in = data.duplicate();
+            in.position(offsets[index]);
+            long previous = 0;
+            for (int i = 0; i < ids.length; i++) {
+                long value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = in.get();
+                    value |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                previous += value;
+                ids[i] = previous;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * 併合時にセグメントの語を順に読むカーソル
+     */
+    private static final class TermCursor {
+        private final Segment segment;
+        private int index;
+
+        TermCursor(Segment segment) {
+            this.segment = segment;
+        }
+
+        String term() {
+            return index < segment.terms.length ? segment.terms[index] : null;
+        }
+
+        long[] postings() {
+            return segment.decode(index);
+        }
+
+        boolean advance() {
+            return ++index < segment.terms.length;
+        }
+    }
+
+    private static final class IntArray {
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -7,19 +7,28 @@ import com.example.chatapp.repository.MessageRepository;
 import com.example.chatapp.repository.ChatRoomRepository;
 import com.example.chatapp.repository.UserRepository;
 import com.example.chatapp.dto.MessageDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.TreeMap;
 
 @Service
 @Transactional
 public class MessageService {
 
+    private static final Logger logger = LoggerFactory.getLogger(MessageService.class);
+
     @Autowired
     private MessageRepository messageRepository;
 
@@ -32,6 +41,17 @@ public class MessageService {
     @Autowired
     private UserProfileService userProfileService;
 
+    @Autowired
+    private MessageSearchIndexService messageSearchIndexService;
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    public static final int MAX_HISTORY_PAGE_SIZE = 100;
+
     @Value("${app.debug.enabled:false}")
     private boolean debugEnabled;
 
@@ -92,6 +112,8 @@ public class MessageService {
             
             // 保存後に強制的にフラッシュして確実にDBに反映
             messageRepository.flush();
+            messageSearchIndexService.indexRoomMessage(savedMessage);
+            eventPublisher.publishEvent(new UserActivityEvent.MessageSent(userOpt.get().getId(), savedMessage.getSentAt()));
             
             if (debugEnabled) {
                 System.out.println("メッセージ保存成功: ID=" + savedMessage.getId());
@@ -189,10 +211,6 @@ public class MessageService {
      * 指定されたチャットルームのメッセージを取得
      */
     public List<Message> getMessagesByChatRoom(Long chatRoomId) {
-        System.out.println("🔍🔍🔍 [DB] 検索開始: チャットルームID=" + chatRoomId);
-        System.out.println("📊 [DB] 検索クエリ: findByChatRoomIdOrderBySentAtAsc(" + chatRoomId + ")");
-        System.out.println("💡 [DB] 実行SQLイメージ: SELECT * FROM message WHERE chat_room_id = " + chatRoomId + " ORDER BY sent_at ASC");
-        
         if (debugEnabled) {
             System.out.println("=== チャットルームのメッセージ取得 ===");
             System.out.println("チャットルームID: " + chatRoomId);
@@ -200,17 +218,12 @@ public class MessageService {
         
         try {
             long startTime = System.currentTimeMillis();
-            List<Message> messages = messageRepository.findByChatRoomIdOrderBySentAtAsc(chatRoomId);
+            // 送信者はトランザクション外の DTO 変換でも参照されるため合わせて読み込む
+            List<Message> messages = messageRepository.findWithUserByChatRoomIdOrderBySentAtAsc(chatRoomId);
             long endTime = System.currentTimeMillis();
             
-            System.out.println("📊 [DB] 検索結果: " + messages.size() + "件のメッセージを取得 (実行時間: " + (endTime - startTime) + "ms)");
-            
-            if (messages.isEmpty()) {
-                System.out.println("⚠️  [DB] メッセージが0件: ルーム" + chatRoomId + "にメッセージが存在しないか、ルームIDが間違っている可能性があります");
-            } else {
-                System.out.println("✅ [DB] 取得成功: 最古=" + messages.get(0).getSentAt() + 
-                                 ", 最新=" + messages.get(messages.size()-1).getSentAt());
-            }
+            logger.debug("チャットルームのメッセージを取得: ChatRoomId={}, 件数={}, 所要時間={}ms",
+                    chatRoomId, messages.size(), endTime - startTime);
             
             if (debugEnabled) {
                 System.out.println("取得したメッセージ数: " + messages.size());
@@ -231,7 +244,7 @@ public class MessageService {
             
             return messages;
         } catch (Exception e) {
-            System.err.println("❌ [DB] 検索エラー: " + e.getMessage());
+            logger.warn("チャットルームのメッセージ取得に失敗: ChatRoomId={}", chatRoomId, e);
             if (debugEnabled) {
                 System.err.println("メッセージ取得エラー: " + e.getMessage());
                 e.printStackTrace();
@@ -240,11 +253,40 @@ public class MessageService {
         }
     }
 
+    /**
+     * 履歴の1ページ（before より古いものを最大 limit 件、古い順）
+     * messages テーブルで足りない分や、アーカイブにより新しいIDがある場合はアーカイブと合わせて返す
+     * @param before このメッセージIDより古いものだけを返す（nullなら最新から）
+     */
+    @Transactional(readOnly = true)
+    public List<Message> getHistoryPage(Long chatRoomId, Long before, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE));
+        long cursor = before != null ? before : Long.MAX_VALUE;
+        List<Message> live = messageRepository.findPageBefore(chatRoomId, cursor, PageRequest.of(0, pageSize));
+
+        // 通常はアーカイブの方が古いため、ページが埋まっていればアーカイブは読まない
+        long oldestLiveId = live.isEmpty() ? cursor : live.get(live.size() - 1).getId();
+        List<Message> page;
+        if (live.size() < pageSize || messageArchiveService.maxArchivedId(chatRoomId) > oldestLiveId) {
+            TreeMap<Long, Message> merged = new TreeMap<>(Comparator.reverseOrder());
+            messageArchiveService.readBefore(chatRoomId, cursor, pageSize).forEach(m -> merged.put(m.getId(), m));
+            live.forEach(m -> merged.put(m.getId(), m));
+            page = merged.values().stream().limit(pageSize).toList();
+        } else {
+            page = live;
+        }
+
+        List<Message> ascending = new ArrayList<>(page);
+        ascending.sort(Comparator.comparing(Message::getId));
+        return ascending;
+    }
+
     /**
      * MessageエンティティをDTOに変換
      */
     public MessageDto convertToDto(Message message) {
         MessageDto dto = new MessageDto();
+        dto.setMessageId(message.getId());
         dto.setContent(message.getContent());
         dto.setSenderUsername(message.getUser().getUsername());
         dto.setUserId(message.getUser().getId());
@@ -253,7 +295,8 @@ public class MessageService {
         
         // ユーザープロフィール情報を取得してアバターと表示名を設定
         try {
-            com.example.chatapp.entity.UserProfile profile = userProfileService.getOrCreateProfile(message.getUser());
+            com.example.chatapp.entity.UserProfile profile = message.getUser().getProfile() != null
+                    ? message.getUser().getProfile() : userProfileService.getOrCreateProfile(message.getUser());
             dto.setSenderAvatarUrl(profile.getAvatarUrlOrDefault());
             dto.setSenderDisplayName(profile.getDisplayNameOrUsername());
         } catch (Exception e) {
@@ -0,0 +1,178 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.User;
+import com.example.chatapp.repository.FriendshipRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 新規投稿のリアルタイム通知サービス
+ * - 全体配信（/topic/posts）ではなく、投稿者とフォロワーのユーザーキュー（/user/queue/posts）にのみ送信
+ * - フォロワーのユーザー名一覧はメモリ上にキャッシュし、フォロー/フォロー解除時に破棄
+ * - 接続中のフォロワーが多い場合はバッチに分割してバックグラウンドで送信
+ */
+@Service
+public class PostNotificationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostNotificationService.class);
+
+    private static final String POST_QUEUE = "/queue/posts";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private SimpUserRegistry simpUserRegistry;
+
+    @Autowired
+    private FriendshipRepository friendshipRepository;
+
+    // フォロワー一覧をキャッシュする最大ユーザー数
+    @Value("${app.post-notification.cache-size:5000}")
+    private int cacheSize;
+
+    // この件数を超える送信先はバッチに分割してバックグラウンドで送信する
+    @Value("${app.post-notification.batch-size:200}")
+    private int batchSize;
+
+    // Key: 投稿者のuserId, Value: フォロワーのユーザー名（アクセス順LRU）
+    private Map<Long, Set<String>> followerCache;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "post-notification");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 送信フレーム数の計測（全体配信した場合のフレーム数と比較する）
+    private final AtomicLong postsNotified = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong broadcastFrames = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        followerCache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Set<String>> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * 新規投稿を投稿者本人と接続中のフォロワーに通知
+     */
+    public void notifyNewPost(User author, Map<String, Object> postData) {
+        Set<String> recipients = new LinkedHashSet<>();
+        recipients.add(author.getUsername());
+        recipients.addAll(getFollowerUsernames(author.getId()));
+
+        // 未接続のユーザーには送らない（送信してもブローカーで破棄されるだけ）
+        List<String> online = new ArrayList<>();
+        int frames = 0;
+        for (String username : recipients) {
+            SimpUser simpUser = simpUserRegistry.getUser(username);
+            if (simpUser != null && simpUser.hasSessions()) {
+                online.add(username);
+                frames += simpUser.getSessions().size();
+            }
+        }
+
+        // 全体配信の場合は接続中の全セッションに1フレームずつ送られていた
+        int broadcast = 0;
+        for (SimpUser simpUser : simpUserRegistry.getUsers()) {
+            broadcast += simpUser.getSessions().size();
+        }
+        postsNotified.incrementAndGet();
+        framesSent.addAndGet(frames);
+        broadcastFrames.addAndGet(broadcast);
+        logger.info("新規投稿通知: PostId={}, フォロワー={}, 送信先={}, 送信フレーム={} (全体配信時={})",
+                postData.get("id"), recipients.size() - 1, online.size(), frames, broadcast);
+
+        if (online.size() <= batchSize) {
+            send(online, postData);
+            return;
+        }
+        for (int from = 0; from < online.size(); from += batchSize) {
+            List<String> batch = online.subList(from, Math.min(from + batchSize, online.size()));
+            executor.submit(() -> send(batch, postData));
+        }
+    }
+
+    /**
+     * フォロワー一覧のキャッシュを破棄（フォロー/フォロー解除時）
+     * コミット前に並行する通知がコミット前のフォロワーを読み直して載せることがあるため、コミット後にも破棄する
+     */
+    public void evictFollowers(Long userId) {
+        followerCache.remove(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    followerCache.remove(userId);
+                }
+            });
+        }
+    }
+
+    /**
+     * 送信フレーム数の統計を取得
+     */
+    public Map<String, Object> getStats() {
+        long posts = postsNotified.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("postsNotified", posts);
+        stats.put("framesSent", framesSent.get());
+        stats.put("broadcastFrames", broadcastFrames.get());
+        stats.put("framesPerPost", posts == 0 ? 0.0 : (double) framesSent.get() / posts);
+        stats.put("broadcastFramesPerPost", posts == 0 ? 0.0 : (double) broadcastFrames.get() / posts);
+        stats.put("cachedAuthors", followerCache.size());
+        return stats;
+    }
+
+    private Set<String> getFollowerUsernames(Long userId) {
+        Set<String> followers = followerCache.get(userId);
+        if (followers == null) {
+            followers = Set.copyOf(friendshipRepository.findFollowerUsernames(userId));
+            followerCache.put(userId, followers);
+        }
+        return followers;
+    }
+
+    private void send(List<String> usernames, Map<String, Object> postData) {
+        for (String username : usernames) {
+            try {
+                messagingTemplate.convertAndSendToUser(username, POST_QUEUE, postData);
+            } catch (Exception e) {
+                logger.warn("新規投稿通知の送信エラー: User={}", username, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -3,11 +3,12 @@ package com.example.chatapp.service;
 import com.example.chatapp.entity.Post;
 import com.example.chatapp.entity.User;
 import com.example.chatapp.repository.PostRepository;
+import com.example.chatapp.repository.PostRepository.PostView;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.Collections;
 import java.util.List;
 
 @Service
@@ -16,11 +17,18 @@ public class PostService {
     @Autowired
     private PostRepository postRepository;
 
+    @Autowired
+    private TimelineService timelineService;
+
+    @Autowired
+    private TrendingTagService trendingTagService;
+
+    // タイムライン1ページあたりの最大件数
+    public static final int MAX_PAGE_SIZE = 50;
+
     @Transactional
     public Post createPost(User user, String content) {
-        Post post = new Post(user, content);
-        post.setUserFriendCode(user.getFriendCode());
-        return postRepository.save(post);
+        return createPost(user, content, null);
     }
 
     @Transactional
@@ -28,21 +36,43 @@ public class PostService {
         Post post = new Post(user, content);
         post.setMediaPath(mediaPath);
         post.setUserFriendCode(user.getFriendCode());
-        return postRepository.save(post);
+        post = postRepository.save(post);
+        timelineService.fanOut(post);
+        trendingTagService.recordPost(content);
+        return post;
+    }
+
+    /**
+     * 全投稿を新しい順にページ取得（beforeIdより古いもの）
+     */
+    public List<Post> getRecentPosts(Long beforeId, int limit) {
+        return postRepository.findPageBefore(beforeId != null ? beforeId : Long.MAX_VALUE,
+                PageRequest.of(0, clampLimit(limit)));
+    }
+
+    /**
+     * 全投稿を新しい順にページ取得（API用の投稿ビュー）
+     */
+    @Transactional(readOnly = true)
+    public List<PostView> getRecentPostViews(Long beforeId, int limit) {
+        return postRepository.findViewPageBefore(beforeId != null ? beforeId : Long.MAX_VALUE,
+                PageRequest.of(0, clampLimit(limit)));
     }
 
-    public List<Post> getAllPosts() {
-        return postRepository.findAllByOrderByCreatedAtDesc();
+    /**
+     * フォロー中ユーザーの投稿（ホームタイムライン）をページ取得
+     */
+    @Transactional(readOnly = true)
+    public List<PostView> getFollowingTimeline(User user, Long beforeId, int limit) {
+        return timelineService.getHomeTimeline(user.getId(), beforeId, clampLimit(limit));
     }
 
-    public List<Post> getPostsByUsers(List<User> users) {
-        if (users == null || users.isEmpty()) {
-            return Collections.emptyList();
-        }
-        return postRepository.findByUserInOrderByCreatedAtDesc(users);
+    @Transactional(readOnly = true)
+    public List<PostView> getPostsByUser(User user) {
+        return postRepository.findViewsByUserId(user.getId());
     }
 
-    public List<Post> getPostsByUser(User user) {
-        return postRepository.findByUserOrderByCreatedAtDesc(user);
+    private int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
     }
 }
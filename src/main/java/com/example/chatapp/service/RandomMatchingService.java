@@ -9,6 +9,7 @@ import com.example.chatapp.repository.ChatRoomRepository;
 import com.example.chatapp.repository.RandomMatchRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
@@ -193,9 +194,10 @@ public class RandomMatchingService {
     }
 
     /**
-     * チャット開始時にルームを作成または既存ルームを取得（トランザクション強化）
+     * チャット開始時にルームを作成または既存ルームを取得
+     * ルームの作成は同時作成に備えて専用のトランザクションで行うため、ここではトランザクションを持たない
      */
-    @Transactional
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public ChatRoom getOrCreateChatRoom(RandomMatch match) {
         try {
             User user1 = match.getUser1();
@@ -214,21 +216,12 @@ public class RandomMatchingService {
                 // マッチにルームを関連付け
                 match.setChatRoom(room);
                 randomMatchRepository.save(match);
-                randomMatchRepository.flush(); // 確実に保存
                 
                 return room;
             } else {
                 // 新しいルームを作成
                 String roomName = "ランダムチャット - " + user1.getUsername() + " & " + user2.getUsername();
-                ChatRoom chatRoom = chatRoomService.createPrivateRoom(roomName, user1);
-                
-                // 相手をルームに追加
-                chatRoomService.addUserToRoom(chatRoom.getId(), user2);
-                
-                // ルームタイプをRANDOMに設定
-                chatRoom.setType(ChatRoom.ChatRoomType.RANDOM);
-                chatRoom = chatRoomRepository.save(chatRoom);
-                chatRoomRepository.flush(); // 確実に保存
+                ChatRoom chatRoom = chatRoomService.findOrCreatePairRoom(roomName, user1, user2, ChatRoom.ChatRoomType.RANDOM);
                 
                 System.out.println("新しいランダムチャットルームを作成: " + chatRoom.getName() + " (ID: " + chatRoom.getId() + ")");
                 
@@ -236,7 +229,6 @@ public class RandomMatchingService {
                 match.setChatRoom(chatRoom);
                 match.setStatus(MatchStatus.ACTIVE);
                 randomMatchRepository.save(match);
-                randomMatchRepository.flush(); // 確実に保存
                 
                 System.out.println("マッチをアクティブ状態に更新: MatchID=" + match.getId());
                 
@@ -363,25 +355,25 @@ public class RandomMatchingService {
      */
     @Transactional(readOnly = true)
     public List<GroupedMatchHistory> getGroupedMatchHistory(User user) {
-        List<RandomMatch> allMatches = randomMatchRepository.findAllMatchesForUser(user);
+        // 相手ユーザーは一覧と同じクエリで取得（マッチごとに User を読み込まない）
+        List<RandomMatchRepository.MatchHistoryView> allMatches =
+            randomMatchRepository.findHistoryViewsByUserId(user.getId());
         
         // ユーザーごとにグループ化
-        Map<User, List<RandomMatch>> groupedMatches = allMatches.stream()
-            .collect(Collectors.groupingBy(match -> match.getOtherUser(user)));
+        Map<Long, List<RandomMatchRepository.MatchHistoryView>> groupedMatches = allMatches.stream()
+            .collect(Collectors.groupingBy(RandomMatchRepository.MatchHistoryView::getOtherUserId));
         
         // GroupedMatchHistoryに変換
-        return groupedMatches.entrySet().stream()
-            .map(entry -> {
-                User otherUser = entry.getKey();
-                List<RandomMatch> matches = entry.getValue();
-                
+        return groupedMatches.values().stream()
+            .map(matches -> {
                 // 最新のマッチを代表として使用
-                RandomMatch latestMatch = matches.stream()
-                    .max(Comparator.comparing(RandomMatch::getCreatedAt))
+                RandomMatchRepository.MatchHistoryView latestMatch = matches.stream()
+                    .max(Comparator.comparing(RandomMatchRepository.MatchHistoryView::getCreatedAt))
                     .orElse(matches.get(0));
                 
                 return new GroupedMatchHistory(
-                    otherUser,
+                    latestMatch.getOtherUserId(),
+                    latestMatch.getOtherUsername(),
                     matches.size(),
                     latestMatch,
                     matches.stream().mapToInt(m -> m.getMessageCount() != null ? m.getMessageCount() : 0).sum(),
@@ -526,15 +518,18 @@ public class RandomMatchingService {
      * グループ化されたマッチ履歴クラス
      */
     public static class GroupedMatchHistory {
-        private User otherUser;
+        private Long otherUserId;
+        private String otherUsername;
         private int totalMatches;
-        private RandomMatch latestMatch;
+        private RandomMatchRepository.MatchHistoryView latestMatch;
         private int totalMessages;
         private long activeMatches;
 
-        public GroupedMatchHistory(User otherUser, int totalMatches, RandomMatch latestMatch, 
+        public GroupedMatchHistory(Long otherUserId, String otherUsername, int totalMatches,
+                                 RandomMatchRepository.MatchHistoryView latestMatch,
                                  int totalMessages, long activeMatches) {
-            this.otherUser = otherUser;
+            this.otherUserId = otherUserId;
+            this.otherUsername = otherUsername;
             this.totalMatches = totalMatches;
             this.latestMatch = latestMatch;
             this.totalMessages = totalMessages;
@@ -542,12 +537,20 @@ public class RandomMatchingService {
         }
 
         // ゲッター・セッター
-        public User getOtherUser() {
-            return otherUser;
+        public Long getOtherUserId() {
+            return otherUserId;
+        }
+
+        public void setOtherUserId(Long otherUserId) {
+            this.otherUserId = otherUserId;
+        }
+
+        public String getOtherUsername() {
+            return otherUsername;
         }
 
-        public void setOtherUser(User otherUser) {
-            this.otherUser = otherUser;
+        public void setOtherUsername(String otherUsername) {
+            this.otherUsername = otherUsername;
         }
 
         public int getTotalMatches() {
@@ -558,11 +561,11 @@ public class RandomMatchingService {
             this.totalMatches = totalMatches;
         }
 
-        public RandomMatch getLatestMatch() {
+        public RandomMatchRepository.MatchHistoryView getLatestMatch() {
             return latestMatch;
         }
 
-        public void setLatestMatch(RandomMatch latestMatch) {
+        public void setLatestMatch(RandomMatchRepository.MatchHistoryView latestMatch) {
             this.latestMatch = latestMatch;
         }
 
@@ -584,7 +587,7 @@ public class RandomMatchingService {
 
         // 表示用のヘルパーメソッド
         public String getDisplayName() {
-            return otherUser.getUsername(); // シンプルにusernameを使用
+            return otherUsername; // シンプルにusernameを使用
         }
 
         public String getStatusDisplay() {
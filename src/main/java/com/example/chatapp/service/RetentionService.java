@@ -0,0 +1,152 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.service.DeletionJobService.DeletionJob;
+import com.example.chatapp.service.DeletionJobService.PurgeRule;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 種類ごとの保持期間を過ぎたデータの定期削除
+ * - 日数を0以下にした種類は削除しない
+ * - 削除は DeletionJobService の削除ジョブ（チャンク単位・間に待機を挟む）として実行し、
+ *   削除行数・所要時間はジョブの進捗として確認できる
+ * - ルームメッセージはアーカイブ済みの分も同じ保持期間で削除する
+ */
+@Service
+public class RetentionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionService.class);
+
+    @Autowired
+    private DeletionJobService deletionJobService;
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    @Value("${app.retention.messages-days:0}")
+    private int messagesDays;
+
+    @Value("${app.retention.direct-messages-days:0}")
+    private int directMessagesDays;
+
+    // 終了・放棄・タイムアウトしたランダムマッチ
+    @Value("${app.retention.ended-matches-days:90}")
+    private int endedMatchesDays;
+
+    @Value("${app.retention.rejected-join-requests-days:30}")
+    private int rejectedJoinRequestsDays;
+
+    // 既読の管理者通知
+    @Value("${app.retention.read-notifications-days:90}")
+    private int readNotificationsDays;
+
+    @Value("${app.retention.interval-hours:24}")
+    private long intervalHours;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile DeletionJob lastJob;
+
+    @PostConstruct
+    void init() {
+        if (rules(LocalDateTime.now()).isEmpty()) {
+            logger.info("保持期間による削除: 対象なし");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::runQuietly, intervalHours, intervalHours, TimeUnit.HOURS);
+        logger.info("保持期間による削除: {}時間ごと {}", intervalHours, getRules());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * すぐに削除ジョブを登録する（進捗は DeletionJobService.getJob で確認）
+     */
+    public DeletionJob runNow(String requestedBy) {
+        LocalDateTime now = LocalDateTime.now();
+        if (messagesDays > 0) {
+            messageArchiveService.purgeOlderThan(now.minusDays(messagesDays));
+        }
+        DeletionJob job = deletionJobService.scheduleRetentionPurge(rules(now), requestedBy);
+        lastJob = job;
+        return job;
+    }
+
+    public DeletionJob getLastJob() {
+        return lastJob;
+    }
+
+    /**
+     * 種類ごとの保持日数（0は削除しない）
+     */
+    public Map<String, Integer> getRules() {
+        Map<String, Integer> rules = new LinkedHashMap<>();
+        rules.put("messages", messagesDays);
+        rules.put("directMessages", directMessagesDays);
+        rules.put("endedMatches", endedMatchesDays);
+        rules.put("rejectedJoinRequests", rejectedJoinRequestsDays);
+        rules.put("readNotifications", readNotificationsDays);
+        return rules;
+    }
+
+    private void runQuietly() {
+        try {
+            runNow("system");
+        } catch (Exception e) {
+            logger.warn("保持期間による削除の登録に失敗", e);
+        }
+    }
+
+    private List<PurgeRule> rules(LocalDateTime now) {
+        List<PurgeRule> rules = new ArrayList<>();
+        if (messagesDays > 0) {
+            rules.add(new PurgeRule("messages", "sent_at < ?", List.of(cutoff(now, messagesDays))));
+        }
+        if (directMessagesDays > 0) {
+            rules.add(new PurgeRule("direct_messages", "sent_at < ?", List.of(cutoff(now, directMessagesDays))));
+        }
+        if (endedMatchesDays > 0) {
+            // 放棄・タイムアウトは ended_at が入らないことがあるため更新日時・作成日時で代用
+            rules.add(new PurgeRule("random_matches",
+                    "status <> 'ACTIVE' AND COALESCE(ended_at, updated_at, created_at) < ?",
+                    List.of(cutoff(now, endedMatchesDays))));
+        }
+        if (rejectedJoinRequestsDays > 0) {
+            rules.add(new PurgeRule("room_join_requests",
+                    "status = 'REJECTED' AND COALESCE(processed_at, created_at) < ?",
+                    List.of(cutoff(now, rejectedJoinRequestsDays))));
+        }
+        if (readNotificationsDays > 0) {
+            rules.add(new PurgeRule("admin_notifications",
+                    "is_read = ? AND COALESCE(read_at, created_at) < ?",
+                    List.of(true, cutoff(now, readNotificationsDays))));
+        }
+        return rules;
+    }
+
+    private static Timestamp cutoff(LocalDateTime now, int days) {
+        return Timestamp.valueOf(now.minusDays(days));
+    }
+}
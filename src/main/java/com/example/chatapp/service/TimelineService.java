@@ -0,0 +1,254 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.Post;
+import com.example.chatapp.repository.FriendshipRepository;
+import com.example.chatapp.repository.PostRepository;
+import com.example.chatapp.repository.PostRepository.PostView;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * ホームタイムライン（フォロー中ユーザーの投稿）管理サービス
+ * - 投稿時にフォロワーのタイムラインへ投稿IDを配信（fan-out on write）
+ * - フォロワーが多いアカウントは配信せず、読み込み時に投稿を取得してマージ（pull）
+ * - タイムラインはユーザーごとに件数上限付きの投稿ID列としてメモリ上に保持
+ */
+@Service
+public class TimelineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimelineService.class);
+
+    @Autowired
+    private PostRepository postRepository;
+
+    @Autowired
+    private FriendshipRepository friendshipRepository;
+
+    // 1ユーザーあたりのタイムライン保持件数
+    @Value("${app.timeline.max-entries:500}")
+    private int maxEntries;
+
+    // メモリ上に保持するタイムラインの最大ユーザー数（超えたら最も古くアクセスされたものから破棄）
+    @Value("${app.timeline.max-users:10000}")
+    private int maxUsers;
+
+    // このフォロワー数を超えるアカウントの投稿は配信せず読み込み時にマージする
+    @Value("${app.timeline.celebrity-threshold:1000}")
+    private long celebrityThreshold;
+
+    // タイムラインの再構築間隔（フォロワー数の変化を反映するため）
+    @Value("${app.timeline.ttl-minutes:10}")
+    private long ttlMinutes;
+
+    // Key: userId, Value: Timeline（アクセス順LRU）
+    private Map<Long, Timeline> timelines;
+
+    @PostConstruct
+    void init() {
+        timelines = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Timeline> eldest) {
+                return size() > maxUsers;
+            }
+        });
+    }
+
+    /**
+     * 1ユーザー分のタイムライン（投稿IDの降順配列）
+     */
+    static class Timeline {
+        private final long[] ids;
+        private int size;
+        // 保持している最古の投稿より古い投稿が存在しない場合true
+        private boolean complete;
+        private final List<Long> celebrityFollowingIds;
+        private final long builtAt = System.currentTimeMillis();
+
+        Timeline(int capacity, List<Long> initialIds, boolean complete, List<Long> celebrityFollowingIds) {
+            this.ids = new long[capacity];
+            for (Long id : initialIds) {
+                if (size == capacity) {
+                    break;
+                }
+                ids[size++] = id;
+            }
+            this.complete = complete;
+            this.celebrityFollowingIds = celebrityFollowingIds;
+        }
+
+        synchronized void insert(long postId) {
+            // 降順配列での挿入位置を二分探索
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] > postId) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low < size && ids[low] == postId) {
+                return;
+            }
+            if (size == ids.length) {
+                if (low == size) {
+                    return; // 保持範囲より古い投稿
+                }
+                size--;
+                complete = false;
+            }
+            System.arraycopy(ids, low, ids, low + 1, size - low);
+            ids[low] = postId;
+            size++;
+        }
+
+        synchronized List<Long> idsBefore(long beforeId, int limit) {
+            List<Long> result = new ArrayList<>(limit);
+            for (int i = 0; i < size && result.size() < limit; i++) {
+                if (ids[i] < beforeId) {
+                    result.add(ids[i]);
+                }
+            }
+            return result;
+        }
+
+        synchronized boolean isComplete() {
+            return complete;
+        }
+
+        List<Long> getCelebrityFollowingIds() {
+            return celebrityFollowingIds;
+        }
+
+        boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - builtAt > ttlMillis;
+        }
+    }
+
+    /**
+     * ホームタイムラインを取得（beforeIdより古い投稿をlimit件、新しい順）
+     */
+    public List<PostView> getHomeTimeline(Long userId, Long beforeId, int limit) {
+        long cursor = beforeId != null ? beforeId : Long.MAX_VALUE;
+        Timeline timeline = getOrBuild(userId);
+
+        List<Long> pageIds = timeline.idsBefore(cursor, limit);
+
+        // 保持範囲を超えて遡る場合はDBからキーセットで補完
+        if (pageIds.size() < limit && !timeline.isComplete()) {
+            long from = pageIds.isEmpty() ? cursor : pageIds.get(pageIds.size() - 1);
+            pageIds.addAll(postRepository.findFolloweePostIdsBefore(userId, from,
+                    PageRequest.of(0, limit - pageIds.size())));
+        }
+
+        // フォロワーの多いアカウントの投稿を読み込み時にマージ
+        if (!timeline.getCelebrityFollowingIds().isEmpty()) {
+            TreeSet<Long> merged = new TreeSet<>(Comparator.reverseOrder());
+            merged.addAll(pageIds);
+            merged.addAll(postRepository.findPostIdsByUserIdsBefore(timeline.getCelebrityFollowingIds(), cursor,
+                    PageRequest.of(0, limit)));
+            pageIds = merged.stream().limit(limit).collect(Collectors.toList());
+        }
+
+        return loadPosts(pageIds);
+    }
+
+    /**
+     * 新規投稿をフォロワーのタイムラインへ配信（トランザクションのコミット後に実行）
+     */
+    public void fanOut(Post post) {
+        Long authorId = post.getUser().getId();
+        Long postId = post.getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deliver(authorId, postId);
+                }
+            });
+        } else {
+            deliver(authorId, postId);
+        }
+    }
+
+    /**
+     * フォロー関係が変わったユーザーのタイムラインを破棄（次回読み込み時に再構築）
+     * コミット前に並行して読み込まれるとコミット前のフォロー先で再構築されるため、コミット後にも破棄する
+     */
+    public void invalidate(Long userId) {
+        timelines.remove(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    timelines.remove(userId);
+                }
+            });
+        }
+    }
+
+    private void deliver(Long authorId, Long postId) {
+        try {
+            if (friendshipRepository.countFollowersByUserId(authorId) > celebrityThreshold) {
+                return; // 読み込み時にpullでマージされる
+            }
+            int delivered = 0;
+            for (Long followerId : friendshipRepository.findFollowerIds(authorId)) {
+                // メモリ上にあるタイムラインのみ更新（無いものは読み込み時にDBから構築）
+                Timeline timeline = timelines.get(followerId);
+                if (timeline != null) {
+                    timeline.insert(postId);
+                    delivered++;
+                }
+            }
+            logger.debug("タイムライン配信: PostId={}, AuthorId={}, 配信先={}", postId, authorId, delivered);
+        } catch (Exception e) {
+            logger.warn("タイムライン配信エラー: PostId={}", postId, e);
+        }
+    }
+
+    private Timeline getOrBuild(Long userId) {
+        Timeline timeline = timelines.get(userId);
+        if (timeline != null && !timeline.isExpired(ttlMinutes * 60_000L)) {
+            return timeline;
+        }
+
+        List<Long> ids = postRepository.findFolloweePostIdsBefore(userId, Long.MAX_VALUE,
+                PageRequest.of(0, maxEntries));
+        List<Long> celebrities = friendshipRepository.findHighFanOutFollowingIds(userId, celebrityThreshold);
+        timeline = new Timeline(maxEntries, ids, ids.size() < maxEntries, celebrities);
+        timelines.put(userId, timeline);
+        return timeline;
+    }
+
+    private List<PostView> loadPosts(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, PostView> byId = postRepository.findViewsByIdIn(ids).stream()
+                .collect(Collectors.toMap(PostView::getId, Function.identity()));
+        // 削除済みの投稿は除外しつつID順を維持
+        return ids.stream()
+                .map(byId::get)
+                .filter(post -> post != null)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,397 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.FavoriteTag;
+import com.example.chatapp.repository.FavoriteTagRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * トレンドタグ集計サービス
+ * - タグの使用回数をCount-Min Sketch（固定サイズの近似カウンタ）で集計し、上位K件をヒープで保持
+ * - 古い使用ほど重みが小さくなるよう指数減衰（半減期 app.trending.half-life-hours）
+ * - 使用回数の増分とトレンドスコアは定期的に favorite_tags へ書き出し、起動時に復元
+ */
+@Service
+public class TrendingTagService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrendingTagService.class);
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int MAX_TAG_LENGTH = 50;
+
+    // 投稿本文のハッシュタグ（#タグ / ＃タグ）
+    private static final Pattern HASHTAG = Pattern.compile("[#＃]([\\p{L}\\p{N}_]{1," + MAX_TAG_LENGTH + "})");
+
+    // 重みの指数がこの値を超えたら全カウンタを縮小して基準時刻を更新（オーバーフロー防止）
+    private static final double RESCALE_EXPONENT = 30.0;
+
+    @Autowired
+    private FavoriteTagRepository favoriteTagRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.trending.sketch-width:4096}")
+    private int sketchWidth;
+
+    @Value("${app.trending.top-k:50}")
+    private int topK;
+
+    @Value("${app.trending.half-life-hours:24}")
+    private double halfLifeHours;
+
+    @Value("${app.trending.checkpoint-seconds:60}")
+    private long checkpointSeconds;
+
+    private double[][] sketch;
+    private double decayRate; // 1ミリ秒あたりの減衰率
+    private long landmark;    // 重み計算の基準時刻
+
+    // 上位K件（スコアの小さい順のヒープ）とタグ名からの索引
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparingDouble(e -> e.score));
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // 読み取り用のスナップショット（更新時に作り直す）
+    private volatile List<TrendingTag> snapshot = List.of();
+
+    // 未書き出しの使用回数の増分
+    private final Map<String, Integer> pendingCounts = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "trending-tags");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Entry {
+        final String tagName;
+        double score; // 基準時刻換算のスコア
+
+        Entry(String tagName, double score) {
+            this.tagName = tagName;
+            this.score = score;
+        }
+    }
+
+    /**
+     * トレンドタグ（スコアは最終更新時点の減衰付き使用回数）
+     */
+    public static class TrendingTag {
+        private final String tagName;
+        private final double score;
+
+        TrendingTag(String tagName, double score) {
+            this.tagName = tagName;
+            this.score = score;
+        }
+
+        public String getTagName() { return tagName; }
+        public double getScore() { return score; }
+    }
+
+    /**
+     * 保存済みのトレンドスコアを復元し、定期書き出しを開始
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        synchronized (this) {
+            sketch = new double[SKETCH_DEPTH][sketchWidth];
+            decayRate = Math.log(2) / (halfLifeHours * 3_600_000L);
+            landmark = System.currentTimeMillis();
+        }
+        try {
+            restore();
+        } catch (Exception e) {
+            logger.warn("トレンドタグの復元に失敗", e);
+        }
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly, checkpointSeconds, checkpointSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * タグの使用を記録（プロフィールの好きなもの・投稿のハッシュタグ）
+     */
+    public void recordTags(Collection<String> tagNames) {
+        Set<String> tags = new LinkedHashSet<>();
+        for (String tagName : tagNames) {
+            String tag = normalize(tagName);
+            if (tag != null) {
+                tags.add(tag);
+            }
+        }
+        if (tags.isEmpty()) {
+            return;
+        }
+        for (String tag : tags) {
+            pendingCounts.merge(tag, 1, Integer::sum);
+        }
+        synchronized (this) {
+            if (sketch == null) {
+                return; // 起動前（書き出し対象には含まれる）
+            }
+            double weight = weight(System.currentTimeMillis());
+            for (String tag : tags) {
+                offer(tag, add(tag, weight));
+            }
+            rebuildSnapshot();
+        }
+    }
+
+    /**
+     * 投稿本文のハッシュタグを記録
+     */
+    public void recordPost(String content) {
+        if (content == null) {
+            return;
+        }
+        List<String> tags = new ArrayList<>();
+        Matcher matcher = HASHTAG.matcher(content);
+        while (matcher.find()) {
+            tags.add(matcher.group(1));
+        }
+        recordTags(tags);
+    }
+
+    /**
+     * カンマ区切りのタグ文字列を分割
+     */
+    public static List<String> splitTags(String value) {
+        List<String> tags = new ArrayList<>();
+        if (value == null) {
+            return tags;
+        }
+        for (String tag : value.split(",")) {
+            if (!tag.trim().isEmpty()) {
+                tags.add(tag.trim());
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * トレンド上位のタグを取得
+     */
+    public List<TrendingTag> getTopTags(int limit) {
+        List<TrendingTag> current = snapshot;
+        return current.size() <= limit ? current : current.subList(0, limit);
+    }
+
+    private String normalize(String tagName) {
+        if (tagName == null) {
+            return null;
+        }
+        String tag = tagName.trim();
+        if (tag.isEmpty() || tag.length() > MAX_TAG_LENGTH) {
+            return null;
+        }
+        return tag;
+    }
+
+    /**
+     * スケッチに重みを加算し、加算後の推定値を返す
+     */
+    private double add(String tag, double weight) {
+        double estimate = Double.MAX_VALUE;
+        int hash = tag.hashCode();
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int column = index(hash, row);
+            sketch[row][column] += weight;
+            estimate = Math.min(estimate, sketch[row][column]);
+        }
+        return estimate;
+    }
+
+    private int index(int hash, int row) {
+        // 行ごとに異なるシードで混ぜ合わせる（murmur3のfinalizer）
+        int h = hash ^ (0x9E3779B9 * (row + 1));
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, sketchWidth);
+    }
+
+    /**
+     * 上位K件のヒープを更新
+     */
+    private void offer(String tag, double score) {
+        Entry entry = entries.get(tag);
+        if (entry != null) {
+            heap.remove(entry);
+            entry.score = score;
+            heap.add(entry);
+            return;
+        }
+        if (heap.size() < topK) {
+            entry = new Entry(tag, score);
+            entries.put(tag, entry);
+            heap.add(entry);
+            return;
+        }
+        Entry min = heap.peek();
+        if (min != null && min.score < score) {
+            heap.poll();
+            entries.remove(min.tagName);
+            entry = new Entry(tag, score);
+            entries.put(tag, entry);
+            heap.add(entry);
+        }
+    }
+
+    /**
+     * 基準時刻からの経過時間に応じた重み（必要に応じて全体を縮小して基準時刻を更新）
+     */
+    private double weight(long now) {
+        double exponent = decayRate * (now - landmark);
+        if (exponent > RESCALE_EXPONENT) {
+            double factor = Math.exp(-exponent);
+            for (double[] row : sketch) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] *= factor;
+                }
+            }
+            for (Entry entry : entries.values()) {
+                entry.score *= factor;
+            }
+            landmark = now;
+            exponent = 0;
+        }
+        return Math.exp(exponent);
+    }
+
+    private void rebuildSnapshot() {
+        double scale = 1.0 / Math.exp(decayRate * (System.currentTimeMillis() - landmark));
+        List<TrendingTag> list = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            list.add(new TrendingTag(entry.tagName, entry.score * scale));
+        }
+        list.sort(Comparator.comparingDouble(TrendingTag::getScore).reversed());
+        snapshot = List.copyOf(list);
+    }
+
+    /**
+     * favorite_tags からトレンドスコアを復元（未記録の場合は使用回数の上位で初期化）
+     */
+    private void restore() {
+        long now = System.currentTimeMillis();
+        List<FavoriteTag> saved = favoriteTagRepository.findByTrendScoreIsNotNull();
+        boolean fromUsage = saved.isEmpty();
+        if (fromUsage) {
+            saved = favoriteTagRepository.findTop10ByOrderByUsageCountDesc(PageRequest.of(0, topK));
+        }
+        synchronized (this) {
+            double current = weight(now);
+            for (FavoriteTag tag : saved) {
+                double score;
+                if (fromUsage) {
+                    score = tag.getUsageCount();
+                } else {
+                    long updatedAt = tag.getTrendUpdatedAt() != null ? tag.getTrendUpdatedAt() : now;
+                    score = tag.getTrendScore() * Math.exp(-decayRate * Math.max(0, now - updatedAt));
+                }
+                offer(tag.getTagName(), add(tag.getTagName(), score * current));
+            }
+            rebuildSnapshot();
+        }
+        logger.info("トレンドタグを復元: {}件", saved.size());
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            logger.warn("トレンドタグの書き出しに失敗", e);
+        }
+    }
+
+    /**
+     * 使用回数の増分と上位K件のトレンドスコアを favorite_tags に書き出し
+     */
+    void checkpoint() {
+        List<Object[]> increments = new ArrayList<>();
+        for (String tag : new ArrayList<>(pendingCounts.keySet())) {
+            Integer count = pendingCounts.remove(tag);
+            if (count != null && count > 0) {
+                increments.add(new Object[]{count, tag});
+            }
+        }
+        if (!increments.isEmpty()) {
+            // 増分は1トランザクションで書き込み、失敗したら全件を次回に持ち越す（一部だけ反映されて二重に数えないように）
+            try {
+                transactionTemplate.executeWithoutResult(status -> writeIncrements(increments));
+            } catch (RuntimeException e) {
+                for (Object[] increment : increments) {
+                    pendingCounts.merge((String) increment[1], (Integer) increment[0], Integer::sum);
+                }
+                throw e;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        List<Object[]> scores = new ArrayList<>();
+        synchronized (this) {
+            double scale = 1.0 / Math.exp(decayRate * (now - landmark));
+            for (Entry entry : entries.values()) {
+                scores.add(new Object[]{entry.score * scale, now, entry.tagName});
+            }
+        }
+        jdbcTemplate.update("UPDATE favorite_tags SET trend_score = NULL, trend_updated_at = NULL WHERE trend_score IS NOT NULL");
+        if (!scores.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "UPDATE favorite_tags SET trend_score = ?, trend_updated_at = ? WHERE tag_name = ?", scores);
+        }
+        if (!increments.isEmpty()) {
+            logger.debug("トレンドタグを書き出し: 増分={}件, 上位={}件", increments.size(), scores.size());
+        }
+    }
+
+    private void writeIncrements(List<Object[]> increments) {
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE favorite_tags SET usage_count = usage_count + ? WHERE tag_name = ?", increments);
+        List<Object[]> inserts = new ArrayList<>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                inserts.add(new Object[]{increments.get(i)[1], increments.get(i)[0]});
+            }
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO favorite_tags (tag_name, usage_count) VALUES (?, ?)", inserts);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (sketch != null) {
+            checkpointQuietly();
+        }
+    }
+}
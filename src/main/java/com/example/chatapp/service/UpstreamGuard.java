@@ -0,0 +1,344 @@
+package com.example.chatapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 外部サービス1つ分のサーキットブレーカーとバルクヘッド
+ * - 呼び出しは専用のスレッドプール（同時実行数・待ち行列とも上限付き）で実行し、
+ *   上流が遅くなっても呼び出し元のスレッドやほかの外部サービスを巻き込まない
+ * - 長く続くストリーミングは呼び出し元のスレッドでそのまま実行し、同時実行数だけをセマフォで制限する
+ * - 直近の呼び出しの失敗率が閾値を超えたら一定時間は呼び出さずに即座に失敗させ（OPEN）、
+ *   その後1件だけ試して（HALF_OPEN）成功すれば元に戻す
+ */
+public class UpstreamGuard {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamGuard.class);
+
+    public enum State {
+        CLOSED,     // 通常
+        OPEN,       // 遮断中（即座に失敗）
+        HALF_OPEN   // 試行中
+    }
+
+    /**
+     * 遮断中・混雑により呼び出さなかった
+     */
+    public static class UpstreamUnavailableException extends IOException {
+        public UpstreamUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param maxConcurrent        同時に実行する呼び出しの上限
+     * @param queueCapacity        実行待ちの上限（超えた分は即座に失敗）
+     * @param callTimeout          1回の呼び出しの待ち時間の上限
+     * @param windowSize           失敗率を集計する直近の呼び出し件数
+     * @param minimumCalls         失敗率を判定する最小件数
+     * @param failureRatePercent   遮断する失敗率（%）
+     * @param openDuration         遮断を続ける時間
+     */
+    public record Settings(int maxConcurrent, int queueCapacity, Duration callTimeout,
+                           int windowSize, int minimumCalls, int failureRatePercent, Duration openDuration) {
+    }
+
+    private final String name;
+    private final Settings settings;
+    private final Predicate<Throwable> isFailure;
+    private final ThreadPoolExecutor executor;
+    // 呼び出し元のスレッドで実行する呼び出しの同時実行数（スレッドプールとは別枠）
+    private final Semaphore callerPermits;
+
+    // 直近の呼び出し結果（true = 失敗）のリングバッファ（thisで保護）
+    private final boolean[] outcomes;
+    private int outcomeIndex;
+    private int outcomeCount;
+    private int failureCount;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    // 統計
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejectedOpen = new AtomicLong();
+    private final AtomicLong rejectedFull = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * @param isFailure 例外を上流の障害として数えるか（入力エラーなどは数えない）
+     */
+    public UpstreamGuard(String name, Settings settings, Predicate<Throwable> isFailure) {
+        this.name = name;
+        this.settings = settings;
+        this.isFailure = isFailure;
+        this.outcomes = new boolean[Math.max(1, settings.windowSize())];
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(settings.maxConcurrent(), settings.maxConcurrent(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, settings.queueCapacity())), r -> {
+                    Thread thread = new Thread(r, name + "-upstream-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.callerPermits = new Semaphore(Math.max(1, settings.maxConcurrent()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 専用スレッドプールで呼び出しを実行し、結果を待つ
+     */
+    public <T> T execute(Callable<T> call) throws IOException, InterruptedException {
+        boolean probe = acquirePermission();
+        Future<T> future;
+        try {
+            future = executor.submit(call);
+        } catch (RejectedExecutionException e) {
+            releaseProbe(probe);
+            rejectedFull.incrementAndGet();
+            throw new UpstreamUnavailableException(name + " への呼び出しが混み合っています");
+        }
+
+        try {
+            T result = future.get(settings.callTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            onSuccess();
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeouts.incrementAndGet();
+            onFailure();
+            throw new HttpTimeoutException(name + " の応答が " + settings.callTimeout().toSeconds() + " 秒以内に返りませんでした");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            releaseProbe(probe);
+            throw e;
+        } catch (ExecutionException e) {
+            throw onError(e.getCause(), probe);
+        }
+    }
+
+    /**
+     * 呼び出し元のスレッドで呼び出しを実行する（ストリーミング用）
+     * - スレッドプールを経由せず、呼び出し全体の待ち時間の上限も設けない（途切れの検知は呼び出し側のタイムアウトに任せる）
+     * - 同時実行数が上限に達していれば待たずに失敗させる
+     */
+    public <T> T executeOnCaller(Callable<T> call) throws IOException, InterruptedException {
+        boolean probe = acquirePermission();
+        if (!callerPermits.tryAcquire()) {
+            releaseProbe(probe);
+            rejectedFull.incrementAndGet();
+            throw new UpstreamUnavailableException(name + " への呼び出しが混み合っています");
+        }
+        try {
+            T result = call.call();
+            onSuccess();
+            return result;
+        } catch (InterruptedException e) {
+            releaseProbe(probe);
+            throw e;
+        } catch (Exception | Error e) {
+            throw onError(e, probe);
+        } finally {
+            callerPermits.release();
+        }
+    }
+
+    /**
+     * 呼び出しの例外を集計し、呼び出し元へ投げる例外を返す
+     */
+    private IOException onError(Throwable cause, boolean probe) throws InterruptedException {
+        if (isFailure.test(cause)) {
+            onFailure();
+        } else {
+            onNonFailure(probe);
+        }
+        if (cause instanceof IOException io) {
+            return io;
+        }
+        if (cause instanceof InterruptedException interrupted) {
+            throw interrupted;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * 遮断中でないか（呼び出し前に待ち行列へ並ぶかどうかの判断用、試行枠は消費しない）
+     */
+    public synchronized boolean isCallPermitted() {
+        return state != State.OPEN || elapsedSinceOpened() >= settings.openDuration().toNanos();
+    }
+
+    /**
+     * 遮断中なら即座に失敗させる
+     */
+    public void ensureCallPermitted() throws UpstreamUnavailableException {
+        if (!isCallPermitted()) {
+            rejectedOpen.incrementAndGet();
+            throw new UpstreamUnavailableException(name + " は一時的に利用できません");
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 呼び出してよいか判定し、HALF_OPEN の試行枠を取得した場合は true を返す
+     */
+    private synchronized boolean acquirePermission() throws UpstreamUnavailableException {
+        if (state == State.OPEN && elapsedSinceOpened() >= settings.openDuration().toNanos()) {
+            transitionTo(State.HALF_OPEN);
+        }
+        switch (state) {
+            case CLOSED:
+                return false;
+            case HALF_OPEN:
+                if (!probeInFlight) {
+                    probeInFlight = true;
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        rejectedOpen.incrementAndGet();
+        throw new UpstreamUnavailableException(name + " は一時的に利用できません");
+    }
+
+    private synchronized void releaseProbe(boolean probe) {
+        if (probe) {
+            probeInFlight = false;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        successes.incrementAndGet();
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.CLOSED);
+            return;
+        }
+        record(false);
+    }
+
+    /**
+     * 上流の障害ではない例外（入力エラーなど）
+     * - HALF_OPEN では上流が回復したかどうか分からないので、状態は変えずに試行枠だけ返す
+     */
+    private synchronized void onNonFailure(boolean probe) {
+        if (state == State.HALF_OPEN) {
+            releaseProbe(probe);
+            return;
+        }
+        successes.incrementAndGet();
+        if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    private synchronized void onFailure() {
+        failures.incrementAndGet();
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (outcomeCount >= settings.minimumCalls()
+                    && failureCount * 100 >= settings.failureRatePercent() * outcomeCount) {
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    private void record(boolean failed) {
+        if (outcomeCount == outcomes.length) {
+            if (outcomes[outcomeIndex]) {
+                failureCount--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeIndex] = failed;
+        if (failed) {
+            failureCount++;
+        }
+        outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+    }
+
+    private void transitionTo(State next) {
+        if (state == next) {
+            return;
+        }
+        logger.info("{} のサーキットブレーカー: {} -> {}", name, state, next);
+        state = next;
+        probeInFlight = false;
+        if (next == State.OPEN) {
+            openedAt = System.nanoTime();
+            opened.incrementAndGet();
+        }
+        if (next == State.CLOSED) {
+            outcomeIndex = 0;
+            outcomeCount = 0;
+            failureCount = 0;
+        }
+    }
+
+    private long elapsedSinceOpened() {
+        return System.nanoTime() - openedAt;
+    }
+
+    /**
+     * 統計情報（管理用）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("state", state.name());
+            stats.put("windowCalls", outcomeCount);
+            stats.put("windowFailures", failureCount);
+        }
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("onCaller", Math.max(1, settings.maxConcurrent()) - callerPermits.availablePermits());
+        stats.put("successes", successes.get());
+        stats.put("failures", failures.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("rejectedOpen", rejectedOpen.get());
+        stats.put("rejectedFull", rejectedFull.get());
+        stats.put("opened", opened.get());
+        return stats;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.chatapp.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 外部AIサービス（Gemini / Leonardo）ごとのサーキットブレーカーとバルクヘッド
+ * 片方の上流が遅くなっても、もう片方やチャットなどほかの機能に影響しないようスレッドプールを分ける
+ */
+@Service
+public class UpstreamResilienceService {
+
+    @Value("${app.resilience.gemini.max-concurrent:16}")
+    private int geminiMaxConcurrent;
+
+    @Value("${app.resilience.gemini.queue-capacity:32}")
+    private int geminiQueueCapacity;
+
+    @Value("${app.resilience.gemini.call-timeout-seconds:90}")
+    private long geminiCallTimeoutSeconds;
+
+    @Value("${app.resilience.leonardo.max-concurrent:4}")
+    private int leonardoMaxConcurrent;
+
+    @Value("${app.resilience.leonardo.queue-capacity:16}")
+    private int leonardoQueueCapacity;
+
+    @Value("${app.resilience.leonardo.call-timeout-seconds:30}")
+    private long leonardoCallTimeoutSeconds;
+
+    @Value("${app.resilience.window-size:20}")
+    private int windowSize;
+
+    @Value("${app.resilience.minimum-calls:10}")
+    private int minimumCalls;
+
+    @Value("${app.resilience.failure-rate-threshold:50}")
+    private int failureRatePercent;
+
+    @Value("${app.resilience.open-seconds:30}")
+    private long openSeconds;
+
+    private UpstreamGuard gemini;
+    private UpstreamGuard leonardo;
+
+    @PostConstruct
+    void init() {
+        gemini = new UpstreamGuard("gemini", settings(geminiMaxConcurrent, geminiQueueCapacity, geminiCallTimeoutSeconds),
+                UpstreamResilienceService::isUpstreamFailure);
+        leonardo = new UpstreamGuard("leonardo", settings(leonardoMaxConcurrent, leonardoQueueCapacity, leonardoCallTimeoutSeconds),
+                UpstreamResilienceService::isUpstreamFailure);
+    }
+
+    private UpstreamGuard.Settings settings(int maxConcurrent, int queueCapacity, long callTimeoutSeconds) {
+        return new UpstreamGuard.Settings(maxConcurrent, queueCapacity, Duration.ofSeconds(callTimeoutSeconds),
+                windowSize, minimumCalls, failureRatePercent, Duration.ofSeconds(openSeconds));
+    }
+
+    /**
+     * 上流の障害として数えるか（4xxはリクエスト側の問題なので数えない。ただし429は過負荷として数える）
+     */
+    static boolean isUpstreamFailure(Throwable e) {
+        int status = 0;
+        if (e instanceof GeminiStreamClient.GeminiApiException api) {
+            status = api.getStatusCode();
+        } else if (e instanceof RestClientResponseException rest) {
+            status = rest.getStatusCode().value();
+        }
+        return status == 0 || status == 429 || status >= 500;
+    }
+
+    public UpstreamGuard gemini() {
+        return gemini;
+    }
+
+    public UpstreamGuard leonardo() {
+        return leonardo;
+    }
+
+    /**
+     * 統計情報（管理用）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put(gemini.getName(), gemini.getStats());
+        stats.put(leonardo.getName(), leonardo.getStats());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        gemini.shutdown();
+        leonardo.shutdown();
+    }
+}
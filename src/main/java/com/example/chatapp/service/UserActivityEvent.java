@@ -0,0 +1,30 @@
+package com.example.chatapp.service;
+
+import java.time.LocalDateTime;
+
+/**
+ * ユーザー統計（user_stats）を更新するためのドメインイベント
+ * - 発行元のトランザクションがコミットされた後に UserStatisticsService が集計へ反映する
+ */
+public sealed interface UserActivityEvent {
+
+    /**
+     * ルームにメッセージを送信した
+     */
+    record MessageSent(Long userId, LocalDateTime sentAt) implements UserActivityEvent {
+    }
+
+    /**
+     * ルームに参加した（delta = 1）／退出した（delta = -1）
+     */
+    record RoomMembershipChanged(Long userId, int delta) implements UserActivityEvent {
+    }
+
+    /**
+     * フォロー（followed = true）／フォロー解除した
+     * mutual は相手からもフォローされているか（友達数の増減に使う）
+     */
+    record FollowChanged(Long followerId, Long followingId, boolean followed, boolean mutual)
+            implements UserActivityEvent {
+    }
+}
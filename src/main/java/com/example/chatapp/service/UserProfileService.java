@@ -5,6 +5,10 @@ import com.example.chatapp.entity.UserProfile;
 import com.example.chatapp.repository.FriendshipRepository;
 import com.example.chatapp.repository.UserProfileRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -13,11 +17,13 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.ArrayList;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -30,10 +36,26 @@ public class UserProfileService {
     @Autowired
     private FriendshipRepository friendshipRepository;
 
+    @Autowired
+    private MediaStorageService mediaStorageService;
+
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+
+    @Autowired
+    private TrendingTagService trendingTagService;
+
+    @Autowired
+    private UserSearchIndexService userSearchIndexService;
+
+    // 旧形式（メディアストア導入前）のアップロード先
     private static final String UPLOAD_DIR = "src/main/resources/static/uploads/avatars/";
     private static final String[] ALLOWED_EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif"};
     private static final long MAX_FILE_SIZE = 5 * 1024 * 1024; // 5MB
 
+    // オンライン状態で絞り込む場合に検索インデックスから取得する候補の上限
+    private static final int MAX_FILTERED_CANDIDATES = 1000;
+
     /**
      * ユーザーのプロフィールを取得または作成
      */
@@ -70,6 +92,10 @@ public class UserProfileService {
         existingProfile.setChatStyle(updatedProfile.getChatStyle());
         existingProfile.setInterests(updatedProfile.getInterests());
         existingProfile.setHobbies(updatedProfile.getHobbies());
+        // 新しく追加された「好きなもの」タグのみトレンドに記録
+        List<String> addedTags = TrendingTagService.splitTags(updatedProfile.getFavoriteThings());
+        addedTags.removeAll(TrendingTagService.splitTags(existingProfile.getFavoriteThings()));
+        trendingTagService.recordTags(addedTags);
         existingProfile.setFavoriteThings(updatedProfile.getFavoriteThings());
         existingProfile.setLanguages(updatedProfile.getLanguages());
         existingProfile.setPersonalityTraits(updatedProfile.getPersonalityTraits());
@@ -116,33 +142,21 @@ public class UserProfileService {
             throw new IllegalArgumentException("サポートされていないファイル形式です");
         }
 
-        // アップロードディレクトリの作成
-        Path uploadPath = Paths.get(UPLOAD_DIR);
-        System.out.println("アップロードディレクトリ: " + uploadPath.toAbsolutePath());
-        
-        if (!Files.exists(uploadPath)) {
-            System.out.println("ディレクトリを作成中...");
-            Files.createDirectories(uploadPath);
-        }
-
-        // ユニークなファイル名を生成
-        String filename = user.getId() + "_" + UUID.randomUUID().toString() + extension;
-        Path filePath = uploadPath.resolve(filename);
-        System.out.println("保存先ファイルパス: " + filePath.toAbsolutePath());
-
-        // ファイルを保存
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        // ファイルを保存（同じ内容のファイルは共有される）
+        String avatarUrl = mediaStorageService.store(file, extension);
         System.out.println("ファイル保存完了");
 
         // プロフィールのアバターURLを更新
         UserProfile profile = getOrCreateProfile(user);
-        String avatarUrl = "/uploads/avatars/" + filename;
         profile.setAvatarUrl(avatarUrl);
         System.out.println("アバターURL設定: " + avatarUrl);
         
         UserProfile savedProfile = userProfileRepository.save(profile);
         System.out.println("プロフィール保存完了");
         System.out.println("=== アバターアップロード終了 ===");
+
+        // 縮小版はバックグラウンドで生成（生成までは元画像を配信）
+        imageDerivativeService.scheduleDerivatives(avatarUrl);
         
         return savedProfile;
     }
@@ -186,16 +200,7 @@ public class UserProfileService {
             throw new IllegalArgumentException("マッチング写真は最大" + MAX_MATCHING_PHOTOS + "枚までです");
         }
 
-        Path uploadPath = Paths.get(MATCHING_PHOTO_DIR);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
-        }
-
-        String filename = "match_" + user.getId() + "_" + UUID.randomUUID().toString() + extension;
-        Path filePath = uploadPath.resolve(filename);
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-
-        String photoUrl = "/uploads/matching/" + filename;
+        String photoUrl = mediaStorageService.store(file, extension);
 
         // カンマ区切りで追加
         if (currentPhotos != null && !currentPhotos.isEmpty()) {
@@ -204,6 +209,7 @@ public class UserProfileService {
             profile.setMatchingPhotos(photoUrl);
         }
         userProfileRepository.save(profile);
+        imageDerivativeService.scheduleDerivatives(photoUrl);
 
         return photoUrl;
     }
@@ -223,10 +229,12 @@ public class UserProfileService {
         profile.setMatchingPhotos(photoList.isEmpty() ? null : String.join(",", photoList));
         userProfileRepository.save(profile);
 
-        // ファイルを削除
-        String filename = photoUrl.replace("/uploads/matching/", "");
-        Path filePath = Paths.get(MATCHING_PHOTO_DIR).resolve(filename);
-        Files.deleteIfExists(filePath);
+        // 旧形式のファイルのみ削除（メディアストアのファイルは他のユーザーと共有されている可能性がある）
+        if (photoUrl.startsWith("/uploads/matching/")) {
+            String filename = photoUrl.replace("/uploads/matching/", "");
+            Path filePath = Paths.get(MATCHING_PHOTO_DIR).resolve(filename);
+            Files.deleteIfExists(filePath);
+        }
     }
 
     /**
@@ -281,7 +289,9 @@ public class UserProfileService {
         if (keyword == null || keyword.trim().isEmpty()) {
             return List.of();
         }
-        return userProfileRepository.searchByKeyword(keyword.trim());
+        List<Long> userIds = userSearchIndexService.search(keyword, null,
+                UserSearchIndexService.NAME_FIELDS, 0, MAX_FILTERED_CANDIDATES).userIds();
+        return loadProfilesInOrder(userIds);
     }
 
     /**
@@ -388,7 +398,7 @@ public class UserProfileService {
     }
 
     /**
-     * アバター画像ファイルの削除
+     * アバター画像ファイルの削除（旧形式のファイルのみ、メディアストアのファイルは共有されるため残す）
      */
     private void deleteAvatarFile(UserProfile profile) {
         String avatarUrl = profile.getAvatarUrl();
@@ -444,92 +454,78 @@ public class UserProfileService {
 
     /**
      * フィルター条件付きプロフィール検索
+     * キーワード・居住地は検索インデックスでスコア順に取得し、オンライン状態は取得後に絞り込む
      */
-    public List<UserProfile> searchProfilesWithFilters(String keyword, String location, String onlineStatus, boolean onlineOnly) {
-        List<UserProfile> allProfiles = userProfileRepository.findAll();
-        
-        return allProfiles.stream()
-            .filter(profile -> {
-                // 検索可能設定をチェック
-                if (!profile.getIsSearchable()) {
-                    return false;
-                }
-                
-                // オンラインユーザーのみフィルター
-                if (onlineOnly && profile.getOnlineStatus() != UserProfile.OnlineStatus.ONLINE) {
-                    return false;
-                }
-                
-                // オンラインステータスフィルター
-                if (onlineStatus != null && !onlineStatus.trim().isEmpty()) {
-                    try {
-                        UserProfile.OnlineStatus targetStatus = UserProfile.OnlineStatus.valueOf(onlineStatus);
-                        if (profile.getOnlineStatus() != targetStatus) {
-                            return false;
-                        }
-                    } catch (IllegalArgumentException e) {
-                        // 無効なステータス値の場合は無視
-                    }
-                }
-                
-                // キーワード検索
-                if (keyword != null && !keyword.trim().isEmpty()) {
-                    String searchTerm = keyword.toLowerCase();
-                    boolean matchesKeyword = false;
-                    
-                    // 表示名での検索
-                    if (profile.getDisplayName() != null && 
-                        profile.getDisplayName().toLowerCase().contains(searchTerm)) {
-                        matchesKeyword = true;
-                    }
-                    
-                    // ユーザー名での検索
-                    if (profile.getUser().getUsername().toLowerCase().contains(searchTerm)) {
-                        matchesKeyword = true;
-                    }
-                    
-                    // 自己紹介での検索
-                    if (profile.getBio() != null && 
-                        profile.getBio().toLowerCase().contains(searchTerm)) {
-                        matchesKeyword = true;
-                    }
-                    
-                    // 居住地での検索
-                    if (profile.getLocation() != null && 
-                        profile.getLocation().toLowerCase().contains(searchTerm)) {
-                        matchesKeyword = true;
-                    }
-                    
-                    if (!matchesKeyword) {
-                        return false;
-                    }
-                }
-                
-                // 居住地フィルター
-                if (location != null && !location.trim().isEmpty()) {
-                    if (profile.getLocation() == null || 
-                        !profile.getLocation().toLowerCase().contains(location.toLowerCase())) {
-                        return false;
-                    }
-                }
-                
-                return true;
-            })
-            .sorted((p1, p2) -> {
-                // オンラインユーザーを優先してソート
-                if (p1.getOnlineStatus() == UserProfile.OnlineStatus.ONLINE && 
-                    p2.getOnlineStatus() != UserProfile.OnlineStatus.ONLINE) {
-                    return -1;
-                } else if (p1.getOnlineStatus() != UserProfile.OnlineStatus.ONLINE && 
-                           p2.getOnlineStatus() == UserProfile.OnlineStatus.ONLINE) {
-                    return 1;
-                }
-                // 最終ログイン時間でソート（新しい順）
-                if (p1.getLastSeen() != null && p2.getLastSeen() != null) {
-                    return p2.getLastSeen().compareTo(p1.getLastSeen());
-                }
-                return 0;
-            })
-            .collect(Collectors.toList());
+    @Transactional(readOnly = true)
+    public Page<UserProfile> searchProfilesWithFilters(String keyword, String location, String onlineStatus,
+                                                       boolean onlineOnly, int page, int size) {
+        Pageable pageable = PageRequest.of(page, size);
+
+        UserProfile.OnlineStatus targetStatus = null;
+        if (onlineStatus != null && !onlineStatus.trim().isEmpty()) {
+            try {
+                targetStatus = UserProfile.OnlineStatus.valueOf(onlineStatus);
+            } catch (IllegalArgumentException e) {
+                // 無効なステータス値の場合は無視
+            }
+        }
+        if (onlineOnly) {
+            if (targetStatus != null && targetStatus != UserProfile.OnlineStatus.ONLINE) {
+                return Page.empty(pageable);
+            }
+            targetStatus = UserProfile.OnlineStatus.ONLINE;
+        }
+
+        boolean hasText = (keyword != null && !keyword.trim().isEmpty())
+                || (location != null && !location.trim().isEmpty());
+
+        if (!hasText) {
+            if (targetStatus == null) {
+                return Page.empty(pageable);
+            }
+            // オンライン状態のみ指定: 該当ユーザーのうち検索対象のものを最終ログインの新しい順に
+            List<UserProfile> profiles = userProfileRepository.findWithUserByOnlineStatus(targetStatus).stream()
+                    .filter(profile -> userSearchIndexService.isSearchable(profile.getUser().getId()))
+                    .sorted(Comparator.comparing(UserProfile::getLastSeen,
+                            Comparator.nullsLast(Comparator.reverseOrder())))
+                    .collect(Collectors.toList());
+            return toPage(profiles, pageable);
+        }
+
+        if (targetStatus == null) {
+            UserSearchIndexService.SearchResult result = userSearchIndexService.search(
+                    keyword, location, UserSearchIndexService.ALL_FIELDS, (int) pageable.getOffset(), size);
+            return new PageImpl<>(loadProfilesInOrder(result.userIds()), pageable, result.total());
+        }
+
+        // オンライン状態の指定あり: 上位の候補を取得してから絞り込み
+        UserSearchIndexService.SearchResult result = userSearchIndexService.search(
+                keyword, location, UserSearchIndexService.ALL_FIELDS, 0, MAX_FILTERED_CANDIDATES);
+        UserProfile.OnlineStatus status = targetStatus;
+        List<UserProfile> profiles = loadProfilesInOrder(result.userIds()).stream()
+                .filter(profile -> profile.getOnlineStatus() == status)
+                .collect(Collectors.toList());
+        return toPage(profiles, pageable);
+    }
+
+    /**
+     * ユーザーIDの順序を保ってプロフィールを取得（プロフィール未作成のユーザーは除外）
+     */
+    private List<UserProfile> loadProfilesInOrder(List<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, UserProfile> byUserId = userProfileRepository.findWithUserByUserIds(userIds).stream()
+                .collect(Collectors.toMap(profile -> profile.getUser().getId(), Function.identity()));
+        return userIds.stream()
+                .map(byUserId::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private Page<UserProfile> toPage(List<UserProfile> profiles, Pageable pageable) {
+        int from = (int) Math.min(pageable.getOffset(), profiles.size());
+        int to = Math.min(from + pageable.getPageSize(), profiles.size());
+        return new PageImpl<>(profiles.subList(from, to), pageable, profiles.size());
     }
 }
@@ -0,0 +1,34 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.User;
+import com.example.chatapp.entity.UserProfile;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * User・UserProfileの保存・削除を検索インデックスに反映するエンティティリスナー
+ */
+@Component
+public class UserSearchIndexListener {
+
+    @Autowired
+    @Lazy
+    private UserSearchIndexService userSearchIndexService;
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(Object entity) {
+        Long userId = null;
+        if (entity instanceof User user) {
+            userId = user.getId();
+        } else if (entity instanceof UserProfile profile && profile.getUser() != null) {
+            userId = profile.getUser().getId();
+        }
+        userSearchIndexService.refreshAfterCommit(userId);
+    }
+}
@@ -0,0 +1,432 @@
+package com.example.chatapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ユーザー検索用のn-gram転置インデックス
+ * - ユーザー名・表示名・居住地を正規化（NFKC + 小文字化）し、1〜3文字のn-gramごとにユーザーIDの昇順配列を保持
+ * - 3文字以上のキーワードはトライグラムの積集合で候補を絞り、部分一致を確認してからスコア順に並べる
+ * - 検索不可（isSearchable=false）・非公開（PRIVATE）・削除済みのユーザーはインデックスに含めない
+ * - プロフィール・ユーザーの更新はコミット後にDBから1件読み直して反映
+ */
+@Service
+public class UserSearchIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserSearchIndexService.class);
+
+    public static final int FIELD_USERNAME = 0;
+    public static final int FIELD_DISPLAY_NAME = 1;
+    public static final int FIELD_LOCATION = 2;
+
+    // 検索対象フィールドのビットマスク
+    public static final int NAME_FIELDS = (1 << FIELD_USERNAME) | (1 << FIELD_DISPLAY_NAME);
+    public static final int ALL_FIELDS = NAME_FIELDS | (1 << FIELD_LOCATION);
+
+    private static final int FIELD_COUNT = 3;
+    private static final int MAX_GRAM = 3;
+
+    // フィールドごとの重み（ユーザー名・表示名の一致を居住地より優先）
+    private static final double[] FIELD_WEIGHTS = {3.0, 3.0, 1.0};
+
+    private static final String LOAD_SQL =
+            "SELECT u.id, u.username, u.deleted_at, p.display_name, p.location, p.privacy_level, p.is_searchable " +
+            "FROM users u LEFT JOIN user_profiles p ON p.user_id = u.id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Key: フィールド番号 + n-gram, Value: ユーザーIDの昇順配列
+    private final Map<String, IntList> postings = new HashMap<>();
+
+    // Key: userId, Value: インデックス済みの正規化フィールド
+    private final Map<Integer, String[]> documents = new HashMap<>();
+
+    private volatile boolean ready;
+
+    /**
+     * 検索結果（スコア順のユーザーIDと総件数）
+     */
+    public record SearchResult(List<Long> userIds, int total) {
+    }
+
+    /**
+     * 昇順に並んだint配列（ポスティングリスト）
+     */
+    static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+        }
+
+        void remove(int value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        int[] intersect(int[] other) {
+            return UserSearchIndexService.intersect(values, size, other);
+        }
+    }
+
+    /**
+     * 昇順配列同士の積集合
+     */
+    static int[] intersect(int[] a, int aSize, int[] b) {
+        int[] result = new int[Math.min(aSize, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < aSize && j < b.length) {
+            if (a[i] == b[j]) {
+                result[count++] = a[i];
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * 全ユーザーを読み込んでインデックスを構築
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        List<IndexRow> rows = jdbcTemplate.query(LOAD_SQL, ROW_MAPPER);
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            documents.clear();
+            for (IndexRow row : rows) {
+                if (row.visible()) {
+                    addDocument(row.userId(), row.fields());
+                }
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("ユーザー検索インデックスを構築: ユーザー={}, n-gram={}, 所要時間={}ms",
+                documents.size(), postings.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * ユーザー・プロフィールの変更を反映（トランザクションのコミット後に実行）
+     */
+    public void refreshAfterCommit(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    refresh(userId);
+                }
+            });
+        } else {
+            refresh(userId);
+        }
+    }
+
+    /**
+     * 1ユーザー分をDBから読み直して反映
+     */
+    public void refresh(Long userId) {
+        if (!ready) {
+            return;
+        }
+        try {
+            List<IndexRow> rows = jdbcTemplate.query(LOAD_SQL + " WHERE u.id = ?", ROW_MAPPER, userId);
+            lock.writeLock().lock();
+            try {
+                int id = userId.intValue();
+                String[] current = documents.get(id);
+                if (rows.isEmpty() || !rows.get(0).visible()) {
+                    if (current != null) {
+                        removeDocument(id, current);
+                    }
+                    return;
+                }
+                String[] fields = rows.get(0).fields();
+                if (current != null && Arrays.equals(current, fields)) {
+                    return; // 検索対象フィールドに変更なし
+                }
+                if (current != null) {
+                    removeDocument(id, current);
+                }
+                addDocument(id, fields);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            logger.warn("ユーザー検索インデックスの更新に失敗: UserId={}", userId, e);
+        }
+    }
+
+    /**
+     * ユーザーをインデックスから除外（削除時）
+     */
+    public void remove(Long userId) {
+        lock.writeLock().lock();
+        try {
+            int id = userId.intValue();
+            String[] current = documents.get(id);
+            if (current != null) {
+                removeDocument(id, current);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 検索対象（検索可能・非公開でない・未削除）のユーザーかどうか
+     */
+    public boolean isSearchable(Long userId) {
+        lock.readLock().lock();
+        try {
+            return documents.containsKey(userId.intValue());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * キーワード（fieldMaskのフィールド）と居住地で検索し、スコア順にページ取得
+     * @param keyword 空の場合は居住地のみで検索
+     * @param location 空の場合は居住地で絞り込まない
+     */
+    public SearchResult search(String keyword, String location, int fieldMask, int offset, int limit) {
+        String query = normalize(keyword);
+        String place = normalize(location);
+        if (query.isEmpty() && place.isEmpty()) {
+            return new SearchResult(List.of(), 0);
+        }
+
+        List<int[]> scored = new ArrayList<>(); // {userId, score * 1000}
+        lock.readLock().lock();
+        try {
+            int[] placeCandidates = place.isEmpty() ? null : candidates(FIELD_LOCATION, place);
+            if (query.isEmpty()) {
+                for (int userId : placeCandidates) {
+                    scored.add(new int[]{userId, (int) (score(documents.get(userId)[FIELD_LOCATION], place,
+                            FIELD_WEIGHTS[FIELD_LOCATION]) * 1000)});
+                }
+            } else {
+                Map<Integer, Double> best = new HashMap<>();
+                for (int field = 0; field < FIELD_COUNT; field++) {
+                    if ((fieldMask & (1 << field)) == 0) {
+                        continue;
+                    }
+                    int[] ids = candidates(field, query);
+                    if (placeCandidates != null) {
+                        ids = intersect(ids, ids.length, placeCandidates);
+                    }
+                    for (int userId : ids) {
+                        double s = score(documents.get(userId)[field], query, FIELD_WEIGHTS[field]);
+                        best.merge(userId, s, Math::max);
+                    }
+                }
+                for (Map.Entry<Integer, Double> entry : best.entrySet()) {
+                    scored.add(new int[]{entry.getKey(), (int) (entry.getValue() * 1000)});
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        scored.sort(Comparator.<int[]>comparingInt(e -> -e[1]).thenComparingInt(e -> e[0]));
+        int from = Math.min(Math.max(0, offset), scored.size());
+        int to = Math.min(from + Math.max(0, limit), scored.size());
+        List<Long> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add((long) scored.get(i)[0]);
+        }
+        return new SearchResult(page, scored.size());
+    }
+
+    /**
+     * フィールドに部分文字列を含むユーザーIDの昇順配列（n-gramで絞り込んでから確認）
+     */
+    private int[] candidates(int field, String query) {
+        Set<String> grams = queryGrams(query);
+        int[] result = null;
+        // 件数の少ないポスティングリストから積集合を取る
+        List<IntList> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            IntList list = postings.get(key(field, gram));
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(IntList::size));
+        for (IntList list : lists) {
+            result = result == null ? list.toArray() : list.intersect(result);
+            if (result.length == 0) {
+                return result;
+            }
+        }
+        if (result == null || query.codePointCount(0, query.length()) <= MAX_GRAM) {
+            return result == null ? new int[0] : result;
+        }
+        // トライグラムがすべて含まれていても連続しているとは限らないため確認
+        int count = 0;
+        for (int userId : result) {
+            if (documents.get(userId)[field].contains(query)) {
+                result[count++] = userId;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * 一致の種類と長さの差でスコアを計算（完全一致 > 前方一致 > 部分一致）
+     */
+    private double score(String value, String query, double weight) {
+        double base;
+        if (value.equals(query)) {
+            base = 100;
+        } else if (value.startsWith(query)) {
+            base = 60;
+        } else {
+            base = 30;
+        }
+        double lengthPenalty = Math.min(10, (value.length() - query.length()) * 0.1);
+        return (base - lengthPenalty) * weight;
+    }
+
+    private void addDocument(int userId, String[] fields) {
+        documents.put(userId, fields);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            for (String gram : documentGrams(fields[field])) {
+                postings.computeIfAbsent(key(field, gram), k -> new IntList()).add(userId);
+            }
+        }
+    }
+
+    private void removeDocument(int userId, String[] fields) {
+        documents.remove(userId);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            for (String gram : documentGrams(fields[field])) {
+                String key = key(field, gram);
+                IntList list = postings.get(key);
+                if (list != null) {
+                    list.remove(userId);
+                    if (list.size() == 0) {
+                        postings.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 文書側のn-gram（1〜3文字の全部分文字列）
+     */
+    private Set<String> documentGrams(String value) {
+        Set<String> grams = new HashSet<>();
+        int[] codePoints = value.codePoints().toArray();
+        for (int n = 1; n <= MAX_GRAM; n++) {
+            for (int i = 0; i + n <= codePoints.length; i++) {
+                grams.add(new String(codePoints, i, n));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * 検索語側のn-gram（3文字未満はそのまま、3文字以上はトライグラム）
+     */
+    private Set<String> queryGrams(String query) {
+        int[] codePoints = query.codePoints().toArray();
+        Set<String> grams = new HashSet<>();
+        if (codePoints.length <= MAX_GRAM) {
+            grams.add(query);
+            return grams;
+        }
+        for (int i = 0; i + MAX_GRAM <= codePoints.length; i++) {
+            grams.add(new String(codePoints, i, MAX_GRAM));
+        }
+        return grams;
+    }
+
+    private static String key(int field, String gram) {
+        return (char) ('0' + field) + gram;
+    }
+
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        return Normalizer.normalize(value, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).trim();
+    }
+
+    private record IndexRow(int userId, String[] fields, boolean visible) {
+    }
+
+    private static final RowMapper<IndexRow> ROW_MAPPER = (rs, rowNum) -> {
+        boolean deleted = rs.getObject("deleted_at") != null;
+        Object searchable = rs.getObject("is_searchable");
+        boolean isSearchable = searchable == null || rs.getBoolean("is_searchable");
+        boolean isPrivate = "PRIVATE".equals(rs.getString("privacy_level"));
+        String[] fields = {
+                normalize(rs.getString("username")),
+                normalize(rs.getString("display_name")),
+                normalize(rs.getString("location"))
+        };
+        return new IndexRow(rs.getInt("id"), fields, !deleted && isSearchable && !isPrivate);
+    };
+}
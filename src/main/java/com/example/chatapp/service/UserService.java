@@ -11,6 +11,8 @@ import org.springframework.transaction.annotation.Transactional;
 import java.util.Optional;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 @Service
 @Transactional
@@ -26,6 +28,12 @@ public class UserService {
     @Autowired
     private FriendCodeService friendCodeService;
 
+    @Autowired
+    private UserSearchIndexService userSearchIndexService;
+
+    // ユーザー名・表示名検索の最大件数
+    private static final int SEARCH_LIMIT = 20;
+
     public User registerUser(String username, String password, String email) {
         // メールアドレスの重複チェック
         if (userRepository.existsByEmail(email)) {
@@ -102,9 +110,19 @@ public class UserService {
             // フレンドコードでない場合は無視
         }
         
-        // ユーザー名で部分一致検索
-        List<User> usersByUsername = userRepository.findByUsernameContainingIgnoreCase(query);
-        results.addAll(usersByUsername);
+        // ユーザー名・表示名で部分一致検索（検索インデックスでスコア順に取得）
+        List<Long> userIds = userSearchIndexService.search(query, null,
+                UserSearchIndexService.NAME_FIELDS, 0, SEARCH_LIMIT).userIds();
+        Map<Long, User> usersById = new HashMap<>();
+        for (User user : userRepository.findAllById(userIds)) {
+            usersById.put(user.getId(), user);
+        }
+        for (Long userId : userIds) {
+            User user = usersById.get(userId);
+            if (user != null) {
+                results.add(user);
+            }
+        }
         
         return results;
     }
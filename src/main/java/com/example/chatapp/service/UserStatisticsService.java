@@ -2,23 +2,183 @@ package com.example.chatapp.service;
 
 import com.example.chatapp.dto.UserStatisticsDto;
 import com.example.chatapp.entity.User;
+import com.example.chatapp.entity.UserStats;
+import com.example.chatapp.repository.UserRepository;
+import com.example.chatapp.repository.UserStatsRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 /**
  * ユーザー統計情報処理サービス
+ * - 統計は user_stats（1ユーザー1行）に集計済みで持ち、取得は主キー1件の読み取りのみ
+ * - 送信・参加・フォローは UserActivityEvent としてコミット後に受け取り、
+ *   ユーザーごとの差分にまとめて "user-stats" スレッドから定期的に加算する
+ * - 再構築ジョブは元テーブル（messages・chat_room_users・friendships）とアーカイブから数え直す
  */
 @Service
 public class UserStatisticsService {
 
+    private static final Logger logger = LoggerFactory.getLogger(UserStatisticsService.class);
+
+    // 元テーブルから1ユーザー分の統計を数える列（u = users）
+    private static final String SOURCE_COLUMNS = """
+            (SELECT COUNT(*) FROM messages m WHERE m.user_id = u.id),
+            (SELECT COUNT(*) FROM chat_room_users r WHERE r.user_id = u.id),
+            (SELECT COUNT(*) FROM friendships f WHERE f.follower_id = u.id),
+            (SELECT COUNT(*) FROM friendships f WHERE f.following_id = u.id),
+            (SELECT COUNT(*) FROM friendships f JOIN friendships b
+                ON b.follower_id = f.following_id AND b.following_id = f.follower_id
+                WHERE f.follower_id = u.id),
+            (SELECT MAX(m.sent_at) FROM messages m WHERE m.user_id = u.id)
+            """;
+
+    private static final String INSERT_COLUMNS =
+            "INSERT INTO user_stats (user_id, messages_sent, rooms_joined, following_count, follower_count, " +
+            "friend_count, last_active_at";
+
+    // 差分の加算（行がなければ差分をそのまま初期値にする）
+    private static final String ADD_DELTA_SQL = INSERT_COLUMNS + ", updated_at) " + """
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (user_id) DO UPDATE SET
+                messages_sent = user_stats.messages_sent + excluded.messages_sent,
+                rooms_joined = user_stats.rooms_joined + excluded.rooms_joined,
+                following_count = user_stats.following_count + excluded.following_count,
+                follower_count = user_stats.follower_count + excluded.follower_count,
+                friend_count = user_stats.friend_count + excluded.friend_count,
+                last_active_at = CASE
+                    WHEN user_stats.last_active_at IS NULL OR excluded.last_active_at > user_stats.last_active_at
+                    THEN excluded.last_active_at ELSE user_stats.last_active_at END,
+                updated_at = excluded.updated_at
+            """;
+
+    // 元テーブルからの再計算（SQLite は INSERT ... SELECT ... ON CONFLICT に WHERE が必須、
+    // PostgreSQL では SELECT 句のパラメータの型が決まらないため updated_at は別の UPDATE で入れる）
+    private static final String REBUILD_SQL = INSERT_COLUMNS + ") SELECT u.id, " + SOURCE_COLUMNS + """
+            FROM users u WHERE u.id > ? AND u.id <= ? AND u.deleted_at IS NULL
+            ON CONFLICT (user_id) DO UPDATE SET
+                messages_sent = excluded.messages_sent,
+                rooms_joined = excluded.rooms_joined,
+                following_count = excluded.following_count,
+                follower_count = excluded.follower_count,
+                friend_count = excluded.friend_count,
+                last_active_at = excluded.last_active_at
+            """;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private UserStatsRepository userStatsRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    // 差分をまとめて書き込む間隔
+    @Value("${app.user-stats.flush-millis:2000}")
+    private long flushMillis;
+
+    @Value("${app.user-stats.rebuild-chunk-size:500}")
+    private int rebuildChunkSize;
+
+    // user_stats が空のとき起動時に再構築する
+    @Value("${app.user-stats.rebuild-on-startup:true}")
+    private boolean rebuildOnStartup;
+
+    @Value("${app.deletion.pause-millis:20}")
+    private long pauseMillis;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "user-stats");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object bufferLock = new Object();
+    private Map<Long, Delta> pending = new HashMap<>();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile RebuildReport lastRebuild;
+
+    /**
+     * 再構築の結果
+     */
+    public record RebuildReport(LocalDateTime startedAt, LocalDateTime finishedAt, long users,
+                                long archivedMessages, String error) {
+    }
+
+    /**
+     * まだ書き込んでいない1ユーザー分の差分
+     */
+    private static final class Delta {
+        long messages;
+        int rooms;
+        int following;
+        int followers;
+        int friends;
+        LocalDateTime lastActiveAt;
+
+        void touch(LocalDateTime at) {
+            if (at != null && (lastActiveAt == null || at.isAfter(lastActiveAt))) {
+                lastActiveAt = at;
+            }
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        executor.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfEmpty() {
+        if (!rebuildOnStartup) {
+            return;
+        }
+        executor.execute(() -> {
+            Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_stats", Long.class);
+            if (rows != null && rows == 0) {
+                logger.info("user_stats が空のため再構築します");
+                rebuild();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        flushQuietly();
+    }
+
+    // ===== 取得 =====
+
     /**
      * 指定されたユーザーの統計情報を取得
      * @param userId ユーザーID
@@ -26,79 +186,28 @@ public class UserStatisticsService {
      */
     public Optional<UserStatisticsDto> getUserStatistics(Long userId) {
         try {
-            String sql = """
-                SELECT 
-                    u.id as user_id,
-                    u.username,
-                    u.created_at as join_date,
-                    u.last_seen,
-                    COUNT(DISTINCT f.id) as friend_count,
-                    COALESCE(msg_stats.total_messages, 0) as total_messages,
-                    COALESCE(room_stats.total_rooms, 0) as total_rooms
-                FROM users u
-                LEFT JOIN friendships f ON (f.user_id = u.id OR f.friend_id = u.id) 
-                    AND f.status = 'ACCEPTED'
-                LEFT JOIN (
-                    SELECT 
-                        sender_id,
-                        COUNT(*) as total_messages
-                    FROM chat_messages 
-                    WHERE sender_id = ?
-                    GROUP BY sender_id
-                ) msg_stats ON msg_stats.sender_id = u.id
-                LEFT JOIN (
-                    SELECT 
-                        user_id,
-                        COUNT(DISTINCT room_id) as total_rooms
-                    FROM chat_room_members 
-                    WHERE user_id = ?
-                    GROUP BY user_id
-                ) room_stats ON room_stats.user_id = u.id
-                WHERE u.id = ?
-                GROUP BY u.id, u.username, u.created_at, u.last_seen, 
-                         msg_stats.total_messages, room_stats.total_rooms
-                """;
-
-            return jdbcTemplate.query(sql, 
-                    (rs, rowNum) -> {
-                        UserStatisticsDto stats = new UserStatisticsDto();
-                        stats.setUserId(rs.getLong("user_id"));
-                        stats.setUsername(rs.getString("username"));
-                        stats.setFriendCount(rs.getInt("friend_count"));
-                        stats.setTotalChatMessages(rs.getInt("total_messages"));
-                        stats.setTotalChatRooms(rs.getInt("total_rooms"));
-                        
-                        // 参加日時の設定
-                        if (rs.getTimestamp("join_date") != null) {
-                            stats.setJoinDate(rs.getTimestamp("join_date").toLocalDateTime());
-                        }
-                        
-                        // 最終活動日時の設定
-                        if (rs.getTimestamp("last_seen") != null) {
-                            LocalDateTime lastSeen = rs.getTimestamp("last_seen").toLocalDateTime();
-                            stats.setLastActiveDate(lastSeen);
-                            
-                            // アクティブ日数を計算（参加日から最終活動日まで）
-                            if (stats.getJoinDate() != null) {
-                                long daysBetween = ChronoUnit.DAYS.between(
-                                    stats.getJoinDate().toLocalDate(), 
-                                    lastSeen.toLocalDate()
-                                ) + 1; // +1は初日を含む
-                                stats.setDaysActive((int) daysBetween);
-                            }
-                        } else {
-                            // last_seenがnullの場合は、参加日のみでアクティブ日数を1に設定
-                            stats.setDaysActive(1);
-                        }
-                        
-                        return stats;
-                    }, userId, userId, userId)
-                    .stream()
-                    .findFirst();
-                    
+            Optional<User> user = userRepository.findById(userId);
+            if (user.isEmpty()) {
+                return Optional.empty();
+            }
+            UserStats row = userStatsRepository.findById(userId).orElse(null);
+            UserStatisticsDto stats = row != null ? toDto(user.get(), row) : fromSource(user.get());
+            synchronized (bufferLock) {
+                Delta delta = pending.get(userId);
+                if (delta != null) {
+                    stats.setTotalChatMessages(stats.getTotalChatMessages() + (int) delta.messages);
+                    stats.setTotalChatRooms(stats.getTotalChatRooms() + delta.rooms);
+                    stats.setFriendCount(stats.getFriendCount() + delta.friends);
+                    if (delta.lastActiveAt != null && (stats.getLastActiveDate() == null
+                            || delta.lastActiveAt.isAfter(stats.getLastActiveDate()))) {
+                        stats.setLastActiveDate(delta.lastActiveAt);
+                    }
+                }
+            }
+            stats.setDaysActive(daysActive(stats.getJoinDate(), stats.getLastActiveDate()));
+            return Optional.of(stats);
         } catch (Exception e) {
-            // ログに出力してEmptyを返す
-            System.err.println("統計情報取得エラー (UserID: " + userId + "): " + e.getMessage());
+            logger.warn("統計情報取得エラー (UserID: {})", userId, e);
             return Optional.empty();
         }
     }
@@ -117,50 +226,288 @@ public class UserStatisticsService {
         stats.setTotalChatRooms(0);
         stats.setJoinDate(user.getCreatedAt());
         stats.setLastActiveDate(null);
-        
-        // アクティブ日数の計算
-        if (user.getCreatedAt() != null) {
-            LocalDateTime endDate = LocalDateTime.now();
-            long daysBetween = ChronoUnit.DAYS.between(
-                user.getCreatedAt().toLocalDate(), 
-                endDate.toLocalDate()
-            ) + 1;
-            stats.setDaysActive((int) daysBetween);
-        } else {
-            stats.setDaysActive(1);
-        }
-        
+        stats.setDaysActive(daysActive(user.getCreatedAt(), LocalDateTime.now()));
+        return stats;
+    }
+
+    private UserStatisticsDto toDto(User user, UserStats row) {
+        UserStatisticsDto stats = new UserStatisticsDto();
+        stats.setUserId(user.getId());
+        stats.setUsername(user.getUsername());
+        stats.setFriendCount(row.getFriendCount());
+        stats.setTotalChatMessages((int) row.getMessagesSent());
+        stats.setTotalChatRooms(row.getRoomsJoined());
+        stats.setJoinDate(user.getCreatedAt());
+        stats.setLastActiveDate(row.getLastActiveAt());
         return stats;
     }
 
     /**
-     * 統計情報を更新（ユーザーアクティビティ時に呼び出し）
-     * @param userId ユーザーID
+     * user_stats にまだ行がないユーザー（再構築前など）は元テーブルから数え、行の作成は再構築に任せる
      */
-    public void updateUserActivity(Long userId) {
+    private UserStatisticsDto fromSource(User user) {
+        refresh(List.of(user.getId()));
+        return jdbcTemplate.queryForObject("SELECT " + SOURCE_COLUMNS + " FROM users u WHERE u.id = ?",
+                (rs, rowNum) -> {
+                    UserStatisticsDto stats = new UserStatisticsDto();
+                    stats.setUserId(user.getId());
+                    stats.setUsername(user.getUsername());
+                    stats.setTotalChatMessages(rs.getInt(1));
+                    stats.setTotalChatRooms(rs.getInt(2));
+                    stats.setFriendCount(rs.getInt(5));
+                    Timestamp lastActive = rs.getTimestamp(6);
+                    stats.setLastActiveDate(lastActive != null ? lastActive.toLocalDateTime() : null);
+                    stats.setJoinDate(user.getCreatedAt());
+                    return stats;
+                }, user.getId());
+    }
+
+    // 参加日から最終活動日まで（初日を含む）
+    private static int daysActive(LocalDateTime joinDate, LocalDateTime lastActive) {
+        if (joinDate == null || lastActive == null) {
+            return 1;
+        }
+        return (int) ChronoUnit.DAYS.between(joinDate.toLocalDate(), lastActive.toLocalDate()) + 1;
+    }
+
+    // ===== イベントの反映 =====
+
+    /**
+     * 発行元のトランザクションがコミットされたら差分に加える（トランザクション外の発行はその場で加える）
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onActivity(UserActivityEvent event) {
+        synchronized (bufferLock) {
+            switch (event) {
+                case UserActivityEvent.MessageSent sent -> {
+                    Delta delta = delta(sent.userId());
+                    delta.messages++;
+                    delta.touch(sent.sentAt());
+                }
+                case UserActivityEvent.RoomMembershipChanged changed -> delta(changed.userId()).rooms += changed.delta();
+                case UserActivityEvent.FollowChanged changed -> {
+                    int sign = changed.followed() ? 1 : -1;
+                    delta(changed.followerId()).following += sign;
+                    delta(changed.followingId()).followers += sign;
+                    if (changed.mutual()) {
+                        delta(changed.followerId()).friends += sign;
+                        delta(changed.followingId()).friends += sign;
+                    }
+                }
+            }
+        }
+    }
+
+    private Delta delta(Long userId) {
+        return pending.computeIfAbsent(userId, id -> new Delta());
+    }
+
+    private Map<Long, Delta> drain() {
+        synchronized (bufferLock) {
+            Map<Long, Delta> drained = pending;
+            pending = new HashMap<>();
+            return drained;
+        }
+    }
+
+    private void flushQuietly() {
         try {
-            String sql = "UPDATE users SET last_seen = CURRENT_TIMESTAMP WHERE id = ?";
-            jdbcTemplate.update(sql, userId);
+            flush(drain());
         } catch (Exception e) {
-            System.err.println("ユーザーアクティビティ更新エラー (UserID: " + userId + "): " + e.getMessage());
+            logger.warn("ユーザー統計の書き込みに失敗", e);
         }
     }
 
     /**
-     * メッセージ送信時の統計更新
-     * @param userId ユーザーID
+     * 差分をまとめて加算する（失敗した分は次回に持ち越す）
+     */
+    private void flush(Map<Long, Delta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>(deltas.size());
+        deltas.forEach((userId, d) -> rows.add(new Object[]{userId, d.messages, d.rooms, d.following, d.followers,
+                d.friends, d.lastActiveAt != null ? Timestamp.valueOf(d.lastActiveAt) : null, now}));
+        try {
+            jdbcTemplate.batchUpdate(ADD_DELTA_SQL, rows);
+        } catch (RuntimeException e) {
+            synchronized (bufferLock) {
+                deltas.forEach((userId, d) -> {
+                    Delta current = delta(userId);
+                    current.messages += d.messages;
+                    current.rooms += d.rooms;
+                    current.following += d.following;
+                    current.followers += d.followers;
+                    current.friends += d.friends;
+                    current.touch(d.lastActiveAt);
+                });
+            }
+            throw e;
+        }
+    }
+
+    // ===== 再計算・削除 =====
+
+    /**
+     * 再構築ジョブを開始する（実行中ならfalse）
      */
-    public void incrementMessageCount(Long userId) {
-        // メッセージ送信時にlast_seenも更新
-        updateUserActivity(userId);
+    public boolean startRebuild() {
+        if (rebuilding.get()) {
+            return false;
+        }
+        executor.execute(this::rebuild);
+        return true;
     }
 
     /**
-     * チャットルーム参加時の統計更新
-     * @param userId ユーザーID
+     * 全ユーザー分を元テーブルとアーカイブから数え直す（"user-stats" スレッドで実行）
+     * - rebuildChunkSize 人ずつ upsert し、チャンク間で書き込みを譲る
+     * - そのユーザーの未反映の差分は数え直しに含まれるため、チャンクの直前と数え直しの直後に捨てる
+     *   （数え直しの最中に届いた差分も、コミット後に届くので数え直しに含まれている）
+     * - 実行中にアーカイブへ移動したメッセージや同時に届いた差分で少しずれた場合は再実行で解消する
      */
-    public void updateRoomParticipation(Long userId) {
-        // ルーム参加時にlast_seenも更新
-        updateUserActivity(userId);
+    private void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        LocalDateTime startedAt = LocalDateTime.now();
+        long users = 0;
+        long archivedMessages = 0;
+        String error = null;
+        try {
+            Map<Long, Long> archived = messageArchiveService.countMessagesByUser();
+            long after = Long.MIN_VALUE;
+            while (true) {
+                List<Long> ids = jdbcTemplate.queryForList(
+                        "SELECT id FROM users WHERE id > ? AND deleted_at IS NULL ORDER BY id LIMIT ?",
+                        Long.class, after, rebuildChunkSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                long from = after;
+                long to = ids.get(ids.size() - 1);
+                Map<Long, Delta> deltas = drain();
+                deltas.keySet().removeIf(id -> id > from && id <= to);
+                flush(deltas);
+
+                rebuildRange(from, to);
+                synchronized (bufferLock) {
+                    pending.keySet().removeIf(id -> id > from && id <= to);
+                }
+                List<Object[]> archivedRows = new ArrayList<>();
+                for (Long id : ids) {
+                    Long count = archived.get(id);
+                    if (count != null) {
+                        archivedRows.add(new Object[]{count, id});
+                        archivedMessages += count;
+                    }
+                }
+                if (!archivedRows.isEmpty()) {
+                    jdbcTemplate.batchUpdate(
+                            "UPDATE user_stats SET messages_sent = messages_sent + ? WHERE user_id = ?", archivedRows);
+                }
+                users += ids.size();
+                after = to;
+                Thread.sleep(pauseMillis);
+            }
+            jdbcTemplate.update("DELETE FROM user_stats WHERE user_id NOT IN (SELECT id FROM users WHERE deleted_at IS NULL)");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "中断されました";
+        } catch (Exception e) {
+            logger.error("ユーザー統計の再構築に失敗", e);
+            error = e.getMessage();
+        } finally {
+            lastRebuild = new RebuildReport(startedAt, LocalDateTime.now(), users, archivedMessages, error);
+            rebuilding.set(false);
+        }
+        logger.info("ユーザー統計を再構築: ユーザー={}, アーカイブ済みメッセージ={}, 所要時間={}ms",
+                users, archivedMessages, ChronoUnit.MILLIS.between(startedAt, lastRebuild.finishedAt()));
+    }
+
+    // from < ユーザーID <= to を元テーブルから数え直す
+    private void rebuildRange(long from, long to) {
+        jdbcTemplate.update(REBUILD_SQL, from, to);
+        jdbcTemplate.update("UPDATE user_stats SET updated_at = ? WHERE user_id > ? AND user_id <= ?",
+                Timestamp.valueOf(LocalDateTime.now()), from, to);
+    }
+
+    /**
+     * 指定ユーザーのルーム参加数・フォロー数を元テーブルから数え直す
+     * （ルーム・相手ユーザーの削除など、イベントを発行しない一括削除の後に呼ぶ）
+     */
+    public void refreshRelations(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        List<Long> ids = List.copyOf(userIds);
+        executor.execute(() -> {
+            try {
+                flush(drain());
+                String placeholders = ids.stream().map(id -> "?").collect(Collectors.joining(","));
+                List<Object> params = new ArrayList<>();
+                params.add(Timestamp.valueOf(LocalDateTime.now()));
+                params.addAll(ids);
+                jdbcTemplate.update("""
+                        UPDATE user_stats SET
+                            rooms_joined = (SELECT COUNT(*) FROM chat_room_users r WHERE r.user_id = user_stats.user_id),
+                            following_count = (SELECT COUNT(*) FROM friendships f WHERE f.follower_id = user_stats.user_id),
+                            follower_count = (SELECT COUNT(*) FROM friendships f WHERE f.following_id = user_stats.user_id),
+                            friend_count = (SELECT COUNT(*) FROM friendships f JOIN friendships b
+                                ON b.follower_id = f.following_id AND b.following_id = f.follower_id
+                                WHERE f.follower_id = user_stats.user_id),
+                            updated_at = ?
+                        WHERE user_id IN (""" + placeholders + ")", params.toArray());
+            } catch (Exception e) {
+                logger.warn("ユーザー統計の再計算に失敗: {}", ids, e);
+            }
+        });
+    }
+
+    /**
+     * user_stats に行がないユーザーを元テーブルから作成する（アーカイブ分は次回の再構築で加える）
+     */
+    private void refresh(List<Long> userIds) {
+        executor.execute(() -> {
+            for (Long id : userIds) {
+                try {
+                    rebuildRange(id - 1, id);
+                    synchronized (bufferLock) {
+                        pending.remove(id);
+                    }
+                } catch (Exception e) {
+                    logger.warn("ユーザー統計の作成に失敗 (UserID: {})", id, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 削除されたユーザーの統計を消す
+     */
+    public void removeUser(Long userId) {
+        executor.execute(() -> {
+            synchronized (bufferLock) {
+                pending.remove(userId);
+            }
+            try {
+                jdbcTemplate.update("DELETE FROM user_stats WHERE user_id = ?", userId);
+            } catch (Exception e) {
+                logger.warn("ユーザー統計の削除に失敗 (UserID: {})", userId, e);
+            }
+        });
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("rows", userStatsRepository.count());
+        synchronized (bufferLock) {
+            status.put("pendingUsers", pending.size());
+        }
+        status.put("flushMillis", flushMillis);
+        status.put("rebuilding", rebuilding.get());
+        status.put("lastRebuild", lastRebuild);
+        return status;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package com.example.chatapp.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 2人のユーザーの組（順序なし）をキーにしたIDの小さなLRUキャッシュ
+ * キーは (小さいユーザーID, 大きいユーザーID) に正規化される
+ */
+public class UserPairCache {
+
+    private final Map<String, Long> entries;
+
+    public UserPairCache(int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static Long minId(Long userId1, Long userId2) {
+        return userId1 <= userId2 ? userId1 : userId2;
+    }
+
+    public static Long maxId(Long userId1, Long userId2) {
+        return userId1 <= userId2 ? userId2 : userId1;
+    }
+
+    private static String key(Long userId1, Long userId2) {
+        return minId(userId1, userId2) + ":" + maxId(userId1, userId2);
+    }
+
+    public synchronized Long get(Long userId1, Long userId2) {
+        return entries.get(key(userId1, userId2));
+    }
+
+    public synchronized void put(Long userId1, Long userId2, Long id) {
+        entries.put(key(userId1, userId2), id);
+    }
+
+    public synchronized void evict(Long userId1, Long userId2) {
+        entries.remove(key(userId1, userId2));
+    }
+}
@@ -0,0 +1,27 @@
+-- リポジトリの頻出クエリ用の複合インデックス
+-- SQLite / PostgreSQL の両方で実行できる構文のみを使う
+
+-- MessageRepository.findByChatRoomIdOrderBySentAtAsc / findByChatRoomIdOrderBySentAtDesc
+CREATE INDEX IF NOT EXISTS idx_messages_room_sent ON messages (chat_room_id, sent_at);
+
+-- MessageRepository.findByUserOrderBySentAtDesc
+CREATE INDEX IF NOT EXISTS idx_messages_user_sent ON messages (user_id, sent_at);
+
+-- DirectMessageRepository.countUnreadMessages
+CREATE INDEX IF NOT EXISTS idx_direct_messages_conversation_receiver_read ON direct_messages (conversation_id, receiver_id, is_read);
+
+-- DirectMessageRepository の未読数合計（receiver + is_read）
+CREATE INDEX IF NOT EXISTS idx_direct_messages_receiver_read ON direct_messages (receiver_id, is_read);
+
+-- DirectMessageRepository の会話内メッセージ取得（conversation + sent_at）
+CREATE INDEX IF NOT EXISTS idx_direct_messages_conversation_sent ON direct_messages (conversation_id, sent_at);
+
+-- RandomMatchRepository.findActiveMatchForUser（user1 OR user2 のそれぞれで検索）
+CREATE INDEX IF NOT EXISTS idx_random_matches_user1_status ON random_matches (user1_id, status);
+CREATE INDEX IF NOT EXISTS idx_random_matches_user2_status ON random_matches (user2_id, status);
+
+-- DirectMessageConversationRepository.findByUserOrderByLastMessageAtDesc（user1 OR user2 のそれぞれで検索）
+CREATE INDEX IF NOT EXISTS idx_dm_conversations_user1_last ON direct_message_conversations (user1_id, last_message_at);
+CREATE INDEX IF NOT EXISTS idx_dm_conversations_user2_last ON direct_message_conversations (user2_id, last_message_at);
+
+-- FriendshipRepository.findByFollowerAndFollowing は (follower_id, following_id) の一意制約のインデックスを使う
@@ -0,0 +1,3 @@
+-- 履歴APIのIDカーソルによるページ取得（MessageRepository.findPageBefore: chat_room_id + id の降順）
+-- SQLite / PostgreSQL の両方で実行できる構文のみを使う
+CREATE INDEX IF NOT EXISTS idx_messages_room_id ON messages (chat_room_id, id);
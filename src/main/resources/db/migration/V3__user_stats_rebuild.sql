@@ -0,0 +1,3 @@
+-- ユーザー統計の再構築・再計算（UserStatisticsService: chat_room_users を user_id で数える）
+-- SQLite / PostgreSQL の両方で実行できる構文のみを使う
+CREATE INDEX IF NOT EXISTS idx_chat_room_users_user ON chat_room_users (user_id, chat_room_id);
@@ -0,0 +1,109 @@
+package com.example.chatapp.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 頻出クエリの実行計画を確認し、全件走査（SCAN）になっていないことを確かめる
+ * テーブルは Hibernate が作成するものと同じ列・制約で用意し、db/migration のスキーマ変更を適用してから EXPLAIN する
+ */
+class HotQueryIndexTest {
+
+    // リポジトリのメソッド → Hibernate が発行するものと同等のSQL
+    private static final Map<String, String> HOT_QUERIES = new LinkedHashMap<>();
+
+    static {
+        HOT_QUERIES.put("MessageRepository.findByChatRoomIdOrderBySentAtAsc",
+                "SELECT * FROM messages WHERE chat_room_id = 1 ORDER BY sent_at ASC");
+        HOT_QUERIES.put("MessageRepository.findByChatRoomIdOrderBySentAtDesc",
+                "SELECT * FROM messages WHERE chat_room_id = 1 ORDER BY sent_at DESC LIMIT 50");
+        HOT_QUERIES.put("MessageRepository.findPageBefore",
+                "SELECT * FROM messages WHERE chat_room_id = 1 AND id < 1000 ORDER BY id DESC LIMIT 50");
+        HOT_QUERIES.put("MessageRepository.findByUserOrderBySentAtDesc",
+                "SELECT * FROM messages WHERE user_id = 1 ORDER BY sent_at DESC");
+        HOT_QUERIES.put("DirectMessageRepository.countUnreadMessages",
+                "SELECT COUNT(id) FROM direct_messages WHERE conversation_id = 1 AND receiver_id = 2 AND is_read = 0");
+        HOT_QUERIES.put("DirectMessageRepository.countAllUnreadMessages",
+                "SELECT COUNT(id) FROM direct_messages WHERE receiver_id = 2 AND is_read = 0");
+        HOT_QUERIES.put("RandomMatchRepository.findActiveMatchForUser",
+                "SELECT * FROM random_matches WHERE (user1_id = 1 OR user2_id = 1) AND status = 'ACTIVE'");
+        HOT_QUERIES.put("FriendshipRepository.findByFollowerAndFollowing",
+                "SELECT * FROM friendships WHERE follower_id = 1 AND following_id = 2");
+        HOT_QUERIES.put("DirectMessageConversationRepository.findByUserOrderByLastMessageAtDesc",
+                "SELECT * FROM direct_message_conversations WHERE user1_id = 1 OR user2_id = 1 ORDER BY last_message_at DESC");
+        HOT_QUERIES.put("UserStatisticsService.rebuild (rooms_joined)",
+                "SELECT COUNT(*) FROM chat_room_users WHERE user_id = 1");
+    }
+
+    @TempDir
+    Path dir;
+
+    private SQLiteDataSource dataSource;
+
+    @BeforeEach
+    void createSchema() throws SQLException {
+        dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + dir.resolve("explain.db"));
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE messages (id INTEGER PRIMARY KEY, chat_room_id BIGINT NOT NULL, "
+                    + "user_id BIGINT NOT NULL, content TEXT NOT NULL, sent_at TIMESTAMP NOT NULL)");
+            statement.execute("CREATE TABLE direct_messages (id INTEGER PRIMARY KEY, conversation_id BIGINT NOT NULL, "
+                    + "sender_id BIGINT NOT NULL, receiver_id BIGINT NOT NULL, content TEXT NOT NULL, "
+                    + "sent_at TIMESTAMP NOT NULL, is_read BOOLEAN NOT NULL, read_at TIMESTAMP)");
+            statement.execute("CREATE TABLE random_matches (id INTEGER PRIMARY KEY, user1_id BIGINT NOT NULL, "
+                    + "user2_id BIGINT NOT NULL, chat_room_id BIGINT, status VARCHAR(255) NOT NULL, matched_at TIMESTAMP)");
+            statement.execute("CREATE TABLE friendships (id INTEGER PRIMARY KEY, follower_id BIGINT NOT NULL, "
+                    + "following_id BIGINT NOT NULL, status VARCHAR(255) NOT NULL, created_at TIMESTAMP, "
+                    + "UNIQUE (follower_id, following_id))");
+            statement.execute("CREATE INDEX idx_friendships_following ON friendships (following_id, follower_id)");
+            statement.execute("CREATE TABLE direct_message_conversations (id INTEGER PRIMARY KEY, user1_id BIGINT NOT NULL, "
+                    + "user2_id BIGINT NOT NULL, min_user_id BIGINT, max_user_id BIGINT, created_at TIMESTAMP NOT NULL, "
+                    + "last_message_at TIMESTAMP NOT NULL, last_message_content TEXT)");
+            statement.execute("CREATE TABLE chat_room_users (chat_room_id BIGINT NOT NULL, user_id BIGINT NOT NULL, "
+                    + "PRIMARY KEY (chat_room_id, user_id))");
+        }
+    }
+
+    @Test
+    void hotQueriesUseIndexes() throws Exception {
+        new SchemaMigrationRunner(dataSource).migrate();
+
+        List<String> fullScans = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> query : HOT_QUERIES.entrySet()) {
+                try (ResultSet rs = statement.executeQuery("EXPLAIN QUERY PLAN " + query.getValue())) {
+                    while (rs.next()) {
+                        String detail = rs.getString("detail");
+                        // "SEARCH ... USING INDEX" はインデックス検索、"SCAN ..." はテーブルまたはインデックスの全件走査
+                        if (detail.startsWith("SCAN ")) {
+                            fullScans.add(query.getKey() + ": " + detail);
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(fullScans.isEmpty(), "全件走査になっているクエリ: " + fullScans);
+    }
+
+    @Test
+    void migrationsAreAppliedOnce() throws Exception {
+        SchemaMigrationRunner runner = new SchemaMigrationRunner(dataSource);
+        assertTrue(runner.migrate() > 0);
+        assertEquals(0, runner.migrate());
+    }
+}
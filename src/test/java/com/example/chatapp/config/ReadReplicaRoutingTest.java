@@ -0,0 +1,99 @@
+package com.example.chatapp.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 読み取りレプリカへの振り分けを、2つの SQLite ファイルをプライマリ／レプリカ代わりにして確認する
+ */
+class ReadReplicaRoutingTest {
+
+    @TempDir
+    Path dir;
+
+    private DataSource primary;
+    private DataSource replica;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        primary = database("primary");
+        replica = database("replica");
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    void readOnlyTransactionsGoToReplicaWhileItKeepsUp() throws SQLException {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(replica, "SELECT 0.2", Duration.ofSeconds(1), Duration.ofSeconds(5));
+        DataSource routing = new ReadWriteRoutingDataSource(primary, replica, monitor::isAvailable);
+
+        // 最初の確認が終わるまではプライマリ
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertEquals("primary", whoAmI(routing));
+
+        monitor.check();
+        assertTrue(monitor.isAvailable());
+        assertEquals("replica", whoAmI(routing));
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        assertEquals("primary", whoAmI(routing));
+    }
+
+    @Test
+    void fallsBackToPrimaryWhenReplicaLags() throws SQLException {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(replica, "SELECT 5", Duration.ofSeconds(1), Duration.ofSeconds(5));
+        DataSource routing = new ReadWriteRoutingDataSource(primary, replica, monitor::isAvailable);
+
+        monitor.check();
+        assertFalse(monitor.isAvailable());
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertEquals("primary", whoAmI(routing));
+    }
+
+    @Test
+    void fallsBackToPrimaryWhenReplicaIsUnreachable() {
+        SQLiteDataSource broken = new SQLiteDataSource();
+        broken.setUrl("jdbc:sqlite:" + dir.resolve("missing").resolve("replica.db"));
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(broken, "", Duration.ofSeconds(1), Duration.ofSeconds(5));
+
+        monitor.check();
+        assertFalse(monitor.isAvailable());
+    }
+
+    private DataSource database(String name) throws SQLException {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + dir.resolve(name + ".db"));
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE node (name TEXT NOT NULL)");
+            statement.execute("INSERT INTO node (name) VALUES ('" + name + "')");
+        }
+        return dataSource;
+    }
+
+    private String whoAmI(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT name FROM node")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.chatapp.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SQLiteの読み書き混在ベンチマーク（標準設定の単一プール と WAL＋読み書き分離プール の比較）
+ * 実行: ./mvnw test -Dtest=SqliteReadWriteBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SqliteReadWriteBenchmark {
+
+    private static final int READERS = 8;
+    private static final int WRITERS = 2;
+    private static final int ROOMS = 20;
+    private static final long DURATION_SECONDS = 5;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void compareStockAndSplitPools() throws Exception {
+        String stockUrl = "jdbc:sqlite:" + dir.resolve("stock.db");
+        Result stock;
+        try (HikariDataSource pool = SqliteDataSourceConfig.createPool(stockUrl, "stock", 10, Map.of())) {
+            stock = run(pool, pool);
+        }
+
+        String tunedUrl = "jdbc:sqlite:" + dir.resolve("tuned.db");
+        Map<String, String> pragmas = SqliteDataSourceConfig.pragmas("NORMAL", 5000, 65536, 256);
+        Result tuned;
+        try (HikariDataSource writePool = SqliteDataSourceConfig.createPool(tunedUrl, "write", 1, pragmas);
+             HikariDataSource readPool = SqliteDataSourceConfig.createPool(tunedUrl, "read", 4, pragmas)) {
+            tuned = run(writePool, readPool);
+        }
+
+        System.out.printf("stock : %s%n", stock);
+        System.out.printf("tuned : %s%n", tuned);
+        assertTrue(tuned.reads() > 0 && tuned.writes() > 0);
+    }
+
+    private record Result(long reads, long writes, long errors, long readP99Micros, long writeP99Micros) {
+        @Override
+        public String toString() {
+            return String.format("reads/s=%d writes/s=%d errors=%d read p99=%dus write p99=%dus",
+                    reads / DURATION_SECONDS, writes / DURATION_SECONDS, errors, readP99Micros, writeP99Micros);
+        }
+    }
+
+    private Result run(DataSource writeDataSource, DataSource readDataSource) throws Exception {
+        try (Connection con = writeDataSource.getConnection(); Statement st = con.createStatement()) {
+            st.execute("CREATE TABLE messages (id INTEGER PRIMARY KEY AUTOINCREMENT, room_id INTEGER NOT NULL, "
+                    + "content TEXT NOT NULL, created_at INTEGER NOT NULL)");
+            st.execute("CREATE INDEX idx_messages_room ON messages (room_id, id)");
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(
+                    "INSERT INTO messages (room_id, content, created_at) VALUES (?, ?, ?)")) {
+                for (int i = 0; i < 20_000; i++) {
+                    ps.setInt(1, i % ROOMS);
+                    ps.setString(2, "seed message " + i);
+                    ps.setLong(3, System.currentTimeMillis());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            con.commit();
+            con.setAutoCommit(true);
+        }
+
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        List<List<Long>> readLatencies = new ArrayList<>();
+        List<List<Long>> writeLatencies = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(READERS + WRITERS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            List<Long> latencies = new ArrayList<>();
+            readLatencies.add(latencies);
+            futures.add(executor.submit(() -> loop(deadline, reads, errors, latencies, () -> read(readDataSource))));
+        }
+        for (int i = 0; i < WRITERS; i++) {
+            List<Long> latencies = new ArrayList<>();
+            writeLatencies.add(latencies);
+            futures.add(executor.submit(() -> loop(deadline, writes, errors, latencies, () -> write(writeDataSource))));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        return new Result(reads.get(), writes.get(), errors.get(), p99(readLatencies), p99(writeLatencies));
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run() throws SQLException;
+    }
+
+    private void loop(long deadline, AtomicLong count, AtomicLong errors, List<Long> latencies, Operation operation) {
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            try {
+                operation.run();
+                count.incrementAndGet();
+                latencies.add(System.nanoTime() - start);
+            } catch (SQLException e) {
+                errors.incrementAndGet(); // SQLITE_BUSY など
+            }
+        }
+    }
+
+    private void read(DataSource dataSource) throws SQLException {
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement ps = con.prepareStatement(
+                     "SELECT id, content, created_at FROM messages WHERE room_id = ? ORDER BY id DESC LIMIT 50")) {
+            ps.setInt(1, ThreadLocalRandom.current().nextInt(ROOMS));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rs.getString(2);
+                }
+            }
+        }
+    }
+
+    private void write(DataSource dataSource) throws SQLException {
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(
+                    "INSERT INTO messages (room_id, content, created_at) VALUES (?, ?, ?)")) {
+                ps.setInt(1, ThreadLocalRandom.current().nextInt(ROOMS));
+                ps.setString(2, "benchmark message");
+                ps.setLong(3, System.currentTimeMillis());
+                ps.executeUpdate();
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+    }
+
+    private long p99(List<List<Long>> perThread) {
+        List<Long> all = new ArrayList<>();
+        perThread.forEach(all::addAll);
+        if (all.isEmpty()) {
+            return 0;
+        }
+        all.sort(null);
+        return TimeUnit.NANOSECONDS.toMicros(all.get((int) Math.ceil(all.size() * 0.99) - 1));
+    }
+}
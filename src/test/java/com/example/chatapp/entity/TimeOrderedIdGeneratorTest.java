@@ -0,0 +1,153 @@
+package com.example.chatapp.entity;
+
+import com.example.chatapp.config.SqliteDataSourceConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 時刻順IDの採番と、メッセージINSERTのスループット比較
+ * - IDENTITY: 1件ずつINSERTして生成キーを受け取る（Hibernate が IDENTITY 採番で行う動作）
+ * - 時刻順ID: アプリ側で採番して batch_size 件ずつ executeBatch する（hibernate.jdbc.batch_size の動作）
+ * ベンチマークの実行: ./mvnw test -Dtest=TimeOrderedIdGeneratorTest -Dbenchmark=true
+ */
+class TimeOrderedIdGeneratorTest {
+
+    private static final int MESSAGES = 50_000;
+    private static final int MESSAGES_PER_TRANSACTION = 200;
+    private static final int BATCH_SIZE = 50;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void idsAreUniqueIncreasingAndSafeForJavaScript() {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(TimeOrderedIdGenerator.MAX_NODE_ID);
+        long previous = 0;
+        // 1ミリ秒の連番を使い切る件数を含めて採番する
+        for (int i = 0; i < 100_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous, "IDが単調増加していません");
+            assertTrue(id <= (1L << 53) - 1, "IDが53bitを超えています");
+            previous = id;
+        }
+        assertThrows(IllegalArgumentException.class, () -> new TimeOrderedIdGenerator(TimeOrderedIdGenerator.MAX_NODE_ID + 1));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void compareIdentityAndBatchedInserts() throws Exception {
+        long identity;
+        try (HikariDataSource pool = createPool("identity")) {
+            createTable(pool, "id INTEGER PRIMARY KEY AUTOINCREMENT");
+            identity = measure(() -> insertWithIdentity(pool));
+            assertEquals(MESSAGES, count(pool));
+        }
+
+        long batched;
+        try (HikariDataSource pool = createPool("batched")) {
+            createTable(pool, "id BIGINT PRIMARY KEY");
+            batched = measure(() -> insertBatched(pool, new TimeOrderedIdGenerator(0)));
+            assertEquals(MESSAGES, count(pool));
+        }
+
+        System.out.printf("identity : %d messages/s%n", MESSAGES * 1000L / Math.max(identity, 1));
+        System.out.printf("batched  : %d messages/s%n", MESSAGES * 1000L / Math.max(batched, 1));
+    }
+
+    private HikariDataSource createPool(String name) {
+        return SqliteDataSourceConfig.createPool("jdbc:sqlite:" + dir.resolve(name + ".db"), name, 1,
+                SqliteDataSourceConfig.pragmas("NORMAL", 5000, 65536, 256));
+    }
+
+    private void createTable(DataSource dataSource, String idColumn) throws SQLException {
+        try (Connection con = dataSource.getConnection(); Statement st = con.createStatement()) {
+            st.execute("CREATE TABLE messages (" + idColumn + ", chat_room_id BIGINT NOT NULL, "
+                    + "user_id BIGINT NOT NULL, content TEXT NOT NULL, sent_at TIMESTAMP NOT NULL)");
+            st.execute("CREATE INDEX idx_messages_room_sent ON messages (chat_room_id, sent_at)");
+        }
+    }
+
+    @FunctionalInterface
+    private interface Inserts {
+        void run() throws SQLException;
+    }
+
+    private long measure(Inserts inserts) throws SQLException {
+        long start = System.nanoTime();
+        inserts.run();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private void insertWithIdentity(DataSource dataSource) throws SQLException {
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement ps = con.prepareStatement(
+                     "INSERT INTO messages (chat_room_id, user_id, content, sent_at) VALUES (?, ?, ?, ?)",
+                     Statement.RETURN_GENERATED_KEYS)) {
+            con.setAutoCommit(false);
+            for (int i = 0; i < MESSAGES; i++) {
+                ps.setLong(1, i % 20);
+                ps.setLong(2, i % 100);
+                ps.setString(3, "benchmark message " + i);
+                ps.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    keys.next();
+                }
+                if ((i + 1) % MESSAGES_PER_TRANSACTION == 0) {
+                    con.commit();
+                }
+            }
+            con.commit();
+            con.setAutoCommit(true);
+        }
+    }
+
+    private void insertBatched(DataSource dataSource, TimeOrderedIdGenerator generator) throws SQLException {
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement ps = con.prepareStatement(
+                     "INSERT INTO messages (id, chat_room_id, user_id, content, sent_at) VALUES (?, ?, ?, ?, ?)")) {
+            con.setAutoCommit(false);
+            for (int i = 0; i < MESSAGES; i++) {
+                ps.setLong(1, generator.nextId());
+                ps.setLong(2, i % 20);
+                ps.setLong(3, i % 100);
+                ps.setString(4, "benchmark message " + i);
+                ps.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+                ps.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    ps.executeBatch();
+                }
+                if ((i + 1) % MESSAGES_PER_TRANSACTION == 0) {
+                    con.commit();
+                }
+            }
+            ps.executeBatch();
+            con.commit();
+            con.setAutoCommit(true);
+        }
+    }
+
+    private long count(DataSource dataSource) throws SQLException {
+        try (Connection con = dataSource.getConnection(); Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM messages")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
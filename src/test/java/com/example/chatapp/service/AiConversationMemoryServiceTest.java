@@ -0,0 +1,98 @@
+package com.example.chatapp.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * AiConversationMemoryService の書き込みが、書き込めない1件で止まり続けないことを SQLite で確認する
+ */
+class AiConversationMemoryServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private JdbcTemplate jdbcTemplate;
+    private AiConversationMemoryService service;
+
+    @BeforeEach
+    void setUp() {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + dir.resolve("memory.db"));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        // 内容が "bad" の行だけ書き込めないようにする
+        jdbcTemplate.execute("CREATE TABLE ai_conversation_turns (id INTEGER PRIMARY KEY, user_id BIGINT NOT NULL, "
+                + "seq BIGINT NOT NULL, role VARCHAR(16) NOT NULL, content TEXT NOT NULL CHECK (content <> 'bad'), "
+                + "pinned BOOLEAN NOT NULL, created_at BIGINT NOT NULL)");
+
+        service = new AiConversationMemoryService();
+        ReflectionTestUtils.setField(service, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(service, "maxTurns", 40);
+        ReflectionTestUtils.setField(service, "maxTokens", 6000);
+        ReflectionTestUtils.setField(service, "heapBudgetMb", 32L);
+        // 定期書き込みは走らせず、テストから書き込む
+        ReflectionTestUtils.setField(service, "flushMillis", 3_600_000L);
+        ReflectionTestUtils.setField(service, "maxWriteAttempts", 3);
+        ReflectionTestUtils.invokeMethod(service, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void dropsWriteThatKeepsFailingAndWritesTheRest() {
+        service.append(1L, List.of(entry("ok1"), entry("bad"), entry("ok2")));
+        service.append(2L, List.of(entry("ok3")));
+
+        for (int i = 0; i < 10; i++) {
+            ReflectionTestUtils.invokeMethod(service, "flushQuietly");
+        }
+
+        // 失敗したバッチで先に書き込まれた ok1 も重複しない
+        assertEquals(List.of("ok1", "ok2", "ok3"), contents());
+        assertEquals(0, queueSize());
+    }
+
+    @Test
+    void retriesTransientFailureWithoutDropping() {
+        service.append(1L, List.of(entry("ok1")));
+        jdbcTemplate.execute("ALTER TABLE ai_conversation_turns RENAME TO turns_offline");
+
+        // 上限未満の失敗では破棄しない
+        ReflectionTestUtils.invokeMethod(service, "flushQuietly");
+        ReflectionTestUtils.invokeMethod(service, "flushQuietly");
+        assertEquals(1, queueSize());
+
+        jdbcTemplate.execute("ALTER TABLE turns_offline RENAME TO ai_conversation_turns");
+        ReflectionTestUtils.invokeMethod(service, "flushQuietly");
+        assertEquals(List.of("ok1"), contents());
+        assertEquals(0, queueSize());
+    }
+
+    private static AiConversationMemoryService.Entry entry(String text) {
+        return new AiConversationMemoryService.Entry("user", text, false);
+    }
+
+    private List<String> contents() {
+        return jdbcTemplate.queryForList("SELECT content FROM ai_conversation_turns ORDER BY seq", String.class);
+    }
+
+    private int queueSize() {
+        Deque<?> queue = (Deque<?>) ReflectionTestUtils.getField(service, "queue");
+        synchronized (ReflectionTestUtils.getField(service, "queueLock")) {
+            return queue.size();
+        }
+    }
+}
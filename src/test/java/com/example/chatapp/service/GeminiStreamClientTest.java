@@ -0,0 +1,104 @@
+package com.example.chatapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * GeminiStreamClient をローカルのスタブサーバーに向けて確認する
+ */
+class GeminiStreamClientTest {
+
+    private HttpServer server;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void streamsChunksInOrder() throws Exception {
+        GeminiStreamClient client = startStub(exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (String text : List.of("こんに", "ちは", "！")) {
+                    out.write(("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}]}}]}\r\n\r\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            }
+        }, 5);
+
+        List<String> chunks = new ArrayList<>();
+        String reply = client.streamGenerate(List.of(), Map.of(), chunks::add);
+
+        assertEquals(List.of("こんに", "ちは", "！"), chunks);
+        assertEquals("こんにちは！", reply);
+    }
+
+    @Test
+    void reportsUpstreamStatus() throws Exception {
+        GeminiStreamClient client = startStub(exchange -> {
+            byte[] body = "{\"error\":{\"code\":429}}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(429, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }, 5);
+
+        GeminiStreamClient.GeminiApiException e = assertThrows(GeminiStreamClient.GeminiApiException.class,
+                () -> client.streamGenerate(List.of(), Map.of(), chunk -> {}));
+        assertEquals(429, e.getStatusCode());
+    }
+
+    @Test
+    void abortsWhenStreamStalls() throws Exception {
+        GeminiStreamClient client = startStub(exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"a\"}]}}]}\n\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            try {
+                Thread.sleep(5_000); // 続きを送らずに止まる
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            out.close();
+        }, 1);
+
+        assertThrows(HttpTimeoutException.class,
+                () -> client.streamGenerate(List.of(), Map.of(), chunk -> {}));
+    }
+
+    private GeminiStreamClient startStub(HttpHandler handler, int readTimeoutSeconds) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try (HttpExchange ex = exchange) {
+                ex.getRequestBody().readAllBytes();
+                handler.handle(ex);
+            }
+        });
+        server.start();
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta";
+        return new GeminiStreamClient(new ObjectMapper(), baseUrl, "stub-model", "test-key", 1, readTimeoutSeconds);
+    }
+}
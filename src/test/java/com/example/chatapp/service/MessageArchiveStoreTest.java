@@ -0,0 +1,133 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.service.MessageArchiveStore.ArchivedMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MessageArchiveStore の追記・読み取り・途中で落ちた場合の復旧・併合を一時ディレクトリで確認する
+ */
+class MessageArchiveStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsPagesAcrossBlocksAndSegments() throws Exception {
+        MessageArchiveStore store = open();
+        List<ArchivedMessage> messages = messages(1, 20);
+        store.append(7, messages.subList(0, 10));
+        store.append(7, messages.subList(10, 20));
+
+        assertEquals(List.of(110L, 100L, 90L, 80L, 70L), ids(store.readBefore(7, 120, 5)));
+        assertEquals(List.of(20L, 10L), ids(store.readBefore(7, 30, 5)));
+        assertEquals(200, store.maxId(7));
+        assertEquals("メッセージ5", store.findByIds(7, List.of(50L, 55L)).get(50L).content());
+        assertTrue(store.verify(7).problems().isEmpty());
+    }
+
+    @Test
+    void ignoresTornWritesOnReopen() throws Exception {
+        MessageArchiveStore store = open();
+        store.append(7, messages(1, 10));
+
+        // ブロックの途中・インデックスエントリの途中で止まった状態を再現
+        Path segment;
+        try (Stream<Path> files = Files.list(dir.resolve("room-7"))) {
+            segment = files.filter(p -> p.toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+        Path index = segment.resolveSibling(segment.getFileName().toString().replace(".seg", ".idx"));
+        Files.write(segment, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        Files.write(index, new byte[]{4, 5, 6, 7, 8}, StandardOpenOption.APPEND);
+        assertFalse(store.verify(7).problems().isEmpty());
+
+        MessageArchiveStore reopened = open();
+        assertTrue(reopened.verify(7).problems().isEmpty());
+        assertEquals(10, reopened.readBefore(7, Long.MAX_VALUE, 100).size());
+
+        reopened.append(7, messages(11, 12));
+        assertEquals(List.of(120L, 110L, 100L), ids(reopened.readBefore(7, Long.MAX_VALUE, 3)));
+    }
+
+    @Test
+    void compactRemovesDuplicatesAndFilteredMessages() throws Exception {
+        MessageArchiveStore store = open();
+        store.append(7, messages(1, 10));
+        // 書き出し後に削除できずに再実行された分（ID範囲が重なる）
+        store.append(7, messages(5, 12));
+        // ブロックは [10-40][50-80][90-100][50-80][90-120]、再実行分の2ブロックがどちらも既存の範囲と重なる
+        assertEquals(2, store.verify(7).overlappingBlocks());
+        assertEquals(Map.of(0L, 4L, 1L, 4L, 2L, 4L), store.countByUser());
+
+        MessageArchiveStore.CompactResult result = store.compact(7, m -> m.userId() != 0);
+        assertEquals(8, result.messages());
+        assertEquals(4, result.removed());
+
+        MessageArchiveStore.VerifyReport report = store.verify(7);
+        assertTrue(report.problems().isEmpty());
+        assertEquals(0, report.overlappingBlocks());
+        assertEquals(List.of(110L, 100L, 80L, 70L, 50L, 40L, 20L, 10L),
+                ids(open().readBefore(7, Long.MAX_VALUE, 100)));
+
+        store.compact(7, m -> false);
+        assertFalse(Files.exists(dir.resolve("room-7")));
+    }
+
+    @Test
+    void readsRetryWithNewSnapshotWhenCompactReplacesSegments() throws Exception {
+        MessageArchiveStore store = open();
+        store.append(7, messages(1, 10));
+        store.append(7, messages(5, 12));
+
+        // 最新のブロックを読んだところで併合が走り、古い世代のファイルが消える
+        AtomicBoolean compacted = new AtomicBoolean();
+        boolean found = store.anyMatch(7, message -> {
+            if (compacted.compareAndSet(false, true)) {
+                try {
+                    store.compact(7, m -> true);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return message.id() == 10L;
+        });
+
+        assertTrue(compacted.get());
+        assertTrue(found);
+        assertEquals(Map.of(0L, 4L, 1L, 4L, 2L, 4L), store.countByUser());
+    }
+
+    private MessageArchiveStore open() throws Exception {
+        MessageArchiveStore store = new MessageArchiveStore(dir, 4, 200);
+        store.open();
+        return store;
+    }
+
+    // ID = 番号 * 10、送信者 = 番号 % 3
+    private static List<ArchivedMessage> messages(int from, int to) {
+        List<ArchivedMessage> messages = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            messages.add(new ArchivedMessage(i * 10L, i % 3, 1_700_000_000_000L + i * 1000L, "メッセージ" + i));
+        }
+        return messages;
+    }
+
+    private static List<Long> ids(List<ArchivedMessage> messages) {
+        return messages.stream().map(ArchivedMessage::id).toList();
+    }
+}
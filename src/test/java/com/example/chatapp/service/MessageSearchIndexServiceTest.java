@@ -0,0 +1,250 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.ChatRoom;
+import com.example.chatapp.entity.Message;
+import com.example.chatapp.entity.User;
+import com.example.chatapp.repository.DirectMessageRepository;
+import com.example.chatapp.repository.MessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * MessageSearchIndexService のセグメントの書き出し・併合と、起動時の取り込みを SQLite と一時ディレクトリで確認する
+ */
+class MessageSearchIndexServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private JdbcTemplate jdbcTemplate;
+    private MessageRepository messageRepository;
+    private MessageSearchIndexService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + dir.resolve("search.db"));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE messages (id INTEGER PRIMARY KEY, chat_room_id BIGINT, content TEXT)");
+        jdbcTemplate.execute("CREATE TABLE direct_messages (id INTEGER PRIMARY KEY, conversation_id BIGINT, content TEXT)");
+
+        // 検索結果の確認は messages テーブルの本文で行う
+        messageRepository = mock(MessageRepository.class);
+        when(messageRepository.findWithUserByIdIn(any())).thenAnswer(invocation -> load(invocation.getArgument(0)));
+        service = start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void mergesSegmentsAndDropsDeletedRooms() throws Exception {
+        // 1件ずつ書き出して3セグメントにする（3つ目の書き出しで併合される）
+        insert(1, 1L, "東京タワーに行った");
+        insert(2, 2L, "東京駅で待ち合わせ");
+        insert(3, 1L, "東京タワーの夜景");
+        indexOneByOne(1, 2);
+        service.dropRoom(2L);
+        indexOneByOne(3);
+
+        assertEquals(1, segmentCount());
+        assertEquals(List.of("seg_00000004.idx"), indexFiles());
+        assertEquals(List.of(3L, 1L), hitIds(1L, "東京タワー"));
+        // 削除済みルームのポスティングは併合で取り除かれ、記録も消える
+        assertArrayEquals(new long[0], postings("r:2|東京"));
+        Set<?> dropped = (Set<?>) ReflectionTestUtils.getField(service, "droppedScopes");
+        assertTrue(dropped.isEmpty());
+        assertEquals("seg_00000004.idx", manifest().getProperty("segments"));
+    }
+
+    @Test
+    void reusedRoomIdIsSearchableAfterDrop() throws Exception {
+        insert(1, 2L, "東京駅で待ち合わせ");
+        indexOneByOne(1);
+        // ルームを削除した後、同じIDで新しいルームが作られる
+        jdbcTemplate.update("DELETE FROM messages WHERE id = 1");
+        service.dropRoom(2L);
+        insert(2, 2L, "東京駅の新しいルーム");
+        indexOneByOne(2);
+
+        assertEquals(List.of(2L), hitIds(2L, "東京駅"));
+        Set<?> dropped = (Set<?>) ReflectionTestUtils.getField(service, "droppedScopes");
+        assertTrue(dropped.isEmpty());
+        awaitMaintenance();
+        assertEquals("", manifest().getProperty("droppedScopes"));
+    }
+
+    @Test
+    void catchUpDoesNotDuplicateMessagesIndexedLive() throws Exception {
+        for (int id = 1; id <= 4; id++) {
+            insert(id, 1L, "会議の議事録 " + id);
+        }
+        // 起動時の取り込みより先に、コミット済みの新着メッセージが登録される
+        index(3);
+        index(4);
+        service.catchUp();
+        awaitMaintenance();
+
+        assertArrayEquals(new long[]{1, 2, 3, 4}, postings("r:1|議事"));
+        assertEquals(List.of(4L, 3L, 2L, 1L), hitIds(1L, "議事録"));
+
+        // 書き出し済みの分を再び登録しても重複しない
+        index(2);
+        assertArrayEquals(new long[]{1, 2, 3, 4}, postings("r:1|議事"));
+        assertEquals(List.of(4L, 3L, 2L, 1L), hitIds(1L, "議事録"));
+    }
+
+    @Test
+    void resumesFromWatermarkAfterRestart() throws Exception {
+        insert(1, 1L, "hello world");
+        insert(2, 1L, "hello again");
+        service.catchUp();
+        awaitMaintenance();
+        service.shutdown();
+        assertEquals("2", manifest().getProperty("messageWatermark"));
+
+        // 停止中に届いたメッセージ。書き出し済みの本文を変えても取り込み直さない
+        insert(3, 1L, "hello from the past");
+        jdbcTemplate.update("UPDATE messages SET content = 'zebra' WHERE id = 1");
+        // 書き出し途中で止まったファイルは起動時に消える
+        Files.writeString(dir.resolve("index").resolve("seg_00000099.idx.tmp"), "partial");
+
+        service = start();
+        service.catchUp();
+        awaitMaintenance();
+
+        assertArrayEquals(new long[]{1, 2, 3}, postings("r:1|he"));
+        assertArrayEquals(new long[0], postings("r:1|ze"));
+        assertEquals(List.of(3L, 2L), hitIds(1L, "hello"));
+        assertEquals("3", manifest().getProperty("messageWatermark"));
+        assertFalse(Files.exists(dir.resolve("index").resolve("seg_00000099.idx.tmp")));
+    }
+
+    @Test
+    void rebuildsFromScratchWhenSegmentIsCorrupt() throws Exception {
+        insert(1, 1L, "hello world");
+        insert(2, 1L, "hello again");
+        service.catchUp();
+        awaitMaintenance();
+        service.shutdown();
+
+        String segment = manifest().getProperty("segments");
+        Files.writeString(dir.resolve("index").resolve(segment), "broken");
+
+        service = start();
+        assertEquals(0, segmentCount());
+        service.catchUp();
+        awaitMaintenance();
+
+        assertEquals(List.of(2L, 1L), hitIds(1L, "hello"));
+        assertEquals("2", manifest().getProperty("messageWatermark"));
+    }
+
+    private MessageSearchIndexService start() throws Exception {
+        MessageSearchIndexService index = new MessageSearchIndexService();
+        ReflectionTestUtils.setField(index, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(index, "messageRepository", messageRepository);
+        ReflectionTestUtils.setField(index, "directMessageRepository", mock(DirectMessageRepository.class));
+        ReflectionTestUtils.setField(index, "messageArchiveService", mock(MessageArchiveService.class));
+        ReflectionTestUtils.setField(index, "indexDir", dir.resolve("index").toString());
+        // 定期書き出しは走らせず、テストから書き出す
+        ReflectionTestUtils.setField(index, "flushSize", 10_000);
+        ReflectionTestUtils.setField(index, "flushSeconds", 3600);
+        ReflectionTestUtils.setField(index, "mergeFactor", 3);
+        ReflectionTestUtils.invokeMethod(index, "init");
+        return index;
+    }
+
+    private void insert(long id, Long roomId, String content) {
+        jdbcTemplate.update("INSERT INTO messages (id, chat_room_id, content) VALUES (?, ?, ?)", id, roomId, content);
+    }
+
+    private void index(long id) {
+        load(List.of(id)).forEach(service::indexRoomMessage);
+    }
+
+    private void indexOneByOne(long... ids) throws Exception {
+        for (long id : ids) {
+            index(id);
+            maintenance().submit(() -> ReflectionTestUtils.invokeMethod(service, "flushQuietly")).get();
+        }
+    }
+
+    private List<Message> load(Collection<Long> ids) {
+        String placeholders = ids.stream().map(id -> "?").collect(Collectors.joining(","));
+        return jdbcTemplate.query("SELECT id, chat_room_id, content FROM messages WHERE id IN (" + placeholders + ")",
+                (rs, rowNum) -> {
+                    ChatRoom room = new ChatRoom();
+                    room.setId(rs.getLong("chat_room_id"));
+                    User user = new User();
+                    user.setUsername("alice");
+                    Message message = new Message(room, user, rs.getString("content"));
+                    message.setId(rs.getLong("id"));
+                    return message;
+                }, ids.toArray());
+    }
+
+    private List<Long> hitIds(Long roomId, String query) {
+        return service.searchRoom(roomId, query, null, 10).hits().stream()
+                .map(MessageSearchIndexService.SearchHit::messageId)
+                .toList();
+    }
+
+    private long[] postings(String key) {
+        return ReflectionTestUtils.invokeMethod(service, "postings", key);
+    }
+
+    private int segmentCount() {
+        return ((List<?>) ReflectionTestUtils.getField(service, "segments")).size();
+    }
+
+    private List<String> indexFiles() throws Exception {
+        try (var files = Files.list(dir.resolve("index"))) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".idx"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Properties manifest() throws Exception {
+        Properties props = new Properties();
+        try (var in = Files.newInputStream(dir.resolve("index").resolve("segments.manifest"))) {
+            props.load(in);
+        }
+        return props;
+    }
+
+    // 書き出し・併合・取り込みの完了を待つ
+    private void awaitMaintenance() throws Exception {
+        maintenance().submit(() -> {}).get();
+    }
+
+    private ScheduledExecutorService maintenance() {
+        return (ScheduledExecutorService) ReflectionTestUtils.getField(service, "maintenance");
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.config.FakeAiUpstreamServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * UpstreamGuard のサーキットブレーカー・バルクヘッドを疑似AIサーバーに向けて確認する
+ */
+class UpstreamGuardTest {
+
+    private FakeAiUpstreamServer server;
+    private UpstreamGuard guard;
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+        if (guard != null) {
+            guard.shutdown();
+        }
+    }
+
+    @Test
+    void opensAfterInjectedErrorsAndRecovers() throws Exception {
+        GeminiStreamClient client = startServer();
+        guard = new UpstreamGuard("gemini", settings(4, 4, Duration.ofSeconds(5), Duration.ofMillis(300)),
+                UpstreamResilienceService::isUpstreamFailure);
+
+        server.setErrorRate(1.0);
+        for (int i = 0; i < 4; i++) {
+            GeminiStreamClient.GeminiApiException e = assertThrows(GeminiStreamClient.GeminiApiException.class,
+                    () -> guard.execute(() -> client.streamGenerate(List.of(), Map.of(), chunk -> {})));
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(UpstreamGuard.State.OPEN, guard.getState());
+        assertFalse(guard.isCallPermitted());
+
+        // 遮断中は上流を呼ばずに即座に失敗する
+        server.setErrorRate(0);
+        assertThrows(UpstreamGuard.UpstreamUnavailableException.class,
+                () -> guard.execute(() -> client.streamGenerate(List.of(), Map.of(), chunk -> {})));
+
+        // 遮断時間が過ぎたら1件試し、成功すれば元に戻る
+        Thread.sleep(400);
+        List<String> chunks = new ArrayList<>();
+        String reply = guard.execute(() -> client.streamGenerate(
+                List.of(Map.of("role", "user", "parts", List.of(Map.of("text", "hello")))), Map.of(), chunks::add));
+        assertEquals(String.join("", chunks), reply);
+        assertTrue(reply.endsWith("hello"));
+        assertEquals(UpstreamGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void timesOutSlowUpstream() throws Exception {
+        GeminiStreamClient client = startServer();
+        guard = new UpstreamGuard("gemini", settings(4, 4, Duration.ofMillis(200), Duration.ofSeconds(30)),
+                UpstreamResilienceService::isUpstreamFailure);
+
+        server.setLatencyMillis(2000);
+        assertThrows(java.net.http.HttpTimeoutException.class,
+                () -> guard.execute(() -> client.streamGenerate(List.of(), Map.of(), chunk -> {})));
+    }
+
+    @Test
+    void rejectsWhenBulkheadIsFull() throws Exception {
+        guard = new UpstreamGuard("leonardo", settings(1, 1, Duration.ofSeconds(5), Duration.ofSeconds(30)),
+                e -> true);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            // 実行中1件・待ち1件で満杯にする
+            List<Future<String>> running = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                running.add(callers.submit(() -> guard.execute(() -> {
+                    release.await();
+                    return "ok";
+                })));
+            }
+            while (guard.getStats().get("queued").equals(0)) {
+                Thread.sleep(10);
+            }
+
+            assertThrows(UpstreamGuard.UpstreamUnavailableException.class, () -> guard.execute(() -> "late"));
+
+            release.countDown();
+            for (Future<String> future : running) {
+                assertEquals("ok", future.get());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void nonFailureInHalfOpenKeepsBreakerHalfOpen() throws Exception {
+        guard = new UpstreamGuard("gemini", settings(4, 4, Duration.ofSeconds(5), Duration.ofMillis(100)),
+                e -> !(e instanceof IllegalArgumentException));
+        for (int i = 0; i < 4; i++) {
+            assertThrows(java.io.IOException.class, () -> guard.execute(() -> {
+                throw new java.io.IOException("down");
+            }));
+        }
+        assertEquals(UpstreamGuard.State.OPEN, guard.getState());
+
+        // 試行が入力エラーで終わっても回復したとはみなさない
+        Thread.sleep(200);
+        assertThrows(IllegalArgumentException.class, () -> guard.execute(() -> {
+            throw new IllegalArgumentException("bad request");
+        }));
+        assertEquals(UpstreamGuard.State.HALF_OPEN, guard.getState());
+
+        // 試行枠は返されているので、次の試行で成功すれば元に戻る
+        assertEquals("ok", guard.executeOnCaller(() -> "ok"));
+        assertEquals(UpstreamGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void streamsOnCallerThreadBeyondCallTimeout() throws Exception {
+        guard = new UpstreamGuard("gemini", settings(1, 1, Duration.ofMillis(100), Duration.ofSeconds(30)),
+                e -> true);
+        Thread caller = Thread.currentThread();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            // 呼び出し全体の待ち時間の上限を超えても打ち切らない
+            assertEquals("streamed", guard.executeOnCaller(() -> {
+                assertEquals(caller, Thread.currentThread());
+                Thread.sleep(300);
+                return "streamed";
+            }));
+
+            // 同時実行数の上限に達していれば即座に失敗する
+            Future<String> running = callers.submit(() -> guard.executeOnCaller(() -> {
+                started.countDown();
+                release.await();
+                return "ok";
+            }));
+            started.await();
+            assertThrows(UpstreamGuard.UpstreamUnavailableException.class, () -> guard.executeOnCaller(() -> "late"));
+
+            release.countDown();
+            assertEquals("ok", running.get());
+            assertEquals("again", guard.executeOnCaller(() -> "again"));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private GeminiStreamClient startServer() throws Exception {
+        server = new FakeAiUpstreamServer();
+        server.setPort(0);
+        server.setStreamChunkDelayMillis(0);
+        server.start();
+        return new GeminiStreamClient(new ObjectMapper(), server.geminiBaseUrl(), "test-model", "test-key", 5, 5);
+    }
+
+    private UpstreamGuard.Settings settings(int maxConcurrent, int queueCapacity, Duration callTimeout, Duration openDuration) {
+        return new UpstreamGuard.Settings(maxConcurrent, queueCapacity, callTimeout, 10, 4, 50, openDuration);
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.dto.UserStatisticsDto;
+import com.example.chatapp.entity.User;
+import com.example.chatapp.entity.UserStats;
+import com.example.chatapp.repository.UserRepository;
+import com.example.chatapp.repository.UserStatsRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * UserStatisticsService の差分の集計・書き込みと再構築を SQLite で確認する
+ */
+class UserStatisticsServiceTest {
+
+    private static final LocalDateTime T1 = LocalDateTime.of(2025, 1, 10, 9, 0);
+    private static final LocalDateTime T2 = LocalDateTime.of(2025, 1, 12, 18, 30);
+
+    @TempDir
+    Path dir;
+
+    private JdbcTemplate jdbcTemplate;
+    private MessageArchiveService messageArchiveService;
+    private UserRepository userRepository;
+    private UserStatisticsService service;
+    // 再構築の数え直しの直前に呼ぶ（数え直しと同時に届くイベントの再現用）
+    private Runnable beforeRebuildRange = () -> {};
+
+    @BeforeEach
+    void setUp() {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + dir.resolve("stats.db"));
+        jdbcTemplate = new JdbcTemplate(dataSource) {
+            @Override
+            public int update(String sql, Object... args) {
+                if (sql.contains(") SELECT u.id")) {
+                    beforeRebuildRange.run();
+                }
+                return super.update(sql, args);
+            }
+        };
+        jdbcTemplate.execute("CREATE TABLE users (id INTEGER PRIMARY KEY, username VARCHAR(50), "
+                + "created_at TIMESTAMP, deleted_at TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE messages (id INTEGER PRIMARY KEY, user_id BIGINT NOT NULL, sent_at TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE chat_room_users (room_id BIGINT NOT NULL, user_id BIGINT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE friendships (follower_id BIGINT NOT NULL, following_id BIGINT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE user_stats (user_id INTEGER PRIMARY KEY, messages_sent BIGINT NOT NULL, "
+                + "rooms_joined INT NOT NULL, following_count INT NOT NULL, follower_count INT NOT NULL, "
+                + "friend_count INT NOT NULL, last_active_at TIMESTAMP, updated_at TIMESTAMP)");
+
+        messageArchiveService = mock(MessageArchiveService.class);
+        userRepository = mock(UserRepository.class);
+        UserStatsRepository userStatsRepository = mock(UserStatsRepository.class);
+        when(userStatsRepository.findById(any())).thenAnswer(invocation -> row(invocation.getArgument(0)));
+
+        service = new UserStatisticsService();
+        ReflectionTestUtils.setField(service, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(service, "userStatsRepository", userStatsRepository);
+        ReflectionTestUtils.setField(service, "userRepository", userRepository);
+        ReflectionTestUtils.setField(service, "messageArchiveService", messageArchiveService);
+        ReflectionTestUtils.setField(service, "rebuildChunkSize", 2);
+        ReflectionTestUtils.setField(service, "pauseMillis", 0L);
+        // 定期書き込みは走らせず、テストから書き込む
+        ReflectionTestUtils.setField(service, "flushMillis", 3_600_000L);
+        ReflectionTestUtils.invokeMethod(service, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void foldsActivityIntoPerUserDeltas() {
+        service.onActivity(new UserActivityEvent.MessageSent(1L, T2));
+        service.onActivity(new UserActivityEvent.MessageSent(1L, T1));
+        service.onActivity(new UserActivityEvent.RoomMembershipChanged(1L, 1));
+        service.onActivity(new UserActivityEvent.RoomMembershipChanged(1L, -1));
+        service.onActivity(new UserActivityEvent.RoomMembershipChanged(2L, 1));
+        // 1 → 2、2 → 1（相互になる）、3 → 1 はフォロー後に解除
+        service.onActivity(new UserActivityEvent.FollowChanged(1L, 2L, true, false));
+        service.onActivity(new UserActivityEvent.FollowChanged(2L, 1L, true, true));
+        service.onActivity(new UserActivityEvent.FollowChanged(3L, 1L, true, false));
+        service.onActivity(new UserActivityEvent.FollowChanged(3L, 1L, false, false));
+        flush();
+
+        // messages, rooms, following, followers, friends
+        assertEquals(List.of(2L, 0L, 1L, 1L, 1L), counts(1L));
+        assertEquals(List.of(0L, 1L, 1L, 1L, 1L), counts(2L));
+        assertEquals(List.of(0L, 0L, 0L, 0L, 0L), counts(3L));
+        assertEquals(T2, row(1L).orElseThrow().getLastActiveAt());
+        assertNull(row(2L).orElseThrow().getLastActiveAt());
+
+        // 相互フォローの解除は両方の友達数を減らし、既存の行に加算される
+        service.onActivity(new UserActivityEvent.FollowChanged(2L, 1L, false, true));
+        service.onActivity(new UserActivityEvent.MessageSent(2L, T1));
+        flush();
+        assertEquals(List.of(2L, 0L, 1L, 0L, 0L), counts(1L));
+        assertEquals(List.of(1L, 1L, 0L, 1L, 0L), counts(2L));
+        assertEquals(T2, row(1L).orElseThrow().getLastActiveAt());
+    }
+
+    @Test
+    void remergesDeltasWhenFlushFails() {
+        service.onActivity(new UserActivityEvent.MessageSent(1L, T1));
+        service.onActivity(new UserActivityEvent.RoomMembershipChanged(1L, 1));
+        jdbcTemplate.execute("ALTER TABLE user_stats RENAME TO user_stats_offline");
+        flush();
+
+        // 失敗した分は持ち越され、その後に届いた差分とまとめて書き込まれる
+        service.onActivity(new UserActivityEvent.MessageSent(1L, T2));
+        assertEquals(1, service.getStatus().get("pendingUsers"));
+        jdbcTemplate.execute("ALTER TABLE user_stats_offline RENAME TO user_stats");
+        flush();
+
+        assertEquals(List.of(2L, 1L, 0L, 0L, 0L), counts(1L));
+        assertEquals(T2, row(1L).orElseThrow().getLastActiveAt());
+        assertEquals(0, service.getStatus().get("pendingUsers"));
+    }
+
+    @Test
+    void rebuildsInChunksAndAddsArchivedMessages() {
+        for (long id = 1; id <= 5; id++) {
+            jdbcTemplate.update("INSERT INTO users (id, username, created_at, deleted_at) VALUES (?, ?, ?, ?)",
+                    id, "user" + id, Timestamp.valueOf(T1), id == 4 ? Timestamp.valueOf(T2) : null);
+        }
+        message(1L, T1);
+        message(1L, T2);
+        message(3L, T1);
+        jdbcTemplate.update("INSERT INTO chat_room_users (room_id, user_id) VALUES (10, 1), (10, 2), (11, 1), (12, 5)");
+        jdbcTemplate.update("INSERT INTO friendships (follower_id, following_id) VALUES (1, 2), (2, 1), (3, 1)");
+        // ずれた行・削除済みユーザーの行
+        jdbcTemplate.update("INSERT INTO user_stats VALUES (1, 99, 99, 99, 99, 99, NULL, NULL)");
+        jdbcTemplate.update("INSERT INTO user_stats VALUES (4, 5, 0, 0, 0, 0, NULL, NULL)");
+        when(messageArchiveService.countMessagesByUser()).thenReturn(Map.of(2L, 10L, 4L, 7L));
+
+        // 再構築前の差分は数え直しに含まれるので捨てる。チャンク外（5）の差分は先に書き込まれる
+        service.onActivity(new UserActivityEvent.MessageSent(1L, T2));
+        service.onActivity(new UserActivityEvent.RoomMembershipChanged(5L, 1));
+        // 最初のチャンク（1, 2）の数え直しの直前に、コミット済みの送信が届く
+        beforeRebuildRange = () -> {
+            beforeRebuildRange = () -> {};
+            message(2L, T2);
+            service.onActivity(new UserActivityEvent.MessageSent(2L, T2));
+        };
+        ReflectionTestUtils.invokeMethod(service, "rebuild");
+
+        assertEquals(List.of(2L, 2L, 1L, 2L, 1L), counts(1L));
+        assertEquals(List.of(11L, 1L, 1L, 1L, 1L), counts(2L));
+        assertEquals(List.of(1L, 0L, 1L, 0L, 0L), counts(3L));
+        assertEquals(List.of(0L, 1L, 0L, 0L, 0L), counts(5L));
+        assertEquals(T2, row(1L).orElseThrow().getLastActiveAt());
+        assertTrue(row(4L).isEmpty());
+        assertEquals(0, service.getStatus().get("pendingUsers"));
+
+        UserStatisticsService.RebuildReport report =
+                (UserStatisticsService.RebuildReport) service.getStatus().get("lastRebuild");
+        assertNull(report.error());
+        assertEquals(4, report.users());
+        assertEquals(10, report.archivedMessages());
+    }
+
+    @Test
+    void addsPendingDeltasToStoredRow() {
+        User user = new User("alice", "password", "alice@example.com");
+        user.setId(1L);
+        user.setCreatedAt(T1.minusDays(4));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        jdbcTemplate.update("INSERT INTO user_stats VALUES (1, 5, 2, 3, 3, 1, ?, NULL)", Timestamp.valueOf(T1));
+
+        service.onActivity(new UserActivityEvent.MessageSent(1L, T2));
+        service.onActivity(new UserActivityEvent.RoomMembershipChanged(1L, 1));
+        service.onActivity(new UserActivityEvent.FollowChanged(2L, 1L, true, true));
+
+        UserStatisticsDto stats = service.getUserStatistics(1L).orElseThrow();
+        assertEquals(6, stats.getTotalChatMessages());
+        assertEquals(3, stats.getTotalChatRooms());
+        assertEquals(2, stats.getFriendCount());
+        assertEquals(T2, stats.getLastActiveDate());
+        assertEquals(7, stats.getDaysActive());
+        // 差分はまだ書き込まれていない
+        assertEquals(List.of(5L, 2L, 3L, 3L, 1L), counts(1L));
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(service, "flushQuietly");
+    }
+
+    private void message(Long userId, LocalDateTime sentAt) {
+        jdbcTemplate.update("INSERT INTO messages (user_id, sent_at) VALUES (?, ?)", userId, Timestamp.valueOf(sentAt));
+    }
+
+    private List<Long> counts(Long userId) {
+        return jdbcTemplate.queryForObject("SELECT messages_sent, rooms_joined, following_count, follower_count, "
+                        + "friend_count FROM user_stats WHERE user_id = ?",
+                (rs, rowNum) -> List.of(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)),
+                userId);
+    }
+
+    private Optional<UserStats> row(Long userId) {
+        return jdbcTemplate.query("SELECT * FROM user_stats WHERE user_id = ?", (rs, rowNum) -> {
+            UserStats stats = new UserStats();
+            ReflectionTestUtils.setField(stats, "userId", rs.getLong("user_id"));
+            ReflectionTestUtils.setField(stats, "messagesSent", rs.getLong("messages_sent"));
+            ReflectionTestUtils.setField(stats, "roomsJoined", rs.getInt("rooms_joined"));
+            ReflectionTestUtils.setField(stats, "followingCount", rs.getInt("following_count"));
+            ReflectionTestUtils.setField(stats, "followerCount", rs.getInt("follower_count"));
+            ReflectionTestUtils.setField(stats, "friendCount", rs.getInt("friend_count"));
+            Timestamp lastActive = rs.getTimestamp("last_active_at");
+            ReflectionTestUtils.setField(stats, "lastActiveAt", lastActive != null ? lastActive.toLocalDateTime() : null);
+            return stats;
+        }, userId).stream().findFirst();
+    }
+}